@@ -0,0 +1,47 @@
+package org.elasticsearch.index.mapper.image;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Reproducible synthetic images for benchmarks, gradients and shapes so encoders and features do real work
+ */
+public final class BenchmarkImages {
+
+    private BenchmarkImages() {
+    }
+
+    public static BufferedImage image(Random random, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setPaint(new GradientPaint(0, 0, randomColor(random), width, height, randomColor(random)));
+            g.fillRect(0, 0, width, height);
+            for (int i = 0; i < 32; i++) {
+                g.setColor(randomColor(random));
+                g.fillOval(random.nextInt(width), random.nextInt(height), 1 + random.nextInt(width / 4 + 1), 1 + random.nextInt(height / 4 + 1));
+            }
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    public static byte[] encode(BufferedImage image, String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, format, out)) {
+            throw new IllegalArgumentException("No image writer for [" + format + "]");
+        }
+        return out.toByteArray();
+    }
+
+    private static Color randomColor(Random random) {
+        return new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256));
+    }
+}
@@ -0,0 +1,58 @@
+package org.elasticsearch.index.mapper.image;
+
+import net.semanticmetadata.lire.builders.DocumentBuilder;
+import net.semanticmetadata.lire.builders.GlobalDocumentBuilder.HashingMode;
+import org.apache.lucene.document.Field;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per feature cost of indexing one image, the work {@link ImageMapper} does for each feature of the mapping:
+ * extraction, serialization and hashing of an image already decoded to LIRE working size
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FeatureExtractionBenchmark {
+
+    @Param
+    public GlobalFeatureEnum feature;
+
+    @Param({"None", "BitSampling"})
+    public String hash;
+
+    private FeatureExtractor extractor;
+
+    private BufferedImage image;
+
+    @Setup
+    public void setup() throws IOException {
+        HashingMode hashingMode = ImageHashing.parseHashingMode(hash);
+        ImageHashing.loadHashFunctions(hashingMode);
+        extractor = new FeatureExtractor(feature, hashingMode, false, null);
+        byte[] content = BenchmarkImages.encode(BenchmarkImages.image(new Random(42), 1024, 768), "jpg");
+        image = ImageDecoder.decode(content, DocumentBuilder.MAX_IMAGE_DIMENSION);
+    }
+
+    @Benchmark
+    public Field[] extract() {
+        return extractor.createFields(image);
+    }
+}
@@ -0,0 +1,49 @@
+package org.elasticsearch.index.mapper.image;
+
+import net.semanticmetadata.lire.builders.DocumentBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decode cost of {@link ImageDecoder} by format and size of the source image
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ImageDecodeBenchmark {
+
+    @Param({"jpg", "png", "bmp", "tiff"})
+    public String format;
+
+    @Param({"512", "1024", "4096"})
+    public int size;
+
+    private byte[] content;
+
+    @Setup
+    public void setup() throws IOException {
+        content = BenchmarkImages.encode(BenchmarkImages.image(new Random(42), size, size * 3 / 4), format);
+    }
+
+    @Benchmark
+    public BufferedImage decode() throws IOException {
+        return ImageDecoder.decode(content, DocumentBuilder.MAX_IMAGE_DIMENSION);
+    }
+}
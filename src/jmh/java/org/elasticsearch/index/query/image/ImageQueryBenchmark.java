@@ -0,0 +1,138 @@
+package org.elasticsearch.index.query.image;
+
+import net.semanticmetadata.lire.builders.GlobalDocumentBuilder.HashingMode;
+import net.semanticmetadata.lire.imageanalysis.features.GlobalFeature;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+import org.elasticsearch.index.mapper.image.BenchmarkImages;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.index.mapper.image.ImageHashing;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scoring cost of {@link ImageQuery} over one segment of synthetic feature vectors:
+ * brute force scoring of every document, ranking with a limit and re-ranking of hash candidates.
+ * Vectors are extracted from a small pool of random images, scoring cost does not depend on duplicates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ImageQueryBenchmark {
+
+    private static final int POOL_SIZE = 256;
+
+    private static final HashingMode HASHING_MODE = HashingMode.BitSampling;
+
+    @Param({"10000", "100000", "1000000"})
+    public int numDocs;
+
+    @Param({"CEDD", "JCD", "COLOR_LAYOUT"})
+    public GlobalFeatureEnum feature;
+
+    @Param({"1000"})
+    public int candidates;
+
+    private Path path;
+    private Directory directory;
+    private DirectoryReader reader;
+    private IndexSearcher searcher;
+    private GlobalFeature queryFeature;
+    private Query hashQuery;
+
+    @Setup
+    public void setup() throws Exception {
+        ImageHashing.loadHashFunctions(HASHING_MODE);
+        Random random = new Random(42);
+        GlobalFeature[] pool = new GlobalFeature[POOL_SIZE];
+        String[] hashes = new String[POOL_SIZE];
+        for (int i = 0; i < POOL_SIZE; i++) {
+            pool[i] = feature.getGlobalFeatureClass().newInstance();
+            pool[i].extract(BenchmarkImages.image(random, 256, 192));
+            hashes[i] = ImageHashing.hashString(HASHING_MODE, pool[i]);
+        }
+        String fieldName = pool[0].getFieldName();
+        String hashFieldName = ImageHashing.hashFieldName(fieldName);
+
+        path = Files.createTempDirectory("image-query-benchmark");
+        directory = new MMapDirectory(path);
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new WhitespaceAnalyzer()).setRAMBufferSizeMB(256))) {
+            for (int i = 0; i < numDocs; i++) {
+                int n = random.nextInt(POOL_SIZE);
+                Document doc = new Document();
+                doc.add(new BinaryDocValuesField(fieldName, new BytesRef(pool[n].getByteArrayRepresentation())));
+                doc.add(new TextField(hashFieldName, hashes[n], Field.Store.NO));
+                writer.addDocument(doc);
+            }
+            writer.forceMerge(1);
+        }
+        reader = DirectoryReader.open(directory);
+        searcher = new IndexSearcher(reader);
+
+        queryFeature = feature.getGlobalFeatureClass().newInstance();
+        queryFeature.extract(BenchmarkImages.image(random, 256, 192));
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        builder.setDisableCoord(true);
+        for (String hash : ImageHashing.hashString(HASHING_MODE, queryFeature).split(" ")) {
+            builder.add(new TermQuery(new Term(hashFieldName, hash)), BooleanClause.Occur.SHOULD);
+        }
+        hashQuery = builder.build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        IOUtils.close(reader, directory);
+        IOUtils.rm(path);
+    }
+
+    @Benchmark
+    public TopDocs scoreAll() throws IOException {
+        return searcher.search(new ImageQuery(queryFeature, feature, 1.0f), 10);
+    }
+
+    @Benchmark
+    public TopDocs limit() throws IOException {
+        return searcher.search(new ImageQuery.Builder(queryFeature, feature).limit(10).build(), 10);
+    }
+
+    @Benchmark
+    public TopDocs hashCandidates() throws IOException {
+        return searcher.search(new ImageQuery.Builder(queryFeature, feature).hashSearch(hashQuery, candidates).limit(10).build(), 10);
+    }
+}
@@ -0,0 +1,80 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+
+/**
+ * Docs of one shard linked by pairs within the max distance
+ */
+public class DuplicateCluster implements Streamable, ToXContent {
+
+    private String index;
+    private String[] types;
+    private String[] ids;
+
+    DuplicateCluster() {
+    }
+
+    DuplicateCluster(String index, String[] types, String[] ids) {
+        this.index = index;
+        this.types = types;
+        this.ids = ids;
+    }
+
+    static DuplicateCluster readDuplicateCluster(StreamInput in) throws IOException {
+        DuplicateCluster cluster = new DuplicateCluster();
+        cluster.readFrom(in);
+        return cluster;
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public String getType(int doc) {
+        return types[doc];
+    }
+
+    public String getId(int doc) {
+        return ids[doc];
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        index = in.readString();
+        types = in.readStringArray();
+        ids = in.readStringArray();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeString(index);
+        out.writeStringArray(types);
+        out.writeStringArray(ids);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject();
+        builder.field("_index", index);
+        builder.startArray("docs");
+        for (int i = 0; i < ids.length; i++) {
+            builder.startObject();
+            builder.field("_type", types[i]);
+            builder.field("_id", ids[i]);
+            builder.endObject();
+        }
+        builder.endArray();
+        builder.endObject();
+        return builder;
+    }
+}
@@ -0,0 +1,27 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.client.ElasticsearchClient;
+
+/**
+ * Search the top docs of many query images in one pass over each shard
+ */
+public class ImageBatchSearchAction extends Action<ImageBatchSearchRequest, ImageBatchSearchResponse, ImageBatchSearchRequestBuilder> {
+
+    public static final ImageBatchSearchAction INSTANCE = new ImageBatchSearchAction();
+    public static final String NAME = "indices:data/read/image/batch_search";
+
+    private ImageBatchSearchAction() {
+        super(NAME);
+    }
+
+    @Override
+    public ImageBatchSearchResponse newResponse() {
+        return new ImageBatchSearchResponse();
+    }
+
+    @Override
+    public ImageBatchSearchRequestBuilder newRequestBuilder(ElasticsearchClient client) {
+        return new ImageBatchSearchRequestBuilder(client, this);
+    }
+}
@@ -0,0 +1,156 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.support.broadcast.BroadcastRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.index.mapper.image.PrecomputedFeature;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+/**
+ * Query images or precomputed query features compared with one feature, each gets its own top {@code size} docs
+ */
+public class ImageBatchSearchRequest extends BroadcastRequest<ImageBatchSearchRequest> {
+
+    public static final int DEFAULT_SIZE = 10;
+    public static final int MAX_SIZE = 10000;
+
+    private GlobalFeatureEnum feature;
+    private int size = DEFAULT_SIZE;
+    private double maxDistance = -1;
+    private List<byte[]> images = new ArrayList<>();
+    private List<byte[]> features = new ArrayList<>();
+
+    public ImageBatchSearchRequest() {
+    }
+
+    public ImageBatchSearchRequest(String... indices) {
+        super(indices);
+    }
+
+    public GlobalFeatureEnum feature() {
+        return feature;
+    }
+
+    public ImageBatchSearchRequest feature(GlobalFeatureEnum feature) {
+        this.feature = feature;
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public ImageBatchSearchRequest size(int size) {
+        this.size = size;
+        return this;
+    }
+
+    public double maxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * Only return docs within the distance of a query image, -1 for no limit
+     */
+    public ImageBatchSearchRequest maxDistance(double maxDistance) {
+        this.maxDistance = maxDistance;
+        return this;
+    }
+
+    public List<byte[]> images() {
+        return images;
+    }
+
+    public ImageBatchSearchRequest addImage(byte[] image) {
+        images.add(image);
+        return this;
+    }
+
+    public List<byte[]> features() {
+        return features;
+    }
+
+    /**
+     * Adds a precomputed query feature, in the format of the indexed features
+     */
+    public ImageBatchSearchRequest addFeature(byte[] featureBytes) {
+        features.add(featureBytes);
+        return this;
+    }
+
+    /**
+     * Number of queries, either images or features
+     */
+    public int queryCount() {
+        return images.size() + features.size();
+    }
+
+    @Override
+    public ActionRequestValidationException validate() {
+        ActionRequestValidationException validationException = super.validate();
+        if (feature == null) {
+            validationException = addValidationError("feature is missing", validationException);
+        }
+        if (images.isEmpty() && features.isEmpty()) {
+            validationException = addValidationError("no query images or features", validationException);
+        } else if (!images.isEmpty() && !features.isEmpty()) {
+            validationException = addValidationError("query images and features can't be mixed", validationException);
+        } else if (feature != null) {
+            for (byte[] featureBytes : features) {
+                try {
+                    PrecomputedFeature.parse(feature, featureBytes);
+                } catch (IllegalArgumentException e) {
+                    validationException = addValidationError(e.getMessage(), validationException);
+                    break;
+                }
+            }
+        }
+        if (size <= 0 || size > MAX_SIZE) {
+            validationException = addValidationError("size must be between 1 and " + MAX_SIZE, validationException);
+        }
+        return validationException;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        feature = GlobalFeatureEnum.valueOf(in.readString());
+        size = in.readVInt();
+        maxDistance = in.readDouble();
+        images = readImages(in);
+        features = readImages(in);
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeString(feature.name());
+        out.writeVInt(size);
+        out.writeDouble(maxDistance);
+        writeImages(out, images);
+        writeImages(out, features);
+    }
+
+    static List<byte[]> readImages(StreamInput in) throws IOException {
+        int count = in.readVInt();
+        List<byte[]> images = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            images.add(in.readByteArray());
+        }
+        return images;
+    }
+
+    static void writeImages(StreamOutput out, List<byte[]> images) throws IOException {
+        out.writeVInt(images.size());
+        for (byte[] image : images) {
+            out.writeByteArray(image);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.support.broadcast.BroadcastOperationRequestBuilder;
+import org.elasticsearch.client.ElasticsearchClient;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+
+public class ImageBatchSearchRequestBuilder extends BroadcastOperationRequestBuilder<ImageBatchSearchRequest, ImageBatchSearchResponse, ImageBatchSearchRequestBuilder> {
+
+    public ImageBatchSearchRequestBuilder(ElasticsearchClient client, ImageBatchSearchAction action) {
+        super(client, action, new ImageBatchSearchRequest());
+    }
+
+    public ImageBatchSearchRequestBuilder setFeature(GlobalFeatureEnum feature) {
+        request.feature(feature);
+        return this;
+    }
+
+    public ImageBatchSearchRequestBuilder setSize(int size) {
+        request.size(size);
+        return this;
+    }
+
+    public ImageBatchSearchRequestBuilder setMaxDistance(double maxDistance) {
+        request.maxDistance(maxDistance);
+        return this;
+    }
+
+    public ImageBatchSearchRequestBuilder addImage(byte[] image) {
+        request.addImage(image);
+        return this;
+    }
+}
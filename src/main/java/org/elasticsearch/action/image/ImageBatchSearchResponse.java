@@ -0,0 +1,127 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.ShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.action.support.RestActions;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Top hits of each query image, in request order
+ */
+public class ImageBatchSearchResponse extends BroadcastResponse implements ToXContent {
+
+    private Hit[][] hits;
+
+    ImageBatchSearchResponse() {
+    }
+
+    ImageBatchSearchResponse(Hit[][] hits, int totalShards, int successfulShards, int failedShards, List<ShardOperationFailedException> shardFailures) {
+        super(totalShards, successfulShards, failedShards, shardFailures);
+        this.hits = hits;
+    }
+
+    /**
+     * @return best hits first for the query image at the index
+     */
+    public Hit[] getHits(int image) {
+        return hits[image];
+    }
+
+    public int getImageCount() {
+        return hits.length;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        RestActions.buildBroadcastShardsHeader(builder, params, this);
+        builder.startArray("responses");
+        for (Hit[] imageHits : hits) {
+            builder.startObject();
+            builder.startArray("hits");
+            for (Hit hit : imageHits) {
+                builder.startObject();
+                builder.field("_index", hit.index);
+                builder.field("_type", hit.type);
+                builder.field("_id", hit.id);
+                builder.field("_score", hit.score);
+                builder.endObject();
+            }
+            builder.endArray();
+            builder.endObject();
+        }
+        builder.endArray();
+        return builder;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        hits = readHits(in);
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        writeHits(out, hits);
+    }
+
+    static Hit[][] readHits(StreamInput in) throws IOException {
+        Hit[][] hits = new Hit[in.readVInt()][];
+        for (int i = 0; i < hits.length; i++) {
+            hits[i] = new Hit[in.readVInt()];
+            for (int j = 0; j < hits[i].length; j++) {
+                hits[i][j] = new Hit(in.readString(), in.readString(), in.readString(), in.readFloat());
+            }
+        }
+        return hits;
+    }
+
+    static void writeHits(StreamOutput out, Hit[][] hits) throws IOException {
+        out.writeVInt(hits.length);
+        for (Hit[] imageHits : hits) {
+            out.writeVInt(imageHits.length);
+            for (Hit hit : imageHits) {
+                out.writeString(hit.index);
+                out.writeString(hit.type);
+                out.writeString(hit.id);
+                out.writeFloat(hit.score);
+            }
+        }
+    }
+
+    public static class Hit {
+        private final String index;
+        private final String type;
+        private final String id;
+        private final float score;
+
+        Hit(String index, String type, String id, float score) {
+            this.index = index;
+            this.type = type;
+            this.id = id;
+            this.score = score;
+        }
+
+        public String getIndex() {
+            return index;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public float getScore() {
+            return score;
+        }
+    }
+}
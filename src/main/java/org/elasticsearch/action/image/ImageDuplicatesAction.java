@@ -0,0 +1,27 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.client.ElasticsearchClient;
+
+/**
+ * Cluster the near duplicate images of each shard with a blocked self join
+ */
+public class ImageDuplicatesAction extends Action<ImageDuplicatesRequest, ImageDuplicatesResponse, ImageDuplicatesRequestBuilder> {
+
+    public static final ImageDuplicatesAction INSTANCE = new ImageDuplicatesAction();
+    public static final String NAME = "indices:data/read/image/duplicates";
+
+    private ImageDuplicatesAction() {
+        super(NAME);
+    }
+
+    @Override
+    public ImageDuplicatesResponse newResponse() {
+        return new ImageDuplicatesResponse();
+    }
+
+    @Override
+    public ImageDuplicatesRequestBuilder newRequestBuilder(ElasticsearchClient client) {
+        return new ImageDuplicatesRequestBuilder(client, this);
+    }
+}
@@ -0,0 +1,27 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.client.ElasticsearchClient;
+
+/**
+ * Cancel the shard joins of a duplicates job on all nodes
+ */
+public class ImageDuplicatesCancelAction extends Action<ImageDuplicatesCancelRequest, ImageDuplicatesCancelResponse, ImageDuplicatesCancelRequestBuilder> {
+
+    public static final ImageDuplicatesCancelAction INSTANCE = new ImageDuplicatesCancelAction();
+    public static final String NAME = "cluster:admin/image/duplicates/cancel";
+
+    private ImageDuplicatesCancelAction() {
+        super(NAME);
+    }
+
+    @Override
+    public ImageDuplicatesCancelResponse newResponse() {
+        return new ImageDuplicatesCancelResponse();
+    }
+
+    @Override
+    public ImageDuplicatesCancelRequestBuilder newRequestBuilder(ElasticsearchClient client) {
+        return new ImageDuplicatesCancelRequestBuilder(client, this);
+    }
+}
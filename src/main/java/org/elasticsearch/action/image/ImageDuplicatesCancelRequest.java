@@ -0,0 +1,57 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.support.nodes.BaseNodesRequest;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.IOException;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+/**
+ * Job to cancel on the given nodes, all nodes when none is given
+ */
+public class ImageDuplicatesCancelRequest extends BaseNodesRequest<ImageDuplicatesCancelRequest> {
+
+    private String jobId;
+
+    public ImageDuplicatesCancelRequest() {
+    }
+
+    public ImageDuplicatesCancelRequest(String jobId, String... nodesIds) {
+        super(nodesIds);
+        this.jobId = jobId;
+    }
+
+    public String jobId() {
+        return jobId;
+    }
+
+    public ImageDuplicatesCancelRequest jobId(String jobId) {
+        this.jobId = jobId;
+        return this;
+    }
+
+    @Override
+    public ActionRequestValidationException validate() {
+        ActionRequestValidationException validationException = super.validate();
+        if (!Strings.hasLength(jobId)) {
+            validationException = addValidationError("job_id is missing", validationException);
+        }
+        return validationException;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        jobId = in.readString();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeString(jobId);
+    }
+}
@@ -0,0 +1,16 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.support.nodes.NodesOperationRequestBuilder;
+import org.elasticsearch.client.ElasticsearchClient;
+
+public class ImageDuplicatesCancelRequestBuilder extends NodesOperationRequestBuilder<ImageDuplicatesCancelRequest, ImageDuplicatesCancelResponse, ImageDuplicatesCancelRequestBuilder> {
+
+    public ImageDuplicatesCancelRequestBuilder(ElasticsearchClient client, ImageDuplicatesCancelAction action) {
+        super(client, action, new ImageDuplicatesCancelRequest());
+    }
+
+    public ImageDuplicatesCancelRequestBuilder setJobId(String jobId) {
+        request.jobId(jobId);
+        return this;
+    }
+}
@@ -0,0 +1,63 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.support.nodes.BaseNodesResponse;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+
+public class ImageDuplicatesCancelResponse extends BaseNodesResponse<NodeDuplicatesCancel> implements ToXContent {
+
+    ImageDuplicatesCancelResponse() {
+    }
+
+    ImageDuplicatesCancelResponse(ClusterName clusterName, NodeDuplicatesCancel[] nodes) {
+        super(clusterName, nodes);
+    }
+
+    /**
+     * Number of shard joins of the job that were running and are asked to stop
+     */
+    public int getCancelledShards() {
+        int cancelledShards = 0;
+        for (NodeDuplicatesCancel node : nodes) {
+            cancelledShards += node.getCancelledShards();
+        }
+        return cancelledShards;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        nodes = new NodeDuplicatesCancel[in.readVInt()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = NodeDuplicatesCancel.readNodeDuplicatesCancel(in);
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVInt(nodes.length);
+        for (NodeDuplicatesCancel node : nodes) {
+            node.writeTo(out);
+        }
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.field("cluster_name", getClusterName().value());
+        builder.field("cancelled_shards", getCancelledShards());
+        builder.startObject("nodes");
+        for (NodeDuplicatesCancel node : nodes) {
+            builder.startObject(node.getNode().id());
+            builder.field("cancelled_shards", node.getCancelledShards());
+            builder.endObject();
+        }
+        builder.endObject();
+        return builder;
+    }
+}
@@ -0,0 +1,186 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.support.broadcast.BroadcastRequest;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.index.query.image.DuplicateJoin;
+
+import java.io.IOException;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+/**
+ * Near duplicates of an image field, blocked by the hash terms of a feature within {@code max_distance},
+ * or without feature by the chunks of the perceptual hash of the field within {@code hamming_distance}
+ */
+public class ImageDuplicatesRequest extends BroadcastRequest<ImageDuplicatesRequest> {
+
+    public static final int DEFAULT_MAX_BLOCK_SIZE = 1000;
+    public static final int DEFAULT_SIZE = 100;
+
+    private String jobId = Strings.randomBase64UUID();
+    private String field;
+    private GlobalFeatureEnum feature;
+    private double maxDistance = -1;
+    private int hammingDistance = -1;
+    private int maxBlockSize = DEFAULT_MAX_BLOCK_SIZE;
+    private int size = DEFAULT_SIZE;
+    private String writeIndex;
+
+    public ImageDuplicatesRequest() {
+    }
+
+    public ImageDuplicatesRequest(String... indices) {
+        super(indices);
+    }
+
+    public String jobId() {
+        return jobId;
+    }
+
+    /**
+     * Id to follow the job in image stats and to cancel it, defaults to a random id
+     */
+    public ImageDuplicatesRequest jobId(String jobId) {
+        this.jobId = jobId;
+        return this;
+    }
+
+    public String field() {
+        return field;
+    }
+
+    public ImageDuplicatesRequest field(String field) {
+        this.field = field;
+        return this;
+    }
+
+    public GlobalFeatureEnum feature() {
+        return feature;
+    }
+
+    public ImageDuplicatesRequest feature(GlobalFeatureEnum feature) {
+        this.feature = feature;
+        return this;
+    }
+
+    public double maxDistance() {
+        return maxDistance;
+    }
+
+    public ImageDuplicatesRequest maxDistance(double maxDistance) {
+        this.maxDistance = maxDistance;
+        return this;
+    }
+
+    public int hammingDistance() {
+        return hammingDistance;
+    }
+
+    public ImageDuplicatesRequest hammingDistance(int hammingDistance) {
+        this.hammingDistance = hammingDistance;
+        return this;
+    }
+
+    public int maxBlockSize() {
+        return maxBlockSize;
+    }
+
+    /**
+     * Hash terms with more docs are skipped
+     */
+    public ImageDuplicatesRequest maxBlockSize(int maxBlockSize) {
+        this.maxBlockSize = maxBlockSize;
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Max number of clusters returned, largest first
+     */
+    public ImageDuplicatesRequest size(int size) {
+        this.size = size;
+        return this;
+    }
+
+    public String writeIndex() {
+        return writeIndex;
+    }
+
+    /**
+     * Index every shard writes all its clusters to, one document per cluster, null to only return the largest clusters
+     */
+    public ImageDuplicatesRequest writeIndex(String writeIndex) {
+        this.writeIndex = writeIndex;
+        return this;
+    }
+
+    @Override
+    public ActionRequestValidationException validate() {
+        ActionRequestValidationException validationException = super.validate();
+        if (!Strings.hasLength(jobId)) {
+            validationException = addValidationError("job_id is missing", validationException);
+        }
+        if (feature != null) {
+            if (maxDistance < 0) {
+                validationException = addValidationError("max_distance is missing", validationException);
+            }
+        } else {
+            if (field == null) {
+                validationException = addValidationError("field is missing", validationException);
+            }
+            if (hammingDistance < 0) {
+                validationException = addValidationError("either feature or hamming_distance is required", validationException);
+            } else if (hammingDistance > DuplicateJoin.MAX_HAMMING_DISTANCE) {
+                // farther pairs may share no chunk of the hash and would be missed
+                validationException = addValidationError("hamming_distance must be at most " + DuplicateJoin.MAX_HAMMING_DISTANCE,
+                        validationException);
+            }
+        }
+        if (maxBlockSize < 2 || maxBlockSize > DuplicateJoin.MAX_BLOCK_SIZE) {
+            validationException = addValidationError("max_block_size must be between 2 and " + DuplicateJoin.MAX_BLOCK_SIZE, validationException);
+        }
+        if (size < 0) {
+            validationException = addValidationError("size must not be negative", validationException);
+        }
+        if (writeIndex != null && !Strings.hasLength(writeIndex)) {
+            validationException = addValidationError("write_index must not be empty", validationException);
+        }
+        return validationException;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        jobId = in.readString();
+        field = in.readOptionalString();
+        feature = in.readBoolean() ? GlobalFeatureEnum.valueOf(in.readString()) : null;
+        maxDistance = in.readDouble();
+        hammingDistance = in.readInt();
+        maxBlockSize = in.readVInt();
+        size = in.readVInt();
+        writeIndex = in.readOptionalString();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeString(jobId);
+        out.writeOptionalString(field);
+        out.writeBoolean(feature != null);
+        if (feature != null) {
+            out.writeString(feature.name());
+        }
+        out.writeDouble(maxDistance);
+        out.writeInt(hammingDistance);
+        out.writeVInt(maxBlockSize);
+        out.writeVInt(size);
+        out.writeOptionalString(writeIndex);
+    }
+}
@@ -0,0 +1,52 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.support.broadcast.BroadcastOperationRequestBuilder;
+import org.elasticsearch.client.ElasticsearchClient;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+
+public class ImageDuplicatesRequestBuilder extends BroadcastOperationRequestBuilder<ImageDuplicatesRequest, ImageDuplicatesResponse, ImageDuplicatesRequestBuilder> {
+
+    public ImageDuplicatesRequestBuilder(ElasticsearchClient client, ImageDuplicatesAction action) {
+        super(client, action, new ImageDuplicatesRequest());
+    }
+
+    public ImageDuplicatesRequestBuilder setJobId(String jobId) {
+        request.jobId(jobId);
+        return this;
+    }
+
+    public ImageDuplicatesRequestBuilder setField(String field) {
+        request.field(field);
+        return this;
+    }
+
+    public ImageDuplicatesRequestBuilder setFeature(GlobalFeatureEnum feature) {
+        request.feature(feature);
+        return this;
+    }
+
+    public ImageDuplicatesRequestBuilder setMaxDistance(double maxDistance) {
+        request.maxDistance(maxDistance);
+        return this;
+    }
+
+    public ImageDuplicatesRequestBuilder setHammingDistance(int hammingDistance) {
+        request.hammingDistance(hammingDistance);
+        return this;
+    }
+
+    public ImageDuplicatesRequestBuilder setMaxBlockSize(int maxBlockSize) {
+        request.maxBlockSize(maxBlockSize);
+        return this;
+    }
+
+    public ImageDuplicatesRequestBuilder setSize(int size) {
+        request.size(size);
+        return this;
+    }
+
+    public ImageDuplicatesRequestBuilder setWriteIndex(String writeIndex) {
+        request.writeIndex(writeIndex);
+        return this;
+    }
+}
@@ -0,0 +1,138 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.ShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.action.support.RestActions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Duplicate clusters of all shards, largest first, with the blocks and pairs the shards compared
+ */
+public class ImageDuplicatesResponse extends BroadcastResponse implements ToXContent {
+
+    private String jobId;
+    private boolean cancelled;
+    private long blocks;
+    private long skippedBlocks;
+    private long comparedPairs;
+    private long totalClusters;
+    private long writtenClusters;
+    private List<DuplicateCluster> clusters;
+
+    ImageDuplicatesResponse() {
+    }
+
+    ImageDuplicatesResponse(String jobId, boolean cancelled, long blocks, long skippedBlocks, long comparedPairs, long totalClusters,
+                            long writtenClusters, List<DuplicateCluster> clusters, int totalShards, int successfulShards, int failedShards,
+                            List<ShardOperationFailedException> shardFailures) {
+        super(totalShards, successfulShards, failedShards, shardFailures);
+        this.jobId = jobId;
+        this.cancelled = cancelled;
+        this.blocks = blocks;
+        this.skippedBlocks = skippedBlocks;
+        this.comparedPairs = comparedPairs;
+        this.totalClusters = totalClusters;
+        this.writtenClusters = writtenClusters;
+        this.clusters = clusters;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    /**
+     * Whether the job was cancelled on some shard, clusters of that shard are then partial
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public long getBlocks() {
+        return blocks;
+    }
+
+    public long getSkippedBlocks() {
+        return skippedBlocks;
+    }
+
+    public long getComparedPairs() {
+        return comparedPairs;
+    }
+
+    /**
+     * Number of clusters of all shards, including the clusters not returned
+     */
+    public long getTotalClusters() {
+        return totalClusters;
+    }
+
+    /**
+     * Number of clusters written to the write index
+     */
+    public long getWrittenClusters() {
+        return writtenClusters;
+    }
+
+    public List<DuplicateCluster> getClusters() {
+        return Collections.unmodifiableList(clusters);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        RestActions.buildBroadcastShardsHeader(builder, params, this);
+        builder.field("job_id", jobId);
+        builder.field("cancelled", cancelled);
+        builder.field("blocks", blocks);
+        builder.field("skipped_blocks", skippedBlocks);
+        builder.field("compared_pairs", comparedPairs);
+        builder.field("total_clusters", totalClusters);
+        builder.field("written_clusters", writtenClusters);
+        builder.startArray("clusters");
+        for (DuplicateCluster cluster : clusters) {
+            cluster.toXContent(builder, params);
+        }
+        builder.endArray();
+        return builder;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        jobId = in.readString();
+        cancelled = in.readBoolean();
+        blocks = in.readVLong();
+        skippedBlocks = in.readVLong();
+        comparedPairs = in.readVLong();
+        totalClusters = in.readVLong();
+        writtenClusters = in.readVLong();
+        int size = in.readVInt();
+        clusters = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            clusters.add(DuplicateCluster.readDuplicateCluster(in));
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeString(jobId);
+        out.writeBoolean(cancelled);
+        out.writeVLong(blocks);
+        out.writeVLong(skippedBlocks);
+        out.writeVLong(comparedPairs);
+        out.writeVLong(totalClusters);
+        out.writeVLong(writtenClusters);
+        out.writeVInt(clusters.size());
+        for (DuplicateCluster cluster : clusters) {
+            cluster.writeTo(out);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.client.ElasticsearchClient;
+
+/**
+ * Read the indexed features of a document, used by image queries searching by an indexed image
+ */
+public class ImageFeatureLookupAction extends Action<ImageFeatureLookupRequest, ImageFeatureLookupResponse, ImageFeatureLookupRequestBuilder> {
+
+    public static final ImageFeatureLookupAction INSTANCE = new ImageFeatureLookupAction();
+    public static final String NAME = "indices:data/read/image/feature_lookup";
+
+    private ImageFeatureLookupAction() {
+        super(NAME);
+    }
+
+    @Override
+    public ImageFeatureLookupResponse newResponse() {
+        return new ImageFeatureLookupResponse();
+    }
+
+    @Override
+    public ImageFeatureLookupRequestBuilder newRequestBuilder(ElasticsearchClient client) {
+        return new ImageFeatureLookupRequestBuilder(client, this);
+    }
+}
@@ -0,0 +1,106 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.support.single.shard.SingleShardRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+/**
+ * Features of the document with the id, the type can be null to look in all types
+ */
+public class ImageFeatureLookupRequest extends SingleShardRequest<ImageFeatureLookupRequest> {
+
+    private String type;
+    private String id;
+    private String routing;
+    private List<GlobalFeatureEnum> features = new ArrayList<>();
+
+    public ImageFeatureLookupRequest() {
+    }
+
+    public ImageFeatureLookupRequest(String index, String type, String id) {
+        super(index);
+        this.type = type;
+        this.id = id;
+    }
+
+    public String type() {
+        return type;
+    }
+
+    public ImageFeatureLookupRequest type(String type) {
+        this.type = type;
+        return this;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public ImageFeatureLookupRequest id(String id) {
+        this.id = id;
+        return this;
+    }
+
+    public String routing() {
+        return routing;
+    }
+
+    public ImageFeatureLookupRequest routing(String routing) {
+        this.routing = routing;
+        return this;
+    }
+
+    public List<GlobalFeatureEnum> features() {
+        return features;
+    }
+
+    public ImageFeatureLookupRequest features(List<GlobalFeatureEnum> features) {
+        this.features = features;
+        return this;
+    }
+
+    @Override
+    public ActionRequestValidationException validate() {
+        ActionRequestValidationException validationException = validateNonNullIndex();
+        if (id == null) {
+            validationException = addValidationError("id is missing", validationException);
+        }
+        if (features.isEmpty()) {
+            validationException = addValidationError("no features", validationException);
+        }
+        return validationException;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        type = in.readOptionalString();
+        id = in.readString();
+        routing = in.readOptionalString();
+        int count = in.readVInt();
+        features = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            features.add(GlobalFeatureEnum.valueOf(in.readString()));
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeOptionalString(type);
+        out.writeString(id);
+        out.writeOptionalString(routing);
+        out.writeVInt(features.size());
+        for (GlobalFeatureEnum feature : features) {
+            out.writeString(feature.name());
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.support.single.shard.SingleShardOperationRequestBuilder;
+import org.elasticsearch.client.ElasticsearchClient;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+
+import java.util.List;
+
+public class ImageFeatureLookupRequestBuilder extends SingleShardOperationRequestBuilder<ImageFeatureLookupRequest, ImageFeatureLookupResponse, ImageFeatureLookupRequestBuilder> {
+
+    public ImageFeatureLookupRequestBuilder(ElasticsearchClient client, ImageFeatureLookupAction action) {
+        super(client, action, new ImageFeatureLookupRequest());
+    }
+
+    public ImageFeatureLookupRequestBuilder setType(String type) {
+        request.type(type);
+        return this;
+    }
+
+    public ImageFeatureLookupRequestBuilder setId(String id) {
+        request.id(id);
+        return this;
+    }
+
+    public ImageFeatureLookupRequestBuilder setRouting(String routing) {
+        request.routing(routing);
+        return this;
+    }
+
+    public ImageFeatureLookupRequestBuilder setFeatures(List<GlobalFeatureEnum> features) {
+        request.features(features);
+        return this;
+    }
+}
@@ -0,0 +1,58 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.IOException;
+
+public class ImageFeatureLookupResponse extends ActionResponse {
+
+    private boolean exists;
+    private byte[][] features;
+
+    ImageFeatureLookupResponse() {
+    }
+
+    ImageFeatureLookupResponse(boolean exists, byte[][] features) {
+        this.exists = exists;
+        this.features = features;
+    }
+
+    public boolean isExists() {
+        return exists;
+    }
+
+    /**
+     * @param index index of the feature in the request
+     * @return serialized feature, null if the document has none
+     */
+    public byte[] getFeature(int index) {
+        return features[index];
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        exists = in.readBoolean();
+        features = new byte[in.readVInt()][];
+        for (int i = 0; i < features.length; i++) {
+            if (in.readBoolean()) {
+                features[i] = in.readByteArray();
+            }
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeBoolean(exists);
+        out.writeVInt(features.length);
+        for (byte[] feature : features) {
+            out.writeBoolean(feature != null);
+            if (feature != null) {
+                out.writeByteArray(feature);
+            }
+        }
+    }
+}
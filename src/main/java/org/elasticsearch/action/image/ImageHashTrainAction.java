@@ -0,0 +1,27 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.client.ElasticsearchClient;
+
+/**
+ * Train the hash functions of a feature on a sample of the features of the indices
+ */
+public class ImageHashTrainAction extends Action<ImageHashTrainRequest, ImageHashTrainResponse, ImageHashTrainRequestBuilder> {
+
+    public static final ImageHashTrainAction INSTANCE = new ImageHashTrainAction();
+    public static final String NAME = "indices:data/read/image/hash_train";
+
+    private ImageHashTrainAction() {
+        super(NAME);
+    }
+
+    @Override
+    public ImageHashTrainResponse newResponse() {
+        return new ImageHashTrainResponse();
+    }
+
+    @Override
+    public ImageHashTrainRequestBuilder newRequestBuilder(ElasticsearchClient client) {
+        return new ImageHashTrainRequestBuilder(client, this);
+    }
+}
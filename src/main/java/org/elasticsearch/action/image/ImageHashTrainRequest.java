@@ -0,0 +1,180 @@
+package org.elasticsearch.action.image;
+
+import net.semanticmetadata.lire.builders.GlobalDocumentBuilder.HashingMode;
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.support.broadcast.BroadcastRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+
+import java.io.IOException;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+/**
+ * Feature and hash mode to train, with the sizes of the hash functions, -1 for the defaults of
+ * {@link org.elasticsearch.index.mapper.image.HashParameters}
+ */
+public class ImageHashTrainRequest extends BroadcastRequest<ImageHashTrainRequest> {
+
+    public static final int DEFAULT_SAMPLE_SIZE = 10000;
+
+    private GlobalFeatureEnum feature;
+    private HashingMode hashingMode;
+    private int sampleSize = DEFAULT_SAMPLE_SIZE;
+    private long seed;
+    private int tables = -1;
+    private int bits = -1;
+    private int buckets = -1;
+    private int projections = -1;
+    private int referencePoints = -1;
+    private int postingLength = -1;
+
+    public ImageHashTrainRequest() {
+    }
+
+    public ImageHashTrainRequest(String... indices) {
+        super(indices);
+    }
+
+    public GlobalFeatureEnum feature() {
+        return feature;
+    }
+
+    public ImageHashTrainRequest feature(GlobalFeatureEnum feature) {
+        this.feature = feature;
+        return this;
+    }
+
+    public HashingMode hashingMode() {
+        return hashingMode;
+    }
+
+    public ImageHashTrainRequest hashingMode(HashingMode hashingMode) {
+        this.hashingMode = hashingMode;
+        return this;
+    }
+
+    public int sampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * Max number of features sampled over all shards
+     */
+    public ImageHashTrainRequest sampleSize(int sampleSize) {
+        this.sampleSize = sampleSize;
+        return this;
+    }
+
+    public long seed() {
+        return seed;
+    }
+
+    /**
+     * Seed of the sample and of the random projections
+     */
+    public ImageHashTrainRequest seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public int tables() {
+        return tables;
+    }
+
+    public ImageHashTrainRequest tables(int tables) {
+        this.tables = tables;
+        return this;
+    }
+
+    public int bits() {
+        return bits;
+    }
+
+    public ImageHashTrainRequest bits(int bits) {
+        this.bits = bits;
+        return this;
+    }
+
+    public int buckets() {
+        return buckets;
+    }
+
+    public ImageHashTrainRequest buckets(int buckets) {
+        this.buckets = buckets;
+        return this;
+    }
+
+    public int projections() {
+        return projections;
+    }
+
+    public ImageHashTrainRequest projections(int projections) {
+        this.projections = projections;
+        return this;
+    }
+
+    public int referencePoints() {
+        return referencePoints;
+    }
+
+    public ImageHashTrainRequest referencePoints(int referencePoints) {
+        this.referencePoints = referencePoints;
+        return this;
+    }
+
+    public int postingLength() {
+        return postingLength;
+    }
+
+    public ImageHashTrainRequest postingLength(int postingLength) {
+        this.postingLength = postingLength;
+        return this;
+    }
+
+    @Override
+    public ActionRequestValidationException validate() {
+        ActionRequestValidationException validationException = super.validate();
+        if (feature == null) {
+            validationException = addValidationError("feature is missing", validationException);
+        }
+        if (hashingMode == null || hashingMode == HashingMode.None) {
+            validationException = addValidationError("hash is missing", validationException);
+        }
+        if (sampleSize <= 0) {
+            validationException = addValidationError("sample_size must be positive", validationException);
+        }
+        return validationException;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        feature = GlobalFeatureEnum.valueOf(in.readString());
+        hashingMode = HashingMode.valueOf(in.readString());
+        sampleSize = in.readVInt();
+        seed = in.readLong();
+        tables = in.readInt();
+        bits = in.readInt();
+        buckets = in.readInt();
+        projections = in.readInt();
+        referencePoints = in.readInt();
+        postingLength = in.readInt();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeString(feature.name());
+        out.writeString(hashingMode.name());
+        out.writeVInt(sampleSize);
+        out.writeLong(seed);
+        out.writeInt(tables);
+        out.writeInt(bits);
+        out.writeInt(buckets);
+        out.writeInt(projections);
+        out.writeInt(referencePoints);
+        out.writeInt(postingLength);
+    }
+}
@@ -0,0 +1,63 @@
+package org.elasticsearch.action.image;
+
+import net.semanticmetadata.lire.builders.GlobalDocumentBuilder.HashingMode;
+import org.elasticsearch.action.support.broadcast.BroadcastOperationRequestBuilder;
+import org.elasticsearch.client.ElasticsearchClient;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+
+public class ImageHashTrainRequestBuilder extends BroadcastOperationRequestBuilder<ImageHashTrainRequest, ImageHashTrainResponse, ImageHashTrainRequestBuilder> {
+
+    public ImageHashTrainRequestBuilder(ElasticsearchClient client, ImageHashTrainAction action) {
+        super(client, action, new ImageHashTrainRequest());
+    }
+
+    public ImageHashTrainRequestBuilder setFeature(GlobalFeatureEnum feature) {
+        request.feature(feature);
+        return this;
+    }
+
+    public ImageHashTrainRequestBuilder setHashingMode(HashingMode hashingMode) {
+        request.hashingMode(hashingMode);
+        return this;
+    }
+
+    public ImageHashTrainRequestBuilder setSampleSize(int sampleSize) {
+        request.sampleSize(sampleSize);
+        return this;
+    }
+
+    public ImageHashTrainRequestBuilder setSeed(long seed) {
+        request.seed(seed);
+        return this;
+    }
+
+    public ImageHashTrainRequestBuilder setTables(int tables) {
+        request.tables(tables);
+        return this;
+    }
+
+    public ImageHashTrainRequestBuilder setBits(int bits) {
+        request.bits(bits);
+        return this;
+    }
+
+    public ImageHashTrainRequestBuilder setBuckets(int buckets) {
+        request.buckets(buckets);
+        return this;
+    }
+
+    public ImageHashTrainRequestBuilder setProjections(int projections) {
+        request.projections(projections);
+        return this;
+    }
+
+    public ImageHashTrainRequestBuilder setReferencePoints(int referencePoints) {
+        request.referencePoints(referencePoints);
+        return this;
+    }
+
+    public ImageHashTrainRequestBuilder setPostingLength(int postingLength) {
+        request.postingLength(postingLength);
+        return this;
+    }
+}
@@ -0,0 +1,74 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.ShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.mapper.image.HashParameters;
+import org.elasticsearch.rest.action.support.RestActions;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Trained hash functions, as set in the mapping of the feature under {@link HashParameters#HASH_PARAMETERS}
+ */
+public class ImageHashTrainResponse extends BroadcastResponse implements ToXContent {
+
+    private int sampled;
+    private Map<String, Object> hashParameters;
+
+    ImageHashTrainResponse() {
+    }
+
+    ImageHashTrainResponse(int sampled, Map<String, Object> hashParameters, int totalShards, int successfulShards, int failedShards,
+                           List<ShardOperationFailedException> shardFailures) {
+        super(totalShards, successfulShards, failedShards, shardFailures);
+        this.sampled = sampled;
+        this.hashParameters = hashParameters;
+    }
+
+    /**
+     * Number of features the hash functions were trained on
+     */
+    public int getSampled() {
+        return sampled;
+    }
+
+    /**
+     * @return null if no shard had the feature
+     */
+    public Map<String, Object> getHashParameters() {
+        return hashParameters;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        RestActions.buildBroadcastShardsHeader(builder, params, this);
+        builder.field("sampled", sampled);
+        if (hashParameters != null) {
+            builder.field(HashParameters.HASH_PARAMETERS, hashParameters);
+        }
+        return builder;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        sampled = in.readVInt();
+        hashParameters = in.readBoolean() ? in.readMap() : null;
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVInt(sampled);
+        out.writeBoolean(hashParameters != null);
+        if (hashParameters != null) {
+            out.writeMap(hashParameters);
+        }
+    }
+}
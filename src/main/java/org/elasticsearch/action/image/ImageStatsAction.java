@@ -0,0 +1,27 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.client.ElasticsearchClient;
+
+/**
+ * Image pipeline counters and image caches of each node
+ */
+public class ImageStatsAction extends Action<ImageStatsRequest, ImageStatsResponse, ImageStatsRequestBuilder> {
+
+    public static final ImageStatsAction INSTANCE = new ImageStatsAction();
+    public static final String NAME = "cluster:monitor/image/stats";
+
+    private ImageStatsAction() {
+        super(NAME);
+    }
+
+    @Override
+    public ImageStatsResponse newResponse() {
+        return new ImageStatsResponse();
+    }
+
+    @Override
+    public ImageStatsRequestBuilder newRequestBuilder(ElasticsearchClient client) {
+        return new ImageStatsRequestBuilder(client, this);
+    }
+}
@@ -0,0 +1,16 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.support.nodes.BaseNodesRequest;
+
+/**
+ * Image stats of the given nodes, all nodes when none is given
+ */
+public class ImageStatsRequest extends BaseNodesRequest<ImageStatsRequest> {
+
+    public ImageStatsRequest() {
+    }
+
+    public ImageStatsRequest(String... nodesIds) {
+        super(nodesIds);
+    }
+}
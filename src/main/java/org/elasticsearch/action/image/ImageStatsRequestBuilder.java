@@ -0,0 +1,11 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.support.nodes.NodesOperationRequestBuilder;
+import org.elasticsearch.client.ElasticsearchClient;
+
+public class ImageStatsRequestBuilder extends NodesOperationRequestBuilder<ImageStatsRequest, ImageStatsResponse, ImageStatsRequestBuilder> {
+
+    public ImageStatsRequestBuilder(ElasticsearchClient client, ImageStatsAction action) {
+        super(client, action, new ImageStatsRequest());
+    }
+}
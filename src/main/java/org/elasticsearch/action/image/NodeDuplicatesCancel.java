@@ -0,0 +1,46 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.support.nodes.BaseNodeResponse;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.IOException;
+
+/**
+ * Number of shard joins of the job cancelled on one node
+ */
+public class NodeDuplicatesCancel extends BaseNodeResponse {
+
+    private int cancelledShards;
+
+    NodeDuplicatesCancel() {
+    }
+
+    NodeDuplicatesCancel(DiscoveryNode node, int cancelledShards) {
+        super(node);
+        this.cancelledShards = cancelledShards;
+    }
+
+    static NodeDuplicatesCancel readNodeDuplicatesCancel(StreamInput in) throws IOException {
+        NodeDuplicatesCancel cancel = new NodeDuplicatesCancel();
+        cancel.readFrom(in);
+        return cancel;
+    }
+
+    public int getCancelledShards() {
+        return cancelledShards;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        cancelledShards = in.readVInt();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVInt(cancelledShards);
+    }
+}
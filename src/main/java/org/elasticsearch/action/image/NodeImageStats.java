@@ -0,0 +1,126 @@
+package org.elasticsearch.action.image;
+
+import com.google.common.cache.CacheStats;
+import org.elasticsearch.action.support.nodes.BaseNodeResponse;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.plugin.image.DuplicateJobs;
+import org.elasticsearch.plugin.image.ImageService;
+import org.elasticsearch.plugin.image.ImageStats;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Image pipeline counters of one node, with the hits of its query feature and HNSW graph caches
+ * and the progress of the duplicate joins running on its shards
+ */
+public class NodeImageStats extends BaseNodeResponse implements ToXContent {
+
+    private ImageStats stats;
+    private long queryFeatureCacheCount;
+    private long queryFeatureCacheSize;
+    private long queryFeatureCacheHits;
+    private long queryFeatureCacheMisses;
+    private long hnswGraphCacheCount;
+    private long hnswGraphCacheHits;
+    private long hnswGraphCacheMisses;
+    private List<DuplicateJobs.ShardJobStats> duplicateJobs;
+
+    NodeImageStats() {
+    }
+
+    NodeImageStats(DiscoveryNode node, ImageService imageService) {
+        super(node);
+        this.stats = imageService.metrics().stats();
+        CacheStats featureCacheStats = imageService.queryFeatureCache().stats();
+        this.queryFeatureCacheCount = imageService.queryFeatureCache().count();
+        this.queryFeatureCacheSize = imageService.queryFeatureCache().size().bytes();
+        this.queryFeatureCacheHits = featureCacheStats.hitCount();
+        this.queryFeatureCacheMisses = featureCacheStats.missCount();
+        CacheStats graphCacheStats = imageService.hnswGraphCache().stats();
+        this.hnswGraphCacheCount = imageService.hnswGraphCache().count();
+        this.hnswGraphCacheHits = graphCacheStats.hitCount();
+        this.hnswGraphCacheMisses = graphCacheStats.missCount();
+        this.duplicateJobs = imageService.duplicateJobs().stats();
+    }
+
+    static NodeImageStats readNodeImageStats(StreamInput in) throws IOException {
+        NodeImageStats stats = new NodeImageStats();
+        stats.readFrom(in);
+        return stats;
+    }
+
+    public ImageStats getStats() {
+        return stats;
+    }
+
+    public List<DuplicateJobs.ShardJobStats> getDuplicateJobs() {
+        return duplicateJobs;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        stats = ImageStats.readImageStats(in);
+        queryFeatureCacheCount = in.readVLong();
+        queryFeatureCacheSize = in.readVLong();
+        queryFeatureCacheHits = in.readVLong();
+        queryFeatureCacheMisses = in.readVLong();
+        hnswGraphCacheCount = in.readVLong();
+        hnswGraphCacheHits = in.readVLong();
+        hnswGraphCacheMisses = in.readVLong();
+        int size = in.readVInt();
+        duplicateJobs = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            duplicateJobs.add(DuplicateJobs.ShardJobStats.readShardJobStats(in));
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        stats.writeTo(out);
+        out.writeVLong(queryFeatureCacheCount);
+        out.writeVLong(queryFeatureCacheSize);
+        out.writeVLong(queryFeatureCacheHits);
+        out.writeVLong(queryFeatureCacheMisses);
+        out.writeVLong(hnswGraphCacheCount);
+        out.writeVLong(hnswGraphCacheHits);
+        out.writeVLong(hnswGraphCacheMisses);
+        out.writeVInt(duplicateJobs.size());
+        for (DuplicateJobs.ShardJobStats job : duplicateJobs) {
+            job.writeTo(out);
+        }
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.field("name", getNode().name());
+        builder.field("host", getNode().getHostName());
+        stats.toXContent(builder, params);
+        builder.startObject("caches");
+        builder.startObject("query_feature");
+        builder.field("count", queryFeatureCacheCount);
+        builder.field("size_in_bytes", queryFeatureCacheSize);
+        builder.field("hits", queryFeatureCacheHits);
+        builder.field("misses", queryFeatureCacheMisses);
+        builder.endObject();
+        builder.startObject("hnsw_graph");
+        builder.field("count", hnswGraphCacheCount);
+        builder.field("hits", hnswGraphCacheHits);
+        builder.field("misses", hnswGraphCacheMisses);
+        builder.endObject();
+        builder.endObject();
+        builder.startArray("duplicate_jobs");
+        for (DuplicateJobs.ShardJobStats job : duplicateJobs) {
+            job.toXContent(builder, params);
+        }
+        builder.endArray();
+        return builder;
+    }
+}
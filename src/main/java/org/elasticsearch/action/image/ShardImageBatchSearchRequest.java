@@ -0,0 +1,70 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.support.broadcast.BroadcastShardRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.index.shard.ShardId;
+
+import java.io.IOException;
+import java.util.List;
+
+public class ShardImageBatchSearchRequest extends BroadcastShardRequest {
+    private GlobalFeatureEnum feature;
+    private int size;
+    private double maxDistance;
+    private List<byte[]> images;
+    private List<byte[]> features;
+
+    public ShardImageBatchSearchRequest() {
+    }
+
+    ShardImageBatchSearchRequest(ShardId shardId, ImageBatchSearchRequest request) {
+        super(shardId, request);
+        this.feature = request.feature();
+        this.size = request.size();
+        this.maxDistance = request.maxDistance();
+        this.images = request.images();
+        this.features = request.features();
+    }
+
+    GlobalFeatureEnum feature() {
+        return feature;
+    }
+
+    int size() {
+        return size;
+    }
+
+    double maxDistance() {
+        return maxDistance;
+    }
+
+    List<byte[]> images() {
+        return images;
+    }
+
+    List<byte[]> features() {
+        return features;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        feature = GlobalFeatureEnum.valueOf(in.readString());
+        size = in.readVInt();
+        maxDistance = in.readDouble();
+        images = ImageBatchSearchRequest.readImages(in);
+        features = ImageBatchSearchRequest.readImages(in);
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeString(feature.name());
+        out.writeVInt(size);
+        out.writeDouble(maxDistance);
+        ImageBatchSearchRequest.writeImages(out, images);
+        ImageBatchSearchRequest.writeImages(out, features);
+    }
+}
@@ -0,0 +1,39 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.support.broadcast.BroadcastShardResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.index.shard.ShardId;
+
+import java.io.IOException;
+
+class ShardImageBatchSearchResponse extends BroadcastShardResponse {
+    private ImageBatchSearchResponse.Hit[][] hits;
+
+    ShardImageBatchSearchResponse() {
+    }
+
+    ShardImageBatchSearchResponse(ShardId shardId, ImageBatchSearchResponse.Hit[][] hits) {
+        super(shardId);
+        this.hits = hits;
+    }
+
+    /**
+     * Top hits of the shard for each query image
+     */
+    ImageBatchSearchResponse.Hit[][] hits() {
+        return hits;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        hits = ImageBatchSearchResponse.readHits(in);
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        ImageBatchSearchResponse.writeHits(out, hits);
+    }
+}
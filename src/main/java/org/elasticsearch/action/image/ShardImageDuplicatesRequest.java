@@ -0,0 +1,96 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.support.broadcast.BroadcastShardRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.index.shard.ShardId;
+
+import java.io.IOException;
+
+public class ShardImageDuplicatesRequest extends BroadcastShardRequest {
+    private String jobId;
+    private String field;
+    private GlobalFeatureEnum feature;
+    private double maxDistance;
+    private int hammingDistance;
+    private int maxBlockSize;
+    private int size;
+    private String writeIndex;
+
+    public ShardImageDuplicatesRequest() {
+    }
+
+    ShardImageDuplicatesRequest(ShardId shardId, ImageDuplicatesRequest request) {
+        super(shardId, request);
+        this.jobId = request.jobId();
+        this.field = request.field();
+        this.feature = request.feature();
+        this.maxDistance = request.maxDistance();
+        this.hammingDistance = request.hammingDistance();
+        this.maxBlockSize = request.maxBlockSize();
+        this.size = request.size();
+        this.writeIndex = request.writeIndex();
+    }
+
+    String jobId() {
+        return jobId;
+    }
+
+    String field() {
+        return field;
+    }
+
+    GlobalFeatureEnum feature() {
+        return feature;
+    }
+
+    double maxDistance() {
+        return maxDistance;
+    }
+
+    int hammingDistance() {
+        return hammingDistance;
+    }
+
+    int maxBlockSize() {
+        return maxBlockSize;
+    }
+
+    int size() {
+        return size;
+    }
+
+    String writeIndex() {
+        return writeIndex;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        jobId = in.readString();
+        field = in.readOptionalString();
+        feature = in.readBoolean() ? GlobalFeatureEnum.valueOf(in.readString()) : null;
+        maxDistance = in.readDouble();
+        hammingDistance = in.readInt();
+        maxBlockSize = in.readVInt();
+        size = in.readVInt();
+        writeIndex = in.readOptionalString();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeString(jobId);
+        out.writeOptionalString(field);
+        out.writeBoolean(feature != null);
+        if (feature != null) {
+            out.writeString(feature.name());
+        }
+        out.writeDouble(maxDistance);
+        out.writeInt(hammingDistance);
+        out.writeVInt(maxBlockSize);
+        out.writeVInt(size);
+        out.writeOptionalString(writeIndex);
+    }
+}
@@ -0,0 +1,74 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.support.broadcast.BroadcastShardResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.plugin.image.DuplicateJobs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+class ShardImageDuplicatesResponse extends BroadcastShardResponse {
+    private DuplicateJobs.ShardJobStats stats;
+    private long totalClusters;
+    private long writtenClusters;
+    private List<DuplicateCluster> clusters;
+
+    ShardImageDuplicatesResponse() {
+    }
+
+    ShardImageDuplicatesResponse(ShardId shardId, DuplicateJobs.ShardJobStats stats, long totalClusters, long writtenClusters,
+                                 List<DuplicateCluster> clusters) {
+        super(shardId);
+        this.stats = stats;
+        this.totalClusters = totalClusters;
+        this.writtenClusters = writtenClusters;
+        this.clusters = clusters;
+    }
+
+    DuplicateJobs.ShardJobStats stats() {
+        return stats;
+    }
+
+    long totalClusters() {
+        return totalClusters;
+    }
+
+    long writtenClusters() {
+        return writtenClusters;
+    }
+
+    /**
+     * Largest clusters of the shard, at most the requested size
+     */
+    List<DuplicateCluster> clusters() {
+        return clusters;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        stats = DuplicateJobs.ShardJobStats.readShardJobStats(in);
+        totalClusters = in.readVLong();
+        writtenClusters = in.readVLong();
+        int size = in.readVInt();
+        clusters = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            clusters.add(DuplicateCluster.readDuplicateCluster(in));
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        stats.writeTo(out);
+        out.writeVLong(totalClusters);
+        out.writeVLong(writtenClusters);
+        out.writeVInt(clusters.size());
+        for (DuplicateCluster cluster : clusters) {
+            cluster.writeTo(out);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.support.broadcast.BroadcastShardRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.index.shard.ShardId;
+
+import java.io.IOException;
+
+public class ShardImageHashTrainRequest extends BroadcastShardRequest {
+    private GlobalFeatureEnum feature;
+    private int sampleSize;
+    private long seed;
+
+    public ShardImageHashTrainRequest() {
+    }
+
+    /**
+     * @param sampleSize max number of features sampled on the shard
+     */
+    ShardImageHashTrainRequest(ShardId shardId, ImageHashTrainRequest request, int sampleSize) {
+        super(shardId, request);
+        this.feature = request.feature();
+        this.sampleSize = sampleSize;
+        this.seed = request.seed();
+    }
+
+    GlobalFeatureEnum feature() {
+        return feature;
+    }
+
+    int sampleSize() {
+        return sampleSize;
+    }
+
+    long seed() {
+        return seed;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        feature = GlobalFeatureEnum.valueOf(in.readString());
+        sampleSize = in.readVInt();
+        seed = in.readLong();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeString(feature.name());
+        out.writeVInt(sampleSize);
+        out.writeLong(seed);
+    }
+}
@@ -0,0 +1,40 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.support.broadcast.BroadcastShardResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.index.shard.ShardId;
+
+import java.io.IOException;
+import java.util.List;
+
+class ShardImageHashTrainResponse extends BroadcastShardResponse {
+    private List<byte[]> features;
+
+    ShardImageHashTrainResponse() {
+    }
+
+    ShardImageHashTrainResponse(ShardId shardId, List<byte[]> features) {
+        super(shardId);
+        this.features = features;
+    }
+
+    /**
+     * Serialized features sampled on the shard
+     */
+    List<byte[]> features() {
+        return features;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        features = ImageBatchSearchRequest.readImages(in);
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        ImageBatchSearchRequest.writeImages(out, features);
+    }
+}
@@ -0,0 +1,183 @@
+package org.elasticsearch.action.image;
+
+import net.semanticmetadata.lire.imageanalysis.features.LireFeature;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.CollectionUtil;
+import org.elasticsearch.ElasticsearchImageProcessException;
+import org.elasticsearch.action.ShardOperationFailedException;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.DefaultShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.TransportBroadcastAction;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.block.ClusterBlockException;
+import org.elasticsearch.cluster.block.ClusterBlockLevel;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.routing.GroupShardsIterator;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.mapper.DocumentMapper;
+import org.elasticsearch.index.mapper.FieldMapper;
+import org.elasticsearch.index.mapper.Uid;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.index.mapper.image.ImageMapper;
+import org.elasticsearch.index.mapper.internal.UidFieldMapper;
+import org.elasticsearch.index.query.image.ImageBatchSearch;
+import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.plugin.image.ImageService;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Runs {@link ImageBatchSearch} on one copy of every shard and merges the hits of each query image
+ */
+public class TransportImageBatchSearchAction extends TransportBroadcastAction<ImageBatchSearchRequest, ImageBatchSearchResponse, ShardImageBatchSearchRequest, ShardImageBatchSearchResponse> {
+
+    private static final Set<String> UID_FIELD = Collections.singleton(UidFieldMapper.NAME);
+
+    private static final Comparator<ImageBatchSearchResponse.Hit> SCORE_ORDER = new Comparator<ImageBatchSearchResponse.Hit>() {
+        @Override
+        public int compare(ImageBatchSearchResponse.Hit a, ImageBatchSearchResponse.Hit b) {
+            return Float.compare(b.getScore(), a.getScore());
+        }
+    };
+
+    private final IndicesService indicesService;
+    private final ImageService imageService;
+
+    @Inject
+    public TransportImageBatchSearchAction(Settings settings, ThreadPool threadPool, ClusterService clusterService, TransportService transportService,
+                                           IndicesService indicesService, ImageService imageService, ActionFilters actionFilters,
+                                           IndexNameExpressionResolver indexNameExpressionResolver) {
+        super(settings, ImageBatchSearchAction.NAME, threadPool, clusterService, transportService, actionFilters, indexNameExpressionResolver,
+                ImageBatchSearchRequest.class, ShardImageBatchSearchRequest.class, ThreadPool.Names.SEARCH);
+        this.indicesService = indicesService;
+        this.imageService = imageService;
+    }
+
+    @Override
+    protected ShardImageBatchSearchRequest newShardRequest(int numShards, ShardRouting shard, ImageBatchSearchRequest request) {
+        return new ShardImageBatchSearchRequest(shard.shardId(), request);
+    }
+
+    @Override
+    protected ShardImageBatchSearchResponse newShardResponse() {
+        return new ShardImageBatchSearchResponse();
+    }
+
+    @Override
+    protected GroupShardsIterator shards(ClusterState clusterState, ImageBatchSearchRequest request, String[] concreteIndices) {
+        Map<String, Set<String>> routingMap = indexNameExpressionResolver.resolveSearchRouting(clusterState, null, request.indices());
+        return clusterService.operationRouting().searchShards(clusterState, concreteIndices, routingMap, null);
+    }
+
+    @Override
+    protected ClusterBlockException checkGlobalBlock(ClusterState state, ImageBatchSearchRequest request) {
+        return state.blocks().globalBlockedException(ClusterBlockLevel.READ);
+    }
+
+    @Override
+    protected ClusterBlockException checkRequestBlock(ClusterState state, ImageBatchSearchRequest request, String[] concreteIndices) {
+        return state.blocks().indicesBlockedException(ClusterBlockLevel.READ, concreteIndices);
+    }
+
+    @Override
+    protected ShardImageBatchSearchResponse shardOperation(ShardImageBatchSearchRequest request) {
+        IndexShard indexShard = indicesService.indexServiceSafe(request.shardId().getIndex()).shardSafe(request.shardId().id());
+        LireFeature[] features;
+        if (request.features().isEmpty()) {
+            features = ImageBatchSearch.imageFeatures(imageService, request.images(), thumbnailMinSize(indexShard, request.feature()),
+                    request.feature());
+        } else {
+            features = ImageBatchSearch.precomputedFeatures(request.features(), request.feature());
+        }
+        ImageBatchSearch batchSearch = new ImageBatchSearch(features, request.feature(), request.size(), request.maxDistance());
+        try (Engine.Searcher searcher = indexShard.acquireSearcher("image_batch_search")) {
+            TopDocs[] topDocs = batchSearch.search(searcher.reader());
+            ImageBatchSearchResponse.Hit[][] hits = new ImageBatchSearchResponse.Hit[topDocs.length][];
+            for (int i = 0; i < topDocs.length; i++) {
+                ScoreDoc[] scoreDocs = topDocs[i].scoreDocs;
+                hits[i] = new ImageBatchSearchResponse.Hit[scoreDocs.length];
+                for (int j = 0; j < scoreDocs.length; j++) {
+                    Document document = searcher.reader().document(scoreDocs[j].doc, UID_FIELD);
+                    Uid uid = Uid.createUid(document.get(UidFieldMapper.NAME));
+                    hits[i][j] = new ImageBatchSearchResponse.Hit(request.shardId().getIndex(), uid.type(), uid.id(), scoreDocs[j].score);
+                }
+            }
+            return new ShardImageBatchSearchResponse(request.shardId(), hits);
+        } catch (IOException e) {
+            throw new ElasticsearchImageProcessException("Failed to search images on " + request.shardId(), e);
+        }
+    }
+
+    /**
+     * Thumbnail size of the image fields extracting the feature, query images are decoded like their indexed images.
+     * Fields share the feature field, so the first field with a thumbnail wins
+     */
+    private static int thumbnailMinSize(IndexShard indexShard, GlobalFeatureEnum globalFeatureEnum) {
+        for (DocumentMapper docMapper : indexShard.mapperService().docMappers(false)) {
+            for (FieldMapper fieldMapper : docMapper.mappers()) {
+                if (fieldMapper instanceof ImageMapper && ((ImageMapper) fieldMapper).extracts(globalFeatureEnum)) {
+                    int thumbnailMinSize = ((ImageMapper.ImageFieldType) fieldMapper.fieldType()).thumbnailMinSize();
+                    if (thumbnailMinSize > 0) {
+                        return thumbnailMinSize;
+                    }
+                }
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    protected ImageBatchSearchResponse newResponse(ImageBatchSearchRequest request, AtomicReferenceArray shardsResponses, ClusterState clusterState) {
+        int successfulShards = 0;
+        int failedShards = 0;
+        List<ShardOperationFailedException> shardFailures = null;
+        List<List<ImageBatchSearchResponse.Hit>> merged = new ArrayList<>(request.queryCount());
+        for (int i = 0; i < request.queryCount(); i++) {
+            merged.add(new ArrayList<ImageBatchSearchResponse.Hit>());
+        }
+        for (int i = 0; i < shardsResponses.length(); i++) {
+            Object shardResponse = shardsResponses.get(i);
+            if (shardResponse == null) {
+                // a non active shard, ignore
+            } else if (shardResponse instanceof BroadcastShardOperationFailedException) {
+                failedShards++;
+                if (shardFailures == null) {
+                    shardFailures = new ArrayList<>();
+                }
+                shardFailures.add(new DefaultShardOperationFailedException((BroadcastShardOperationFailedException) shardResponse));
+            } else {
+                ImageBatchSearchResponse.Hit[][] shardHits = ((ShardImageBatchSearchResponse) shardResponse).hits();
+                for (int image = 0; image < shardHits.length; image++) {
+                    Collections.addAll(merged.get(image), shardHits[image]);
+                }
+                successfulShards++;
+            }
+        }
+
+        ImageBatchSearchResponse.Hit[][] hits = new ImageBatchSearchResponse.Hit[merged.size()][];
+        for (int image = 0; image < hits.length; image++) {
+            List<ImageBatchSearchResponse.Hit> imageHits = merged.get(image);
+            CollectionUtil.timSort(imageHits, SCORE_ORDER);
+            hits[image] = imageHits.subList(0, Math.min(request.size(), imageHits.size())).toArray(new ImageBatchSearchResponse.Hit[0]);
+        }
+        return new ImageBatchSearchResponse(hits, shardsResponses.length(), successfulShards, failedShards, shardFailures);
+    }
+}
@@ -0,0 +1,230 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.ElasticsearchImageProcessException;
+import org.elasticsearch.action.ShardOperationFailedException;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.bulk.TransportBulkAction;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.DefaultShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.TransportBroadcastAction;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.block.ClusterBlockException;
+import org.elasticsearch.cluster.block.ClusterBlockLevel;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.routing.GroupShardsIterator;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.mapper.Uid;
+import org.elasticsearch.index.mapper.image.ImageMapper;
+import org.elasticsearch.index.mapper.image.PerceptualHash;
+import org.elasticsearch.index.mapper.internal.UidFieldMapper;
+import org.elasticsearch.index.query.image.DuplicateJoin;
+import org.elasticsearch.index.query.image.ImageQueryParser;
+import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.plugin.image.DuplicateJobs;
+import org.elasticsearch.plugin.image.ImageService;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+/**
+ * Joins the images of one copy of every shard with {@link DuplicateJoin}, stripes of a shard run on the image search thread pool.
+ * Shard joins run on the generic thread pool so long jobs do not hold search threads, duplicates across shards are not found.
+ * With a write index every shard bulk indexes all its clusters there, one document per cluster.
+ */
+public class TransportImageDuplicatesAction extends TransportBroadcastAction<ImageDuplicatesRequest, ImageDuplicatesResponse, ShardImageDuplicatesRequest, ShardImageDuplicatesResponse> {
+
+    /**
+     * Type of the cluster documents in the write index
+     */
+    public static final String CLUSTER_TYPE = "duplicate_cluster";
+
+    private static final int WRITE_BATCH_SIZE = 1000;
+
+    private final IndicesService indicesService;
+    private final ImageService imageService;
+    private final TransportBulkAction bulkAction;
+
+    @Inject
+    public TransportImageDuplicatesAction(Settings settings, ThreadPool threadPool, ClusterService clusterService, TransportService transportService,
+                                          IndicesService indicesService, ImageService imageService, TransportBulkAction bulkAction,
+                                          ActionFilters actionFilters, IndexNameExpressionResolver indexNameExpressionResolver) {
+        super(settings, ImageDuplicatesAction.NAME, threadPool, clusterService, transportService, actionFilters, indexNameExpressionResolver,
+                ImageDuplicatesRequest.class, ShardImageDuplicatesRequest.class, ThreadPool.Names.GENERIC);
+        this.indicesService = indicesService;
+        this.imageService = imageService;
+        this.bulkAction = bulkAction;
+    }
+
+    @Override
+    protected ShardImageDuplicatesRequest newShardRequest(int numShards, ShardRouting shard, ImageDuplicatesRequest request) {
+        return new ShardImageDuplicatesRequest(shard.shardId(), request);
+    }
+
+    @Override
+    protected ShardImageDuplicatesResponse newShardResponse() {
+        return new ShardImageDuplicatesResponse();
+    }
+
+    @Override
+    protected GroupShardsIterator shards(ClusterState clusterState, ImageDuplicatesRequest request, String[] concreteIndices) {
+        Map<String, Set<String>> routingMap = indexNameExpressionResolver.resolveSearchRouting(clusterState, null, request.indices());
+        return clusterService.operationRouting().searchShards(clusterState, concreteIndices, routingMap, null);
+    }
+
+    @Override
+    protected ClusterBlockException checkGlobalBlock(ClusterState state, ImageDuplicatesRequest request) {
+        return state.blocks().globalBlockedException(ClusterBlockLevel.READ);
+    }
+
+    @Override
+    protected ClusterBlockException checkRequestBlock(ClusterState state, ImageDuplicatesRequest request, String[] concreteIndices) {
+        return state.blocks().indicesBlockedException(ClusterBlockLevel.READ, concreteIndices);
+    }
+
+    @Override
+    protected ShardImageDuplicatesResponse shardOperation(ShardImageDuplicatesRequest request) {
+        IndexService indexService = indicesService.indexServiceSafe(request.shardId().getIndex());
+        IndexShard indexShard = indexService.shardSafe(request.shardId().id());
+        DuplicateJobs.ShardJob job = imageService.duplicateJobs().start(request.jobId(), request.shardId());
+        try (Engine.Searcher searcher = indexShard.acquireSearcher("image_duplicates")) {
+            DuplicateJoin join;
+            if (request.feature() != null) {
+                join = DuplicateJoin.features(searcher.reader(), request.feature(), request.maxDistance());
+            } else {
+                MappedFieldType fieldType = indexService.mapperService().smartNameFieldType(request.field());
+                PerceptualHash perceptualHash = fieldType instanceof ImageMapper.ImageFieldType ?
+                        ((ImageMapper.ImageFieldType) fieldType).perceptualHash() : null;
+                if (perceptualHash == null) {
+                    throw new IllegalArgumentException("[image] field [" + request.field() + "] has no [" + PerceptualHash.PERCEPTUAL_HASH + "]");
+                }
+                join = DuplicateJoin.perceptualHash(searcher.reader(), fieldType.names().indexName(), perceptualHash, request.hammingDistance());
+            }
+            List<int[]> clusters = join.join(threadPool.executor(ImageQueryParser.SEARCH_THREAD_POOL),
+                    threadPool.info(ImageQueryParser.SEARCH_THREAD_POOL).getMax(), request.maxBlockSize(), job);
+
+            List<DuplicateCluster> shardClusters = new ArrayList<>(Math.min(clusters.size(), request.size()));
+            for (int[] docs : clusters.subList(0, Math.min(clusters.size(), request.size()))) {
+                shardClusters.add(cluster(searcher, request.shardId(), docs));
+            }
+            long writtenClusters = request.writeIndex() == null ? 0 : writeClusters(searcher, request, clusters);
+            return new ShardImageDuplicatesResponse(request.shardId(), job.stats(), clusters.size(), writtenClusters, shardClusters);
+        } catch (IOException e) {
+            throw new ElasticsearchImageProcessException("Failed to join duplicates on " + request.shardId(), e);
+        } finally {
+            imageService.duplicateJobs().finish(job);
+        }
+    }
+
+    private static DuplicateCluster cluster(Engine.Searcher searcher, ShardId shardId, int[] docs) throws IOException {
+        String[] types = new String[docs.length];
+        String[] ids = new String[docs.length];
+        for (int i = 0; i < docs.length; i++) {
+            Uid uid = Uid.createUid(searcher.searcher().doc(docs[i], Collections.singleton(UidFieldMapper.NAME)).get(UidFieldMapper.NAME));
+            types[i] = uid.type();
+            ids[i] = uid.id();
+        }
+        return new DuplicateCluster(shardId.getIndex(), types, ids);
+    }
+
+    /**
+     * Index all clusters of the shard in bulks, ids depend on the job, shard and cluster rank so a job run again overwrites its clusters
+     */
+    private long writeClusters(Engine.Searcher searcher, ShardImageDuplicatesRequest request, List<int[]> clusters) throws IOException {
+        ShardId shardId = request.shardId();
+        String idPrefix = request.jobId() + "_" + shardId.getIndex() + "_" + shardId.id() + "_";
+        BulkRequest bulkRequest = new BulkRequest();
+        for (int rank = 0; rank < clusters.size(); rank++) {
+            DuplicateCluster cluster = cluster(searcher, shardId, clusters.get(rank));
+            XContentBuilder source = jsonBuilder().startObject()
+                    .field("job_id", request.jobId())
+                    .field("index", cluster.getIndex())
+                    .field("shard", shardId.id())
+                    .field("size", cluster.size())
+                    .startArray("docs");
+            for (int i = 0; i < cluster.size(); i++) {
+                source.startObject().field("type", cluster.getType(i)).field("id", cluster.getId(i)).endObject();
+            }
+            source.endArray().endObject();
+            bulkRequest.add(new IndexRequest(request.writeIndex(), CLUSTER_TYPE, idPrefix + rank).source(source));
+            if (bulkRequest.numberOfActions() == WRITE_BATCH_SIZE || rank == clusters.size() - 1) {
+                BulkResponse bulkResponse = bulkAction.execute(bulkRequest).actionGet();
+                if (bulkResponse.hasFailures()) {
+                    throw new ElasticsearchImageProcessException("Failed to write duplicate clusters of " + shardId + " to ["
+                            + request.writeIndex() + "]: " + bulkResponse.buildFailureMessage());
+                }
+                bulkRequest = new BulkRequest();
+            }
+        }
+        return clusters.size();
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    protected ImageDuplicatesResponse newResponse(ImageDuplicatesRequest request, AtomicReferenceArray shardsResponses, ClusterState clusterState) {
+        int successfulShards = 0;
+        int failedShards = 0;
+        List<ShardOperationFailedException> shardFailures = null;
+        boolean cancelled = false;
+        long blocks = 0;
+        long skippedBlocks = 0;
+        long comparedPairs = 0;
+        long totalClusters = 0;
+        long writtenClusters = 0;
+        List<DuplicateCluster> clusters = new ArrayList<>();
+        for (int i = 0; i < shardsResponses.length(); i++) {
+            Object shardResponse = shardsResponses.get(i);
+            if (shardResponse == null) {
+                // a non active shard, ignore
+            } else if (shardResponse instanceof BroadcastShardOperationFailedException) {
+                failedShards++;
+                if (shardFailures == null) {
+                    shardFailures = new ArrayList<>();
+                }
+                shardFailures.add(new DefaultShardOperationFailedException((BroadcastShardOperationFailedException) shardResponse));
+            } else {
+                ShardImageDuplicatesResponse response = (ShardImageDuplicatesResponse) shardResponse;
+                cancelled |= response.stats().isCancelled();
+                blocks += response.stats().getBlocks();
+                skippedBlocks += response.stats().getSkippedBlocks();
+                comparedPairs += response.stats().getComparedPairs();
+                totalClusters += response.totalClusters();
+                writtenClusters += response.writtenClusters();
+                clusters.addAll(response.clusters());
+                successfulShards++;
+            }
+        }
+        Collections.sort(clusters, new Comparator<DuplicateCluster>() {
+            @Override
+            public int compare(DuplicateCluster o1, DuplicateCluster o2) {
+                return Integer.compare(o2.size(), o1.size());
+            }
+        });
+        if (clusters.size() > request.size()) {
+            clusters = new ArrayList<>(clusters.subList(0, request.size()));
+        }
+        return new ImageDuplicatesResponse(request.jobId(), cancelled, blocks, skippedBlocks, comparedPairs, totalClusters, writtenClusters, clusters,
+                shardsResponses.length(), successfulShards, failedShards, shardFailures);
+    }
+}
@@ -0,0 +1,94 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.nodes.BaseNodeRequest;
+import org.elasticsearch.action.support.nodes.TransportNodesAction;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.plugin.image.ImageService;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Flags the shard joins of a job on each node, they stop after their current block and return the clusters found so far
+ */
+public class TransportImageDuplicatesCancelAction extends TransportNodesAction<ImageDuplicatesCancelRequest, ImageDuplicatesCancelResponse, TransportImageDuplicatesCancelAction.NodeRequest, NodeDuplicatesCancel> {
+
+    private final ImageService imageService;
+
+    @Inject
+    public TransportImageDuplicatesCancelAction(Settings settings, ClusterName clusterName, ThreadPool threadPool, ClusterService clusterService,
+                                                TransportService transportService, ImageService imageService, ActionFilters actionFilters,
+                                                IndexNameExpressionResolver indexNameExpressionResolver) {
+        super(settings, ImageDuplicatesCancelAction.NAME, clusterName, threadPool, clusterService, transportService, actionFilters,
+                indexNameExpressionResolver, ImageDuplicatesCancelRequest.class, NodeRequest.class, ThreadPool.Names.MANAGEMENT);
+        this.imageService = imageService;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    protected ImageDuplicatesCancelResponse newResponse(ImageDuplicatesCancelRequest request, AtomicReferenceArray responses) {
+        List<NodeDuplicatesCancel> nodes = new ArrayList<>();
+        for (int i = 0; i < responses.length(); i++) {
+            Object response = responses.get(i);
+            if (response instanceof NodeDuplicatesCancel) {
+                nodes.add((NodeDuplicatesCancel) response);
+            }
+        }
+        return new ImageDuplicatesCancelResponse(clusterName, nodes.toArray(new NodeDuplicatesCancel[nodes.size()]));
+    }
+
+    @Override
+    protected NodeRequest newNodeRequest(String nodeId, ImageDuplicatesCancelRequest request) {
+        return new NodeRequest(nodeId, request);
+    }
+
+    @Override
+    protected NodeDuplicatesCancel newNodeResponse() {
+        return new NodeDuplicatesCancel();
+    }
+
+    @Override
+    protected NodeDuplicatesCancel nodeOperation(NodeRequest request) {
+        return new NodeDuplicatesCancel(clusterService.localNode(), imageService.duplicateJobs().cancel(request.jobId));
+    }
+
+    @Override
+    protected boolean accumulateExceptions() {
+        return false;
+    }
+
+    public static class NodeRequest extends BaseNodeRequest {
+        private String jobId;
+
+        public NodeRequest() {
+        }
+
+        NodeRequest(String nodeId, ImageDuplicatesCancelRequest request) {
+            super(request, nodeId);
+            this.jobId = request.jobId();
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            super.readFrom(in);
+            jobId = in.readString();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeString(jobId);
+        }
+    }
+}
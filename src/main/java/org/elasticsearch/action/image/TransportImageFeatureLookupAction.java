@@ -0,0 +1,95 @@
+package org.elasticsearch.action.image;
+
+import org.apache.lucene.index.Term;
+import org.elasticsearch.ElasticsearchImageProcessException;
+import org.elasticsearch.action.RoutingMissingException;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.single.shard.TransportSingleShardAction;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.routing.ShardIterator;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.lucene.uid.Versions;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.mapper.Uid;
+import org.elasticsearch.index.mapper.internal.UidFieldMapper;
+import org.elasticsearch.index.query.image.IndexedFeatures;
+import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Finds the document by {@code _uid} on a copy of its shard, the local one if there is, and reads its features
+ * from doc values or stored fields. Nothing is taken from {@code _source}, so no image is decoded.
+ * Like a non realtime get, documents indexed since the last refresh are not found.
+ */
+public class TransportImageFeatureLookupAction extends TransportSingleShardAction<ImageFeatureLookupRequest, ImageFeatureLookupResponse> {
+
+    private static final String LOCAL_PREFERENCE = "_local";
+
+    private final IndicesService indicesService;
+
+    @Inject
+    public TransportImageFeatureLookupAction(Settings settings, ClusterService clusterService, TransportService transportService,
+                                             IndicesService indicesService, ThreadPool threadPool, ActionFilters actionFilters,
+                                             IndexNameExpressionResolver indexNameExpressionResolver) {
+        super(settings, ImageFeatureLookupAction.NAME, threadPool, clusterService, transportService, actionFilters, indexNameExpressionResolver,
+                ImageFeatureLookupRequest.class, ThreadPool.Names.GET);
+        this.indicesService = indicesService;
+    }
+
+    @Override
+    protected boolean resolveIndex(ImageFeatureLookupRequest request) {
+        return true;
+    }
+
+    @Override
+    protected void resolveRequest(ClusterState state, InternalRequest request) {
+        // the index can be an alias with routing
+        request.request().routing(state.metaData().resolveIndexRouting(request.request().routing(), request.request().index()));
+        if (request.request().routing() == null && request.request().type() != null
+                && state.getMetaData().routingRequired(request.concreteIndex(), request.request().type())) {
+            throw new RoutingMissingException(request.concreteIndex(), request.request().type(), request.request().id());
+        }
+    }
+
+    @Override
+    protected ShardIterator shards(ClusterState state, InternalRequest request) {
+        return clusterService.operationRouting().getShards(state, request.concreteIndex(), request.request().type(), request.request().id(),
+                request.request().routing(), LOCAL_PREFERENCE);
+    }
+
+    @Override
+    protected ImageFeatureLookupResponse shardOperation(ImageFeatureLookupRequest request, ShardId shardId) {
+        IndexShard indexShard = indicesService.indexServiceSafe(shardId.getIndex()).shardSafe(shardId.id());
+        Collection<String> types = request.type() == null ? indexShard.mapperService().types() : Collections.singleton(request.type());
+        for (String type : types) {
+            Engine.GetResult get = indexShard.get(new Engine.Get(false, new Term(UidFieldMapper.NAME, Uid.createUidAsBytes(type, request.id()))));
+            try {
+                if (get.exists()) {
+                    Versions.DocIdAndVersion docIdAndVersion = get.docIdAndVersion();
+                    return new ImageFeatureLookupResponse(true,
+                            IndexedFeatures.read(docIdAndVersion.context.reader(), docIdAndVersion.docId, request.features()));
+                }
+            } catch (IOException e) {
+                throw new ElasticsearchImageProcessException("Failed to read features of [" + type + "/" + request.id() + "] on " + shardId, e);
+            } finally {
+                get.release();
+            }
+        }
+        return new ImageFeatureLookupResponse(false, new byte[request.features().size()][]);
+    }
+
+    @Override
+    protected ImageFeatureLookupResponse newResponse() {
+        return new ImageFeatureLookupResponse();
+    }
+}
@@ -0,0 +1,150 @@
+package org.elasticsearch.action.image;
+
+import net.semanticmetadata.lire.builders.GlobalDocumentBuilder.HashingMode;
+import net.semanticmetadata.lire.imageanalysis.features.GlobalFeature;
+import org.elasticsearch.ElasticsearchImageProcessException;
+import org.elasticsearch.action.ShardOperationFailedException;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.DefaultShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.TransportBroadcastAction;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.block.ClusterBlockException;
+import org.elasticsearch.cluster.block.ClusterBlockLevel;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.routing.GroupShardsIterator;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.mapper.image.HashParameters;
+import org.elasticsearch.index.mapper.image.PrecomputedFeature;
+import org.elasticsearch.index.query.image.FeatureSample;
+import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Samples features on one copy of every shard and trains {@link HashParameters} on the merged sample
+ */
+public class TransportImageHashTrainAction extends TransportBroadcastAction<ImageHashTrainRequest, ImageHashTrainResponse, ShardImageHashTrainRequest, ShardImageHashTrainResponse> {
+
+    private final IndicesService indicesService;
+
+    @Inject
+    public TransportImageHashTrainAction(Settings settings, ThreadPool threadPool, ClusterService clusterService, TransportService transportService,
+                                         IndicesService indicesService, ActionFilters actionFilters,
+                                         IndexNameExpressionResolver indexNameExpressionResolver) {
+        super(settings, ImageHashTrainAction.NAME, threadPool, clusterService, transportService, actionFilters, indexNameExpressionResolver,
+                ImageHashTrainRequest.class, ShardImageHashTrainRequest.class, ThreadPool.Names.SEARCH);
+        this.indicesService = indicesService;
+    }
+
+    @Override
+    protected ShardImageHashTrainRequest newShardRequest(int numShards, ShardRouting shard, ImageHashTrainRequest request) {
+        return new ShardImageHashTrainRequest(shard.shardId(), request, (request.sampleSize() + numShards - 1) / numShards);
+    }
+
+    @Override
+    protected ShardImageHashTrainResponse newShardResponse() {
+        return new ShardImageHashTrainResponse();
+    }
+
+    @Override
+    protected GroupShardsIterator shards(ClusterState clusterState, ImageHashTrainRequest request, String[] concreteIndices) {
+        Map<String, Set<String>> routingMap = indexNameExpressionResolver.resolveSearchRouting(clusterState, null, request.indices());
+        return clusterService.operationRouting().searchShards(clusterState, concreteIndices, routingMap, null);
+    }
+
+    @Override
+    protected ClusterBlockException checkGlobalBlock(ClusterState state, ImageHashTrainRequest request) {
+        return state.blocks().globalBlockedException(ClusterBlockLevel.READ);
+    }
+
+    @Override
+    protected ClusterBlockException checkRequestBlock(ClusterState state, ImageHashTrainRequest request, String[] concreteIndices) {
+        return state.blocks().indicesBlockedException(ClusterBlockLevel.READ, concreteIndices);
+    }
+
+    @Override
+    protected ShardImageHashTrainResponse shardOperation(ShardImageHashTrainRequest request) {
+        IndexShard indexShard = indicesService.indexServiceSafe(request.shardId().getIndex()).shardSafe(request.shardId().id());
+        try (Engine.Searcher searcher = indexShard.acquireSearcher("image_hash_train")) {
+            Random random = new Random(31 * request.seed() + request.shardId().hashCode());
+            return new ShardImageHashTrainResponse(request.shardId(),
+                    FeatureSample.sample(searcher.reader(), request.feature(), request.sampleSize(), random));
+        } catch (IOException e) {
+            throw new ElasticsearchImageProcessException("Failed to sample features on " + request.shardId(), e);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    protected ImageHashTrainResponse newResponse(ImageHashTrainRequest request, AtomicReferenceArray shardsResponses, ClusterState clusterState) {
+        int successfulShards = 0;
+        int failedShards = 0;
+        List<ShardOperationFailedException> shardFailures = null;
+        List<GlobalFeature> sample = new ArrayList<>();
+        for (int i = 0; i < shardsResponses.length(); i++) {
+            Object shardResponse = shardsResponses.get(i);
+            if (shardResponse == null) {
+                // a non active shard, ignore
+            } else if (shardResponse instanceof BroadcastShardOperationFailedException) {
+                failedShards++;
+                if (shardFailures == null) {
+                    shardFailures = new ArrayList<>();
+                }
+                shardFailures.add(new DefaultShardOperationFailedException((BroadcastShardOperationFailedException) shardResponse));
+            } else {
+                for (byte[] feature : ((ShardImageHashTrainResponse) shardResponse).features()) {
+                    sample.add(PrecomputedFeature.parse(request.feature(), feature));
+                }
+                successfulShards++;
+            }
+        }
+        if (sample.size() > request.sampleSize()) {
+            Collections.shuffle(sample, new Random(request.seed()));
+            sample = sample.subList(0, request.sampleSize());
+        }
+
+        Map<String, Object> hashParameters = null;
+        if (!sample.isEmpty()) {
+            HashParameters parameters = HashParameters.train(request.hashingMode(), sample, request.seed(), request.tables(),
+                    size(request), request.hashingMode() == HashingMode.LSH ? request.projections() : request.postingLength());
+            try {
+                XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+                parameters.toXContent(builder);
+                hashParameters = XContentHelper.convertToMap(builder.endObject().bytes(), true).v2();
+            } catch (IOException e) {
+                throw new ElasticsearchImageProcessException("Failed to serialize hash parameters", e);
+            }
+        }
+        return new ImageHashTrainResponse(sample.size(), hashParameters, shardsResponses.length(), successfulShards, failedShards, shardFailures);
+    }
+
+    /**
+     * Size of the hash functions of the mode, bits, buckets or reference points
+     */
+    private static int size(ImageHashTrainRequest request) {
+        if (request.hashingMode() == HashingMode.BitSampling) {
+            return request.bits();
+        } else if (request.hashingMode() == HashingMode.LSH) {
+            return request.buckets();
+        }
+        return request.referencePoints();
+    }
+}
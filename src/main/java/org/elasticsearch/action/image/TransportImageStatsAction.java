@@ -0,0 +1,77 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.nodes.BaseNodeRequest;
+import org.elasticsearch.action.support.nodes.TransportNodesAction;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.plugin.image.ImageService;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Collects the {@link NodeImageStats} of each node
+ */
+public class TransportImageStatsAction extends TransportNodesAction<ImageStatsRequest, ImageStatsResponse, TransportImageStatsAction.NodeRequest, NodeImageStats> {
+
+    private final ImageService imageService;
+
+    @Inject
+    public TransportImageStatsAction(Settings settings, ClusterName clusterName, ThreadPool threadPool, ClusterService clusterService,
+                                     TransportService transportService, ImageService imageService, ActionFilters actionFilters,
+                                     IndexNameExpressionResolver indexNameExpressionResolver) {
+        super(settings, ImageStatsAction.NAME, clusterName, threadPool, clusterService, transportService, actionFilters,
+                indexNameExpressionResolver, ImageStatsRequest.class, NodeRequest.class, ThreadPool.Names.MANAGEMENT);
+        this.imageService = imageService;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    protected ImageStatsResponse newResponse(ImageStatsRequest request, AtomicReferenceArray responses) {
+        List<NodeImageStats> nodes = new ArrayList<>();
+        for (int i = 0; i < responses.length(); i++) {
+            Object response = responses.get(i);
+            if (response instanceof NodeImageStats) {
+                nodes.add((NodeImageStats) response);
+            }
+        }
+        return new ImageStatsResponse(clusterName, nodes.toArray(new NodeImageStats[nodes.size()]));
+    }
+
+    @Override
+    protected NodeRequest newNodeRequest(String nodeId, ImageStatsRequest request) {
+        return new NodeRequest(nodeId, request);
+    }
+
+    @Override
+    protected NodeImageStats newNodeResponse() {
+        return new NodeImageStats();
+    }
+
+    @Override
+    protected NodeImageStats nodeOperation(NodeRequest request) {
+        return new NodeImageStats(clusterService.localNode(), imageService);
+    }
+
+    @Override
+    protected boolean accumulateExceptions() {
+        return false;
+    }
+
+    public static class NodeRequest extends BaseNodeRequest {
+
+        public NodeRequest() {
+        }
+
+        NodeRequest(String nodeId, ImageStatsRequest request) {
+            super(request, nodeId);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package org.elasticsearch.index.mapper.image;
+
+import net.semanticmetadata.lire.builders.GlobalDocumentBuilder.HashingMode;
+import net.semanticmetadata.lire.imageanalysis.features.GlobalFeature;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.ElasticsearchImageProcessException;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.Strings;
+
+import java.awt.image.BufferedImage;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Pattern;
+
+/**
+ * Extract one global feature and create the same fields as {@link net.semanticmetadata.lire.builders.GlobalDocumentBuilder},
+ * plus the doc values of its code when the feature is quantized.
+ * LIRE feature instances keep their histogram buffers, they are pooled and reused across documents,
+ * an instance is only used by one thread at a time.
+ */
+class FeatureExtractor {
+    private static final String HASH_DELIMITERS = " \t\r\n";
+    private static final Pattern NUMBER_TERM = Pattern.compile("-?\\d{1,19}");
+    private static final Pattern REFERENCE_POINT_TERM = Pattern.compile("R\\d{5}");
+
+    private final GlobalFeatureEnum globalFeatureEnum;
+    private final HashingMode hashingMode;
+    private final String fieldName;
+    private final String hashFieldName;
+    private final String codeFieldName;
+    private final HashParameters hashParameters;
+    private final Queue<GlobalFeature> instances = new ConcurrentLinkedQueue<>();
+    private volatile int referenceHashTerms = -1;
+
+    /**
+     * @param quantize also create the {@link ScalarQuantizer} code of the feature
+     * @param hashParameters trained hash functions, null to hash with the functions of LIRE
+     */
+    FeatureExtractor(GlobalFeatureEnum globalFeatureEnum, HashingMode hashingMode, boolean quantize, @Nullable HashParameters hashParameters) {
+        this.globalFeatureEnum = globalFeatureEnum;
+        this.hashingMode = hashingMode;
+        this.hashParameters = hashParameters;
+        GlobalFeature instance = newInstance();
+        this.fieldName = instance.getFieldName();
+        this.hashFieldName = ImageHashing.hashFieldName(fieldName);
+        this.codeFieldName = quantize ? ScalarQuantizer.codeFieldName(fieldName) : null;
+        instances.offer(instance);
+    }
+
+    GlobalFeatureEnum globalFeatureEnum() {
+        return globalFeatureEnum;
+    }
+
+    /**
+     * Field name of serialized feature
+     */
+    String fieldName() {
+        return fieldName;
+    }
+
+    /**
+     * Field name of quantized feature, null if feature is not quantized
+     */
+    String codeFieldName() {
+        return codeFieldName;
+    }
+
+    /**
+     * @param image image already scaled to {@link net.semanticmetadata.lire.builders.DocumentBuilder#MAX_IMAGE_DIMENSION}
+     */
+    Field[] createFields(BufferedImage image) {
+        GlobalFeature feature = instances.poll();
+        if (feature == null) {
+            feature = newInstance();
+        }
+        try {
+            feature.extract(image);
+            return createFields(feature, null);
+        } finally {
+            instances.offer(feature);
+        }
+    }
+
+    /**
+     * Fields of a feature extracted from the image or sent precomputed
+     * @param hash precomputed hash terms, computed from the feature when null, ignored when the mapping has no hash
+     * @throws IllegalArgumentException if precomputed hash terms are not terms of the hash mode
+     */
+    Field[] createFields(GlobalFeature feature, @Nullable String hash) {
+        Field featureField = new StoredField(fieldName, feature.getByteArrayRepresentation());
+        Field codeField = codeFieldName == null ? null :
+                new BinaryDocValuesField(codeFieldName, new BytesRef(ScalarQuantizer.encode(feature.getFeatureVector())));
+        if (hashingMode == HashingMode.None) {
+            hash = null;
+        } else if (hash == null) {
+            hash = ImageHashing.hashString(hashingMode, feature, hashParameters);
+        } else {
+            hash = checkHash(hash);
+        }
+        if (hash == null) {
+            return codeField == null ? new Field[]{featureField} : new Field[]{featureField, codeField};
+        }
+        Field hashField = new TextField(hashFieldName, hash, Field.Store.YES);
+        return codeField == null ? new Field[]{featureField, hashField} : new Field[]{featureField, hashField, codeField};
+    }
+
+    /**
+     * Precomputed hash terms must look like terms of the hash mode and be as many as the terms of a feature hashed on this node.
+     * Metric spaces hashes may have fewer terms, reference points at the same distance are only kept once by LIRE.
+     * Whether the terms are the right buckets can only be checked by hashing the feature again.
+     * @return null if the feature is not hashed by the hash mode and no terms are given
+     */
+    private String checkHash(String hash) {
+        String[] terms = Strings.tokenizeToStringArray(hash, HASH_DELIMITERS);
+        int expected = referenceHashTerms();
+        boolean metricSpaces = hashingMode == HashingMode.MetricSpaces;
+        if (expected == 0 && terms.length == 0) {
+            return null;
+        }
+        if (metricSpaces ? terms.length == 0 || terms.length > expected : terms.length != expected) {
+            throw new IllegalArgumentException("Precomputed [" + hashingMode + "] hash of feature [" + globalFeatureEnum.name() + "] has ["
+                    + terms.length + "] terms, expected " + (metricSpaces ? "at most " : "") + "[" + expected + "]");
+        }
+        Pattern pattern = metricSpaces ? REFERENCE_POINT_TERM : NUMBER_TERM;
+        for (String term : terms) {
+            if (!pattern.matcher(term).matches()) {
+                throw new IllegalArgumentException("Precomputed [" + hashingMode + "] hash of feature [" + globalFeatureEnum.name()
+                        + "] has invalid term [" + term + "]");
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Number of hash terms of the reference feature, computed once
+     */
+    private int referenceHashTerms() {
+        if (referenceHashTerms < 0) {
+            GlobalFeature feature = newInstance();
+            feature.extract(PrecomputedFeature.referenceImage());
+            String hash = ImageHashing.hashString(hashingMode, feature, hashParameters);
+            referenceHashTerms = hash == null ? 0 : Strings.tokenizeToStringArray(hash, HASH_DELIMITERS).length;
+        }
+        return referenceHashTerms;
+    }
+
+    private GlobalFeature newInstance() {
+        try {
+            return globalFeatureEnum.getGlobalFeatureClass().newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new ElasticsearchImageProcessException("Failed to initial image feature class", e);
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package org.elasticsearch.index.mapper.image;
+
+import net.semanticmetadata.lire.builders.GlobalDocumentBuilder.HashingMode;
+import net.semanticmetadata.lire.imageanalysis.features.GlobalFeature;
+import org.elasticsearch.ElasticsearchImageProcessException;
+import org.elasticsearch.common.Base64;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.mapper.MapperParsingException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+
+import static org.elasticsearch.common.xcontent.support.XContentMapValues.nodeDoubleValue;
+import static org.elasticsearch.common.xcontent.support.XContentMapValues.nodeIntegerValue;
+import static org.elasticsearch.common.xcontent.support.XContentMapValues.nodeLongValue;
+
+/**
+ * Hash functions of one feature trained on a sample of the features of an index, set per feature in the mapping:
+ * {@code "feature": {"CEDD": {"hash_parameters": {"mode": "LSH", "seed": 42, ...}}}}.
+ * They replace the node wide hash functions of LIRE, whose random projections ignore how features are distributed,
+ * so most docs fall in the same few buckets.
+ * Projections are drawn from the seed when the mapping is parsed, only what was learned from the sample is kept in the mapping.
+ * Each table of bit sampling and LSH produces one term, prefixed with the table so tables do not share terms.
+ */
+public abstract class HashParameters {
+    public static final String HASH_PARAMETERS = "hash_parameters";
+    public static final String MODE = "mode";
+    public static final String SEED = "seed";
+    public static final String DIMENSIONS = "dimensions";
+    public static final String TABLES = "tables";
+    public static final String BITS = "bits";
+    public static final String THRESHOLDS = "thresholds";
+    public static final String BUCKETS = "buckets";
+    public static final String PROJECTIONS = "projections";
+    public static final String OFFSETS = "offsets";
+    public static final String WIDTHS = "widths";
+    public static final String POSTING_LENGTH = "posting_length";
+    public static final String REFERENCE_POINTS = "reference_points";
+
+    public static final int DEFAULT_BIT_SAMPLING_TABLES = 100;
+    public static final int DEFAULT_BITS = 12;
+    public static final int DEFAULT_LSH_TABLES = 50;
+    public static final int DEFAULT_BUCKETS = 16;
+    public static final int DEFAULT_PROJECTIONS = 3;
+    public static final int DEFAULT_REFERENCE_POINTS = 500;
+    public static final int DEFAULT_POSTING_LENGTH = 25;
+
+    public abstract HashingMode hashingMode();
+
+    /**
+     * @return hash terms of the feature separated by spaces
+     */
+    public abstract String hashString(GlobalFeature feature);
+
+    /**
+     * Options of the hash functions, without the enclosing object
+     */
+    public abstract void toXContent(XContentBuilder builder) throws IOException;
+
+    /**
+     * @return null if the feature has no trained hash parameters
+     */
+    @SuppressWarnings("unchecked")
+    public static HashParameters parse(GlobalFeatureEnum globalFeatureEnum, Map<String, Object> featureNode) {
+        Object node = featureNode.get(HASH_PARAMETERS);
+        if (node == null) {
+            return null;
+        }
+        if (!(node instanceof Map)) {
+            throw new MapperParsingException("[" + HASH_PARAMETERS + "] of feature [" + globalFeatureEnum.name() + "] must be an object");
+        }
+        Map<String, Object> parameters = (Map<String, Object>) node;
+        Object mode = parameters.get(MODE);
+        if (mode == null) {
+            throw new MapperParsingException("[" + HASH_PARAMETERS + "] of feature [" + globalFeatureEnum.name() + "] requires [" + MODE + "]");
+        }
+        HashingMode hashingMode = ImageHashing.parseHashingMode(mode.toString());
+        try {
+            switch (hashingMode) {
+                case BitSampling:
+                    return new BitSamplingParameters(nodeLongValue(parameters.get(SEED)), nodeIntegerValue(parameters.get(DIMENSIONS)),
+                            nodeIntegerValue(parameters.get(TABLES)), nodeIntegerValue(parameters.get(BITS)), doubles(parameters.get(THRESHOLDS)));
+                case LSH:
+                    return new LshParameters(nodeLongValue(parameters.get(SEED)), nodeIntegerValue(parameters.get(DIMENSIONS)),
+                            nodeIntegerValue(parameters.get(TABLES)), nodeIntegerValue(parameters.get(PROJECTIONS)),
+                            nodeIntegerValue(parameters.get(BUCKETS)), doubles(parameters.get(OFFSETS)), doubles(parameters.get(WIDTHS)));
+                case MetricSpaces:
+                    List<Object> points = (List<Object>) parameters.get(REFERENCE_POINTS);
+                    List<GlobalFeature> referencePoints = new ArrayList<>(points.size());
+                    for (Object point : points) {
+                        referencePoints.add(PrecomputedFeature.parse(globalFeatureEnum, Base64.decode(point.toString())));
+                    }
+                    return new MetricSpacesParameters(nodeIntegerValue(parameters.get(POSTING_LENGTH)), referencePoints);
+                default:
+                    throw new MapperParsingException("Hash [" + mode + "] of feature [" + globalFeatureEnum.name() + "] can not be trained");
+            }
+        } catch (NullPointerException | ClassCastException | IllegalArgumentException | IOException e) {
+            throw new MapperParsingException("Malformed [" + HASH_PARAMETERS + "] of feature [" + globalFeatureEnum.name() + "]", e);
+        }
+    }
+
+    /**
+     * Learn hash functions from a sample of indexed features
+     * @param sample features of docs picked at random, at least one
+     * @param tables tables of bit sampling and LSH, -1 for the default
+     * @param size bits per table of bit sampling, buckets per projection of LSH or reference points of metric spaces, -1 for the default
+     * @param length projections per table of LSH or reference points per doc of metric spaces, -1 for the default
+     */
+    public static HashParameters train(HashingMode hashingMode, List<GlobalFeature> sample, long seed, int tables, int size, int length) {
+        if (sample.isEmpty()) {
+            throw new IllegalArgumentException("Hash functions can not be trained without features");
+        }
+        double[][] vectors = new double[sample.size()][];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = sample.get(i).getFeatureVector();
+        }
+        switch (hashingMode) {
+            case BitSampling:
+                return BitSamplingParameters.train(vectors, seed, tables < 0 ? DEFAULT_BIT_SAMPLING_TABLES : tables, size < 0 ? DEFAULT_BITS : size);
+            case LSH:
+                return LshParameters.train(vectors, seed, tables < 0 ? DEFAULT_LSH_TABLES : tables, length < 0 ? DEFAULT_PROJECTIONS : length,
+                        size < 0 ? DEFAULT_BUCKETS : size);
+            case MetricSpaces:
+                List<GlobalFeature> referencePoints = new ArrayList<>(sample);
+                Collections.shuffle(referencePoints, new Random(seed));
+                referencePoints = referencePoints.subList(0, Math.min(referencePoints.size(), size < 0 ? DEFAULT_REFERENCE_POINTS : size));
+                return new MetricSpacesParameters(Math.min(referencePoints.size(), length < 0 ? DEFAULT_POSTING_LENGTH : length),
+                        new ArrayList<>(referencePoints));
+            default:
+                throw new IllegalArgumentException("Hash [" + hashingMode + "] can not be trained");
+        }
+    }
+
+    private static double[] doubles(Object node) {
+        List<?> values = (List<?>) node;
+        double[] doubles = new double[values.size()];
+        for (int i = 0; i < doubles.length; i++) {
+            doubles[i] = nodeDoubleValue(values.get(i));
+        }
+        return doubles;
+    }
+
+    /**
+     * Gaussian projections, the same for a seed on every node
+     */
+    private static double[][] projections(long seed, int count, int dimensions) {
+        Random random = new Random(seed);
+        double[][] projections = new double[count][dimensions];
+        for (double[] projection : projections) {
+            for (int i = 0; i < dimensions; i++) {
+                projection[i] = random.nextGaussian();
+            }
+        }
+        return projections;
+    }
+
+    private static double dot(double[] projection, double[] vector) {
+        if (vector.length != projection.length) {
+            throw new ElasticsearchImageProcessException("Feature has [" + vector.length + "] dimensions, hash functions were trained on ["
+                    + projection.length + "]");
+        }
+        double product = 0;
+        for (int i = 0; i < vector.length; i++) {
+            product += projection[i] * vector[i];
+        }
+        return product;
+    }
+
+    /**
+     * Projections of all sample vectors, sorted
+     */
+    private static double[] sortedProjections(double[] projection, double[][] vectors) {
+        double[] values = new double[vectors.length];
+        for (int i = 0; i < vectors.length; i++) {
+            values[i] = dot(projection, vectors[i]);
+        }
+        Arrays.sort(values);
+        return values;
+    }
+
+    /**
+     * Term of a table, tables are kept in the high bits so terms never collide across tables
+     */
+    private static void appendTerm(StringBuilder sb, int table, int value) {
+        if (sb.length() > 0) {
+            sb.append(' ');
+        }
+        sb.append(((long) table << 32) | (value & 0xFFFFFFFFL));
+    }
+
+    /**
+     * Each table hashes to {@code bits} bits, each bit is on when the projection is above its median on the sample,
+     * so every bit splits the docs in half instead of being constant for non negative histograms
+     */
+    static final class BitSamplingParameters extends HashParameters {
+        private final long seed;
+        private final int tables;
+        private final int bits;
+        private final double[] thresholds;
+        private final double[][] projections;
+
+        BitSamplingParameters(long seed, int dimensions, int tables, int bits, double[] thresholds) {
+            if (tables < 1 || bits < 1 || bits > 31 || thresholds.length != tables * bits) {
+                throw new IllegalArgumentException("Invalid bit sampling parameters");
+            }
+            this.seed = seed;
+            this.tables = tables;
+            this.bits = bits;
+            this.thresholds = thresholds;
+            this.projections = projections(seed, tables * bits, dimensions);
+        }
+
+        static BitSamplingParameters train(double[][] vectors, long seed, int tables, int bits) {
+            double[][] projections = projections(seed, tables * bits, vectors[0].length);
+            double[] thresholds = new double[projections.length];
+            for (int i = 0; i < projections.length; i++) {
+                double[] values = sortedProjections(projections[i], vectors);
+                thresholds[i] = values[values.length / 2];
+            }
+            return new BitSamplingParameters(seed, vectors[0].length, tables, bits, thresholds);
+        }
+
+        @Override
+        public HashingMode hashingMode() {
+            return HashingMode.BitSampling;
+        }
+
+        @Override
+        public String hashString(GlobalFeature feature) {
+            double[] vector = feature.getFeatureVector();
+            StringBuilder sb = new StringBuilder(tables * 12);
+            for (int table = 0; table < tables; table++) {
+                int code = 0;
+                for (int bit = 0; bit < bits; bit++) {
+                    int function = table * bits + bit;
+                    if (dot(projections[function], vector) > thresholds[function]) {
+                        code |= 1 << bit;
+                    }
+                }
+                appendTerm(sb, table, code);
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public void toXContent(XContentBuilder builder) throws IOException {
+            builder.field(MODE, HashingMode.BitSampling.name());
+            builder.field(SEED, seed);
+            builder.field(DIMENSIONS, projections[0].length);
+            builder.field(TABLES, tables);
+            builder.field(BITS, bits);
+            builder.field(THRESHOLDS, thresholds);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            BitSamplingParameters that = (BitSamplingParameters) o;
+            return seed == that.seed && tables == that.tables && bits == that.bits
+                    && projections[0].length == that.projections[0].length && Arrays.equals(thresholds, that.thresholds);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(seed, tables, bits, Arrays.hashCode(thresholds));
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "bit_sampling(tables:%d,bits:%d)", tables, bits);
+        }
+    }
+
+    /**
+     * Each table cuts {@code projections} projections in buckets and hashes to the combination of their buckets,
+     * more projections per table mean fewer candidates and more tables mean a better recall.
+     * The 5th to 95th percentile of the sample on a projection is split in {@code buckets} equal widths,
+     * shifted by a random offset so bucket bounds differ across projections.
+     */
+    static final class LshParameters extends HashParameters {
+        private final long seed;
+        private final int tables;
+        private final int buckets;
+        private final double[] offsets;
+        private final double[] widths;
+        private final double[][] projections;
+
+        LshParameters(long seed, int dimensions, int tables, int projections, int buckets, double[] offsets, double[] widths) {
+            if (tables < 1 || projections < 1 || buckets < 1 || offsets.length != tables * projections || widths.length != offsets.length) {
+                throw new IllegalArgumentException("Invalid LSH parameters");
+            }
+            this.seed = seed;
+            this.tables = tables;
+            this.buckets = buckets;
+            this.offsets = offsets;
+            this.widths = widths;
+            this.projections = projections(seed, tables * projections, dimensions);
+        }
+
+        static LshParameters train(double[][] vectors, long seed, int tables, int projectionsPerTable, int buckets) {
+            double[][] projections = projections(seed, tables * projectionsPerTable, vectors[0].length);
+            Random random = new Random(seed + 1);
+            double[] offsets = new double[projections.length];
+            double[] widths = new double[projections.length];
+            for (int i = 0; i < projections.length; i++) {
+                double[] values = sortedProjections(projections[i], vectors);
+                double low = values[(int) (values.length * 0.05)];
+                double high = values[Math.min(values.length - 1, (int) (values.length * 0.95))];
+                double width = (high - low) / buckets;
+                widths[i] = width > 0 ? width : 1;
+                offsets[i] = low - random.nextDouble() * widths[i];
+            }
+            return new LshParameters(seed, vectors[0].length, tables, projectionsPerTable, buckets, offsets, widths);
+        }
+
+        @Override
+        public HashingMode hashingMode() {
+            return HashingMode.LSH;
+        }
+
+        @Override
+        public String hashString(GlobalFeature feature) {
+            double[] vector = feature.getFeatureVector();
+            int projectionsPerTable = projections.length / tables;
+            StringBuilder sb = new StringBuilder(tables * 12);
+            for (int table = 0; table < tables; table++) {
+                int code = 0;
+                for (int i = table * projectionsPerTable; i < (table + 1) * projectionsPerTable; i++) {
+                    code = 31 * code + (int) Math.floor((dot(projections[i], vector) - offsets[i]) / widths[i]);
+                }
+                appendTerm(sb, table, code);
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public void toXContent(XContentBuilder builder) throws IOException {
+            builder.field(MODE, HashingMode.LSH.name());
+            builder.field(SEED, seed);
+            builder.field(DIMENSIONS, projections[0].length);
+            builder.field(TABLES, tables);
+            builder.field(PROJECTIONS, projections.length / tables);
+            builder.field(BUCKETS, buckets);
+            builder.field(OFFSETS, offsets);
+            builder.field(WIDTHS, widths);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            LshParameters that = (LshParameters) o;
+            return seed == that.seed && tables == that.tables && buckets == that.buckets && projections[0].length == that.projections[0].length
+                    && Arrays.equals(offsets, that.offsets) && Arrays.equals(widths, that.widths);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(seed, tables, buckets, Arrays.hashCode(offsets), Arrays.hashCode(widths));
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "lsh(tables:%d,projections:%d,buckets:%d)", tables, projections.length / tables, buckets);
+        }
+    }
+
+    /**
+     * Docs are hashed to their {@code posting_length} nearest reference points, like {@link net.semanticmetadata.lire.indexers.hashing.MetricSpaces},
+     * nearer points are repeated more often so they weigh more in the hash query
+     */
+    static final class MetricSpacesParameters extends HashParameters {
+        private final int postingLength;
+        private final List<GlobalFeature> referencePoints;
+
+        MetricSpacesParameters(int postingLength, List<GlobalFeature> referencePoints) {
+            if (postingLength < 1 || postingLength > referencePoints.size()) {
+                throw new IllegalArgumentException("Invalid metric spaces parameters");
+            }
+            this.postingLength = postingLength;
+            this.referencePoints = Collections.unmodifiableList(referencePoints);
+        }
+
+        @Override
+        public HashingMode hashingMode() {
+            return HashingMode.MetricSpaces;
+        }
+
+        @Override
+        public String hashString(GlobalFeature feature) {
+            // indices of the nearest points, kept sorted by distance
+            int[] nearest = new int[postingLength];
+            double[] distances = new double[postingLength];
+            int found = 0;
+            for (int i = 0; i < referencePoints.size(); i++) {
+                double distance = referencePoints.get(i).getDistance(feature);
+                if (found == postingLength && distance >= distances[found - 1]) {
+                    continue;
+                }
+                int position = found == postingLength ? found - 1 : found++;
+                while (position > 0 && distances[position - 1] > distance) {
+                    distances[position] = distances[position - 1];
+                    nearest[position] = nearest[position - 1];
+                    position--;
+                }
+                distances[position] = distance;
+                nearest[position] = i;
+            }
+            StringBuilder sb = new StringBuilder(postingLength * postingLength * 7);
+            for (int rank = 0; rank < found; rank++) {
+                String term = String.format(Locale.ROOT, "R%05d ", nearest[rank]);
+                for (int i = rank; i < postingLength; i++) {
+                    sb.append(term);
+                }
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public void toXContent(XContentBuilder builder) throws IOException {
+            builder.field(MODE, HashingMode.MetricSpaces.name());
+            builder.field(POSTING_LENGTH, postingLength);
+            builder.startArray(REFERENCE_POINTS);
+            for (GlobalFeature referencePoint : referencePoints) {
+                builder.value(referencePoint.getByteArrayRepresentation());
+            }
+            builder.endArray();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            MetricSpacesParameters that = (MetricSpacesParameters) o;
+            if (postingLength != that.postingLength || referencePoints.size() != that.referencePoints.size()) {
+                return false;
+            }
+            for (int i = 0; i < referencePoints.size(); i++) {
+                if (!Arrays.equals(referencePoints.get(i).getByteArrayRepresentation(), that.referencePoints.get(i).getByteArrayRepresentation())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * postingLength + referencePoints.size();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "metric_spaces(reference_points:%d,posting_length:%d)", referencePoints.size(), postingLength);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.elasticsearch.index.mapper.image;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.mapper.MapperParsingException;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.elasticsearch.common.xcontent.support.XContentMapValues.nodeIntegerValue;
+
+/**
+ * Options of a feature indexed with an HNSW graph, set per feature in the mapping:
+ * {@code "feature": {"CEDD": {"index": "hnsw", "m": 16, "ef_construction": 100}}}
+ */
+public final class HnswParameters {
+    public static final String INDEX = "index";
+    public static final String HNSW = "hnsw";
+    public static final String M = "m";
+    public static final String EF_CONSTRUCTION = "ef_construction";
+
+    public static final int DEFAULT_M = 16;
+    public static final int DEFAULT_EF_CONSTRUCTION = 100;
+
+    private final int m;
+    private final int efConstruction;
+
+    public HnswParameters(int m, int efConstruction) {
+        this.m = m;
+        this.efConstruction = efConstruction;
+    }
+
+    /**
+     * Max number of neighbors per node on upper levels, nodes have twice as many on the base level
+     */
+    public int m() {
+        return m;
+    }
+
+    /**
+     * Size of the candidate list while building the graph
+     */
+    public int efConstruction() {
+        return efConstruction;
+    }
+
+    /**
+     * @return null if the feature is not indexed with a graph
+     */
+    public static HnswParameters parse(String featureName, Map<String, Object> node) {
+        Object index = node.get(INDEX);
+        if (index == null) {
+            return null;
+        }
+        if (!HNSW.equals(index.toString())) {
+            throw new MapperParsingException("Unknown index [" + index + "] for feature [" + featureName + "]");
+        }
+        int m = node.containsKey(M) ? nodeIntegerValue(node.get(M)) : DEFAULT_M;
+        int efConstruction = node.containsKey(EF_CONSTRUCTION) ? nodeIntegerValue(node.get(EF_CONSTRUCTION)) : DEFAULT_EF_CONSTRUCTION;
+        if (m < 2 || efConstruction < 1) {
+            throw new MapperParsingException("[" + M + "] must be at least 2 and [" + EF_CONSTRUCTION + "] at least 1 for feature [" + featureName + "]");
+        }
+        return new HnswParameters(m, efConstruction);
+    }
+
+    public void toXContent(XContentBuilder builder) throws IOException {
+        builder.field(INDEX, HNSW);
+        builder.field(M, m);
+        builder.field(EF_CONSTRUCTION, efConstruction);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        HnswParameters that = (HnswParameters) o;
+        return m == that.m && efConstruction == that.efConstruction;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * m + efConstruction;
+    }
+
+    @Override
+    public String toString() {
+        return "hnsw(m:" + m + ",ef_construction:" + efConstruction + ")";
+    }
+}
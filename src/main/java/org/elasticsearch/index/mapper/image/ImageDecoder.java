@@ -0,0 +1,130 @@
+package org.elasticsearch.index.mapper.image;
+
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.imaging.ImageProcessingException;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.exif.ExifThumbnailDirectory;
+import com.drew.metadata.jpeg.JpegDirectory;
+import net.semanticmetadata.lire.utils.ImageUtils;
+import org.elasticsearch.common.Nullable;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Decode images straight to the working resolution of LIRE.
+ * Large images are subsampled by the image reader while decoding, so the full resolution raster is never allocated,
+ * the result is then scaled to the exact max dimension like LIRE does.
+ */
+public final class ImageDecoder {
+
+    /**
+     * Thumbnails whose aspect ratio differs more from the image are letterboxed or cropped
+     */
+    static final double MAX_THUMBNAIL_ASPECT_ERROR = 0.03;
+
+    private ImageDecoder() {
+    }
+
+    /**
+     * @param maxDimension max width and height of the decoded image
+     * @return null if no image reader supports the format
+     */
+    public static BufferedImage decode(byte[] content, int maxDimension) throws IOException {
+        try (ImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(content))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                // rounded down, so the decoded image is never smaller than max dimension
+                int subsampling = Math.max(reader.getWidth(0), reader.getHeight(0)) / maxDimension;
+                if (subsampling > 1) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                BufferedImage img = reader.read(0, param);
+                if (Math.max(img.getHeight(), img.getWidth()) > maxDimension) {
+                    img = ImageUtils.scaleImage(img, maxDimension);
+                }
+                return img;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Decode the thumbnail embedded in the EXIF metadata of a JPEG instead of the image.
+     * The thumbnail is used only when its largest side is at least {@code minDimension}
+     * and it has the aspect ratio of the image.
+     * @return null if there is no such thumbnail, the image itself should then be decoded
+     */
+    public static BufferedImage decodeThumbnail(Metadata metadata, int minDimension, int maxDimension) {
+        ExifThumbnailDirectory thumbnailDirectory = metadata.getFirstDirectoryOfType(ExifThumbnailDirectory.class);
+        JpegDirectory jpegDirectory = metadata.getFirstDirectoryOfType(JpegDirectory.class);
+        if (thumbnailDirectory == null || !thumbnailDirectory.hasThumbnailData() || jpegDirectory == null) {
+            return null;
+        }
+        Integer width = jpegDirectory.getInteger(JpegDirectory.TAG_IMAGE_WIDTH);
+        Integer height = jpegDirectory.getInteger(JpegDirectory.TAG_IMAGE_HEIGHT);
+        if (width == null || height == null || width <= 0 || height <= 0) {
+            return null;
+        }
+        BufferedImage thumbnail;
+        try {
+            thumbnail = decode(thumbnailDirectory.getThumbnailData(), maxDimension);
+        } catch (IOException | RuntimeException e) {
+            // a corrupt thumbnail does not fail the image
+            return null;
+        }
+        if (thumbnail == null || Math.max(thumbnail.getWidth(), thumbnail.getHeight()) < minDimension) {
+            return null;
+        }
+        double aspect = (double) thumbnail.getWidth() / thumbnail.getHeight();
+        double imageAspect = (double) width / height;
+        if (Math.abs(aspect / imageAspect - 1) > MAX_THUMBNAIL_ASPECT_ERROR) {
+            return null;
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Decode the image the way an image field with {@code thumbnail_min_size} does when indexing,
+     * so query images are compared with features extracted from the same kind of raster
+     * @param thumbnailMinSize 0 to always decode the image itself
+     * @return null if no image reader supports the format
+     */
+    public static BufferedImage decodeAsIndexed(byte[] content, int thumbnailMinSize, int maxDimension) throws IOException {
+        if (thumbnailMinSize > 0) {
+            Metadata metadata = readMetadata(content);
+            BufferedImage thumbnail = metadata == null ? null : decodeThumbnail(metadata, thumbnailMinSize, maxDimension);
+            if (thumbnail != null) {
+                return thumbnail;
+            }
+        }
+        return decode(content, maxDimension);
+    }
+
+    /**
+     * Metadata of the image read in one pass over its bytes, for its thumbnail and its metadata fields
+     * @return null if the format has no metadata reader
+     */
+    @Nullable
+    public static Metadata readMetadata(byte[] content) {
+        try {
+            return ImageMetadataReader.readMetadata(new ByteArrayInputStream(content));
+        } catch (ImageProcessingException | IOException e) {
+            return null;
+        }
+    }
+}
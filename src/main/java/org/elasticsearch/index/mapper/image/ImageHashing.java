@@ -0,0 +1,120 @@
+package org.elasticsearch.index.mapper.image;
+
+import net.semanticmetadata.lire.builders.DocumentBuilder;
+import net.semanticmetadata.lire.builders.GlobalDocumentBuilder.HashingMode;
+import net.semanticmetadata.lire.imageanalysis.features.GlobalFeature;
+import net.semanticmetadata.lire.indexers.hashing.BitSampling;
+import net.semanticmetadata.lire.indexers.hashing.LocalitySensitiveHashing;
+import net.semanticmetadata.lire.indexers.hashing.MetricSpaces;
+import net.semanticmetadata.lire.utils.SerializationUtils;
+import org.elasticsearch.ElasticsearchImageProcessException;
+import org.elasticsearch.common.Nullable;
+
+import java.io.IOException;
+
+/**
+ * Hash helpers shared by {@link ImageMapper} and the image query,
+ * so both sides produce the same hash terms for a feature
+ */
+public final class ImageHashing {
+
+    /**
+     * Longest feature vector hashed by the hash functions of LIRE, like {@link net.semanticmetadata.lire.builders.GlobalDocumentBuilder},
+     * they are generated for shorter vectors
+     */
+    public static final int MAX_HASHED_DIMENSIONS = 3100;
+
+    private static volatile boolean bitSamplingLoaded = false;
+    private static volatile boolean lshLoaded = false;
+
+    private ImageHashing() {
+    }
+
+    /**
+     * Parse hash mode, accept both LIRE name (BitSampling) and underscore name (BIT_SAMPLING)
+     */
+    public static HashingMode parseHashingMode(String name) {
+        if (name == null || name.isEmpty()) {
+            return HashingMode.None;
+        }
+        String normalized = name.replace("_", "");
+        for (HashingMode mode : HashingMode.values()) {
+            if (mode.name().equalsIgnoreCase(normalized)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown hash mode [" + name + "]");
+    }
+
+    /**
+     * Load hash functions for the given mode once per node, only the first calls take the lock
+     */
+    public static void loadHashFunctions(HashingMode hashingMode) {
+        if (hashingMode == HashingMode.BitSampling && !bitSamplingLoaded) {
+            loadBitSampling();
+        } else if (hashingMode == HashingMode.LSH && !lshLoaded) {
+            loadLsh();
+        }
+    }
+
+    private static synchronized void loadBitSampling() {
+        if (bitSamplingLoaded) {
+            return;
+        }
+        try {
+            BitSampling.readHashFunctions();
+        } catch (IOException e) {
+            throw new ElasticsearchImageProcessException("Failed to initialize hash function", e);
+        }
+        bitSamplingLoaded = true;
+    }
+
+    private static synchronized void loadLsh() {
+        if (lshLoaded) {
+            return;
+        }
+        try {
+            LocalitySensitiveHashing.readHashFunctions(ImageHashing.class.getResourceAsStream(ImageMapper.LSH_HASH_FILE));
+        } catch (IOException e) {
+            throw new ElasticsearchImageProcessException("Failed to initialize hash function", e);
+        }
+        lshLoaded = true;
+    }
+
+    public static String hashFieldName(String featureFieldName) {
+        return featureFieldName + DocumentBuilder.HASH_FIELD_SUFFIX;
+    }
+
+    /**
+     * Hash string of the trained hash functions of the feature, or of the hash functions of LIRE when it has none
+     * @param parameters trained hash functions of the mapping, used when they are of the hash mode
+     * @return null if feature is not supported by the hash mode
+     */
+    public static String hashString(HashingMode hashingMode, GlobalFeature feature, @Nullable HashParameters parameters) {
+        if (parameters != null && parameters.hashingMode() == hashingMode) {
+            return parameters.hashString(feature);
+        }
+        loadHashFunctions(hashingMode);
+        return hashString(hashingMode, feature);
+    }
+
+    /**
+     * Same hash string as indexed by {@link net.semanticmetadata.lire.builders.GlobalDocumentBuilder}
+     * @return null if feature is not supported by the hash mode or its vector is too long to be hashed
+     */
+    public static String hashString(HashingMode hashingMode, GlobalFeature feature) {
+        if (feature.getFeatureVector().length > MAX_HASHED_DIMENSIONS) {
+            return null;
+        }
+        switch (hashingMode) {
+            case BitSampling:
+                return SerializationUtils.arrayToString(BitSampling.generateHashes(feature.getFeatureVector()));
+            case LSH:
+                return SerializationUtils.arrayToString(LocalitySensitiveHashing.generateHashes(feature.getFeatureVector()));
+            case MetricSpaces:
+                return MetricSpaces.supportsFeature(feature) ? MetricSpaces.generateHashString(feature) : null;
+            default:
+                return null;
+        }
+    }
+}
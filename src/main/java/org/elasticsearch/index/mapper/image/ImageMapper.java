@@ -1,10 +1,9 @@
 package org.elasticsearch.index.mapper.image;
 
-import com.drew.imaging.ImageMetadataReader;
-import com.drew.imaging.ImageProcessingException;
 import com.drew.metadata.Directory;
 import com.drew.metadata.Metadata;
 import com.drew.metadata.Tag;
+import net.semanticmetadata.lire.builders.DocumentBuilder;
 import net.semanticmetadata.lire.builders.GlobalDocumentBuilder;
 import net.semanticmetadata.lire.builders.GlobalDocumentBuilder.HashingMode;
 import net.semanticmetadata.lire.imageanalysis.features.Extractor;
@@ -18,12 +17,16 @@ import net.semanticmetadata.lire.utils.ImageUtils;
 import net.semanticmetadata.lire.utils.SerializationUtils;
 import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
 import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.util.BytesRef;
 import org.elasticsearch.ElasticsearchGenerationException;
 import org.elasticsearch.ElasticsearchImageProcessException;
+import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.collect.ImmutableOpenMap;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.MapMaker;
 import com.google.common.collect.Maps;
@@ -32,18 +35,29 @@ import org.elasticsearch.common.io.stream.ByteBufferStreamInput;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.ESLoggerFactory;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
 import org.elasticsearch.common.xcontent.ToXContent;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.index.mapper.*;
+import org.elasticsearch.index.mapper.core.StringFieldMapper;
+import org.elasticsearch.plugin.image.ImageMetrics;
+import org.elasticsearch.plugin.image.ImageService;
+
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
+import static org.elasticsearch.common.xcontent.support.XContentMapValues.nodeBooleanValue;
 import static org.elasticsearch.index.mapper.MapperBuilders.binaryField;
 import static org.elasticsearch.index.mapper.MapperBuilders.stringField;
+import static org.elasticsearch.index.mapper.DocumentMapperParser.checkNoRemainingFields;
 import static org.elasticsearch.index.mapper.core.TypeParsers.parseField;
 
 public class ImageMapper extends FieldMapper {
@@ -51,6 +65,16 @@ public class ImageMapper extends FieldMapper {
 
     public static final String HASH = "hash";
     public static final String FEATURE = "feature";
+    public static final String STORE_FEATURE = "store_feature";
+    public static final String DOC_VALUES = "doc_values";
+    public static final String THUMBNAIL = "thumbnail";
+    public static final String THUMBNAIL_MIN_SIZE = "thumbnail_min_size";
+    public static final String METADATA = "metadata";
+
+    /**
+     * Index setting, extract features of one image in parallel on the {@link ImageService#EXTRACT_THREAD_POOL} thread pool
+     */
+    public static final String USE_THREAD_POOL = "index.image.use_thread_pool";
 
     public static final String LSH_HASH_FILE = "/hash/lshHashFunctions.obj";
 
@@ -61,13 +85,70 @@ public class ImageMapper extends FieldMapper {
             FIELD_TYPE.setTokenized(false);
             FIELD_TYPE.freeze();
         }
+
+        /**
+         * Most cameras embed a 160x120 thumbnail
+         */
+        public static final int THUMBNAIL_MIN_SIZE = 160;
     }
 
-    static final class ImageFieldType extends MappedFieldType {
+    public static final class ImageFieldType extends MappedFieldType {
+        private HashingMode hashingMode = HashingMode.None;
+        private Map<GlobalFeatureEnum, HnswParameters> hnswParameters = Collections.emptyMap();
+        private Set<GlobalFeatureEnum> quantizedFeatures = Collections.emptySet();
+        private Map<GlobalFeatureEnum, HashParameters> hashParameters = Collections.emptyMap();
+        private PerceptualHash perceptualHash;
+        private int thumbnailMinSize;
+
         public ImageFieldType() {}
 
         protected ImageFieldType(ImageMapper.ImageFieldType ref) {
             super(ref);
+            this.hashingMode = ref.hashingMode;
+            this.hnswParameters = ref.hnswParameters;
+            this.quantizedFeatures = ref.quantizedFeatures;
+            this.hashParameters = ref.hashParameters;
+            this.perceptualHash = ref.perceptualHash;
+            this.thumbnailMinSize = ref.thumbnailMinSize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!super.equals(o)) return false;
+            ImageFieldType that = (ImageFieldType) o;
+            return hashingMode == that.hashingMode && hnswParameters.equals(that.hnswParameters)
+                    && quantizedFeatures.equals(that.quantizedFeatures) && hashParameters.equals(that.hashParameters)
+                    && perceptualHash == that.perceptualHash && thumbnailMinSize == that.thumbnailMinSize;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(super.hashCode(), hashingMode, hnswParameters, quantizedFeatures, hashParameters, perceptualHash, thumbnailMinSize);
+        }
+
+        /**
+         * Extractors of a mapper are built from the mapping it was created with, while queries read the merged field type,
+         * so options changing how documents are indexed can not be updated on an existing field
+         */
+        @Override
+        public void checkCompatibility(MappedFieldType fieldType, List<String> conflicts, boolean strict) {
+            super.checkCompatibility(fieldType, conflicts, strict);
+            ImageFieldType other = (ImageFieldType) fieldType;
+            if (hashingMode != other.hashingMode) {
+                conflicts.add("mapper [" + names().fullName() + "] has different [" + HASH + "] values");
+            }
+            if (!hashParameters.equals(other.hashParameters)) {
+                conflicts.add("mapper [" + names().fullName() + "] has different [" + HashParameters.HASH_PARAMETERS + "] values");
+            }
+            if (!hnswParameters.equals(other.hnswParameters)) {
+                conflicts.add("mapper [" + names().fullName() + "] has different [" + HnswParameters.HNSW + "] values");
+            }
+            if (!quantizedFeatures.equals(other.quantizedFeatures)) {
+                conflicts.add("mapper [" + names().fullName() + "] has different [" + ScalarQuantizer.QUANTIZE + "] values");
+            }
+            if (perceptualHash != other.perceptualHash) {
+                conflicts.add("mapper [" + names().fullName() + "] has different [" + PerceptualHash.PERCEPTUAL_HASH + "] values");
+            }
         }
 
         @Override
@@ -83,11 +164,106 @@ public class ImageMapper extends FieldMapper {
         public String value(Object value) {
             return value == null?null:value.toString();
         }
+
+        /**
+         * Hash mode used when indexing, image query use it to search hash candidates
+         */
+        public HashingMode hashingMode() {
+            return hashingMode;
+        }
+
+        public void setHashingMode(HashingMode hashingMode) {
+            checkIfFrozen();
+            this.hashingMode = hashingMode;
+        }
+
+        /**
+         * @return null if the feature is not indexed with an HNSW graph
+         */
+        public HnswParameters hnswParameters(GlobalFeatureEnum globalFeatureEnum) {
+            return hnswParameters.get(globalFeatureEnum);
+        }
+
+        public Map<GlobalFeatureEnum, HnswParameters> hnswParameters() {
+            return hnswParameters;
+        }
+
+        public void setHnswParameters(Map<GlobalFeatureEnum, HnswParameters> hnswParameters) {
+            checkIfFrozen();
+            this.hnswParameters = Collections.unmodifiableMap(hnswParameters);
+        }
+
+        /**
+         * Whether {@link ScalarQuantizer} codes of the feature are indexed
+         */
+        public boolean quantized(GlobalFeatureEnum globalFeatureEnum) {
+            return quantizedFeatures.contains(globalFeatureEnum);
+        }
+
+        public Set<GlobalFeatureEnum> quantizedFeatures() {
+            return quantizedFeatures;
+        }
+
+        public void setQuantizedFeatures(Set<GlobalFeatureEnum> quantizedFeatures) {
+            checkIfFrozen();
+            this.quantizedFeatures = Collections.unmodifiableSet(quantizedFeatures);
+        }
+
+        /**
+         * @return null if the feature is hashed with the hash functions of LIRE
+         */
+        public HashParameters hashParameters(GlobalFeatureEnum globalFeatureEnum) {
+            return hashParameters.get(globalFeatureEnum);
+        }
+
+        public Map<GlobalFeatureEnum, HashParameters> hashParameters() {
+            return hashParameters;
+        }
+
+        public void setHashParameters(Map<GlobalFeatureEnum, HashParameters> hashParameters) {
+            checkIfFrozen();
+            this.hashParameters = Collections.unmodifiableMap(hashParameters);
+        }
+
+        /**
+         * @return null if no perceptual hash is indexed
+         */
+        public PerceptualHash perceptualHash() {
+            return perceptualHash;
+        }
+
+        public void setPerceptualHash(PerceptualHash perceptualHash) {
+            checkIfFrozen();
+            this.perceptualHash = perceptualHash;
+        }
+
+        /**
+         * Minimum size of the EXIF thumbnail decoded instead of the image, query images are decoded the same way
+         * @return 0 if the image itself is always decoded
+         */
+        public int thumbnailMinSize() {
+            return thumbnailMinSize;
+        }
+
+        public void setThumbnailMinSize(int thumbnailMinSize) {
+            checkIfFrozen();
+            this.thumbnailMinSize = thumbnailMinSize;
+        }
     }
 
     public static class Builder extends FieldMapper.Builder<Builder, ImageMapper> {
         private List<String> features;
+        private Map<GlobalFeatureEnum, HnswParameters> hnswParameters = new EnumMap<>(GlobalFeatureEnum.class);
+        private Set<GlobalFeatureEnum> quantizedFeatures = EnumSet.noneOf(GlobalFeatureEnum.class);
+        private Map<GlobalFeatureEnum, HashParameters> hashParameters = new EnumMap<>(GlobalFeatureEnum.class);
+        private PerceptualHash perceptualHash;
         private String hash="";
+        private boolean storeFeature = true;
+        private boolean featureDocValues = true;
+        private boolean thumbnail = false;
+        private int thumbnailMinSize = Defaults.THUMBNAIL_MIN_SIZE;
+        private Map<String, Mapper.Builder> metadataBuilders = new TreeMap<>();
+        private ImageService imageService;
 
         public Builder(String name) {
             super(name,Defaults.FIELD_TYPE ,Defaults.FIELD_TYPE);
@@ -98,24 +274,133 @@ public class ImageMapper extends FieldMapper {
             this.features = features;
         }
 
+        public void setHnswParameters(GlobalFeatureEnum globalFeatureEnum, HnswParameters parameters) {
+            this.hnswParameters.put(globalFeatureEnum, parameters);
+        }
+
+        public void setQuantized(GlobalFeatureEnum globalFeatureEnum) {
+            this.quantizedFeatures.add(globalFeatureEnum);
+        }
+
+        public void setHashParameters(GlobalFeatureEnum globalFeatureEnum, HashParameters parameters) {
+            this.hashParameters.put(globalFeatureEnum, parameters);
+        }
+
+        public void setPerceptualHash(PerceptualHash perceptualHash) {
+            this.perceptualHash = perceptualHash;
+        }
+
         public void setHash(String hash) {
             this.hash = hash;
         }
 
+        public void setStoreFeature(boolean storeFeature) {
+            this.storeFeature = storeFeature;
+        }
+
+        /**
+         * Index features as doc values under their LIRE field names, the image field itself has no doc values
+         */
+        public void setFeatureDocValues(boolean featureDocValues) {
+            this.featureDocValues = featureDocValues;
+        }
+
+        public void setThumbnail(boolean thumbnail) {
+            this.thumbnail = thumbnail;
+        }
+
+        public void setThumbnailMinSize(int thumbnailMinSize) {
+            this.thumbnailMinSize = thumbnailMinSize;
+        }
+
+        /**
+         * @param metadataName directory and tag name of metadata-extractor, lower case with underscores, {@code exif_ifd0.model}
+         */
+        public void addMetadata(String metadataName, Mapper.Builder builder) {
+            this.metadataBuilders.put(metadataName, builder);
+        }
+
+        public void setImageService(ImageService imageService) {
+            this.imageService = imageService;
+        }
+
+        private HashingMode hashingMode() {
+            try {
+                return ImageHashing.parseHashingMode(hash);
+            } catch (IllegalArgumentException e) {
+                return HashingMode.None;
+            }
+        }
+
         @Override
         public ImageMapper build(BuilderContext context) {
+            docValues(false);
             setupFieldType(context);
+            ((ImageFieldType) fieldType).setHashingMode(hashingMode());
+            ((ImageFieldType) fieldType).setHnswParameters(hnswParameters);
+            ((ImageFieldType) fieldType).setQuantizedFeatures(quantizedFeatures);
+            ((ImageFieldType) fieldType).setHashParameters(hashParameters);
+            ((ImageFieldType) fieldType).setPerceptualHash(perceptualHash);
+            ((ImageFieldType) fieldType).setThumbnailMinSize(thumbnail ? thumbnailMinSize : 0);
+            for (Map.Entry<GlobalFeatureEnum, HashParameters> entry : hashParameters.entrySet()) {
+                if (entry.getValue().hashingMode() != hashingMode()) {
+                    throw new MapperParsingException("[" + HashParameters.HASH_PARAMETERS + "] of feature [" + entry.getKey().name()
+                            + "] are trained for hash [" + entry.getValue().hashingMode() + "] but field [" + name + "] uses [" + hashingMode() + "]");
+                }
+            }
+            if (!storeFeature && !featureDocValues) {
+                throw new MapperParsingException("[" + STORE_FEATURE + "] can not be disabled when [doc_values] is disabled for field [" + name + "]");
+            }
+            if (!quantizedFeatures.isEmpty() && !featureDocValues) {
+                throw new MapperParsingException("[" + ScalarQuantizer.QUANTIZE + "] can not be used when [doc_values] is disabled for field [" + name + "]");
+            }
+            if (perceptualHash != null && !featureDocValues) {
+                throw new MapperParsingException("[" + PerceptualHash.PERCEPTUAL_HASH + "] can not be used when [doc_values] is disabled for field [" + name + "]");
+            }
+            if (thumbnailMinSize < 1) {
+                throw new MapperParsingException("[" + THUMBNAIL_MIN_SIZE + "] must be positive for field [" + name + "]");
+            }
+            Map<String, FieldMapper> metadataMappers = new TreeMap<>();
+            context.path().add(name);
+            context.path().add(METADATA);
+            for (Map.Entry<String, Mapper.Builder> entry : metadataBuilders.entrySet()) {
+                Mapper mapper = entry.getValue().build(context);
+                if (!(mapper instanceof FieldMapper)) {
+                    throw new MapperParsingException("[" + METADATA + "] [" + entry.getKey() + "] of field [" + name + "] must be a field");
+                }
+                metadataMappers.put(entry.getKey(), (FieldMapper) mapper);
+            }
+            context.path().remove();
+            context.path().remove();
             return new ImageMapper(
                     name, fieldType, defaultFieldType, context.indexSettings(), multiFieldsBuilder.build(this, context), copyTo,
-                    features,hash);
+                    features,hash,storeFeature,featureDocValues,thumbnail ? thumbnailMinSize : 0,metadataMappers,imageService);
         }
     }
 
     public static class TypeParser implements Mapper.TypeParser {
+        private final ImageService imageService;
+
+        public TypeParser() {
+            this(null);
+        }
+
+        /**
+         * @param imageService node services used by mappers, null to extract features on the indexing thread
+         */
+        public TypeParser(ImageService imageService) {
+            this.imageService = imageService;
+        }
+
         @Override
         @SuppressWarnings("unchecked")
         public Mapper.Builder parse(String name, Map<String, Object> node, ParserContext parserContext) throws MapperParsingException {
             ImageMapper.Builder builder = new ImageMapper.Builder(name);
+            builder.setImageService(imageService);
+            Object docValues = node.remove(DOC_VALUES);
+            if (docValues != null) {
+                builder.setFeatureDocValues(nodeBooleanValue(docValues));
+            }
             parseField(builder, name, node, parserContext);
             List<String> features;
             for (Iterator<Map.Entry<String, Object>> iterator = node.entrySet().iterator(); iterator.hasNext();) {
@@ -123,7 +408,29 @@ public class ImageMapper extends FieldMapper {
                 String propName = Strings.toUnderscoreCase(entry.getKey());
                 Object propNode = entry.getValue();
                 if(FEATURE.equals(propName)){
-                    features= (List) propNode;
+                    if (propNode instanceof Map) {
+                        // feature names with their options
+                        features = new ArrayList<>();
+                        for (Map.Entry<String, Object> featureEntry : ((Map<String, Object>) propNode).entrySet()) {
+                            features.add(featureEntry.getKey());
+                            if (featureEntry.getValue() instanceof Map) {
+                                Map<String, Object> options = (Map<String, Object>) featureEntry.getValue();
+                                HnswParameters hnswParameters = HnswParameters.parse(featureEntry.getKey(), options);
+                                if (hnswParameters != null) {
+                                    builder.setHnswParameters(GlobalFeatureEnum.getByName(featureEntry.getKey()), hnswParameters);
+                                }
+                                if (ScalarQuantizer.parse(featureEntry.getKey(), options)) {
+                                    builder.setQuantized(GlobalFeatureEnum.getByName(featureEntry.getKey()));
+                                }
+                                HashParameters hashParameters = HashParameters.parse(GlobalFeatureEnum.getByName(featureEntry.getKey()), options);
+                                if (hashParameters != null) {
+                                    builder.setHashParameters(GlobalFeatureEnum.getByName(featureEntry.getKey()), hashParameters);
+                                }
+                            }
+                        }
+                    } else {
+                        features = (List) propNode;
+                    }
                     if (features == null || features.isEmpty()) {
                         throw new ElasticsearchGenerationException("Feature not found");
                     }
@@ -135,6 +442,37 @@ public class ImageMapper extends FieldMapper {
                     }
                     builder.setHash(propNode.toString());
                     iterator.remove();
+                }else if(PerceptualHash.PERCEPTUAL_HASH.equals(propName)){
+                    builder.setPerceptualHash(PerceptualHash.parse(propNode.toString()));
+                    iterator.remove();
+                }else if(STORE_FEATURE.equals(propName)){
+                    builder.setStoreFeature(nodeBooleanValue(propNode));
+                    iterator.remove();
+                }else if(THUMBNAIL.equals(propName)){
+                    builder.setThumbnail(nodeBooleanValue(propNode));
+                    iterator.remove();
+                }else if(THUMBNAIL_MIN_SIZE.equals(propName)){
+                    builder.setThumbnailMinSize(Integer.parseInt(propNode.toString()));
+                    iterator.remove();
+                }else if(METADATA.equals(propName)){
+                    if (!(propNode instanceof Map)) {
+                        throw new MapperParsingException("[" + METADATA + "] of field [" + name + "] must be an object");
+                    }
+                    for (Map.Entry<String, Object> metadataEntry : ((Map<String, Object>) propNode).entrySet()) {
+                        if (!(metadataEntry.getValue() instanceof Map)) {
+                            throw new MapperParsingException("[" + METADATA + "] [" + metadataEntry.getKey() + "] of field [" + name + "] must be an object");
+                        }
+                        Map<String, Object> metadataNode = (Map<String, Object>) metadataEntry.getValue();
+                        Object type = metadataNode.remove("type");
+                        String typeName = type == null ? "string" : type.toString();
+                        Mapper.TypeParser typeParser = parserContext.typeParser(typeName);
+                        if (typeParser == null) {
+                            throw new MapperParsingException("No handler for type [" + typeName + "] declared on [" + METADATA + "] [" + metadataEntry.getKey() + "] of field [" + name + "]");
+                        }
+                        builder.addMetadata(metadataEntry.getKey(), typeParser.parse(metadataEntry.getKey(), metadataNode, parserContext));
+                        checkNoRemainingFields(metadataEntry.getKey(), metadataNode, parserContext.indexVersionCreated());
+                    }
+                    iterator.remove();
                 }
             }
             return builder;
@@ -143,25 +481,53 @@ public class ImageMapper extends FieldMapper {
 
     private List<String> features;
     private HashingMode hashingMode;
+    private boolean storeFeature;
+    private boolean featureDocValues;
+    private List<FeatureExtractor> extractors;
+    private Set<String> featureFieldNames;
+    private Set<String> codeFieldNames;
+    private PerceptualHash perceptualHash;
+    private String perceptualHashFieldName;
+    private String perceptualHashChunkFieldName;
+    private int thumbnailMinSize;
+    private Map<String, FieldMapper> metadataMappers;
+    private ImageService imageService;
+    private boolean useThreadPool;
 
     protected ImageMapper(String simpleName, MappedFieldType fieldType, MappedFieldType defaultFieldType, Settings indexSettings, MultiFields multiFields, CopyTo copyTo,
-                          List<String> features, String hash) {
+                          List<String> features, String hash, boolean storeFeature, boolean featureDocValues, int thumbnailMinSize,
+                          Map<String, FieldMapper> metadataMappers, ImageService imageService) {
         super(simpleName, fieldType, defaultFieldType, indexSettings, multiFields, copyTo);
         this.features=features;
-        if(!hash.isEmpty()){
-            try{
-                this.hashingMode= HashingMode.valueOf(hash);
-            }catch (Exception e){
-                this.hashingMode=HashingMode.None;
+        this.thumbnailMinSize=thumbnailMinSize;
+        this.metadataMappers=metadataMappers;
+        this.imageService=imageService;
+        this.useThreadPool=indexSettings.getAsBoolean(USE_THREAD_POOL, true);
+        this.hashingMode=((ImageFieldType) fieldType).hashingMode();
+        this.storeFeature=storeFeature;
+        this.featureDocValues=featureDocValues;
+        this.extractors=new ArrayList<>(features.size());
+        this.featureFieldNames=new HashSet<>();
+        this.codeFieldNames=new HashSet<>();
+        boolean lireHashFunctions = false;
+        for(String featurename:features){
+            GlobalFeatureEnum globalFeatureEnum = GlobalFeatureEnum.getByName(featurename);
+            HashParameters hashParameters = ((ImageFieldType) fieldType).hashParameters(globalFeatureEnum);
+            lireHashFunctions |= hashParameters == null;
+            FeatureExtractor extractor = new FeatureExtractor(globalFeatureEnum, hashingMode, ((ImageFieldType) fieldType).quantized(globalFeatureEnum), hashParameters);
+            extractors.add(extractor);
+            featureFieldNames.add(extractor.fieldName());
+            if (extractor.codeFieldName() != null) {
+                codeFieldNames.add(extractor.codeFieldName());
             }
         }
-        if(hashingMode.equals(HashingMode.LSH)){
-            //LocalitySensitiveHashing.generateHashFunctions();
-            try {
-                LocalitySensitiveHashing.readHashFunctions(ImageMapper.class.getResourceAsStream(LSH_HASH_FILE));
-            } catch (IOException e) {
-                throw new ElasticsearchImageProcessException("Failed to initialize hash function", e);
-            }
+        if (lireHashFunctions) {
+            ImageHashing.loadHashFunctions(hashingMode);
+        }
+        this.perceptualHash=((ImageFieldType) fieldType).perceptualHash();
+        if (perceptualHash != null) {
+            this.perceptualHashFieldName = perceptualHash.hashFieldName(fieldType.names().indexName());
+            this.perceptualHashChunkFieldName = perceptualHash.chunkFieldName(fieldType.names().indexName());
         }
     }
 
@@ -171,7 +537,13 @@ public class ImageMapper extends FieldMapper {
 
         XContentParser parser = context.parser();
         XContentParser.Token token = parser.currentToken();
-        if (token == XContentParser.Token.VALUE_STRING) {
+        ImageMetrics.IndexMetrics metrics = imageService == null ? null : imageService.metrics().index(context.index());
+        if (token == XContentParser.Token.START_OBJECT) {
+            addFeatureFields(context, fields, parsePrecomputedFeatures(parser, metrics));
+            return;
+        }
+        // base64 string in json, raw bytes in binary sources like smile
+        if (token == XContentParser.Token.VALUE_STRING || token == XContentParser.Token.VALUE_EMBEDDED_OBJECT) {
             content = parser.binaryValue();
         }
 
@@ -179,15 +551,261 @@ public class ImageMapper extends FieldMapper {
             throw new MapperParsingException("No content is provided.");
         }
 
-        GlobalDocumentBuilder globalDocumentBuilder = hashingMode.equals(HashingMode.None)? new GlobalDocumentBuilder():
-                new GlobalDocumentBuilder(true,hashingMode);
-        for(String featurename:features){
-            globalDocumentBuilder.addExtractor(GlobalFeatureEnum.getByName(featurename).getGlobalFeatureClass());
+        long start = System.nanoTime();
+        Metadata metadata = thumbnailMinSize > 0 || !metadataMappers.isEmpty() ? ImageDecoder.readMetadata(content) : null;
+        BufferedImage img = null;
+        if (thumbnailMinSize > 0 && metadata != null) {
+            img = ImageDecoder.decodeThumbnail(metadata, thumbnailMinSize, DocumentBuilder.MAX_IMAGE_DIMENSION);
+        }
+        boolean thumbnail = img != null;
+        if (img == null) {
+            img = ImageDecoder.decode(content, DocumentBuilder.MAX_IMAGE_DIMENSION);
+        }
+        if (img == null) {
+            throw new MapperParsingException("Failed to decode image, format is not supported");
+        }
+        if (metrics != null) {
+            if (thumbnail) {
+                metrics.onThumbnailDecode(content.length, System.nanoTime() - start);
+            } else {
+                metrics.onDecode(content.length, System.nanoTime() - start);
+            }
+        }
+        if (metadata != null && !metadataMappers.isEmpty()) {
+            parseMetadata(context, metadata);
+        }
+        List<Field[]> featureFields = extractFeatures(img, metrics);
+        if (perceptualHash != null) {
+            featureFields.add(perceptualHashFields(perceptualHash.hash(img)));
+        }
+        addFeatureFields(context, fields, featureFields);
+    }
+
+    /**
+     * Tags are matched to metadata fields by directory and tag name, {@code exif_ifd0.model}.
+     * String fields index the description of the tag, {@code 1/200 sec}, other fields its raw value, {@code 0.005}
+     */
+    private void parseMetadata(ParseContext context, Metadata metadata) throws IOException {
+        context.path().add(simpleName());
+        context.path().add(METADATA);
+        for (Directory directory : metadata.getDirectories()) {
+            for (Tag tag : directory.getTags()) {
+                FieldMapper mapper = metadataMappers.get(metadataName(tag));
+                if (mapper == null) {
+                    continue;
+                }
+                String value = mapper instanceof StringFieldMapper ? tag.getDescription() : directory.getString(tag.getTagType());
+                if (value != null) {
+                    mapper.parse(context.createExternalValueContext(value));
+                }
+            }
+        }
+        context.path().remove();
+        context.path().remove();
+    }
+
+    static String metadataName(Tag tag) {
+        return normalizeMetadataName(tag.getDirectoryName()) + "." + normalizeMetadataName(tag.getTagName());
+    }
+
+    private static String normalizeMetadataName(String name) {
+        String normalized = name.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]+", "_");
+        int start = normalized.startsWith("_") ? 1 : 0;
+        int end = normalized.length() > start && normalized.endsWith("_") ? normalized.length() - 1 : normalized.length();
+        return normalized.substring(start, end);
+    }
+
+    private void addFeatureFields(ParseContext context, List<Field> fields, List<Field[]> featureFields) {
+        for (Field[] imagefields : featureFields) {
+            for (Field field : imagefields) {
+                if (field.name().equals(perceptualHashFieldName)) {
+                    addPerceptualHashDocValues(context, field.numericValue().longValue());
+                    continue;
+                }
+                if (codeFieldNames.contains(field.name())) {
+                    addFeatureDocValues(context, field.name(), field.binaryValue());
+                    continue;
+                }
+                if (featureFieldNames.contains(field.name())) {
+                    addFeatureDocValues(context, field.name(), field.binaryValue());
+                    if (!storeFeature) {
+                        continue;
+                    }
+                }
+                fields.add(field);
+            }
+        }
+    }
+
+    /**
+     * Features extracted outside of Elasticsearch, {@code {"CEDD": "base64 feature", "FCTH": {"feature": "base64 feature", "hash": "hash terms"}}},
+     * every mapped feature is required and nothing is decoded or extracted.
+     * The perceptual hash is optional, {@code "dhash": -3317569480287633441}
+     */
+    private List<Field[]> parsePrecomputedFeatures(XContentParser parser, @Nullable ImageMetrics.IndexMetrics metrics) throws IOException {
+        Map<GlobalFeatureEnum, Field[]> parsed = new EnumMap<>(GlobalFeatureEnum.class);
+        Field[] perceptualHashField = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token != XContentParser.Token.FIELD_NAME) {
+                throw new MapperParsingException("Malformed precomputed features of [" + name() + "]");
+            }
+            String featureName = parser.currentName();
+            if (perceptualHash != null && perceptualHash.name().equalsIgnoreCase(featureName)) {
+                parser.nextToken();
+                perceptualHashField = perceptualHashFields(parser.longValue());
+                continue;
+            }
+            FeatureExtractor extractor = null;
+            for (FeatureExtractor candidate : extractors) {
+                if (candidate.globalFeatureEnum().name().equalsIgnoreCase(featureName)) {
+                    extractor = candidate;
+                }
+            }
+            if (extractor == null) {
+                throw new MapperParsingException("Feature [" + featureName + "] is not mapped in [" + name() + "]");
+            }
+            byte[] featureBytes = null;
+            String hash = null;
+            token = parser.nextToken();
+            if (token == XContentParser.Token.START_OBJECT) {
+                String currentFieldName = null;
+                while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                    if (token == XContentParser.Token.FIELD_NAME) {
+                        currentFieldName = parser.currentName();
+                    } else if ("feature".equals(currentFieldName)) {
+                        featureBytes = parser.binaryValue();
+                    } else if ("hash".equals(currentFieldName)) {
+                        hash = parser.text();
+                    } else {
+                        throw new MapperParsingException("Precomputed feature [" + featureName + "] does not support [" + currentFieldName + "]");
+                    }
+                }
+            } else {
+                featureBytes = parser.binaryValue();
+            }
+            if (featureBytes == null) {
+                throw new MapperParsingException("No bytes for precomputed feature [" + featureName + "]");
+            }
+            try {
+                parsed.put(extractor.globalFeatureEnum(), extractor.createFields(PrecomputedFeature.parse(extractor.globalFeatureEnum(), featureBytes), hash));
+            } catch (IllegalArgumentException e) {
+                throw new MapperParsingException(e.getMessage());
+            }
+        }
+
+        List<Field[]> featureFields = new ArrayList<>(extractors.size());
+        for (FeatureExtractor extractor : extractors) {
+            Field[] fields = parsed.get(extractor.globalFeatureEnum());
+            if (fields == null) {
+                throw new MapperParsingException("Precomputed feature [" + extractor.globalFeatureEnum().name() + "] of [" + name() + "] is missing");
+            }
+            if (metrics != null) {
+                metrics.feature(extractor.globalFeatureEnum()).onPrecomputed();
+            }
+            featureFields.add(fields);
+        }
+        if (perceptualHashField != null) {
+            featureFields.add(perceptualHashField);
+        }
+        return featureFields;
+    }
+
+    /**
+     * Extract all features of the image, in mapping order.
+     * With the thread pool, the indexing thread extracts the first feature while pool threads extract the others,
+     * a feature rejected by the pool is extracted on the indexing thread.
+     */
+    private List<Field[]> extractFeatures(final BufferedImage img, @Nullable final ImageMetrics.IndexMetrics metrics) {
+        Executor executor = useThreadPool && imageService != null && extractors.size() > 1 ? imageService.extractExecutor() : null;
+        List<Field[]> featureFields = new ArrayList<>(extractors.size());
+        if (executor == null) {
+            for (FeatureExtractor extractor : extractors) {
+                featureFields.add(extract(extractor, img, metrics));
+            }
+            return featureFields;
         }
 
-        BufferedImage img = ImageIO.read(new ByteBufferStreamInput(ByteBuffer.wrap(content)));
-        Field[] imagefields=globalDocumentBuilder.createDescriptorFields(img);
-        Collections.addAll(fields,imagefields);
+        List<FutureTask<Field[]>> tasks = new ArrayList<>(extractors.size());
+        for (final FeatureExtractor extractor : extractors) {
+            FutureTask<Field[]> task = new FutureTask<>(new Callable<Field[]>() {
+                @Override
+                public Field[] call() throws Exception {
+                    return extract(extractor, img, metrics);
+                }
+            });
+            if (!tasks.isEmpty()) {
+                try {
+                    executor.execute(task);
+                } catch (EsRejectedExecutionException e) {
+                    task.run();
+                }
+            }
+            tasks.add(task);
+        }
+        tasks.get(0).run();
+
+        for (FutureTask<Field[]> task : tasks) {
+            try {
+                featureFields.add(task.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MapperParsingException("Interrupted while extracting image features", e);
+            } catch (ExecutionException e) {
+                throw new MapperParsingException("Failed to extract image feature", e.getCause());
+            }
+        }
+        return featureFields;
+    }
+
+    private static Field[] extract(FeatureExtractor extractor, BufferedImage img, @Nullable ImageMetrics.IndexMetrics metrics) {
+        long start = System.nanoTime();
+        Field[] fields = extractor.createFields(img);
+        if (metrics != null) {
+            metrics.feature(extractor.globalFeatureEnum()).onExtract(System.nanoTime() - start);
+        }
+        return fields;
+    }
+
+    /**
+     * Feature is also indexed as doc values, so image query can read it without loading stored fields.
+     * Quantized codes are only indexed as doc values.
+     * Doc values are single valued and named after the LIRE feature, so a document with several images of the feature is rejected,
+     * also when they are in several image fields of the type.
+     */
+    private void addFeatureDocValues(ParseContext context, String featureFieldName, BytesRef feature) {
+        if (!featureDocValues || feature == null) {
+            return;
+        }
+        String key = featureFieldName;
+        if (context.doc().getByKey(key) != null) {
+            throw new MapperParsingException("Can not index several images with feature [" + featureFieldName + "] in one document when ["
+                    + DOC_VALUES + "] is enabled on [" + name() + "]");
+        }
+        context.doc().addWithKey(key, new BinaryDocValuesField(featureFieldName, feature));
+    }
+
+    /**
+     * Doc values of the perceptual hash, the hash is also indexed as {@link PerceptualHash#CHUNKS} chunk terms
+     */
+    private Field[] perceptualHashFields(long hash) {
+        Field[] fields = new Field[PerceptualHash.CHUNKS + 1];
+        fields[0] = new NumericDocValuesField(perceptualHashFieldName, hash);
+        for (int i = 0; i < PerceptualHash.CHUNKS; i++) {
+            fields[i + 1] = new StringField(perceptualHashChunkFieldName, PerceptualHash.chunkTerm(i, PerceptualHash.chunk(hash, i)), Field.Store.NO);
+        }
+        return fields;
+    }
+
+    /**
+     * Only the hash of the first image of a document is added, its chunks are indexed for every image
+     * and docs are verified against the hash
+     */
+    private void addPerceptualHashDocValues(ParseContext context, long hash) {
+        String key = perceptualHashFieldName;
+        if (context.doc().getByKey(key) == null) {
+            context.doc().addWithKey(key, new NumericDocValuesField(perceptualHashFieldName, hash));
+        }
     }
 
     @Override
@@ -195,15 +813,100 @@ public class ImageMapper extends FieldMapper {
         return CONTENT_TYPE;
     }
 
+    /**
+     * Whether the feature is extracted from the images of this field
+     */
+    public boolean extracts(GlobalFeatureEnum globalFeatureEnum) {
+        for (FeatureExtractor extractor : extractors) {
+            if (extractor.globalFeatureEnum() == globalFeatureEnum) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Iterator<Mapper> iterator() {
+        List<Mapper> metadataFields = new ArrayList<Mapper>(metadataMappers.values());
+        return Iterators.concat(super.iterator(), metadataFields.iterator());
+    }
+
+    @Override
+    protected void doMerge(Mapper mergeWith, boolean updateAllTypes) {
+        super.doMerge(mergeWith, updateAllTypes);
+        ImageMapper imageMergeWith = (ImageMapper) mergeWith;
+        if (featureDocValues != imageMergeWith.featureDocValues) {
+            throw new IllegalArgumentException("mapper [" + fieldType().names().fullName() + "] has different [" + DOC_VALUES + "] values");
+        }
+        Map<String, FieldMapper> merged = new TreeMap<>(metadataMappers);
+        for (Map.Entry<String, FieldMapper> entry : imageMergeWith.metadataMappers.entrySet()) {
+            FieldMapper existing = merged.get(entry.getKey());
+            merged.put(entry.getKey(), existing == null ? entry.getValue() : existing.merge(entry.getValue(), updateAllTypes));
+        }
+        this.metadataMappers = merged;
+        this.thumbnailMinSize = imageMergeWith.thumbnailMinSize;
+    }
+
+    @Override
+    protected void doXContentDocValues(XContentBuilder builder, boolean includeDefaults) throws IOException {
+        if (includeDefaults || !featureDocValues) {
+            builder.field(DOC_VALUES, featureDocValues);
+        }
+    }
+
     @Override
     protected void doXContentBody(XContentBuilder builder, boolean includeDefaults, Params params) throws IOException {
         super.doXContentBody(builder, includeDefaults, params);
 
-        builder.startArray(FEATURE);
-        for(String featurename:features){
-            builder.value(featurename);
+        Map<GlobalFeatureEnum, HnswParameters> hnswParameters = ((ImageFieldType) fieldType()).hnswParameters();
+        Set<GlobalFeatureEnum> quantizedFeatures = ((ImageFieldType) fieldType()).quantizedFeatures();
+        Map<GlobalFeatureEnum, HashParameters> hashParameters = ((ImageFieldType) fieldType()).hashParameters();
+        if (hnswParameters.isEmpty() && quantizedFeatures.isEmpty() && hashParameters.isEmpty()) {
+            builder.startArray(FEATURE);
+            for(String featurename:features){
+                builder.value(featurename);
+            }
+            builder.endArray();
+        } else {
+            builder.startObject(FEATURE);
+            for (String featurename : features) {
+                builder.startObject(featurename);
+                GlobalFeatureEnum globalFeatureEnum = GlobalFeatureEnum.getByName(featurename);
+                HnswParameters parameters = hnswParameters.get(globalFeatureEnum);
+                if (parameters != null) {
+                    parameters.toXContent(builder);
+                }
+                if (quantizedFeatures.contains(globalFeatureEnum)) {
+                    builder.field(ScalarQuantizer.QUANTIZE, ScalarQuantizer.SCALAR4);
+                }
+                if (hashParameters.containsKey(globalFeatureEnum)) {
+                    builder.startObject(HashParameters.HASH_PARAMETERS);
+                    hashParameters.get(globalFeatureEnum).toXContent(builder);
+                    builder.endObject();
+                }
+                builder.endObject();
+            }
+            builder.endObject();
         }
-        builder.endArray();
         builder.field(HASH, hashingMode);
+        if (perceptualHash != null) {
+            builder.field(PerceptualHash.PERCEPTUAL_HASH, perceptualHash.toString());
+        }
+        if (includeDefaults || !storeFeature) {
+            builder.field(STORE_FEATURE, storeFeature);
+        }
+        if (includeDefaults || thumbnailMinSize > 0) {
+            builder.field(THUMBNAIL, thumbnailMinSize > 0);
+        }
+        if (thumbnailMinSize > 0 && (includeDefaults || thumbnailMinSize != Defaults.THUMBNAIL_MIN_SIZE)) {
+            builder.field(THUMBNAIL_MIN_SIZE, thumbnailMinSize);
+        }
+        if (!metadataMappers.isEmpty()) {
+            builder.startObject(METADATA);
+            for (FieldMapper mapper : metadataMappers.values()) {
+                mapper.toXContent(builder, params);
+            }
+            builder.endObject();
+        }
     }
 }
@@ -0,0 +1,155 @@
+package org.elasticsearch.index.mapper.image;
+
+import org.elasticsearch.index.mapper.MapperParsingException;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * 64 bit perceptual hash of the whole image, set per field in the mapping: {@code "perceptual_hash": "dhash"}.
+ * The hash is indexed as numeric doc values, and split in {@link #CHUNKS} chunks of 16 bits indexed as terms,
+ * two hashes within Hamming distance r share at least one chunk within distance r / 4 (multi-index hashing).
+ */
+public enum PerceptualHash {
+    /**
+     * Sign of the gradient between horizontally adjacent pixels of the 9x8 grayscale image
+     */
+    DHASH {
+        @Override
+        public long hash(BufferedImage image) {
+            double[] pixels = grayscale(image, 9, 8);
+            long hash = 0;
+            for (int y = 0; y < 8; y++) {
+                for (int x = 0; x < 8; x++) {
+                    hash <<= 1;
+                    if (pixels[y * 9 + x] > pixels[y * 9 + x + 1]) {
+                        hash |= 1;
+                    }
+                }
+            }
+            return hash;
+        }
+    },
+    /**
+     * Low frequencies of the DCT of the 32x32 grayscale image compared to their median, without the DC row and column
+     */
+    PHASH {
+        @Override
+        public long hash(BufferedImage image) {
+            double[] pixels = grayscale(image, DCT_SIZE, DCT_SIZE);
+            double[] coefficients = new double[64];
+            for (int v = 0; v < 8; v++) {
+                for (int u = 0; u < 8; u++) {
+                    double sum = 0;
+                    for (int y = 0; y < DCT_SIZE; y++) {
+                        double rowSum = 0;
+                        for (int x = 0; x < DCT_SIZE; x++) {
+                            rowSum += pixels[y * DCT_SIZE + x] * DCT_COS[u + 1][x];
+                        }
+                        sum += rowSum * DCT_COS[v + 1][y];
+                    }
+                    coefficients[v * 8 + u] = sum;
+                }
+            }
+            double[] sorted = coefficients.clone();
+            Arrays.sort(sorted);
+            double median = (sorted[31] + sorted[32]) / 2;
+            long hash = 0;
+            for (double coefficient : coefficients) {
+                hash <<= 1;
+                if (coefficient > median) {
+                    hash |= 1;
+                }
+            }
+            return hash;
+        }
+    };
+
+    public static final String PERCEPTUAL_HASH = "perceptual_hash";
+
+    public static final int CHUNKS = 4;
+
+    public static final int CHUNK_BITS = 64 / CHUNKS;
+
+    private static final int DCT_SIZE = 32;
+
+    private static final double[][] DCT_COS = new double[9][DCT_SIZE];
+    static {
+        for (int u = 0; u < DCT_COS.length; u++) {
+            for (int x = 0; x < DCT_SIZE; x++) {
+                DCT_COS[u][x] = Math.cos((2 * x + 1) * u * Math.PI / (2 * DCT_SIZE));
+            }
+        }
+    }
+
+    /**
+     * @param image image already scaled to {@link net.semanticmetadata.lire.builders.DocumentBuilder#MAX_IMAGE_DIMENSION}
+     */
+    public abstract long hash(BufferedImage image);
+
+    public static PerceptualHash parse(String name) {
+        try {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new MapperParsingException("Unknown [" + PERCEPTUAL_HASH + "] [" + name + "]");
+        }
+    }
+
+    /**
+     * Doc values field of the hash of an image field
+     */
+    public String hashFieldName(String fieldName) {
+        return fieldName + "." + toString();
+    }
+
+    /**
+     * Indexed field of the chunks of the hash of an image field
+     */
+    public String chunkFieldName(String fieldName) {
+        return hashFieldName(fieldName) + "_chunks";
+    }
+
+    public static int chunk(long hash, int chunk) {
+        return (int) (hash >>> (CHUNK_BITS * (CHUNKS - 1 - chunk))) & ((1 << CHUNK_BITS) - 1);
+    }
+
+    /**
+     * Term of a chunk value, prefixed by the chunk position so equal values of different chunks do not match
+     */
+    public static String chunkTerm(int chunk, int value) {
+        return chunk + ":" + Integer.toHexString(value | (1 << CHUNK_BITS)).substring(1);
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Box averaged luminance of the image scaled to width x height, rows first
+     */
+    static double[] grayscale(BufferedImage image, int width, int height) {
+        int imageWidth = image.getWidth();
+        int imageHeight = image.getHeight();
+        int[] rgb = image.getRGB(0, 0, imageWidth, imageHeight, null, 0, imageWidth);
+        double[] pixels = new double[width * height];
+        for (int y = 0; y < height; y++) {
+            int top = y * imageHeight / height;
+            int bottom = Math.max(top + 1, (y + 1) * imageHeight / height);
+            for (int x = 0; x < width; x++) {
+                int left = x * imageWidth / width;
+                int right = Math.max(left + 1, (x + 1) * imageWidth / width);
+                double sum = 0;
+                for (int py = top; py < bottom; py++) {
+                    for (int px = left; px < right; px++) {
+                        int pixel = rgb[py * imageWidth + px];
+                        sum += 0.299 * ((pixel >> 16) & 0xFF) + 0.587 * ((pixel >> 8) & 0xFF) + 0.114 * (pixel & 0xFF);
+                    }
+                }
+                pixels[y * width + x] = sum / ((bottom - top) * (right - left));
+            }
+        }
+        return pixels;
+    }
+}
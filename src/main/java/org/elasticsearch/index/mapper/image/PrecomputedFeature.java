@@ -0,0 +1,125 @@
+package org.elasticsearch.index.mapper.image;
+
+import net.semanticmetadata.lire.imageanalysis.features.GlobalFeature;
+import org.elasticsearch.ElasticsearchImageProcessException;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Serialized LIRE features extracted outside of Elasticsearch, sent at index or query time instead of the image.
+ * Bytes are checked against a reference feature extracted once per feature type on this node:
+ * they must deserialize, give a vector of the reference length and serialize back to the same number of bytes,
+ * unless references do not survive that round trip, like some spatial pyramid features of LIRE.
+ * Quantized bins are checked against the range the distance of the feature can look up.
+ */
+public final class PrecomputedFeature {
+
+    private static final ConcurrentMap<GlobalFeatureEnum, Reference> REFERENCES = new ConcurrentHashMap<>();
+
+    /**
+     * LIRE quantizes edge histogram bins to 3 bits, its distance looks them up in tables of 8 entries
+     */
+    public static final int EDGE_HISTOGRAM_MAX_BIN = 7;
+
+    private PrecomputedFeature() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if bytes are not a serialized feature of the type
+     */
+    public static GlobalFeature parse(GlobalFeatureEnum globalFeatureEnum, byte[] bytes) {
+        Reference reference = reference(globalFeatureEnum);
+        GlobalFeature feature = newInstance(globalFeatureEnum);
+        try {
+            feature.setByteArrayRepresentation(bytes);
+            double[] vector = feature.getFeatureVector();
+            if (vector != null && vector.length == reference.dimensions
+                    && (!reference.roundTrip || bytes.length == feature.getByteArrayRepresentation().length)
+                    && inRange(globalFeatureEnum, vector)) {
+                return feature;
+            }
+        } catch (RuntimeException e) {
+            // LIRE fails with index errors on bytes of the wrong length
+        }
+        throw new IllegalArgumentException("Invalid precomputed [" + globalFeatureEnum.name() + "] feature of [" + bytes.length + "] bytes");
+    }
+
+    private static boolean inRange(GlobalFeatureEnum globalFeatureEnum, double[] vector) {
+        if (globalFeatureEnum != GlobalFeatureEnum.EDGE_HISTOGRAM) {
+            return true;
+        }
+        for (double bin : vector) {
+            if (bin < 0 || bin > EDGE_HISTOGRAM_MAX_BIN) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Reference reference(GlobalFeatureEnum globalFeatureEnum) {
+        Reference reference = REFERENCES.get(globalFeatureEnum);
+        if (reference == null) {
+            int dimensions = -1;
+            boolean roundTrip = true;
+            for (BufferedImage image : referenceImages()) {
+                GlobalFeature feature = newInstance(globalFeatureEnum);
+                feature.extract(image);
+                byte[] bytes = feature.getByteArrayRepresentation();
+                GlobalFeature parsed = newInstance(globalFeatureEnum);
+                parsed.setByteArrayRepresentation(bytes);
+                dimensions = feature.getFeatureVector().length;
+                roundTrip &= bytes.length == parsed.getByteArrayRepresentation().length;
+            }
+            reference = new Reference(dimensions, roundTrip);
+            REFERENCES.putIfAbsent(globalFeatureEnum, reference);
+        }
+        return reference;
+    }
+
+    /**
+     * One of the reference images, to check other values computed from features extracted on this node
+     */
+    static BufferedImage referenceImage() {
+        return referenceImages()[1];
+    }
+
+    /**
+     * A gradient and seeded noise images of random sizes
+     */
+    private static BufferedImage[] referenceImages() {
+        Random random = new Random(42);
+        BufferedImage[] images = new BufferedImage[8];
+        for (int i = 0; i < images.length; i++) {
+            BufferedImage image = i == 0 ? new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB)
+                    : new BufferedImage(40 + random.nextInt(100), 40 + random.nextInt(100), BufferedImage.TYPE_INT_RGB);
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    image.setRGB(x, y, i == 0 ? (x * 4) << 16 | (y * 4) << 8 | ((x + y) * 2) : random.nextInt(0xFFFFFF));
+                }
+            }
+            images[i] = image;
+        }
+        return images;
+    }
+
+    private static GlobalFeature newInstance(GlobalFeatureEnum globalFeatureEnum) {
+        try {
+            return globalFeatureEnum.getGlobalFeatureClass().newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new ElasticsearchImageProcessException("Failed to initial image feature class", e);
+        }
+    }
+
+    private static final class Reference {
+        private final int dimensions;
+        private final boolean roundTrip;
+
+        Reference(int dimensions, boolean roundTrip) {
+            this.dimensions = dimensions;
+            this.roundTrip = roundTrip;
+        }
+    }
+}
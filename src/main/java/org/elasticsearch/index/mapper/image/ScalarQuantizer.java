@@ -0,0 +1,95 @@
+package org.elasticsearch.index.mapper.image;
+
+import org.elasticsearch.index.mapper.MapperParsingException;
+
+import java.util.Map;
+
+/**
+ * 4 bit scalar quantization of feature vectors, set per feature in the mapping:
+ * {@code "feature": {"AUTO_COLOR_CORRELOGRAM": {"quantize": "scalar4"}}}.
+ * Codes are indexed as doc values next to the feature, so image query can rank docs on a few bytes per doc
+ * before computing exact distances on the best of them.
+ * Each code carries its own range and needs no training: {@code [dims:2][min:4][step:4][one nibble per dim]}
+ */
+public final class ScalarQuantizer {
+    public static final String QUANTIZE = "quantize";
+    public static final String SCALAR4 = "scalar4";
+
+    public static final String FIELD_SUFFIX = "_sq4";
+
+    public static final int HEADER_SIZE = 10;
+
+    private static final int LEVELS = 15;
+
+    private ScalarQuantizer() {}
+
+    /**
+     * @return false if the feature is not quantized
+     */
+    public static boolean parse(String featureName, Map<String, Object> node) {
+        Object quantize = node.get(QUANTIZE);
+        if (quantize == null) {
+            return false;
+        }
+        if (!SCALAR4.equals(quantize.toString())) {
+            throw new MapperParsingException("Unknown quantization [" + quantize + "] for feature [" + featureName + "]");
+        }
+        return true;
+    }
+
+    /**
+     * Doc values field of the codes of a feature
+     */
+    public static String codeFieldName(String featureFieldName) {
+        return featureFieldName + FIELD_SUFFIX;
+    }
+
+    public static byte[] encode(double[] vector) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (double value : vector) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        if (vector.length == 0) {
+            min = max = 0;
+        }
+        float step = (float) ((max - min) / LEVELS);
+        byte[] code = new byte[HEADER_SIZE + (vector.length + 1) / 2];
+        code[0] = (byte) (vector.length >>> 8);
+        code[1] = (byte) vector.length;
+        writeFloat(code, 2, (float) min);
+        writeFloat(code, 6, step);
+        for (int i = 0; i < vector.length; i++) {
+            int level = step == 0 ? 0 : (int) Math.round((vector[i] - min) / step);
+            level = Math.max(0, Math.min(LEVELS, level));
+            code[HEADER_SIZE + (i >> 1)] |= (i & 1) == 0 ? level << 4 : level;
+        }
+        return code;
+    }
+
+    public static int dims(byte[] code, int offset) {
+        return ((code[offset] & 0xFF) << 8) | (code[offset + 1] & 0xFF);
+    }
+
+    public static float min(byte[] code, int offset) {
+        return readFloat(code, offset + 2);
+    }
+
+    public static float step(byte[] code, int offset) {
+        return readFloat(code, offset + 6);
+    }
+
+    private static void writeFloat(byte[] bytes, int offset, float value) {
+        int bits = Float.floatToIntBits(value);
+        bytes[offset] = (byte) (bits >>> 24);
+        bytes[offset + 1] = (byte) (bits >>> 16);
+        bytes[offset + 2] = (byte) (bits >>> 8);
+        bytes[offset + 3] = (byte) bits;
+    }
+
+    private static float readFloat(byte[] bytes, int offset) {
+        return Float.intBitsToFloat(((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+                | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF));
+    }
+}
@@ -0,0 +1,64 @@
+package org.elasticsearch.index.query.image;
+
+import net.semanticmetadata.lire.imageanalysis.features.LireFeature;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+
+import java.io.IOException;
+
+/**
+ * Distance between the query and the docs of one segment, reads doc features and computes their distance.
+ * Instances keep scratch state and must only be used by one thread, create one per scorer.
+ */
+abstract class DocDistance {
+
+    /**
+     * @return distance of the doc, negative if the doc has no feature
+     */
+    abstract double distance(int doc) throws IOException;
+
+    /**
+     * @param bound docs farther than the bound are not ranked, their distance may stop being computed once it exceeds the bound
+     * @return distance of the doc, or a value above the bound, negative if the doc has no feature
+     */
+    double distance(int doc, double bound) throws IOException {
+        return distance(doc);
+    }
+
+    /**
+     * Number of docs whose features were loaded from stored fields instead of doc values so far
+     */
+    abstract int storedFieldLoads();
+
+    static DocDistance create(LeafReader reader, LireFeature feature, GlobalFeatureEnum globalFeatureEnum) throws IOException {
+        return new SingleFeature(new FeatureValues(reader, feature.getFieldName()), FeatureDistance.create(feature, globalFeatureEnum));
+    }
+
+    private static final class SingleFeature extends DocDistance {
+        private final FeatureValues featureValues;
+        private final FeatureDistance featureDistance;
+
+        SingleFeature(FeatureValues featureValues, FeatureDistance featureDistance) {
+            this.featureValues = featureValues;
+            this.featureDistance = featureDistance;
+        }
+
+        @Override
+        double distance(int doc) throws IOException {
+            BytesRef featureBytes = featureValues.get(doc);
+            return featureBytes.length == 0 ? -1 : featureDistance.distance(featureBytes);
+        }
+
+        @Override
+        double distance(int doc, double bound) throws IOException {
+            BytesRef featureBytes = featureValues.get(doc);
+            return featureBytes.length == 0 ? -1 : featureDistance.distance(featureBytes, bound);
+        }
+
+        @Override
+        int storedFieldLoads() {
+            return featureValues.storedFieldLoads();
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package org.elasticsearch.index.query.image;
+
+import com.carrotsearch.hppc.LongHashSet;
+import net.semanticmetadata.lire.imageanalysis.features.LireFeature;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.ElasticsearchImageProcessException;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.index.mapper.image.ImageHashing;
+import org.elasticsearch.index.mapper.image.PerceptualHash;
+import org.elasticsearch.plugin.image.DuplicateJobs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Self join of the images of a shard. Docs sharing a hash term form a block, docs of a block are compared pairwise
+ * and pairs within the max distance are merged into clusters with a lock free union find.
+ * Terms are split in stripes joined in parallel, a pair already in the same cluster is not compared again,
+ * and each stripe remembers up to {@link #MAX_REMEMBERED_PAIRS} pairs found apart, which other hash tables would compare again.
+ * Only pairs sharing a term are found, a pair of perceptual hashes within {@link #MAX_HAMMING_DISTANCE} bits always shares a chunk.
+ */
+public abstract class DuplicateJoin {
+
+    static final int MAX_REMEMBERED_PAIRS = 1 << 20;
+
+    /**
+     * Largest Hamming distance of perceptual hashes for which a pair always shares one of the chunks
+     */
+    public static final int MAX_HAMMING_DISTANCE = PerceptualHash.CHUNKS - 1;
+
+    /**
+     * Largest block compared pairwise, each stripe holds the docs of one block
+     */
+    public static final int MAX_BLOCK_SIZE = 10000;
+
+    final IndexReader reader;
+    private final String blockFieldName;
+    private final double maxDistance;
+
+    private DuplicateJoin(IndexReader reader, String blockFieldName, double maxDistance) {
+        this.reader = reader;
+        this.blockFieldName = blockFieldName;
+        this.maxDistance = maxDistance;
+    }
+
+    /**
+     * Docs blocked by the hash terms of the feature, compared on the feature
+     */
+    public static DuplicateJoin features(IndexReader reader, GlobalFeatureEnum globalFeatureEnum, double maxDistance) {
+        String fieldName = FeatureJoin.newFeature(globalFeatureEnum).getFieldName();
+        if (MultiFields.getMergedFieldInfos(reader).fieldInfo(fieldName) != null
+                && MultiFields.getMergedFieldInfos(reader).fieldInfo(ImageHashing.hashFieldName(fieldName)) == null) {
+            throw new IllegalArgumentException("Feature [" + globalFeatureEnum.name() + "] is indexed without hash, "
+                    + "map it with a [hash] or use [hamming_distance] on a perceptual hash");
+        }
+        return new FeatureJoin(reader, globalFeatureEnum, fieldName, maxDistance);
+    }
+
+    /**
+     * Docs blocked by the chunks of the perceptual hash, compared on the Hamming distance of the hash
+     */
+    public static DuplicateJoin perceptualHash(IndexReader reader, String fieldName, PerceptualHash perceptualHash, int hammingDistance) {
+        return new PerceptualHashJoin(reader, fieldName, perceptualHash, hammingDistance);
+    }
+
+    /**
+     * Comparison of the docs of a block, created per stripe and only used by one thread
+     */
+    abstract BlockComparator comparator() throws IOException;
+
+    /**
+     * Join all blocks of the reader, the calling thread joins the first stripe while the executor joins the others,
+     * stripes rejected by the executor or not started yet when the caller is done are joined by the caller.
+     * @param executor null to join all stripes on the calling thread
+     * @param maxBlockSize blocks with more docs are skipped, such terms are too common to tell duplicates apart
+     * @return clusters of at least 2 docs, as top level doc ids, largest first, partial if the job was cancelled
+     */
+    public List<int[]> join(@Nullable Executor executor, int stripes, final int maxBlockSize, final DuplicateJobs.ShardJob job) throws IOException {
+        Terms terms = MultiFields.getTerms(reader, blockFieldName);
+        if (terms == null) {
+            job.totalBlocks(0);
+            return Collections.emptyList();
+        }
+        long totalBlocks = 0;
+        TermsEnum termsEnum = terms.iterator();
+        while (termsEnum.next() != null) {
+            totalBlocks++;
+        }
+        job.totalBlocks(totalBlocks);
+
+        final UnionFind clusters = new UnionFind(reader.maxDoc());
+        final Bits liveDocs = MultiFields.getLiveDocs(reader);
+        if (executor == null) {
+            stripes = 1;
+        }
+        final int stripeCount = stripes;
+        List<FutureTask<Void>> tasks = new ArrayList<>(stripes);
+        for (int i = 0; i < stripes; i++) {
+            final int stripe = i;
+            FutureTask<Void> task = new FutureTask<>(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    joinStripe(stripe, stripeCount, maxBlockSize, liveDocs, clusters, job);
+                    return null;
+                }
+            });
+            if (!tasks.isEmpty()) {
+                try {
+                    executor.execute(task);
+                } catch (EsRejectedExecutionException e) {
+                    task.run();
+                }
+            }
+            tasks.add(task);
+        }
+        for (FutureTask<Void> task : tasks) {
+            // no op for stripes already started by the executor
+            task.run();
+        }
+        for (FutureTask<Void> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ElasticsearchImageProcessException("Interrupted while joining duplicates", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new ElasticsearchImageProcessException("Failed to join duplicates", e.getCause());
+            }
+        }
+        return clusters.clusters();
+    }
+
+    /**
+     * Join the blocks of the terms whose ordinal modulo stripes is the stripe
+     */
+    private void joinStripe(int stripe, int stripes, int maxBlockSize, Bits liveDocs, UnionFind clusters, DuplicateJobs.ShardJob job) throws IOException {
+        TermsEnum termsEnum = MultiFields.getTerms(reader, blockFieldName).iterator();
+        BlockComparator comparator = comparator();
+        PostingsEnum postings = null;
+        LongHashSet apart = new LongHashSet();
+        int[] docs = new int[maxBlockSize];
+        long ord = -1;
+        while (termsEnum.next() != null && !job.cancelled()) {
+            if (++ord % stripes != stripe) {
+                continue;
+            }
+            postings = termsEnum.postings(postings, PostingsEnum.NONE);
+            int size = 0;
+            boolean skipped = false;
+            for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                if (liveDocs != null && !liveDocs.get(doc)) {
+                    continue;
+                }
+                if (size == maxBlockSize) {
+                    skipped = true;
+                    break;
+                }
+                docs[size++] = doc;
+            }
+            if (skipped) {
+                job.onSkippedBlock();
+                continue;
+            }
+            long compared = 0;
+            if (size > 1) {
+                comparator.load(docs, size);
+                for (int i = 0; i < size; i++) {
+                    for (int j = i + 1; j < size; j++) {
+                        long pair = ((long) docs[i] << 32) | docs[j];
+                        if (clusters.find(docs[i]) == clusters.find(docs[j]) || apart.contains(pair)) {
+                            continue;
+                        }
+                        compared++;
+                        double distance = comparator.distance(i, j);
+                        if (distance >= 0 && distance <= maxDistance) {
+                            clusters.union(docs[i], docs[j]);
+                        } else {
+                            if (apart.size() >= MAX_REMEMBERED_PAIRS) {
+                                apart.clear();
+                            }
+                            apart.add(pair);
+                        }
+                    }
+                }
+            }
+            job.onBlock(compared);
+        }
+    }
+
+    /**
+     * Values of the docs of one block at a time
+     */
+    abstract static class BlockComparator {
+        /**
+         * @param docs top level doc ids of the block
+         */
+        abstract void load(int[] docs, int size) throws IOException;
+
+        /**
+         * Distance between the i-th and the j-th doc of the block, negative if one of them has no value
+         */
+        abstract double distance(int i, int j);
+    }
+
+    private static final class FeatureJoin extends DuplicateJoin {
+        private final GlobalFeatureEnum globalFeatureEnum;
+        private final String fieldName;
+
+        FeatureJoin(IndexReader reader, GlobalFeatureEnum globalFeatureEnum, String fieldName, double maxDistance) {
+            super(reader, ImageHashing.hashFieldName(fieldName), maxDistance);
+            this.globalFeatureEnum = globalFeatureEnum;
+            this.fieldName = fieldName;
+        }
+
+        @Override
+        BlockComparator comparator() throws IOException {
+            final List<LeafReaderContext> leaves = reader.leaves();
+            final FeatureValues[] featureValues = new FeatureValues[leaves.size()];
+            for (int i = 0; i < featureValues.length; i++) {
+                featureValues[i] = new FeatureValues(leaves.get(i).reader(), fieldName);
+            }
+            return new BlockComparator() {
+                private BytesRef[] features = new BytesRef[0];
+                private FeatureDistance[] distances = new FeatureDistance[0];
+
+                @Override
+                void load(int[] docs, int size) throws IOException {
+                    if (features.length < size) {
+                        features = new BytesRef[size];
+                        distances = new FeatureDistance[size];
+                    }
+                    for (int i = 0; i < size; i++) {
+                        int leaf = ReaderUtil.subIndex(docs[i], leaves);
+                        BytesRef feature = featureValues[leaf].get(docs[i] - leaves.get(leaf).docBase);
+                        features[i] = feature.length == 0 ? null : BytesRef.deepCopyOf(feature);
+                        distances[i] = null;
+                        if (features[i] != null) {
+                            LireFeature lireFeature = newFeature(globalFeatureEnum);
+                            lireFeature.setByteArrayRepresentation(features[i].bytes, features[i].offset, features[i].length);
+                            distances[i] = FeatureDistance.create(lireFeature, globalFeatureEnum);
+                        }
+                    }
+                }
+
+                @Override
+                double distance(int i, int j) {
+                    if (features[i] == null || features[j] == null) {
+                        return -1;
+                    }
+                    return distances[i].distance(features[j]);
+                }
+            };
+        }
+
+        private static LireFeature newFeature(GlobalFeatureEnum globalFeatureEnum) {
+            try {
+                return globalFeatureEnum.getGlobalFeatureClass().newInstance();
+            } catch (InstantiationException | IllegalAccessException e) {
+                throw new ElasticsearchImageProcessException("Failed to initial image feature class", e);
+            }
+        }
+    }
+
+    private static final class PerceptualHashJoin extends DuplicateJoin {
+        private final String hashFieldName;
+
+        PerceptualHashJoin(IndexReader reader, String fieldName, PerceptualHash perceptualHash, int hammingDistance) {
+            super(reader, perceptualHash.chunkFieldName(fieldName), hammingDistance);
+            this.hashFieldName = perceptualHash.hashFieldName(fieldName);
+        }
+
+        @Override
+        BlockComparator comparator() throws IOException {
+            final List<LeafReaderContext> leaves = reader.leaves();
+            final NumericDocValues[] values = new NumericDocValues[leaves.size()];
+            final Bits[] docsWithHash = new Bits[leaves.size()];
+            for (int i = 0; i < values.length; i++) {
+                LeafReader leafReader = leaves.get(i).reader();
+                values[i] = leafReader.getNumericDocValues(hashFieldName);
+                docsWithHash[i] = leafReader.getDocsWithField(hashFieldName);
+            }
+            return new BlockComparator() {
+                private long[] hashes = new long[0];
+                private boolean[] hasHash = new boolean[0];
+
+                @Override
+                void load(int[] docs, int size) throws IOException {
+                    if (hashes.length < size) {
+                        hashes = new long[size];
+                        hasHash = new boolean[size];
+                    }
+                    for (int i = 0; i < size; i++) {
+                        int leaf = ReaderUtil.subIndex(docs[i], leaves);
+                        int doc = docs[i] - leaves.get(leaf).docBase;
+                        hasHash[i] = values[leaf] != null && docsWithHash[leaf] != null && docsWithHash[leaf].get(doc);
+                        hashes[i] = hasHash[i] ? values[leaf].get(doc) : 0;
+                    }
+                }
+
+                @Override
+                double distance(int i, int j) {
+                    if (!hasHash[i] || !hasHash[j]) {
+                        return -1;
+                    }
+                    return Long.bitCount(hashes[i] ^ hashes[j]);
+                }
+            };
+        }
+    }
+
+    /**
+     * Union find shared by all stripes. A root is only linked under a root with a smaller doc id,
+     * so parents always decrease and concurrent path halving keeps the forest acyclic.
+     */
+    static final class UnionFind {
+        private final AtomicIntegerArray parents;
+
+        UnionFind(int size) {
+            parents = new AtomicIntegerArray(size);
+            for (int i = 0; i < size; i++) {
+                parents.set(i, i);
+            }
+        }
+
+        int find(int doc) {
+            int parent;
+            while ((parent = parents.get(doc)) != doc) {
+                int grandParent = parents.get(parent);
+                parents.compareAndSet(doc, parent, grandParent);
+                doc = grandParent;
+            }
+            return doc;
+        }
+
+        void union(int a, int b) {
+            while (true) {
+                a = find(a);
+                b = find(b);
+                if (a == b) {
+                    return;
+                }
+                if (a < b) {
+                    int tmp = a;
+                    a = b;
+                    b = tmp;
+                }
+                if (parents.compareAndSet(a, a, b)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Docs grouped by root, groups of at least 2 docs, largest first
+         */
+        List<int[]> clusters() {
+            int size = parents.length();
+            int[] roots = new int[size];
+            int[] counts = new int[size];
+            for (int doc = 0; doc < size; doc++) {
+                roots[doc] = find(doc);
+                counts[roots[doc]]++;
+            }
+            Map<Integer, int[]> clusters = new HashMap<>();
+            for (int doc = 0; doc < size; doc++) {
+                int root = roots[doc];
+                int[] cluster = clusters.get(root);
+                if (cluster == null) {
+                    if (counts[root] < 2) {
+                        continue;
+                    }
+                    cluster = new int[counts[root]];
+                    clusters.put(root, cluster);
+                }
+                // counts of the root become the number of docs left to add
+                cluster[cluster.length - counts[root]--] = doc;
+            }
+            List<int[]> sorted = new ArrayList<>(clusters.values());
+            Collections.sort(sorted, new Comparator<int[]>() {
+                @Override
+                public int compare(int[] o1, int[] o2) {
+                    return Integer.compare(o2.length, o1.length);
+                }
+            });
+            return sorted;
+        }
+    }
+}
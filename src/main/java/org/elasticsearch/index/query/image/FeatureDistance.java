@@ -0,0 +1,406 @@
+package org.elasticsearch.index.query.image;
+
+import net.semanticmetadata.lire.imageanalysis.features.LireFeature;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.ElasticsearchImageProcessException;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+
+/**
+ * Distance between the query feature and serialized features of documents.
+ * Instances keep scratch state and must only be used by one thread, create one per scorer.
+ */
+abstract class FeatureDistance {
+
+    /**
+     * @param featureBytes serialized feature of a document, not empty
+     */
+    abstract double distance(BytesRef featureBytes);
+
+    /**
+     * Distance that may stop once it is known to exceed the bound, used to skip docs that can not enter a full top docs queue.
+     * Kernels summing non-negative terms check the bound between blocks of terms, other kernels compute the whole distance.
+     * @return the distance, or a value above {@code bound} when the distance exceeds it
+     */
+    double distance(BytesRef featureBytes, double bound) {
+        return distance(featureBytes);
+    }
+
+    static FeatureDistance create(LireFeature queryFeature, GlobalFeatureEnum globalFeatureEnum) {
+        switch (globalFeatureEnum) {
+            case CEDD:
+                return new NibbleTanimotoDistance(queryFeature, globalFeatureEnum, 144, 1.0);
+            case FCTH:
+                return new NibbleTanimotoDistance(queryFeature, globalFeatureEnum, 192, 0.5);
+            case JCD:
+                return new RunLengthTanimotoDistance(queryFeature, globalFeatureEnum, 168);
+            case COLOR_LAYOUT:
+                ColorLayoutDistance colorLayoutDistance = new ColorLayoutDistance(queryFeature, globalFeatureEnum);
+                return colorLayoutDistance.supported() ? colorLayoutDistance : new LireDistance(queryFeature, globalFeatureEnum);
+            case EDGE_HISTOGRAM:
+                return new EdgeHistogramDistance(queryFeature, globalFeatureEnum);
+            case PHOG:
+                return new NibbleL1Distance(queryFeature, globalFeatureEnum);
+            default:
+                return new LireDistance(queryFeature, globalFeatureEnum);
+        }
+    }
+
+    /**
+     * Deserialize document feature into a LIRE instance and use its distance
+     */
+    static class LireDistance extends FeatureDistance {
+        private final LireFeature queryFeature;
+        private final LireFeature cachedInstance;
+
+        LireDistance(LireFeature queryFeature, GlobalFeatureEnum globalFeatureEnum) {
+            this.queryFeature = queryFeature;
+            try {
+                this.cachedInstance = globalFeatureEnum.getGlobalFeatureClass().newInstance();
+            } catch (InstantiationException | IllegalAccessException e) {
+                throw new ElasticsearchImageProcessException("Failed to initial image feature class", e);
+            }
+        }
+
+        @Override
+        double distance(BytesRef featureBytes) {
+            cachedInstance.setByteArrayRepresentation(featureBytes.bytes, featureBytes.offset, featureBytes.length);
+            return queryFeature.getDistance(cachedInstance);
+        }
+    }
+
+    /**
+     * Distance computed straight from serialized bytes against the query decoded once into primitive arrays.
+     * Kernels give the same result as LIRE, documents with an unexpected layout go through LIRE.
+     */
+    abstract static class PrimitiveDistance extends FeatureDistance {
+        private final LireFeature queryFeature;
+        private final GlobalFeatureEnum globalFeatureEnum;
+        private LireDistance fallback;
+
+        PrimitiveDistance(LireFeature queryFeature, GlobalFeatureEnum globalFeatureEnum) {
+            this.queryFeature = queryFeature;
+            this.globalFeatureEnum = globalFeatureEnum;
+        }
+
+        final double fallback(BytesRef featureBytes) {
+            if (fallback == null) {
+                fallback = new LireDistance(queryFeature, globalFeatureEnum);
+            }
+            return fallback.distance(featureBytes);
+        }
+
+        /**
+         * High and low nibble of each byte, the packing of CEDD, FCTH, EdgeHistogram and PHOG
+         */
+        static int[] decodeNibbles(byte[] bytes, int size) {
+            int[] values = new int[size];
+            for (int i = 0; i < bytes.length && (i << 1) + 1 < size; i++) {
+                int tmp = bytes[i] + 128;
+                values[i << 1] = tmp >> 4;
+                values[(i << 1) + 1] = tmp & 0xF;
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Tanimoto coefficient of CEDD and FCTH, histogram values are packed in nibbles scaled by 1 or 1/2
+     * and trailing empty bins are cut off
+     */
+    static final class NibbleTanimotoDistance extends PrimitiveDistance {
+        private final double[] values = new double[16];
+        private final double[] queryNormalized;
+        private final double querySum;
+        private final double querySquareSum;
+
+        NibbleTanimotoDistance(LireFeature queryFeature, GlobalFeatureEnum globalFeatureEnum, int size, double scale) {
+            super(queryFeature, globalFeatureEnum);
+            for (int i = 0; i < values.length; i++) {
+                values[i] = i * scale;
+            }
+            int[] query = decodeNibbles(queryFeature.getByteArrayRepresentation(), size);
+            double sum = 0;
+            for (int q : query) {
+                sum += values[q];
+            }
+            this.querySum = sum;
+            this.queryNormalized = new double[size];
+            double squareSum = 0;
+            for (int i = 0; i < size; i++) {
+                queryNormalized[i] = values[query[i]] / sum;
+                squareSum += queryNormalized[i] * queryNormalized[i];
+            }
+            this.querySquareSum = squareSum;
+        }
+
+        @Override
+        double distance(BytesRef featureBytes) {
+            final byte[] bytes = featureBytes.bytes;
+            final int offset = featureBytes.offset;
+            final int length = featureBytes.length;
+            if (length << 1 > queryNormalized.length) {
+                return fallback(featureBytes);
+            }
+            int nibbleSum = 0;
+            for (int i = offset; i < offset + length; i++) {
+                int tmp = bytes[i] + 128;
+                nibbleSum += (tmp >> 4) + (tmp & 0xF);
+            }
+            double sum = nibbleSum * values[1];
+            if (sum == 0 && querySum == 0) {
+                return 0;
+            }
+            if (sum == 0 || querySum == 0) {
+                return 100;
+            }
+            double product = 0;
+            double squareSum = 0;
+            for (int i = 0, j = offset; i < length; i++, j++) {
+                int tmp = bytes[j] + 128;
+                double high = values[tmp >> 4] / sum;
+                double low = values[tmp & 0xF] / sum;
+                product += high * queryNormalized[i << 1];
+                squareSum += high * high;
+                product += low * queryNormalized[(i << 1) + 1];
+                squareSum += low * low;
+            }
+            return 100.0 - 100.0 * (product / (querySquareSum + squareSum - product));
+        }
+    }
+
+    /**
+     * Tanimoto coefficient of JCD, positive bytes are bins scaled by 2, other bytes are runs of empty bins
+     */
+    static final class RunLengthTanimotoDistance extends PrimitiveDistance {
+        private final double[] queryNormalized;
+        private final double querySum;
+        private final double querySquareSum;
+
+        RunLengthTanimotoDistance(LireFeature queryFeature, GlobalFeatureEnum globalFeatureEnum, int size) {
+            super(queryFeature, globalFeatureEnum);
+            double[] query = new double[size];
+            byte[] bytes = queryFeature.getByteArrayRepresentation();
+            double sum = 0;
+            for (int i = 0, bin = 0; i < bytes.length && bin < size; i++) {
+                if (bytes[i] > 0) {
+                    query[bin++] = bytes[i] / 2.0;
+                    sum += bytes[i] / 2.0;
+                } else {
+                    bin -= bytes[i];
+                }
+            }
+            this.querySum = sum;
+            this.queryNormalized = new double[size];
+            double squareSum = 0;
+            for (int i = 0; i < size; i++) {
+                queryNormalized[i] = query[i] / sum;
+                squareSum += queryNormalized[i] * queryNormalized[i];
+            }
+            this.querySquareSum = squareSum;
+        }
+
+        @Override
+        double distance(BytesRef featureBytes) {
+            final byte[] bytes = featureBytes.bytes;
+            final int end = featureBytes.offset + featureBytes.length;
+            int doubledSum = 0;
+            int bins = 0;
+            for (int i = featureBytes.offset; i < end; i++) {
+                if (bytes[i] > 0) {
+                    doubledSum += bytes[i];
+                    bins++;
+                } else {
+                    bins -= bytes[i];
+                }
+            }
+            if (bins > queryNormalized.length) {
+                return fallback(featureBytes);
+            }
+            double sum = doubledSum / 2.0;
+            if (sum == 0 && querySum == 0) {
+                return 0;
+            }
+            if (sum == 0 || querySum == 0) {
+                return 100;
+            }
+            double product = 0;
+            double squareSum = 0;
+            for (int i = featureBytes.offset, bin = 0; i < end; i++) {
+                if (bytes[i] > 0) {
+                    double value = bytes[i] / 2.0 / sum;
+                    product += value * queryNormalized[bin++];
+                    squareSum += value * value;
+                } else {
+                    bin -= bytes[i];
+                }
+            }
+            return 100.0 - 100.0 * (product / (querySquareSum + squareSum - product));
+        }
+    }
+
+    /**
+     * Weighted euclidean distance of MPEG-7 color layout coefficients, 21 luminance and 6 of each chrominance
+     */
+    static final class ColorLayoutDistance extends PrimitiveDistance {
+        private static final int NUM_Y_COEFF = 21;
+        private static final int NUM_C_COEFF = 6;
+        private static final int[] Y_WEIGHTS = {2, 2, 2};
+        private static final int[] CB_WEIGHTS = {2, 1, 1};
+        private static final int[] CR_WEIGHTS = {4, 2, 2};
+
+        private final int[] query;
+
+        ColorLayoutDistance(LireFeature queryFeature, GlobalFeatureEnum globalFeatureEnum) {
+            super(queryFeature, globalFeatureEnum);
+            byte[] bytes = queryFeature.getByteArrayRepresentation();
+            if (bytes.length == 2 + NUM_Y_COEFF + 2 * NUM_C_COEFF && bytes[0] == NUM_Y_COEFF && bytes[1] == NUM_C_COEFF) {
+                query = new int[NUM_Y_COEFF + 2 * NUM_C_COEFF];
+                for (int i = 0; i < query.length; i++) {
+                    query[i] = bytes[i + 2];
+                }
+            } else {
+                query = null;
+            }
+        }
+
+        boolean supported() {
+            return query != null;
+        }
+
+        @Override
+        double distance(BytesRef featureBytes) {
+            return distance(featureBytes, Double.POSITIVE_INFINITY);
+        }
+
+        @Override
+        double distance(BytesRef featureBytes, double bound) {
+            final byte[] bytes = featureBytes.bytes;
+            final int offset = featureBytes.offset + 2;
+            if (featureBytes.length != 2 + query.length || bytes[offset - 2] != NUM_Y_COEFF || bytes[offset - 1] != NUM_C_COEFF) {
+                return fallback(featureBytes);
+            }
+            int sumY = 0;
+            for (int i = 0; i < NUM_Y_COEFF; i++) {
+                int diff = query[i] - bytes[offset + i];
+                sumY += (i < 3 ? Y_WEIGHTS[i] : 1) * diff * diff;
+            }
+            double distanceY = Math.sqrt(sumY);
+            if (distanceY > bound) {
+                return distanceY;
+            }
+            int sumCb = 0;
+            int sumCr = 0;
+            for (int i = 0; i < NUM_C_COEFF; i++) {
+                int diffCb = query[NUM_Y_COEFF + i] - bytes[offset + NUM_Y_COEFF + i];
+                sumCb += (i < 3 ? CB_WEIGHTS[i] : 1) * diffCb * diffCb;
+                int diffCr = query[NUM_Y_COEFF + NUM_C_COEFF + i] - bytes[offset + NUM_Y_COEFF + NUM_C_COEFF + i];
+                sumCr += (i < 3 ? CR_WEIGHTS[i] : 1) * diffCr * diffCr;
+            }
+            return distanceY + Math.sqrt(sumCb) + Math.sqrt(sumCr);
+        }
+    }
+
+    /**
+     * MPEG-7 edge histogram distance over 80 quantized bins packed in nibbles
+     */
+    static final class EdgeHistogramDistance extends PrimitiveDistance {
+        private static final int BINS = 80;
+        private static final double[][] QUANT_TABLE = {
+                {0.010867, 0.057915, 0.099526, 0.144849, 0.195573, 0.260504, 0.358031, 0.530128},
+                {0.012266, 0.069934, 0.125879, 0.182307, 0.243396, 0.314563, 0.411728, 0.564319},
+                {0.004193, 0.025852, 0.04686, 0.068519, 0.093286, 0.12349, 0.161505, 0.22896},
+                {0.004174, 0.025924, 0.046232, 0.067163, 0.089655, 0.115391, 0.151904, 0.217745},
+                {0.006778, 0.051667, 0.10865, 0.166257, 0.224226, 0.285691, 0.356375, 0.450972}};
+
+        private final int[] query;
+        private final double[] queryQuantized = new double[BINS];
+        private final double[][] quantRows = new double[BINS][];
+        private final int[] bins = new int[BINS];
+
+        EdgeHistogramDistance(LireFeature queryFeature, GlobalFeatureEnum globalFeatureEnum) {
+            super(queryFeature, globalFeatureEnum);
+            query = decodeNibbles(queryFeature.getByteArrayRepresentation(), BINS);
+            for (int i = 0; i < BINS; i++) {
+                quantRows[i] = QUANT_TABLE[i % 5];
+                queryQuantized[i] = quantRows[i][query[i] & 7];
+            }
+        }
+
+        @Override
+        double distance(BytesRef featureBytes) {
+            return distance(featureBytes, Double.POSITIVE_INFINITY);
+        }
+
+        @Override
+        double distance(BytesRef featureBytes, double bound) {
+            final byte[] bytes = featureBytes.bytes;
+            final int offset = featureBytes.offset;
+            if (featureBytes.length != BINS / 2) {
+                return fallback(featureBytes);
+            }
+            for (int i = 0; i < BINS / 2; i++) {
+                int tmp = bytes[offset + i] + 128;
+                bins[i << 1] = tmp >> 4;
+                bins[(i << 1) + 1] = tmp & 0xF;
+            }
+            // same summation order as LIRE: quantized bins, then weighted global bins, then local bins,
+            // bins above 7 are never written by LIRE and masked like the query so such a doc cannot fail the search
+            double result = 0.0;
+            for (int i = 0; i < BINS; i++) {
+                result += Math.abs(quantRows[i][bins[i] & 7] - queryQuantized[i]);
+            }
+            for (int i = 0; i < 5; i++) {
+                result += 5.0 * Math.abs(bins[i] - query[i]);
+            }
+            if (result > bound) {
+                return result;
+            }
+            for (int i = 5; i < BINS; i++) {
+                result += Math.abs(bins[i] - query[i]);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * L1 distance of PHOG histograms packed in nibbles
+     */
+    static final class NibbleL1Distance extends PrimitiveDistance {
+        /**
+         * Bound is checked every 32 bytes
+         */
+        private static final int BOUND_CHECK_MASK = 31;
+
+        private final int[] query;
+
+        NibbleL1Distance(LireFeature queryFeature, GlobalFeatureEnum globalFeatureEnum) {
+            super(queryFeature, globalFeatureEnum);
+            byte[] bytes = queryFeature.getByteArrayRepresentation();
+            query = decodeNibbles(bytes, bytes.length << 1);
+        }
+
+        @Override
+        double distance(BytesRef featureBytes) {
+            return distance(featureBytes, Double.POSITIVE_INFINITY);
+        }
+
+        @Override
+        double distance(BytesRef featureBytes, double bound) {
+            final byte[] bytes = featureBytes.bytes;
+            final int offset = featureBytes.offset;
+            if (featureBytes.length << 1 != query.length) {
+                return fallback(featureBytes);
+            }
+            // integer sum is exact, as is LIRE's double sum of integers
+            int sum = 0;
+            for (int i = 0; i < featureBytes.length; i++) {
+                int tmp = bytes[offset + i] + 128;
+                sum += Math.abs((tmp >> 4) - query[i << 1]) + Math.abs((tmp & 0xF) - query[(i << 1) + 1]);
+                if ((i & BOUND_CHECK_MASK) == BOUND_CHECK_MASK && sum > bound) {
+                    return sum;
+                }
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.elasticsearch.index.query.image;
+
+import net.semanticmetadata.lire.imageanalysis.features.LireFeature;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Weighted late fusion of several features of the query image, scored in one pass over the docs.
+ * The features of a doc are read together, so stored fields are only loaded once per doc.
+ */
+public class FeatureFusion {
+
+    public enum Normalization {
+        /**
+         * Weighted mean of the scores of each feature, features with different distance ranges weigh the same
+         */
+        SCORE,
+        /**
+         * Weighted mean of the raw distances, for features with comparable distance ranges
+         */
+        DISTANCE;
+
+        public static Normalization parse(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown normalization [" + name + "], expected [score] or [distance]");
+            }
+        }
+    }
+
+    public static final class WeightedFeature {
+        private final LireFeature feature;
+        private final GlobalFeatureEnum globalFeatureEnum;
+        private final float weight;
+
+        public WeightedFeature(LireFeature feature, GlobalFeatureEnum globalFeatureEnum, float weight) {
+            this.feature = feature;
+            this.globalFeatureEnum = globalFeatureEnum;
+            this.weight = weight;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            WeightedFeature that = (WeightedFeature) o;
+            return globalFeatureEnum == that.globalFeatureEnum && Float.compare(weight, that.weight) == 0 &&
+                    Arrays.equals(feature.getByteArrayRepresentation(), that.feature.getByteArrayRepresentation());
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * globalFeatureEnum.hashCode() + Float.floatToIntBits(weight)) + Arrays.hashCode(feature.getByteArrayRepresentation());
+        }
+
+        @Override
+        public String toString() {
+            return feature.getClass().getSimpleName() + "^" + weight;
+        }
+    }
+
+    private final List<WeightedFeature> features;
+    private final Normalization normalization;
+
+    public FeatureFusion(List<WeightedFeature> features, Normalization normalization) {
+        this.features = features;
+        this.normalization = normalization;
+    }
+
+    /**
+     * Fused distance of the docs of one segment, in score mode the fused score is turned back into the distance
+     * that {@link ImageQuery#distanceToScore(double)} maps to it
+     */
+    DocDistance docDistance(LeafReader reader) throws IOException {
+        String[] fieldNames = new String[features.size()];
+        FeatureDistance[] distances = new FeatureDistance[features.size()];
+        float[] weights = new float[features.size()];
+        float weightSum = 0;
+        for (int i = 0; i < fieldNames.length; i++) {
+            WeightedFeature weightedFeature = features.get(i);
+            fieldNames[i] = weightedFeature.feature.getFieldName();
+            distances[i] = FeatureDistance.create(weightedFeature.feature, weightedFeature.globalFeatureEnum);
+            weights[i] = weightedFeature.weight;
+            weightSum += weightedFeature.weight;
+        }
+        return new FusedDistance(new FeatureValues(reader, fieldNames), distances, weights, weightSum, normalization);
+    }
+
+    /**
+     * Whether docs missing one of the features do not match
+     */
+    boolean requiresAllFeatures() {
+        return normalization == Normalization.DISTANCE;
+    }
+
+    static double scoreToDistance(double score) {
+        if (score >= 1) {
+            return 2 - score;
+        }
+        return score > 0 ? 1 / score : Double.MAX_VALUE;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        FeatureFusion that = (FeatureFusion) o;
+        return normalization == that.normalization && features.equals(that.features);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * normalization.hashCode() + features.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "fusion(" + normalization.name().toLowerCase(Locale.ROOT) + ":" + features + ")";
+    }
+
+    private static final class FusedDistance extends DocDistance {
+        private final FeatureValues featureValues;
+        private final FeatureDistance[] distances;
+        private final float[] weights;
+        private final float weightSum;
+        private final Normalization normalization;
+
+        FusedDistance(FeatureValues featureValues, FeatureDistance[] distances, float[] weights, float weightSum, Normalization normalization) {
+            this.featureValues = featureValues;
+            this.distances = distances;
+            this.weights = weights;
+            this.weightSum = weightSum;
+            this.normalization = normalization;
+        }
+
+        /**
+         * In score mode a missing feature scores 0, in distance mode docs must have all features
+         */
+        @Override
+        double distance(int doc) throws IOException {
+            double sum = 0;
+            int found = 0;
+            for (int i = 0; i < distances.length; i++) {
+                BytesRef featureBytes = featureValues.get(doc, i);
+                if (featureBytes.length == 0) {
+                    if (normalization == Normalization.DISTANCE) {
+                        return -1;
+                    }
+                    continue;
+                }
+                double distance = distances[i].distance(featureBytes);
+                sum += weights[i] * (normalization == Normalization.SCORE ? ImageQuery.distanceToScore(distance) : distance);
+                found++;
+            }
+            if (found == 0) {
+                return -1;
+            }
+            return normalization == Normalization.SCORE ? scoreToDistance(sum / weightSum) : sum / weightSum;
+        }
+
+        @Override
+        int storedFieldLoads() {
+            return featureValues.storedFieldLoads();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.elasticsearch.index.query.image;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.ElasticsearchImageProcessException;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Serialized features of live docs picked uniformly at random, used to train hash functions on the features of an index
+ */
+public final class FeatureSample {
+
+    private FeatureSample() {
+    }
+
+    /**
+     * Reservoir sample over all docs of the reader that have the feature
+     * @return at most {@code size} features
+     */
+    public static List<byte[]> sample(IndexReader reader, GlobalFeatureEnum globalFeatureEnum, int size, Random random) throws IOException {
+        String fieldName;
+        try {
+            fieldName = globalFeatureEnum.getGlobalFeatureClass().newInstance().getFieldName();
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new ElasticsearchImageProcessException("Failed to initial image feature class", e);
+        }
+        List<byte[]> sample = new ArrayList<>(size);
+        long seen = 0;
+        for (LeafReaderContext context : reader.leaves()) {
+            FeatureValues featureValues = new FeatureValues(context.reader(), fieldName);
+            Bits liveDocs = context.reader().getLiveDocs();
+            int maxDoc = context.reader().maxDoc();
+            for (int doc = 0; doc < maxDoc; doc++) {
+                if (liveDocs != null && !liveDocs.get(doc)) {
+                    continue;
+                }
+                BytesRef featureBytes = featureValues.get(doc);
+                if (featureBytes.length == 0) {
+                    continue;
+                }
+                seen++;
+                if (sample.size() < size) {
+                    sample.add(BytesRef.deepCopyOf(featureBytes).bytes);
+                } else {
+                    long slot = (long) (random.nextDouble() * seen);
+                    if (slot < size) {
+                        sample.set((int) slot, BytesRef.deepCopyOf(featureBytes).bytes);
+                    }
+                }
+            }
+        }
+        return sample;
+    }
+}
@@ -0,0 +1,123 @@
+package org.elasticsearch.index.query.image;
+
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+
+/**
+ * Per segment access to the serialized features of documents.
+ * Features are read from doc values, stored fields are only used for documents indexed without doc values,
+ * all features of a document are then loaded in one visit.
+ */
+class FeatureValues implements HnswGraph.Vectors {
+    private static final BytesRef EMPTY = new BytesRef();
+
+    private final LeafReader reader;
+    private final BinaryDocValues[] docValues;
+    private final FeatureVisitor visitor;
+    private int visitedDoc = -1;
+    private int storedFieldLoads;
+
+    FeatureValues(LeafReader reader, String fieldName) throws IOException {
+        this(reader, new String[]{fieldName});
+    }
+
+    FeatureValues(LeafReader reader, String[] fieldNames) throws IOException {
+        this.reader = reader;
+        this.docValues = new BinaryDocValues[fieldNames.length];
+        for (int i = 0; i < fieldNames.length; i++) {
+            docValues[i] = reader.getBinaryDocValues(fieldNames[i]);
+        }
+        this.visitor = new FeatureVisitor(fieldNames);
+    }
+
+    /**
+     * @return feature bytes of the document, empty if document has no feature.
+     * Returned bytes are only valid until next call.
+     */
+    @Override
+    public BytesRef get(int docId) throws IOException {
+        return get(docId, 0);
+    }
+
+    /**
+     * @param field index of the field in the field names
+     * @return feature bytes of the document, empty if document has no feature.
+     * Returned bytes are only valid until the next call for another document or the same field.
+     */
+    BytesRef get(int docId, int field) throws IOException {
+        if (docValues[field] != null) {
+            BytesRef value = docValues[field].get(docId);
+            if (value.length > 0) {
+                return value;
+            }
+        }
+        if (visitedDoc != docId) {
+            visitor.reset();
+            reader.document(docId, visitor);
+            visitedDoc = docId;
+            storedFieldLoads++;
+        }
+        return visitor.values[field];
+    }
+
+    /**
+     * Number of documents loaded from stored fields so far
+     */
+    int storedFieldLoads() {
+        return storedFieldLoads;
+    }
+
+    /**
+     * Load only the feature fields, the first value of each, and stop visiting once all are found
+     */
+    private static class FeatureVisitor extends StoredFieldVisitor {
+        private final String[] fieldNames;
+        private final BytesRef[] values;
+        private int found;
+
+        FeatureVisitor(String[] fieldNames) {
+            this.fieldNames = fieldNames;
+            this.values = new BytesRef[fieldNames.length];
+            reset();
+        }
+
+        void reset() {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = EMPTY;
+            }
+            found = 0;
+        }
+
+        private int field(String name) {
+            for (int i = 0; i < fieldNames.length; i++) {
+                if (fieldNames[i].equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public void binaryField(FieldInfo fieldInfo, byte[] bytes) throws IOException {
+            int field = field(fieldInfo.name);
+            if (field >= 0 && values[field].length == 0) {
+                values[field] = new BytesRef(bytes);
+                found++;
+            }
+        }
+
+        @Override
+        public Status needsField(FieldInfo fieldInfo) throws IOException {
+            if (found == values.length) {
+                return Status.STOP;
+            }
+            int field = field(fieldInfo.name);
+            return field >= 0 && values[field].length == 0 ? Status.YES : Status.NO;
+        }
+    }
+}
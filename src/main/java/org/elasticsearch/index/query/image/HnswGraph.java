@@ -0,0 +1,355 @@
+package org.elasticsearch.index.query.image;
+
+import com.carrotsearch.hppc.IntObjectHashMap;
+import com.carrotsearch.hppc.cursors.IntObjectCursor;
+import net.semanticmetadata.lire.imageanalysis.features.LireFeature;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.util.BitSet;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefArray;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.Counter;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.SparseFixedBitSet;
+import org.elasticsearch.ElasticsearchImageProcessException;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.index.mapper.image.HnswParameters;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Hierarchical navigable small world graph over the features of one segment, nodes are segment doc ids.
+ * Segments are immutable so the graph is built once per segment, deleted docs stay in the graph and are
+ * only filtered out of search results.
+ */
+final class HnswGraph {
+
+    /**
+     * Random access to serialized features by doc id
+     */
+    interface Vectors {
+        /**
+         * @return bytes only valid until next call
+         */
+        BytesRef get(int node) throws IOException;
+    }
+
+    private static final long SEED = 0x5EED;
+
+    private final int maxDoc;
+    private final int entryPoint;
+    private final int maxLevel;
+    private final int[][] layer0;
+    private final IntObjectHashMap<int[][]> upperLayers;
+    private final long ramBytesUsed;
+
+    private final Layers layers = new Layers() {
+        @Override
+        int[] neighbors(int node, int level) {
+            return level == 0 ? layer0[node] : upperLayers.get(node)[level - 1];
+        }
+
+        @Override
+        int neighborCount(int node, int level) {
+            return neighbors(node, level).length;
+        }
+    };
+
+    private HnswGraph(int maxDoc, int entryPoint, int maxLevel, int[][] layer0, IntObjectHashMap<int[][]> upperLayers) {
+        this.maxDoc = maxDoc;
+        this.entryPoint = entryPoint;
+        this.maxLevel = maxLevel;
+        this.layer0 = layer0;
+        this.upperLayers = upperLayers;
+        long bytes = RamUsageEstimator.shallowSizeOf(layer0);
+        for (int[] neighbors : layer0) {
+            bytes += neighbors == null ? 0 : RamUsageEstimator.sizeOf(neighbors);
+        }
+        for (IntObjectCursor<int[][]> cursor : upperLayers) {
+            bytes += RamUsageEstimator.shallowSizeOf(cursor.value);
+            for (int[] neighbors : cursor.value) {
+                bytes += RamUsageEstimator.sizeOf(neighbors);
+            }
+        }
+        this.ramBytesUsed = bytes;
+    }
+
+    long ramBytesUsed() {
+        return ramBytesUsed;
+    }
+
+    /**
+     * @param acceptDocs docs allowed in results, null to accept all docs
+     * @return max queue of the best {@code ef} accepted docs
+     */
+    NeighborQueue search(FeatureDistance distance, Vectors vectors, int ef, Bits acceptDocs) throws IOException {
+        NeighborQueue results = new NeighborQueue(ef + 1, true);
+        if (entryPoint < 0) {
+            return results;
+        }
+        int ep = entryPoint;
+        double epDistance = distance.distance(vectors.get(ep));
+        for (int level = maxLevel; level > 0; level--) {
+            ep = greedySearch(layers, distance, vectors, ep, epDistance, level);
+            epDistance = distance.distance(vectors.get(ep));
+        }
+        searchLayer(layers, distance, vectors, ep, epDistance, ef, 0, acceptDocs, new SparseFixedBitSet(maxDoc), results);
+        return results;
+    }
+
+    /**
+     * Build the graph of a segment, features are loaded in memory for the time of the build
+     */
+    static HnswGraph build(LeafReader reader, String fieldName, GlobalFeatureEnum globalFeatureEnum, HnswParameters parameters) throws IOException {
+        int maxDoc = reader.maxDoc();
+        FeatureValues featureValues = new FeatureValues(reader, fieldName);
+        final BytesRefArray features = new BytesRefArray(Counter.newCounter());
+        final int[] ords = new int[maxDoc];
+        Arrays.fill(ords, -1);
+        for (int doc = 0; doc < maxDoc; doc++) {
+            BytesRef bytes = featureValues.get(doc);
+            if (bytes.length > 0) {
+                ords[doc] = features.append(bytes);
+            }
+        }
+        Vectors vectors = new Vectors() {
+            private final BytesRefBuilder scratch = new BytesRefBuilder();
+
+            @Override
+            public BytesRef get(int node) {
+                return features.get(scratch, ords[node]);
+            }
+        };
+
+        Builder builder = new Builder(maxDoc, parameters, vectors);
+        Random random = new Random(SEED);
+        double levelMultiplier = 1 / Math.log(parameters.m());
+        for (int doc = 0; doc < maxDoc; doc++) {
+            if (ords[doc] < 0) {
+                continue;
+            }
+            LireFeature feature = newFeature(globalFeatureEnum);
+            BytesRef bytes = vectors.get(doc);
+            feature.setByteArrayRepresentation(bytes.bytes, bytes.offset, bytes.length);
+            int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+            builder.insert(doc, level, FeatureDistance.create(feature, globalFeatureEnum));
+        }
+        return builder.finish();
+    }
+
+    private static LireFeature newFeature(GlobalFeatureEnum globalFeatureEnum) {
+        try {
+            return globalFeatureEnum.getGlobalFeatureClass().newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new ElasticsearchImageProcessException("Failed to initial image feature class", e);
+        }
+    }
+
+    /**
+     * Neighbors of nodes, shared by the built graph and the builder
+     */
+    private abstract static class Layers {
+        abstract int[] neighbors(int node, int level);
+
+        abstract int neighborCount(int node, int level);
+    }
+
+    /**
+     * Move to the closest neighbor until no neighbor is closer
+     */
+    private static int greedySearch(Layers layers, FeatureDistance distance, Vectors vectors, int ep, double epDistance, int level) throws IOException {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] neighbors = layers.neighbors(ep, level);
+            int count = layers.neighborCount(ep, level);
+            for (int i = 0; i < count; i++) {
+                double d = distance.distance(vectors.get(neighbors[i]));
+                if (d < epDistance) {
+                    ep = neighbors[i];
+                    epDistance = d;
+                    changed = true;
+                }
+            }
+        }
+        return ep;
+    }
+
+    /**
+     * Best first search of one level, keeps the best {@code ef} accepted nodes in results
+     */
+    private static void searchLayer(Layers layers, FeatureDistance distance, Vectors vectors, int ep, double epDistance, int ef, int level,
+                                    Bits acceptDocs, BitSet visited, NeighborQueue results) throws IOException {
+        NeighborQueue candidates = new NeighborQueue(ef, false);
+        candidates.add(ep, epDistance);
+        visited.set(ep);
+        if (acceptDocs == null || acceptDocs.get(ep)) {
+            results.add(ep, epDistance);
+        }
+        while (candidates.size() > 0) {
+            if (results.size() >= ef && candidates.topDistance() > results.topDistance()) {
+                break;
+            }
+            int candidate = candidates.pop();
+            int[] neighbors = layers.neighbors(candidate, level);
+            int count = layers.neighborCount(candidate, level);
+            for (int i = 0; i < count; i++) {
+                int neighbor = neighbors[i];
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                double d = distance.distance(vectors.get(neighbor));
+                if (results.size() < ef || d < results.topDistance()) {
+                    candidates.add(neighbor, d);
+                    if (acceptDocs == null || acceptDocs.get(neighbor)) {
+                        results.add(neighbor, d);
+                        if (results.size() > ef) {
+                            results.pop();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Insert nodes one by one, neighbor lists keep their distances so overflowing lists are pruned without
+     * computing distances again
+     */
+    private static final class Builder extends Layers {
+        private final int maxDoc;
+        private final int m;
+        private final int efConstruction;
+        private final Vectors vectors;
+        private final Neighbors[] layer0;
+        private final IntObjectHashMap<Neighbors[]> upperLayers = new IntObjectHashMap<>();
+        private int entryPoint = -1;
+        private int maxLevel = -1;
+
+        Builder(int maxDoc, HnswParameters parameters, Vectors vectors) {
+            this.maxDoc = maxDoc;
+            this.m = parameters.m();
+            this.efConstruction = parameters.efConstruction();
+            this.vectors = vectors;
+            this.layer0 = new Neighbors[maxDoc];
+        }
+
+        @Override
+        int[] neighbors(int node, int level) {
+            return neighborList(node, level).nodes;
+        }
+
+        @Override
+        int neighborCount(int node, int level) {
+            return neighborList(node, level).size;
+        }
+
+        private Neighbors neighborList(int node, int level) {
+            return level == 0 ? layer0[node] : upperLayers.get(node)[level - 1];
+        }
+
+        void insert(int node, int nodeLevel, FeatureDistance distance) throws IOException {
+            layer0[node] = new Neighbors(m * 2);
+            if (nodeLevel > 0) {
+                Neighbors[] levels = new Neighbors[nodeLevel];
+                for (int i = 0; i < nodeLevel; i++) {
+                    levels[i] = new Neighbors(m);
+                }
+                upperLayers.put(node, levels);
+            }
+            if (entryPoint < 0) {
+                entryPoint = node;
+                maxLevel = nodeLevel;
+                return;
+            }
+
+            int ep = entryPoint;
+            double epDistance = distance.distance(vectors.get(ep));
+            for (int level = maxLevel; level > nodeLevel; level--) {
+                ep = greedySearch(this, distance, vectors, ep, epDistance, level);
+                epDistance = distance.distance(vectors.get(ep));
+            }
+            NeighborQueue results = new NeighborQueue(efConstruction + 1, true);
+            int[] nodes = new int[efConstruction];
+            double[] distances = new double[efConstruction];
+            for (int level = Math.min(nodeLevel, maxLevel); level >= 0; level--) {
+                results.clear();
+                searchLayer(this, distance, vectors, ep, epDistance, efConstruction, level, null, new SparseFixedBitSet(maxDoc), results);
+                int size = results.size();
+                for (int i = size - 1; i >= 0; i--) {
+                    distances[i] = results.topDistance();
+                    nodes[i] = results.pop();
+                }
+                for (int i = 0; i < Math.min(m, size); i++) {
+                    neighborList(node, level).add(nodes[i], (float) distances[i]);
+                    neighborList(nodes[i], level).add(node, (float) distances[i]);
+                }
+                ep = nodes[0];
+                epDistance = distances[0];
+            }
+            if (nodeLevel > maxLevel) {
+                entryPoint = node;
+                maxLevel = nodeLevel;
+            }
+        }
+
+        HnswGraph finish() {
+            int[][] neighbors0 = new int[maxDoc][];
+            for (int node = 0; node < maxDoc; node++) {
+                if (layer0[node] != null) {
+                    neighbors0[node] = layer0[node].toArray();
+                }
+            }
+            IntObjectHashMap<int[][]> upper = new IntObjectHashMap<>(upperLayers.size());
+            for (IntObjectCursor<Neighbors[]> cursor : upperLayers) {
+                int[][] levels = new int[cursor.value.length][];
+                for (int i = 0; i < levels.length; i++) {
+                    levels[i] = cursor.value[i].toArray();
+                }
+                upper.put(cursor.key, levels);
+            }
+            return new HnswGraph(maxDoc, entryPoint, maxLevel, neighbors0, upper);
+        }
+    }
+
+    /**
+     * Bounded neighbor list, the farthest neighbor is replaced once the list is full
+     */
+    private static final class Neighbors {
+        final int[] nodes;
+        final float[] distances;
+        int size;
+
+        Neighbors(int capacity) {
+            nodes = new int[capacity];
+            distances = new float[capacity];
+        }
+
+        void add(int node, float distance) {
+            if (size < nodes.length) {
+                nodes[size] = node;
+                distances[size] = distance;
+                size++;
+                return;
+            }
+            int worst = 0;
+            for (int i = 1; i < size; i++) {
+                if (distances[i] > distances[worst]) {
+                    worst = i;
+                }
+            }
+            if (distance < distances[worst]) {
+                nodes[worst] = node;
+                distances[worst] = distance;
+            }
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(nodes, size);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package org.elasticsearch.index.query.image;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.lucene.index.LeafReader;
+import org.elasticsearch.ElasticsearchImageProcessException;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.index.mapper.image.HnswParameters;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Node level cache of HNSW graphs per segment core, a graph is dropped when its segment is closed.
+ * Graphs are built by the warmer for new segments, segments larger than {@link #WARM_MAX_DOCS_SETTING} are scheduled
+ * on the executor instead so a refresh does not wait for them. A query on a segment without graph, because it was evicted,
+ * not warmed or is still building, schedules the build on the executor and scans the segment meanwhile.
+ */
+public class HnswGraphCache {
+
+    public static final String SIZE_SETTING = "image.cache.hnsw.size";
+
+    public static final String WARM_MAX_DOCS_SETTING = "image.cache.hnsw.warm_max_docs";
+
+    public static final int DEFAULT_WARM_MAX_DOCS = 100000;
+
+    /**
+     * Segments with fewer docs are scanned, building a graph costs more than scanning them
+     */
+    public static final int MIN_SEGMENT_SIZE = 1000;
+
+    private final ESLogger logger;
+
+    private final Cache<Key, HnswGraph> cache;
+
+    private final int warmMaxDocs;
+
+    /**
+     * Cores with a registered close listener, one listener drops all graphs of a core
+     */
+    private final Set<Object> cores = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+
+    /**
+     * Graphs scheduled for build by queries
+     */
+    private final Set<Key> building = Collections.newSetFromMap(new ConcurrentHashMap<Key, Boolean>());
+
+    private volatile Executor executor;
+
+    public HnswGraphCache(Settings settings) {
+        this.logger = Loggers.getLogger(getClass(), settings);
+        ByteSizeValue size = settings.getAsMemory(SIZE_SETTING, "10%");
+        this.warmMaxDocs = settings.getAsInt(WARM_MAX_DOCS_SETTING, DEFAULT_WARM_MAX_DOCS);
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(size.bytes())
+                .weigher(new Weigher<Key, HnswGraph>() {
+                    @Override
+                    public int weigh(Key key, HnswGraph graph) {
+                        return (int) Math.min(Integer.MAX_VALUE, graph.ramBytesUsed());
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Executor of the builds scheduled by queries, builds run on the query thread until it is set
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Graph of the segment, or null if it is not built yet and its build was scheduled on the executor
+     */
+    @Nullable
+    HnswGraph graph(final LeafReader reader, final String fieldName, final GlobalFeatureEnum globalFeatureEnum, final HnswParameters parameters) throws IOException {
+        final Key key = new Key(reader.getCoreCacheKey(), globalFeatureEnum, parameters);
+        HnswGraph graph = cache.getIfPresent(key);
+        Executor executor = this.executor;
+        if (graph != null || executor == null) {
+            return graph != null ? graph : build(key, reader, fieldName);
+        }
+        schedule(executor, key, reader, fieldName);
+        return null;
+    }
+
+    /**
+     * Build the graph on the executor unless it is already scheduled
+     */
+    private void schedule(Executor executor, final Key key, final LeafReader reader, final String fieldName) {
+        if (!building.add(key)) {
+            return;
+        }
+        // hold the segment open until the build is done, the query or warmer may release it before
+        if (!reader.tryIncRef()) {
+            building.remove(key);
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        build(key, reader, fieldName);
+                    } catch (Throwable t) {
+                        logger.warn("failed to build hnsw graph", t);
+                    } finally {
+                        building.remove(key);
+                        decRef(reader);
+                    }
+                }
+            });
+        } catch (EsRejectedExecutionException e) {
+            building.remove(key);
+            decRef(reader);
+        }
+    }
+
+    /**
+     * Build the graph on the calling thread, concurrent builds of one graph wait for the first
+     */
+    private HnswGraph build(final Key key, final LeafReader reader, final String fieldName) throws IOException {
+        try {
+            return cache.get(key, new Callable<HnswGraph>() {
+                @Override
+                public HnswGraph call() throws Exception {
+                    registerCore(reader);
+                    return HnswGraph.build(reader, fieldName, key.globalFeatureEnum, key.parameters);
+                }
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new ElasticsearchImageProcessException("Failed to build hnsw graph", e.getCause());
+        }
+    }
+
+    private void registerCore(LeafReader reader) {
+        if (cores.add(reader.getCoreCacheKey())) {
+            reader.addCoreClosedListener(new LeafReader.CoreClosedListener() {
+                @Override
+                public void onClose(Object ownerCoreCacheKey) {
+                    cores.remove(ownerCoreCacheKey);
+                    for (Iterator<Key> keys = cache.asMap().keySet().iterator(); keys.hasNext(); ) {
+                        if (keys.next().coreCacheKey == ownerCoreCacheKey) {
+                            keys.remove();
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private void decRef(LeafReader reader) {
+        try {
+            reader.decRef();
+        } catch (IOException e) {
+            logger.warn("failed to release segment after hnsw graph build", e);
+        }
+    }
+
+    /**
+     * Build the graph of a segment ahead of queries, graphs of segments larger than {@link #WARM_MAX_DOCS_SETTING}
+     * are scheduled on the executor
+     */
+    public void warm(LeafReader reader, GlobalFeatureEnum globalFeatureEnum, HnswParameters parameters) throws IOException {
+        if (reader.maxDoc() < MIN_SEGMENT_SIZE) {
+            return;
+        }
+        String fieldName;
+        try {
+            fieldName = globalFeatureEnum.getGlobalFeatureClass().newInstance().getFieldName();
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new ElasticsearchImageProcessException("Failed to initial image feature class", e);
+        }
+        Key key = new Key(reader.getCoreCacheKey(), globalFeatureEnum, parameters);
+        Executor executor = this.executor;
+        if (reader.maxDoc() > warmMaxDocs && executor != null) {
+            if (cache.getIfPresent(key) == null) {
+                schedule(executor, key, reader, fieldName);
+            }
+            return;
+        }
+        build(key, reader, fieldName);
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long count() {
+        return cache.size();
+    }
+
+    private static final class Key {
+        private final Object coreCacheKey;
+        private final GlobalFeatureEnum globalFeatureEnum;
+        private final HnswParameters parameters;
+
+        Key(Object coreCacheKey, GlobalFeatureEnum globalFeatureEnum, HnswParameters parameters) {
+            this.coreCacheKey = coreCacheKey;
+            this.globalFeatureEnum = globalFeatureEnum;
+            this.parameters = parameters;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return coreCacheKey == key.coreCacheKey && globalFeatureEnum == key.globalFeatureEnum && parameters.equals(key.parameters);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * System.identityHashCode(coreCacheKey) + globalFeatureEnum.hashCode()) + parameters.hashCode();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.elasticsearch.index.query.image;
+
+import net.semanticmetadata.lire.imageanalysis.features.LireFeature;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.index.mapper.image.PrecomputedFeature;
+import org.elasticsearch.plugin.image.ImageService;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Top docs of several query images or precomputed query features, found in a single pass over the features of each segment.
+ * The feature of a doc is read once and compared with every query, instead of once per {@link ImageQuery}.
+ */
+public class ImageBatchSearch {
+    private final LireFeature[] features;
+    private final GlobalFeatureEnum globalFeatureEnum;
+    private final int size;
+    private final double maxDistance;
+
+    /**
+     * @param features query features, one per query, all of the feature
+     * @param maxDistance only return docs within the distance, -1 for no limit
+     */
+    public ImageBatchSearch(LireFeature[] features, GlobalFeatureEnum globalFeatureEnum, int size, double maxDistance) {
+        this.features = features;
+        this.globalFeatureEnum = globalFeatureEnum;
+        this.size = size;
+        this.maxDistance = maxDistance;
+    }
+
+    /**
+     * Extracts the feature of query images through the query feature cache
+     * @param thumbnailMinSize thumbnail size of the searched fields, 0 if they decode the image itself
+     */
+    public static LireFeature[] imageFeatures(ImageService imageService, List<byte[]> images, int thumbnailMinSize,
+                                              GlobalFeatureEnum globalFeatureEnum) {
+        LireFeature[] features = new LireFeature[images.size()];
+        List<GlobalFeatureEnum> globalFeatureEnums = Collections.singletonList(globalFeatureEnum);
+        for (int i = 0; i < features.length; i++) {
+            features[i] = ImageQueryParser.imageFeatures(imageService.queryFeatureCache(), images.get(i), thumbnailMinSize, globalFeatureEnums)[0];
+        }
+        return features;
+    }
+
+    /**
+     * Reads precomputed query features, in the format indexed by {@link PrecomputedFeature}
+     */
+    public static LireFeature[] precomputedFeatures(List<byte[]> featureBytes, GlobalFeatureEnum globalFeatureEnum) {
+        LireFeature[] features = new LireFeature[featureBytes.size()];
+        for (int i = 0; i < features.length; i++) {
+            features[i] = PrecomputedFeature.parse(globalFeatureEnum, featureBytes.get(i));
+        }
+        return features;
+    }
+
+    /**
+     * @return top docs of each query in request order, scored like the image query
+     */
+    public TopDocs[] search(IndexReader reader) throws IOException {
+        if (features.length == 0) {
+            return new TopDocs[0];
+        }
+        // the heap of a queue is allocated up front, a queue per query must not exceed the docs
+        int queueSize = Math.min(size, reader.maxDoc());
+        LeafTopDocs.DistanceQueue[] queues = new LeafTopDocs.DistanceQueue[features.length];
+        FeatureDistance[] distances = new FeatureDistance[features.length];
+        for (int i = 0; i < features.length; i++) {
+            queues[i] = new LeafTopDocs.DistanceQueue(queueSize);
+            distances[i] = FeatureDistance.create(features[i], globalFeatureEnum);
+        }
+        String fieldName = features[0].getFieldName();
+        for (LeafReaderContext context : reader.leaves()) {
+            FeatureValues featureValues = new FeatureValues(context.reader(), fieldName);
+            Bits liveDocs = context.reader().getLiveDocs();
+            int maxDoc = context.reader().maxDoc();
+            for (int doc = 0; doc < maxDoc; doc++) {
+                if (liveDocs != null && !liveDocs.get(doc)) {
+                    continue;
+                }
+                BytesRef featureBytes = featureValues.get(doc);
+                if (featureBytes.length == 0) {
+                    continue;
+                }
+                for (int i = 0; i < distances.length; i++) {
+                    double distance = distances[i].distance(featureBytes);
+                    if (maxDistance < 0 || distance <= maxDistance) {
+                        queues[i].offer(context.docBase + doc, distance);
+                    }
+                }
+            }
+        }
+
+        TopDocs[] topDocs = new TopDocs[queues.length];
+        for (int i = 0; i < queues.length; i++) {
+            ScoreDoc[] scoreDocs = new ScoreDoc[queues[i].size()];
+            for (int j = scoreDocs.length - 1; j >= 0; j--) {
+                LeafTopDocs.DistanceDoc distanceDoc = queues[i].pop();
+                scoreDocs[j] = new ScoreDoc(distanceDoc.doc, ImageQuery.distanceToScore(distanceDoc.distance));
+            }
+            topDocs[i] = new TopDocs(scoreDocs.length, scoreDocs, scoreDocs.length == 0 ? Float.NaN : scoreDocs[0].score);
+        }
+        return topDocs;
+    }
+}
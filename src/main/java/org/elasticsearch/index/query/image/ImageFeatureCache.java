@@ -0,0 +1,99 @@
+package org.elasticsearch.index.query.image;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.elasticsearch.ElasticsearchImageProcessException;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Node level LRU cache of features extracted from query images, keyed by image digest, thumbnail size and feature.
+ * All shards of a query and repeated queries with the same image share one extraction.
+ */
+public class ImageFeatureCache {
+
+    public static final String SIZE_SETTING = "image.cache.query_feature.size";
+
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final Cache<Key, byte[]> cache;
+    private final ByteSizeValue size;
+
+    public ImageFeatureCache(Settings settings) {
+        this.size = settings.getAsMemory(SIZE_SETTING, "1%");
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(size.bytes())
+                .weigher(new Weigher<Key, byte[]>() {
+                    @Override
+                    public int weigh(Key key, byte[] value) {
+                        return value.length + ENTRY_OVERHEAD;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param thumbnailMinSize thumbnail size of the field the image is decoded for, 0 if the image itself is decoded
+     * @param extractor extract the serialized feature on cache miss, concurrent misses of the same key extract once
+     * @return serialized feature of the image
+     */
+    public byte[] get(byte[] image, int thumbnailMinSize, GlobalFeatureEnum globalFeatureEnum, Callable<byte[]> extractor) {
+        Key key = new Key(Hashing.sha1().hashBytes(image), thumbnailMinSize, globalFeatureEnum);
+        try {
+            return cache.get(key, extractor);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new ElasticsearchImageProcessException("Failed to extract image feature", e.getCause());
+        }
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long count() {
+        return cache.size();
+    }
+
+    public ByteSizeValue size() {
+        return size;
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    private static final class Key {
+        private final HashCode digest;
+        private final int thumbnailMinSize;
+        private final GlobalFeatureEnum globalFeatureEnum;
+
+        Key(HashCode digest, int thumbnailMinSize, GlobalFeatureEnum globalFeatureEnum) {
+            this.digest = digest;
+            this.thumbnailMinSize = thumbnailMinSize;
+            this.globalFeatureEnum = globalFeatureEnum;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return globalFeatureEnum == key.globalFeatureEnum && thumbnailMinSize == key.thumbnailMinSize && digest.equals(key.digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * digest.hashCode() + thumbnailMinSize) + globalFeatureEnum.hashCode();
+        }
+    }
+}
@@ -1,60 +1,339 @@
 package org.elasticsearch.index.query.image;
 
 import net.semanticmetadata.lire.imageanalysis.features.LireFeature;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.index.*;
 import org.apache.lucene.search.*;
+import org.apache.lucene.util.BitSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
 import org.apache.lucene.util.ToStringUtils;
 import org.elasticsearch.ElasticsearchImageProcessException;
+import org.elasticsearch.common.Nullable;
 import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.index.mapper.image.HnswParameters;
+import org.elasticsearch.index.mapper.image.ScalarQuantizer;
+import org.elasticsearch.plugin.image.ImageMetrics;
 
 import java.io.IOException;
-import java.util.logging.Logger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Created by zengde on 2016/3/25.
- * Copied from {@link MatchAllDocsQuery}, calculate score for all docs
+ * Copied from {@link MatchAllDocsQuery}, calculate score for all docs,
+ * or only for the candidates of a hash query, HNSW graph, quantized codes or cascade when one is set.
+ * Built by {@link Builder}, the query is immutable once built.
  */
 public class ImageQuery  extends Query {
-    protected Logger logger = Logger.getLogger(getClass().getName());
-    protected String fieldName, codebookName;
-    protected LireFeature cachedInstance = null;
+    private final String fieldName;
+    private final LireFeature feature;
+    private final byte[] featureBytes;
+    private final GlobalFeatureEnum globalFeatureEnum;
+    private final Query hashQuery;
+    private final int candidates;
+    private final int limit;
+    private final ExecutorService executor;
+    private final HnswGraphCache graphCache;
+    private final HnswParameters hnswParameters;
+    private final int ef;
+    private final boolean quantized;
+    private final List<CascadeStage> cascade;
+    private final FeatureFusion fusion;
+    private final double maxDistance;
+    private final ImageMetrics.IndexMetrics metrics;
 
+    public ImageQuery(LireFeature feature, GlobalFeatureEnum globalfeatureEnum, float boost) {
+        this(new Builder(feature, globalfeatureEnum).boost(boost));
+    }
 
-    protected double maxDistance=-1d;
-    private LireFeature feature;
+    private ImageQuery(Builder builder) {
+        this.feature = builder.feature;
+        this.featureBytes = feature.getByteArrayRepresentation();
+        this.globalFeatureEnum = builder.globalFeatureEnum;
+        this.fieldName = feature.getFieldName();
+        this.hashQuery = builder.hashQuery;
+        this.candidates = builder.candidates;
+        this.limit = builder.limit;
+        this.executor = builder.executor;
+        this.graphCache = builder.graphCache;
+        this.hnswParameters = builder.hnswParameters;
+        this.ef = builder.ef;
+        this.quantized = builder.quantized;
+        this.cascade = builder.cascade;
+        this.fusion = builder.fusion;
+        this.maxDistance = builder.maxDistance;
+        this.metrics = builder.metrics;
+        setBoost(builder.boost);
+    }
 
-    @SuppressWarnings("deprecation")
-    public ImageQuery(LireFeature feature, GlobalFeatureEnum globalfeatureEnum, float boost) {
-        try {
-            this.feature=feature;
-            this.fieldName = feature.getFieldName();
-            this.cachedInstance = globalfeatureEnum.getGlobalFeatureClass().newInstance();
-        } catch (InstantiationException | IllegalAccessException e) {
-            throw new ElasticsearchImageProcessException("Failed to initial image feature class", e);
+    /**
+     * Distance of the docs of a segment to the query, one instance per thread
+     */
+    DocDistance docDistance(LeafReader reader) throws IOException {
+        return fusion == null ? DocDistance.create(reader, feature, globalFeatureEnum) : fusion.docDistance(reader);
+    }
+
+    /**
+     * Run hash query on whole index and group its top hits by segment
+     */
+    private FixedBitSet[] collectCandidates(IndexSearcher searcher) throws IOException {
+        IndexSearcher hashSearcher = executor == null ? new IndexSearcher(searcher.getTopReaderContext()) :
+                new IndexSearcher(searcher.getTopReaderContext(), executor);
+        hashSearcher.setSimilarity(searcher.getSimilarity(true));
+        TopDocs topDocs = hashSearcher.search(hashQuery, candidates);
+
+        List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        FixedBitSet[] candidateDocs = new FixedBitSet[leaves.size()];
+        for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+            int leafIndex = ReaderUtil.subIndex(scoreDoc.doc, leaves);
+            LeafReaderContext leaf = leaves.get(leafIndex);
+            if (candidateDocs[leafIndex] == null) {
+                candidateDocs[leafIndex] = new FixedBitSet(leaf.reader().maxDoc());
+            }
+            candidateDocs[leafIndex].set(scoreDoc.doc - leaf.docBase);
         }
-        setBoost(boost);
+        return candidateDocs;
+    }
+
+    /**
+     * Search the graph of each segment for the nearest live docs
+     */
+    private FixedBitSet[] graphCandidates(IndexSearcher searcher) throws IOException {
+        List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        FixedBitSet[] candidateDocs = new FixedBitSet[leaves.size()];
+        if (executor == null || leaves.size() < 2) {
+            for (LeafReaderContext context : leaves) {
+                candidateDocs[context.ord] = searchGraph(context.reader());
+            }
+        } else {
+            List<Future<FixedBitSet>> futures = new ArrayList<>(leaves.size());
+            for (final LeafReaderContext context : leaves) {
+                futures.add(executor.submit(new Callable<FixedBitSet>() {
+                    @Override
+                    public FixedBitSet call() throws IOException {
+                        return searchGraph(context.reader());
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                candidateDocs[leaves.get(i).ord] = get(futures.get(i));
+            }
+        }
+        return candidateDocs;
+    }
+
+    private FixedBitSet searchGraph(LeafReader reader) throws IOException {
+        FixedBitSet docs = new FixedBitSet(reader.maxDoc());
+        if (reader.maxDoc() < HnswGraphCache.MIN_SEGMENT_SIZE) {
+            docs.set(0, reader.maxDoc());
+            return docs;
+        }
+        HnswGraph graph = graphCache.graph(reader, fieldName, globalFeatureEnum, hnswParameters);
+        if (graph == null) {
+            // graph is being built in the background
+            docs.set(0, reader.maxDoc());
+            return docs;
+        }
+        NeighborQueue nearest = graph.search(FeatureDistance.create(feature, globalFeatureEnum),
+                new FeatureValues(reader, fieldName), ef, reader.getLiveDocs());
+        while (nearest.size() > 0) {
+            docs.set(nearest.pop());
+        }
+        return docs;
+    }
+
+    /**
+     * Docs to score in a segment, all docs or hash candidates of the segment
+     * @return null if no doc need to be scored
+     */
+    private static DocIdSetIterator candidates(LeafReaderContext context, FixedBitSet[] candidateDocs) {
+        if (candidateDocs == null) {
+            return DocIdSetIterator.all(context.reader().maxDoc());
+        }
+        FixedBitSet docs = candidateDocs[context.ord];
+        if (docs == null) {
+            return null;
+        }
+        return new BitSetIterator(docs, docs.cardinality());
+    }
+
+    /**
+     * Rank docs of one segment into a bounded queue
+     */
+    private interface LeafRanker {
+        void rank(LeafReaderContext context, LeafTopDocs.DistanceQueue queue) throws IOException;
     }
 
     /**
-     * Main similarity method called for each and every document in the index.
-     *
-     * @param document
-     * @param lireFeature
-     * @return the distance between the given feature and the feature stored in the document.
+     * Rank docs of all segments with a bounded queue, only the best {@code size} docs are kept
      */
-    protected double getDistance(Document document, LireFeature lireFeature) {
-        if (document.getField(fieldName).binaryValue() != null && document.getField(fieldName).binaryValue().length > 0) {
-            cachedInstance.setByteArrayRepresentation(document.getField(fieldName).binaryValue().bytes, document.getField(fieldName).binaryValue().offset, document.getField(fieldName).binaryValue().length);
-            return lireFeature.getDistance(cachedInstance);
+    private LeafTopDocs.DistanceQueue rank(IndexSearcher searcher, final int size, final LeafRanker ranker) throws IOException {
+        List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        // the queue allocates its heap upfront, a shard never fills more than its docs
+        LeafTopDocs.DistanceQueue queue = new LeafTopDocs.DistanceQueue(Math.min(size, searcher.getIndexReader().maxDoc()));
+        if (executor == null || leaves.size() < 2) {
+            for (LeafReaderContext context : leaves) {
+                ranker.rank(context, queue);
+            }
         } else {
-            logger.warning("No feature stored in this document! (" + lireFeature.getFeatureName() + ")");
+            List<Future<LeafTopDocs.DistanceQueue>> futures = new ArrayList<>(leaves.size());
+            for (final LeafReaderContext context : leaves) {
+                futures.add(executor.submit(new Callable<LeafTopDocs.DistanceQueue>() {
+                    @Override
+                    public LeafTopDocs.DistanceQueue call() throws IOException {
+                        LeafTopDocs.DistanceQueue leafQueue = new LeafTopDocs.DistanceQueue(Math.min(size, context.reader().maxDoc()));
+                        ranker.rank(context, leafQueue);
+                        return leafQueue;
+                    }
+                }));
+            }
+            for (Future<LeafTopDocs.DistanceQueue> future : futures) {
+                LeafTopDocs.DistanceQueue leafQueue = get(future);
+                while (leafQueue.size() > 0) {
+                    LeafTopDocs.DistanceDoc distanceDoc = leafQueue.pop();
+                    queue.offer(distanceDoc.doc, distanceDoc.distance);
+                }
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * Rank candidates of all segments, only the best {@code limit} docs are kept
+     */
+    private LeafTopDocs[] searchTopDocs(IndexSearcher searcher, final FixedBitSet[] candidateDocs) throws IOException {
+        return rank(searcher, limit, new LeafRanker() {
+            @Override
+            public void rank(LeafReaderContext context, LeafTopDocs.DistanceQueue queue) throws IOException {
+                rankLeaf(context, candidateDocs, docDistance(context.reader()), maxDistance, queue, featureMetrics(globalFeatureEnum));
+            }
+        }).toLeafTopDocs(searcher.getIndexReader().leaves());
+    }
+
+    /**
+     * Run cascade stages in order, each stage only ranks the docs kept by the previous one
+     * @param candidateDocs docs ranked by the first stage, null for all docs
+     */
+    private FixedBitSet[] cascadeCandidates(IndexSearcher searcher, FixedBitSet[] candidateDocs) throws IOException {
+        for (final CascadeStage stage : cascade) {
+            final FixedBitSet[] stageDocs = candidateDocs;
+            candidateDocs = rank(searcher, stage.keep, new LeafRanker() {
+                @Override
+                public void rank(LeafReaderContext context, LeafTopDocs.DistanceQueue queue) throws IOException {
+                    rankLeaf(context, stageDocs, DocDistance.create(context.reader(), stage.feature, stage.globalFeatureEnum), -1, queue,
+                            featureMetrics(stage.globalFeatureEnum));
+                }
+            }).toCandidateDocs(searcher.getIndexReader().leaves());
+        }
+        return candidateDocs;
+    }
+
+    private ImageMetrics.FeatureMetrics featureMetrics(GlobalFeatureEnum globalFeatureEnum) {
+        return metrics == null ? null : metrics.feature(globalFeatureEnum);
+    }
+
+    /**
+     * @param maxDistance only rank docs within the distance, -1 to rank all docs
+     * @param featureMetrics counts the scored docs of the segment, may be null
+     */
+    private static void rankLeaf(LeafReaderContext context, FixedBitSet[] candidateDocs, DocDistance docDistance,
+                                 double maxDistance, LeafTopDocs.DistanceQueue queue,
+                                 @Nullable ImageMetrics.FeatureMetrics featureMetrics) throws IOException {
+        DocIdSetIterator disi = candidates(context, candidateDocs);
+        if (disi == null) {
+            return;
+        }
+        Bits liveDocs = context.reader().getLiveDocs();
+        double maxBound = maxDistance >= 0 ? maxDistance : Double.POSITIVE_INFINITY;
+        int scored = 0;
+        for (int doc = disi.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = disi.nextDoc()) {
+            if (liveDocs != null && !liveDocs.get(doc)) {
+                continue;
+            }
+            // a full queue only takes docs closer than its worst doc
+            double distance = docDistance.distance(doc, queue.isFull() ? Math.min(maxBound, queue.top().distance) : maxBound);
+            scored++;
+            if (distance < 0 || (maxDistance >= 0 && distance > maxDistance)) {
+                continue;
+            }
+            queue.offer(context.docBase + doc, distance);
+        }
+        if (featureMetrics != null) {
+            featureMetrics.onScored(scored, docDistance.storedFieldLoads());
+        }
+    }
+
+    /**
+     * Rank the codes of all live docs and keep the best {@code candidates} docs of the shard
+     */
+    private FixedBitSet[] quantizedCandidates(IndexSearcher searcher) throws IOException {
+        final String codeFieldName = ScalarQuantizer.codeFieldName(fieldName);
+        return rank(searcher, candidates, new LeafRanker() {
+            @Override
+            public void rank(LeafReaderContext context, LeafTopDocs.DistanceQueue queue) throws IOException {
+                BinaryDocValues codes = context.reader().getBinaryDocValues(codeFieldName);
+                if (codes == null) {
+                    return;
+                }
+                QuantizedDistance quantizedDistance = QuantizedDistance.create(feature, globalFeatureEnum);
+                Bits liveDocs = context.reader().getLiveDocs();
+                int maxDoc = context.reader().maxDoc();
+                for (int doc = 0; doc < maxDoc; doc++) {
+                    if (liveDocs != null && !liveDocs.get(doc)) {
+                        continue;
+                    }
+                    BytesRef code = codes.get(doc);
+                    if (code.length < ScalarQuantizer.HEADER_SIZE) {
+                        continue;
+                    }
+                    queue.offer(context.docBase + doc, quantizedDistance.distance(code));
+                }
+            }
+        }).toCandidateDocs(searcher.getIndexReader().leaves());
+    }
+
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ElasticsearchImageProcessException("Interrupted while searching segments", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new ElasticsearchImageProcessException("Failed to search segment", e.getCause());
+        }
+    }
+
+    /**
+     * Candidates of the query feature found by the graph, quantized codes or hash query
+     * @return null if all docs are candidates
+     */
+    private FixedBitSet[] featureCandidates(IndexSearcher searcher) throws IOException {
+        if (graphCache != null) {
+            return graphCandidates(searcher);
+        } else if (quantized) {
+            return quantizedCandidates(searcher);
         }
-        return 0d;
+        return hashQuery == null ? null : collectCandidates(searcher);
     }
 
     @Override
     public Weight createWeight(IndexSearcher searcher, boolean needsScores) throws IOException {
+        final FixedBitSet[] candidateDocs = cascade == null ? featureCandidates(searcher)
+                : cascadeCandidates(searcher, featureCandidates(searcher));
+        if (metrics != null) {
+            metrics.feature(globalFeatureEnum).onQuery(cardinality(candidateDocs));
+        }
+        final LeafTopDocs[] topDocs = limit > 0 ? searchTopDocs(searcher, candidateDocs) : null;
         return new ConstantScoreWeight(this){
             @Override
             public String toString() {
@@ -62,48 +341,291 @@ public class ImageQuery  extends Query {
             }
             @Override
             public Scorer scorer(LeafReaderContext context) throws IOException {
-                return new ImageScorer(context.reader(), this,DocIdSetIterator.all(context.reader().maxDoc()),getBoost());
+                // the searcher rewrites a boosted query into a BoostQuery, which hands the boost to this weight
+                if (topDocs != null) {
+                    LeafTopDocs leafTopDocs = topDocs[context.ord];
+                    return leafTopDocs == null ? null : leafTopDocs.scorer(this, score());
+                }
+                DocIdSetIterator disi = candidates(context, candidateDocs);
+                if (disi == null) {
+                    return null;
+                }
+                return new ImageScorer(context.reader(), this, disi, score());
             }
         };
     }
 
+    /**
+     * @return number of candidates of all segments, -1 if all docs are candidates
+     */
+    private static long cardinality(FixedBitSet[] candidateDocs) {
+        if (candidateDocs == null) {
+            return -1;
+        }
+        long cardinality = 0;
+        for (FixedBitSet docs : candidateDocs) {
+            if (docs != null) {
+                cardinality += docs.cardinality();
+            }
+        }
+        return cardinality;
+    }
+
+    /**
+     * Distance less than 1 is considered as same image and gets score between 1 and 2
+     */
+    static float distanceToScore(double distance) {
+        float score = (float) distance;
+        if (Float.compare(score, 1.0f) <= 0) { // distance less than 1, consider as same image
+            score = 2f - score;
+        } else {
+            score = 1 / score;
+        }
+        return score;
+    }
+
     @Override
     public String toString(String field) {
         return fieldName +
                 "," +
-                cachedInstance.getClass().getSimpleName() +
+                feature.getClass().getSimpleName() +
+                (graphCache == null ? "" : "," + hnswParameters + ",ef:" + ef) +
+                (cascade == null ? "" : ",cascade:" + cascade) +
+                (fusion == null ? "" : "," + fusion) +
+                (quantized ? ",candidates:" + candidates + "(" + ScalarQuantizer.SCALAR4 + ")" : "") +
+                (graphCache != null || quantized || hashQuery == null ? "" : ",candidates:" + candidates + "(" + hashQuery.toString(field) + ")") +
+                (limit > 0 ? ",limit:" + limit : "") +
+                (maxDistance >= 0 ? ",max_distance:" + maxDistance : "") +
                 ToStringUtils.boost(getBoost());
     }
 
+    /**
+     * Matches of a segment only depend on the segment, hash, quantized and cascade candidates and limit
+     * are picked over the whole shard, graph candidates depend on the live docs and on the graph being built
+     */
+    private boolean segmentLocal() {
+        return hashQuery == null && graphCache == null && !quantized && cascade == null && limit <= 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!super.equals(o)) return false;
+        ImageQuery that = (ImageQuery) o;
+        if (!segmentLocal() || !that.segmentLocal()) {
+            return false;
+        }
+        return globalFeatureEnum == that.globalFeatureEnum &&
+                fieldName.equals(that.fieldName) &&
+                Arrays.equals(featureBytes, that.featureBytes) &&
+                Objects.equals(fusion, that.fusion) &&
+                Double.compare(maxDistance, that.maxDistance) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        if (!segmentLocal()) {
+            return System.identityHashCode(this);
+        }
+        return Objects.hash(super.hashCode(), globalFeatureEnum, fieldName, Arrays.hashCode(featureBytes), fusion, maxDistance);
+    }
+
+    /**
+     * Builder of {@link ImageQuery}, by default all docs are scored
+     */
+    public static class Builder {
+        private final LireFeature feature;
+        private final GlobalFeatureEnum globalFeatureEnum;
+        private float boost = 1.0f;
+        private Query hashQuery;
+        private int candidates;
+        private int limit = -1;
+        private ExecutorService executor;
+        private HnswGraphCache graphCache;
+        private HnswParameters hnswParameters;
+        private int ef;
+        private boolean quantized;
+        private List<CascadeStage> cascade;
+        private FeatureFusion fusion;
+        private double maxDistance = -1;
+        private ImageMetrics.IndexMetrics metrics;
+
+        public Builder(LireFeature feature, GlobalFeatureEnum globalFeatureEnum) {
+            this.feature = feature;
+            this.globalFeatureEnum = globalFeatureEnum;
+        }
+
+        public Builder boost(float boost) {
+            this.boost = boost;
+            return this;
+        }
+
+        /**
+         * Only score the top hits of a query on the hash terms of the image
+         * @param candidates max number of hash query hits to re-rank
+         */
+        public Builder hashSearch(Query hashQuery, int candidates) {
+            this.hashQuery = hashQuery;
+            this.candidates = candidates;
+            return this;
+        }
+
+        /**
+         * Find candidates in the HNSW graph of each segment
+         * @param ef number of nearest docs searched per segment
+         */
+        public Builder graphSearch(HnswGraphCache graphCache, HnswParameters hnswParameters, int ef) {
+            this.graphCache = graphCache;
+            this.hnswParameters = hnswParameters;
+            this.ef = ef;
+            return this;
+        }
+
+        /**
+         * Find candidates by ranking the {@link ScalarQuantizer} codes of all docs
+         * @param candidates max number of docs per shard to score exactly
+         */
+        public Builder quantizedSearch(int candidates) {
+            this.quantized = true;
+            this.candidates = candidates;
+            return this;
+        }
+
+        /**
+         * Prefilter docs with cheaper features, stages run in order on the candidates of the query feature
+         */
+        public Builder cascade(List<CascadeStage> cascade) {
+            this.cascade = cascade;
+            return this;
+        }
+
+        /**
+         * Score docs with several features, the query feature still selects the candidates
+         */
+        public Builder fusion(FeatureFusion fusion) {
+            this.fusion = fusion;
+            return this;
+        }
+
+        /**
+         * @param limit max number of docs returned per shard, -1 to return all docs
+         */
+        public Builder limit(int limit) {
+            this.limit = limit;
+            return this;
+        }
+
+        /**
+         * Only match docs within the distance, -1 to match all candidates
+         */
+        public Builder maxDistance(double maxDistance) {
+            this.maxDistance = maxDistance;
+            return this;
+        }
+
+        /**
+         * Count candidates and scored docs in the metrics of the index, null to not count
+         */
+        public Builder metrics(@Nullable ImageMetrics.IndexMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Search segments in parallel when the query ranks docs itself
+         */
+        public Builder executor(ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public ImageQuery build() {
+            return new ImageQuery(this);
+        }
+    }
+
+    /**
+     * Prefilter stage of a cascade, ranks docs with its own feature and keeps the best {@code keep} docs of the shard
+     */
+    public static final class CascadeStage {
+        private final LireFeature feature;
+        private final GlobalFeatureEnum globalFeatureEnum;
+        private final int keep;
+
+        public CascadeStage(LireFeature feature, GlobalFeatureEnum globalFeatureEnum, int keep) {
+            this.feature = feature;
+            this.globalFeatureEnum = globalFeatureEnum;
+            this.keep = keep;
+        }
+
+        @Override
+        public String toString() {
+            return feature.getClass().getSimpleName() + ":" + keep;
+        }
+    }
+
     //ConstantScoreScorer
     private class ImageScorer extends Scorer{
         private final TwoPhaseIterator twoPhaseIterator;
         private final DocIdSetIterator disi;
-        private final IndexReader reader;
+        private final DocDistance docDistance;
         private final float boost;
+        private final ImageMetrics.FeatureMetrics featureMetrics;
+        private int distanceDoc = -1;
+        private double distance;
+        private int storedFieldLoads;
 
-        public ImageScorer(LeafReader reader, Weight imageWeight, DocIdSetIterator disi,float boost) {
+        public ImageScorer(LeafReader reader, Weight imageWeight, DocIdSetIterator disi,float boost) throws IOException {
             super(imageWeight);
-            this.reader = reader;
-            this.twoPhaseIterator = null;
-            this.disi = disi;
+            this.docDistance = docDistance(reader);
             this.boost=boost;
+            this.featureMetrics = featureMetrics(globalFeatureEnum);
+            if (maxDistance >= 0 || (fusion != null && fusion.requiresAllFeatures())) {
+                // candidates lead, distance is only computed for docs the other clauses agree on
+                this.twoPhaseIterator = new TwoPhaseIterator(disi) {
+                    @Override
+                    public boolean matches() throws IOException {
+                        double d = distance(approximation.docID());
+                        return d >= 0 && (maxDistance < 0 || d <= maxDistance);
+                    }
+
+                    @Override
+                    public float matchCost() {
+                        return featureBytes.length;
+                    }
+                };
+                this.disi = TwoPhaseIterator.asDocIdSetIterator(twoPhaseIterator);
+            } else {
+                this.twoPhaseIterator = null;
+                this.disi = disi;
+            }
+        }
+
+        /**
+         * Distance of the doc, kept so a doc matched in the second phase is not compared again for its score
+         */
+        private double distance(int doc) throws IOException {
+            if (doc != distanceDoc) {
+                distance = docDistance.distance(doc);
+                distanceDoc = doc;
+                if (featureMetrics != null) {
+                    int loads = docDistance.storedFieldLoads();
+                    featureMetrics.onScored(1, loads - storedFieldLoads);
+                    storedFieldLoads = loads;
+                }
+            }
+            return distance;
         }
 
         @Override
         public float score() throws IOException {
             assert docID() != NO_MORE_DOCS;
-            Document doc=reader.document(docID());
-            double tmpDistance=getDistance(doc,feature);
-            assert (tmpDistance >= 0);
-            if (tmpDistance > maxDistance) maxDistance = tmpDistance;
-            float score=(float) tmpDistance;
-            if (Float.compare(score, 1.0f) <= 0) { // distance less than 1, consider as same image
-                score = 2f - score;
-            } else {
-                score = 1 / score;
+            double tmpDistance=distance(docID());
+            if (tmpDistance < 0) {
+                // no feature stored in this document
+                tmpDistance = 0d;
             }
-            return score * boost;
+            return distanceToScore(tmpDistance) * boost;
         }
 
         @Override
@@ -7,6 +7,10 @@ import org.elasticsearch.index.query.BoostableQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public class ImageQueryBuilder extends QueryBuilder implements BoostableQueryBuilder<ImageQueryBuilder> {
 
@@ -16,12 +20,26 @@ public class ImageQueryBuilder extends QueryBuilder implements BoostableQueryBui
 
     private byte[] image;
 
+    private final Map<String, byte[]> precomputedFeatures = new LinkedHashMap<>();
+
     private String hash;
 
     private float boost = -1;
 
     private int limit = -1;
 
+    private int candidates = -1;
+
+    private int ef = -1;
+
+    private double maxDistance = -1;
+
+    private String perceptualHash;
+
+    private int hammingDistance = -1;
+
+    private Boolean parallel;
+
     private String lookupIndex;
 
     private String lookupType;
@@ -32,6 +50,16 @@ public class ImageQueryBuilder extends QueryBuilder implements BoostableQueryBui
 
     private String lookupPath;
 
+    private final List<String> cascadeFeatures = new ArrayList<>();
+
+    private final List<Integer> cascadeKeeps = new ArrayList<>();
+
+    private final List<String> fuseFeatures = new ArrayList<>();
+
+    private final List<Float> fuseWeights = new ArrayList<>();
+
+    private String normalization;
+
     public ImageQueryBuilder(String fieldName) {
         this.fieldName = fieldName;
     }
@@ -46,6 +74,14 @@ public class ImageQueryBuilder extends QueryBuilder implements BoostableQueryBui
         return this;
     }
 
+    /**
+     * Serialized LIRE feature extracted outside of Elasticsearch, used instead of the image
+     */
+    public ImageQueryBuilder precomputedFeature(String feature, byte[] featureBytes) {
+        this.precomputedFeatures.put(feature, featureBytes);
+        return this;
+    }
+
     public ImageQueryBuilder hash(String hash) {
         this.hash = hash;
         return this;
@@ -56,6 +92,71 @@ public class ImageQueryBuilder extends QueryBuilder implements BoostableQueryBui
         return this;
     }
 
+    public ImageQueryBuilder candidates(int candidates) {
+        this.candidates = candidates;
+        return this;
+    }
+
+    public ImageQueryBuilder ef(int ef) {
+        this.ef = ef;
+        return this;
+    }
+
+    /**
+     * Only match images within the distance, makes the query usable as a cacheable filter
+     */
+    public ImageQueryBuilder maxDistance(double maxDistance) {
+        this.maxDistance = maxDistance;
+        return this;
+    }
+
+    /**
+     * Match images whose perceptual hash is within the Hamming distance, instead of comparing features
+     */
+    public ImageQueryBuilder hammingDistance(int hammingDistance) {
+        this.hammingDistance = hammingDistance;
+        return this;
+    }
+
+    /**
+     * Perceptual hash of the mapping, only checked against the mapping
+     */
+    public ImageQueryBuilder perceptualHash(String perceptualHash) {
+        this.perceptualHash = perceptualHash;
+        return this;
+    }
+
+    public ImageQueryBuilder parallel(boolean parallel) {
+        this.parallel = parallel;
+        return this;
+    }
+
+    /**
+     * Add a cascade stage that keeps the best {@code keep} docs of the shard for the next stages
+     */
+    public ImageQueryBuilder cascade(String feature, int keep) {
+        this.cascadeFeatures.add(feature);
+        this.cascadeKeeps.add(keep);
+        return this;
+    }
+
+    /**
+     * Add a fused feature, the first one is the query feature
+     */
+    public ImageQueryBuilder fuse(String feature, float weight) {
+        this.fuseFeatures.add(feature);
+        this.fuseWeights.add(weight);
+        return this;
+    }
+
+    /**
+     * Normalization of fused features, {@code score} or {@code distance}
+     */
+    public ImageQueryBuilder normalization(String normalization) {
+        this.normalization = normalization;
+        return this;
+    }
+
     public ImageQueryBuilder lookupIndex(String lookupIndex) {
         this.lookupIndex = lookupIndex;
         return this;
@@ -92,22 +193,64 @@ public class ImageQueryBuilder extends QueryBuilder implements BoostableQueryBui
         builder.startObject(ImageQueryParser.NAME);
 
         builder.startObject(fieldName);
-        builder.field("feature", feature);
+        if (feature != null) {
+            builder.field("feature", feature);
+        }
+
+        if (!cascadeFeatures.isEmpty()) {
+            builder.startArray("cascade");
+            for (int i = 0; i < cascadeFeatures.size(); i++) {
+                builder.startObject();
+                builder.field("feature", cascadeFeatures.get(i));
+                builder.field("keep", cascadeKeeps.get(i));
+                builder.endObject();
+            }
+            builder.endArray();
+        }
+
+        if (!fuseFeatures.isEmpty()) {
+            builder.startArray("fuse");
+            for (int i = 0; i < fuseFeatures.size(); i++) {
+                builder.startObject();
+                builder.field("feature", fuseFeatures.get(i));
+                builder.field("weight", fuseWeights.get(i));
+                builder.endObject();
+            }
+            builder.endArray();
+        }
+
+        if (normalization != null) {
+            builder.field("normalization", normalization);
+        }
 
         if (image != null) {
             builder.field("image", image);
         }
 
-
-        if (lookupIndex != null) {
-            builder.field("index", lookupIndex);
+        if (!precomputedFeatures.isEmpty()) {
+            builder.startObject("features");
+            for (Map.Entry<String, byte[]> precomputedFeature : precomputedFeatures.entrySet()) {
+                builder.field(precomputedFeature.getKey(), precomputedFeature.getValue());
+            }
+            builder.endObject();
         }
-        builder.field("type", lookupType);
-        builder.field("id", lookupId);
-        if (lookupRouting != null) {
-            builder.field("routing", lookupRouting);
+
+
+        if (lookupId != null) {
+            if (lookupIndex != null) {
+                builder.field("index", lookupIndex);
+            }
+            if (lookupType != null) {
+                builder.field("type", lookupType);
+            }
+            builder.field("id", lookupId);
+            if (lookupRouting != null) {
+                builder.field("routing", lookupRouting);
+            }
+            if (lookupPath != null) {
+                builder.field("path", lookupPath);
+            }
         }
-        builder.field("path", lookupPath);
 
         if (hash != null) {
             builder.field("hash", hash);
@@ -121,6 +264,30 @@ public class ImageQueryBuilder extends QueryBuilder implements BoostableQueryBui
             builder.field("limit", limit);
         }
 
+        if (candidates != -1) {
+            builder.field("candidates", candidates);
+        }
+
+        if (ef != -1) {
+            builder.field("ef", ef);
+        }
+
+        if (maxDistance != -1) {
+            builder.field("max_distance", maxDistance);
+        }
+
+        if (perceptualHash != null) {
+            builder.field("perceptual_hash", perceptualHash);
+        }
+
+        if (hammingDistance != -1) {
+            builder.field("hamming_distance", hammingDistance);
+        }
+
+        if (parallel != null) {
+            builder.field("parallel", parallel);
+        }
+
         builder.endObject();
 
         builder.endObject();
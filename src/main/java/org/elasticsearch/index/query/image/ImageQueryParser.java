@@ -5,26 +5,90 @@ import net.semanticmetadata.lire.builders.DocumentBuilder;
 import net.semanticmetadata.lire.builders.GlobalDocumentBuilder;
 import net.semanticmetadata.lire.builders.GlobalDocumentBuilder.HashingMode;
 import net.semanticmetadata.lire.imageanalysis.features.Extractor;
+import net.semanticmetadata.lire.imageanalysis.features.GlobalFeature;
 import net.semanticmetadata.lire.imageanalysis.features.LireFeature;
 import net.semanticmetadata.lire.utils.ImageUtils;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
 import org.elasticsearch.ElasticsearchImageProcessException;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.image.ImageFeatureLookupAction;
+import org.elasticsearch.action.image.ImageFeatureLookupRequest;
+import org.elasticsearch.action.image.ImageFeatureLookupResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Base64;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.io.stream.ByteBufferStreamInput;
 import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.mapper.MapperParsingException;
 import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.index.mapper.image.HnswParameters;
+import org.elasticsearch.index.mapper.image.ImageDecoder;
+import org.elasticsearch.index.mapper.image.HashParameters;
+import org.elasticsearch.index.mapper.image.ImageHashing;
+import org.elasticsearch.index.mapper.image.ImageMapper;
+import org.elasticsearch.index.mapper.image.PerceptualHash;
+import org.elasticsearch.index.mapper.image.PrecomputedFeature;
 import org.elasticsearch.index.query.QueryParseContext;
 import org.elasticsearch.index.query.QueryParser;
 import org.elasticsearch.index.query.QueryParsingException;
+import org.elasticsearch.plugin.image.ImageMetrics;
+import org.elasticsearch.plugin.image.ImageService;
+import org.elasticsearch.search.fetch.source.FetchSourceContext;
+import org.elasticsearch.threadpool.ThreadPool;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 public class ImageQueryParser implements QueryParser {
 
     public static final String NAME = "image";
 
+    public static final int DEFAULT_CANDIDATES = 1000;
+
+    public static final int DEFAULT_EF = 100;
+
+    /**
+     * Thread pool used to search segments in parallel, registered by {@link org.elasticsearch.plugin.image.ImagePlugin}
+     */
+    public static final String SEARCH_THREAD_POOL = "image_search";
+
+    private final ThreadPool threadPool;
+
+    private final ImageFeatureCache featureCache;
+
+    private final HnswGraphCache graphCache;
+
+    private final ImageMetrics metrics;
+
+    private final Client client;
+
+    @Inject
+    public ImageQueryParser(ThreadPool threadPool, ImageService imageService, Client client) {
+        this.threadPool = threadPool;
+        this.featureCache = imageService.queryFeatureCache();
+        this.graphCache = imageService.hnswGraphCache();
+        this.metrics = imageService.metrics();
+        this.client = client;
+    }
+
     @Override
     public String[] names() {
         return new String[] {NAME};
@@ -39,15 +103,41 @@ public class ImageQueryParser implements QueryParser {
             throw new QueryParsingException(parseContext, "[image] query malformed, no field");
         }
 
+        String fieldName = parser.currentName();
         float boost = 1.0f;
         GlobalFeatureEnum globalfeatureEnum = null;
         byte[] image=null;
+        HashingMode hashingMode = null;
+        int candidates = DEFAULT_CANDIDATES;
+        int limit = -1;
+        int ef = DEFAULT_EF;
+        double maxDistance = -1;
+        String perceptualHashName = null;
+        int hammingDistance = -1;
+        boolean parallel = false;
+        String lookupIndex = null;
+        String lookupType = null;
+        String lookupId = null;
+        String lookupRouting = null;
+        String lookupPath = null;
+        List<GlobalFeatureEnum> cascadeFeatures = new ArrayList<>();
+        List<Integer> cascadeKeeps = new ArrayList<>();
+        List<GlobalFeatureEnum> fuseFeatures = new ArrayList<>();
+        List<Float> fuseWeights = new ArrayList<>();
+        FeatureFusion.Normalization normalization = FeatureFusion.Normalization.SCORE;
+        Map<GlobalFeatureEnum, byte[]> precomputedFeatures = new EnumMap<>(GlobalFeatureEnum.class);
         token = parser.nextToken();
         if (token == XContentParser.Token.START_OBJECT) {
             String currentFieldName = null;
             while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
                 if (token == XContentParser.Token.FIELD_NAME) {
                     currentFieldName = parser.currentName();
+                } else if (token == XContentParser.Token.START_ARRAY && "cascade".equals(currentFieldName)) {
+                    parseCascade(parseContext, cascadeFeatures, cascadeKeeps);
+                } else if (token == XContentParser.Token.START_ARRAY && "fuse".equals(currentFieldName)) {
+                    parseFusion(parseContext, fuseFeatures, fuseWeights);
+                } else if (token == XContentParser.Token.START_OBJECT && "features".equals(currentFieldName)) {
+                    parsePrecomputedFeatures(parseContext, precomputedFeatures);
                 } else {
                     if ("feature".equals(currentFieldName)) {
                         globalfeatureEnum = GlobalFeatureEnum.getByName(parser.text());
@@ -56,7 +146,56 @@ public class ImageQueryParser implements QueryParser {
                     }else if ("boost".equals(currentFieldName)) {
                         boost = parser.floatValue();
                     }else if("hash".equals(currentFieldName)){
-                        HashingMode hashingMode=HashingMode.valueOf(parser.text());
+                        try {
+                            hashingMode = ImageHashing.parseHashingMode(parser.text());
+                        } catch (IllegalArgumentException e) {
+                            throw new QueryParsingException(parseContext, "[image] query does not support hash [" + parser.text() + "]");
+                        }
+                    }else if("candidates".equals(currentFieldName)){
+                        candidates = parser.intValue();
+                        if (candidates <= 0) {
+                            throw new QueryParsingException(parseContext, "[image] query [candidates] must be positive");
+                        }
+                    }else if("limit".equals(currentFieldName)){
+                        limit = parser.intValue();
+                        if (limit <= 0) {
+                            throw new QueryParsingException(parseContext, "[image] query [limit] must be positive");
+                        }
+                    }else if("max_distance".equals(currentFieldName)){
+                        maxDistance = parser.doubleValue();
+                        if (maxDistance < 0) {
+                            throw new QueryParsingException(parseContext, "[image] query [max_distance] must not be negative");
+                        }
+                    }else if(PerceptualHash.PERCEPTUAL_HASH.equals(currentFieldName)){
+                        perceptualHashName = parser.text();
+                    }else if("hamming_distance".equals(currentFieldName)){
+                        hammingDistance = parser.intValue();
+                        if (hammingDistance < 0) {
+                            throw new QueryParsingException(parseContext, "[image] query [hamming_distance] must not be negative");
+                        }
+                    }else if("ef".equals(currentFieldName)){
+                        ef = parser.intValue();
+                        if (ef <= 0) {
+                            throw new QueryParsingException(parseContext, "[image] query [ef] must be positive");
+                        }
+                    }else if("normalization".equals(currentFieldName)){
+                        try {
+                            normalization = FeatureFusion.Normalization.parse(parser.text());
+                        } catch (IllegalArgumentException e) {
+                            throw new QueryParsingException(parseContext, "[image] query " + e.getMessage());
+                        }
+                    }else if("parallel".equals(currentFieldName)){
+                        parallel = parser.booleanValue();
+                    }else if("index".equals(currentFieldName)){
+                        lookupIndex = parser.textOrNull();
+                    }else if("type".equals(currentFieldName)){
+                        lookupType = parser.textOrNull();
+                    }else if("id".equals(currentFieldName)){
+                        lookupId = parser.textOrNull();
+                    }else if("routing".equals(currentFieldName)){
+                        lookupRouting = parser.textOrNull();
+                    }else if("path".equals(currentFieldName)){
+                        lookupPath = parser.textOrNull();
                     }
                     /*else {
                         throw new QueryParsingException(parseContext, "[image] query does not support [" + currentFieldName + "]");
@@ -66,25 +205,378 @@ public class ImageQueryParser implements QueryParser {
             parser.nextToken();
         }
 
+        if (hammingDistance >= 0 || perceptualHashName != null) {
+            if (lookupId != null) {
+                image = lookupImage(lookupIndex == null ? parseContext.index().name() : lookupIndex, lookupType, lookupId, lookupRouting,
+                        lookupPath == null ? fieldName : lookupPath);
+            }
+            return perceptualHashQuery(parseContext, fieldName, perceptualHashName, image, Math.max(hammingDistance, 0), boost);
+        }
+
+        // first fused feature is the query feature
+        if (!fuseFeatures.isEmpty()) {
+            if (globalfeatureEnum != null) {
+                throw new QueryParsingException(parseContext, "[image] query takes either [feature] or [fuse]");
+            }
+            globalfeatureEnum = fuseFeatures.get(0);
+        }
+        // last cascade stage without keep ranks the survivors of the previous stages
+        if (globalfeatureEnum == null && !cascadeFeatures.isEmpty() && cascadeKeeps.get(cascadeKeeps.size() - 1) < 0) {
+            globalfeatureEnum = cascadeFeatures.remove(cascadeFeatures.size() - 1);
+            cascadeKeeps.remove(cascadeKeeps.size() - 1);
+        }
         if (globalfeatureEnum == null) {
             throw new QueryParsingException(parseContext, "No feature specified for image query");
         }
+        for (int i = 0; i < cascadeFeatures.size(); i++) {
+            if (cascadeKeeps.get(i) <= 0) {
+                throw new QueryParsingException(parseContext, "[image] cascade stage [" + cascadeFeatures.get(i) + "] requires a positive [keep]");
+            }
+        }
 
-        LireFeature feature = null;
+        List<GlobalFeatureEnum> globalFeatureEnums = new ArrayList<>(cascadeFeatures);
+        if (fuseFeatures.isEmpty()) {
+            globalFeatureEnums.add(globalfeatureEnum);
+        } else {
+            globalFeatureEnums.addAll(fuseFeatures);
+        }
+        MappedFieldType fieldType = parseContext.fieldMapper(fieldName);
+        // query images are decoded like the images indexed in the field
+        int thumbnailMinSize = fieldType instanceof ImageMapper.ImageFieldType ? ((ImageMapper.ImageFieldType) fieldType).thumbnailMinSize() : 0;
+        LireFeature[] features;
+        if (!precomputedFeatures.isEmpty()) {
+            features = precomputedFeatures(parseContext, precomputedFeatures, globalFeatureEnums);
+        } else if (image != null) {
+            features = imageFeatures(featureCache, image, thumbnailMinSize, globalFeatureEnums);
+        } else if (lookupId != null) {
+            if (lookupIndex == null) {
+                lookupIndex = parseContext.index().name();
+            }
+            features = lookupFeatures(globalFeatureEnums, lookupIndex, lookupType, lookupId, lookupRouting);
+        } else {
+            throw new QueryParsingException(parseContext, "[image] query requires either [image], [features] or lookup [id]");
+        }
+        LireFeature feature = features[cascadeFeatures.size()];
+
+        HnswParameters hnswParameters = null;
+        boolean quantized = false;
+        if (hashingMode == null) {
+            // follow hnsw index, quantization and hash mode of mapping
+            if (fieldType instanceof ImageMapper.ImageFieldType) {
+                hnswParameters = ((ImageMapper.ImageFieldType) fieldType).hnswParameters(globalfeatureEnum);
+                quantized = ((ImageMapper.ImageFieldType) fieldType).quantized(globalfeatureEnum);
+                hashingMode = ((ImageMapper.ImageFieldType) fieldType).hashingMode();
+            } else {
+                hashingMode = HashingMode.None;
+            }
+        }
+        ImageQuery.Builder imageQuery = new ImageQuery.Builder(feature, globalfeatureEnum).boost(boost);
+        if (hnswParameters != null) {
+            imageQuery.graphSearch(graphCache, hnswParameters, Math.max(ef, limit));
+        } else if (quantized) {
+            imageQuery.quantizedSearch(Math.max(candidates, limit));
+        } else if (hashingMode != HashingMode.None && feature != null) {
+            HashParameters hashParameters = fieldType instanceof ImageMapper.ImageFieldType ?
+                    ((ImageMapper.ImageFieldType) fieldType).hashParameters(globalfeatureEnum) : null;
+            Query hashQuery = hashQuery(parseContext, hashingMode, (GlobalFeature) feature, hashParameters);
+            if (hashQuery != null) {
+                imageQuery.hashSearch(hashQuery, Math.max(candidates, limit));
+            }
+        }
+        if (!cascadeFeatures.isEmpty()) {
+            List<ImageQuery.CascadeStage> stages = new ArrayList<>(cascadeFeatures.size());
+            for (int i = 0; i < cascadeFeatures.size(); i++) {
+                stages.add(new ImageQuery.CascadeStage(features[i], cascadeFeatures.get(i), cascadeKeeps.get(i)));
+            }
+            imageQuery.cascade(stages);
+        }
+        if (!fuseFeatures.isEmpty()) {
+            List<FeatureFusion.WeightedFeature> weightedFeatures = new ArrayList<>(fuseFeatures.size());
+            for (int i = 0; i < fuseFeatures.size(); i++) {
+                weightedFeatures.add(new FeatureFusion.WeightedFeature(features[cascadeFeatures.size() + i], fuseFeatures.get(i), fuseWeights.get(i)));
+            }
+            imageQuery.fusion(new FeatureFusion(weightedFeatures, normalization));
+        }
+        imageQuery.limit(limit).maxDistance(maxDistance).metrics(metrics.index(parseContext.index().name()));
+        if (parallel) {
+            imageQuery.executor((ExecutorService) threadPool.executor(SEARCH_THREAD_POOL));
+        }
+        return imageQuery.build();
+    }
+
+    /**
+     * Docs within a Hamming distance of the perceptual hash of the query image, the hash defaults to the one of the mapping
+     */
+    private static Query perceptualHashQuery(QueryParseContext parseContext, String fieldName, @Nullable String perceptualHashName,
+                                             @Nullable byte[] image, int hammingDistance, float boost) {
+        MappedFieldType fieldType = parseContext.fieldMapper(fieldName);
+        PerceptualHash perceptualHash = fieldType instanceof ImageMapper.ImageFieldType ?
+                ((ImageMapper.ImageFieldType) fieldType).perceptualHash() : null;
+        if (perceptualHash == null) {
+            throw new QueryParsingException(parseContext, "[image] field [" + fieldName + "] has no [" + PerceptualHash.PERCEPTUAL_HASH + "]");
+        }
+        PerceptualHash queryHash;
+        try {
+            queryHash = perceptualHashName == null ? perceptualHash : PerceptualHash.parse(perceptualHashName);
+        } catch (MapperParsingException e) {
+            throw new QueryParsingException(parseContext, "[image] query does not support " + e.getMessage());
+        }
+        if (perceptualHash != queryHash) {
+            throw new QueryParsingException(parseContext, "[image] field [" + fieldName + "] is indexed with [" + PerceptualHash.PERCEPTUAL_HASH
+                    + "] [" + perceptualHash + "], not [" + perceptualHashName + "]");
+        }
+        if (image == null) {
+            throw new QueryParsingException(parseContext, "[image] query with [hamming_distance] requires either [image] or lookup [id]");
+        }
+        try {
+            BufferedImage decoded = ImageDecoder.decodeAsIndexed(image, ((ImageMapper.ImageFieldType) fieldType).thumbnailMinSize(),
+                    DocumentBuilder.MAX_IMAGE_DIMENSION);
+            if (decoded == null) {
+                throw new QueryParsingException(parseContext, "[image] query image format is not supported");
+            }
+            return new PerceptualHashQuery(fieldType.names().indexName(), perceptualHash, perceptualHash.hash(decoded), hammingDistance, boost);
+        } catch (IOException e) {
+            throw new ElasticsearchImageProcessException("Failed to parse image", e);
+        }
+    }
+
+    /**
+     * Stages of a cascade, {@code [{"feature": "COLOR_LAYOUT", "keep": 5000}, {"feature": "CEDD"}]}, keep is -1 when not set
+     */
+    private static void parseCascade(QueryParseContext parseContext, List<GlobalFeatureEnum> features, List<Integer> keeps) throws IOException {
+        XContentParser parser = parseContext.parser();
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+            if (token != XContentParser.Token.START_OBJECT) {
+                throw new QueryParsingException(parseContext, "[image] cascade stages must be objects");
+            }
+            GlobalFeatureEnum feature = null;
+            int keep = -1;
+            String currentFieldName = null;
+            while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                if (token == XContentParser.Token.FIELD_NAME) {
+                    currentFieldName = parser.currentName();
+                } else if ("feature".equals(currentFieldName)) {
+                    feature = GlobalFeatureEnum.getByName(parser.text());
+                } else if ("keep".equals(currentFieldName)) {
+                    keep = parser.intValue();
+                } else {
+                    throw new QueryParsingException(parseContext, "[image] cascade stage does not support [" + currentFieldName + "]");
+                }
+            }
+            if (feature == null) {
+                throw new QueryParsingException(parseContext, "[image] cascade stage requires [feature]");
+            }
+            features.add(feature);
+            keeps.add(keep);
+        }
+    }
 
-        if (image != null) {
+    /**
+     * Fused features, {@code [{"feature": "CEDD", "weight": 2}, {"feature": "FCTH"}]}, weight defaults to 1
+     */
+    private static void parseFusion(QueryParseContext parseContext, List<GlobalFeatureEnum> features, List<Float> weights) throws IOException {
+        XContentParser parser = parseContext.parser();
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+            if (token != XContentParser.Token.START_OBJECT) {
+                throw new QueryParsingException(parseContext, "[image] fused features must be objects");
+            }
+            GlobalFeatureEnum feature = null;
+            float weight = 1.0f;
+            String currentFieldName = null;
+            while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                if (token == XContentParser.Token.FIELD_NAME) {
+                    currentFieldName = parser.currentName();
+                } else if ("feature".equals(currentFieldName)) {
+                    feature = GlobalFeatureEnum.getByName(parser.text());
+                } else if ("weight".equals(currentFieldName)) {
+                    weight = parser.floatValue();
+                } else {
+                    throw new QueryParsingException(parseContext, "[image] fused feature does not support [" + currentFieldName + "]");
+                }
+            }
+            if (feature == null) {
+                throw new QueryParsingException(parseContext, "[image] fused feature requires [feature]");
+            }
+            if (weight <= 0) {
+                throw new QueryParsingException(parseContext, "[image] fused feature [" + feature + "] requires a positive [weight]");
+            }
+            features.add(feature);
+            weights.add(weight);
+        }
+    }
+
+    /**
+     * Serialized features extracted outside of Elasticsearch, {@code {"CEDD": "base64 feature", "FCTH": "base64 feature"}}
+     */
+    private static void parsePrecomputedFeatures(QueryParseContext parseContext, Map<GlobalFeatureEnum, byte[]> features) throws IOException {
+        XContentParser parser = parseContext.parser();
+        XContentParser.Token token;
+        String currentFieldName = null;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token.isValue()) {
+                features.put(GlobalFeatureEnum.getByName(currentFieldName), parser.binaryValue());
+            } else {
+                throw new QueryParsingException(parseContext, "[image] precomputed feature [" + currentFieldName + "] must be base64 encoded bytes");
+            }
+        }
+    }
+
+    /**
+     * Precomputed features of the query, no image is decoded and nothing is extracted
+     */
+    private static LireFeature[] precomputedFeatures(QueryParseContext parseContext, Map<GlobalFeatureEnum, byte[]> precomputed,
+                                                     List<GlobalFeatureEnum> globalFeatureEnums) {
+        LireFeature[] features = new LireFeature[globalFeatureEnums.size()];
+        for (int i = 0; i < features.length; i++) {
+            GlobalFeatureEnum globalFeatureEnum = globalFeatureEnums.get(i);
+            byte[] bytes = precomputed.get(globalFeatureEnum);
+            if (bytes == null) {
+                throw new QueryParsingException(parseContext, "[image] query has no precomputed feature [" + globalFeatureEnum.name() + "]");
+            }
             try {
-                feature = globalfeatureEnum.getGlobalFeatureClass().newInstance();
-                BufferedImage img = ImageIO.read(new ByteBufferStreamInput(ByteBuffer.wrap(image)));
-                if (Math.max(img.getHeight(), img.getWidth()) > DocumentBuilder.MAX_IMAGE_DIMENSION) {
-                    img = ImageUtils.scaleImage(img, DocumentBuilder.MAX_IMAGE_DIMENSION);
+                features[i] = PrecomputedFeature.parse(globalFeatureEnum, bytes);
+            } catch (IllegalArgumentException e) {
+                throw new QueryParsingException(parseContext, "[image] query " + e.getMessage());
+            }
+        }
+        return features;
+    }
+
+    /**
+     * Features of the query image, the image is decoded at most once for all features missing in the cache
+     * @param thumbnailMinSize thumbnail size of the searched field, 0 if the field decodes the image itself
+     */
+    static LireFeature[] imageFeatures(ImageFeatureCache featureCache, byte[] image, int thumbnailMinSize, List<GlobalFeatureEnum> globalFeatureEnums) {
+        QueryImage queryImage = new QueryImage(image, thumbnailMinSize);
+        LireFeature[] features = new LireFeature[globalFeatureEnums.size()];
+        for (int i = 0; i < features.length; i++) {
+            GlobalFeatureEnum globalFeatureEnum = globalFeatureEnums.get(i);
+            features[i] = newFeature(globalFeatureEnum);
+            features[i].setByteArrayRepresentation(featureCache.get(image, thumbnailMinSize, globalFeatureEnum, new FeatureExtraction(queryImage, globalFeatureEnum)));
+        }
+        return features;
+    }
+
+    /**
+     * Features of an indexed image, read from its doc values or stored feature fields so the image is neither transferred nor decoded
+     */
+    private LireFeature[] lookupFeatures(List<GlobalFeatureEnum> globalFeatureEnums, String index, String type, String id, String routing) {
+        ImageFeatureLookupRequest lookupRequest = new ImageFeatureLookupRequest(index, type, id).routing(routing).features(globalFeatureEnums);
+        ImageFeatureLookupResponse lookupResponse = client.execute(ImageFeatureLookupAction.INSTANCE, lookupRequest).actionGet();
+        if (!lookupResponse.isExists()) {
+            throw new ElasticsearchImageProcessException("Lookup image [" + index + "/" + type + "/" + id + "] does not exist");
+        }
+        LireFeature[] features = new LireFeature[globalFeatureEnums.size()];
+        for (int i = 0; i < features.length; i++) {
+            byte[] featureBytes = lookupResponse.getFeature(i);
+            if (featureBytes == null) {
+                throw new ElasticsearchImageProcessException("Lookup image [" + index + "/" + type + "/" + id + "] has no indexed ["
+                        + globalFeatureEnums.get(i).name() + "] feature");
+            }
+            features[i] = newFeature(globalFeatureEnums.get(i));
+            features[i].setByteArrayRepresentation(featureBytes);
+        }
+        return features;
+    }
+
+    /**
+     * Image in the source of an indexed doc under lookup path
+     */
+    private byte[] lookupImage(String index, String type, String id, String routing, String path) {
+        GetRequest getRequest = new GetRequest(index, type, id).routing(routing).fetchSourceContext(new FetchSourceContext(path));
+        GetResponse getResponse = client.get(getRequest).actionGet();
+        Object image = getResponse.isExists() ? XContentMapValues.extractValue(path, getResponse.getSourceAsMap()) : null;
+        if (!(image instanceof String) && !(image instanceof byte[])) {
+            throw new ElasticsearchImageProcessException("Lookup image [" + index + "/" + type + "/" + id + "] has no image in [" + path + "]");
+        }
+        try {
+            // sources indexed in a binary format hold the raw image
+            return image instanceof byte[] ? (byte[]) image : Base64.decode((String) image);
+        } catch (IOException e) {
+            throw new ElasticsearchImageProcessException("Failed to parse image", e);
+        }
+    }
+
+    private static LireFeature newFeature(GlobalFeatureEnum globalFeatureEnum) {
+        try {
+            return globalFeatureEnum.getGlobalFeatureClass().newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new ElasticsearchImageProcessException("Failed to initial image feature class", e);
+        }
+    }
+
+    /**
+     * Query image decoded on first use, shared by the extraction of several features
+     */
+    private static class QueryImage {
+        private final byte[] content;
+        private final int thumbnailMinSize;
+        private BufferedImage decoded;
+
+        QueryImage(byte[] content, int thumbnailMinSize) {
+            this.content = content;
+            this.thumbnailMinSize = thumbnailMinSize;
+        }
+
+        BufferedImage decode() throws IOException {
+            if (decoded == null) {
+                decoded = ImageDecoder.decodeAsIndexed(content, thumbnailMinSize, DocumentBuilder.MAX_IMAGE_DIMENSION);
+                if (decoded == null) {
+                    throw new IOException("image format is not supported");
                 }
-                ((Extractor)feature).extract(img);
-            } catch (Exception e) {
-                throw new ElasticsearchImageProcessException("Failed to parse image", e);
             }
+            return decoded;
+        }
+    }
+
+    /**
+     * Extract the serialized feature of the query image, only runs on query feature cache miss
+     */
+    private static class FeatureExtraction implements Callable<byte[]> {
+        private final QueryImage image;
+        private final GlobalFeatureEnum globalFeatureEnum;
+
+        FeatureExtraction(QueryImage image, GlobalFeatureEnum globalFeatureEnum) {
+            this.image = image;
+            this.globalFeatureEnum = globalFeatureEnum;
         }
 
-        return new ImageQuery(feature,globalfeatureEnum,boost);
+        @Override
+        public byte[] call() throws Exception {
+            LireFeature feature = newFeature(globalFeatureEnum);
+            ((Extractor) feature).extract(image.decode());
+            return feature.getByteArrayRepresentation();
+        }
+    }
+
+    /**
+     * Disjunction over hash terms of query image, terms are analyzed the same way as hash field is indexed
+     * @param hashParameters trained hash functions of the mapping, null to hash with the functions of LIRE
+     * @return null if there is no hash for the feature
+     */
+    private Query hashQuery(QueryParseContext parseContext, HashingMode hashingMode, GlobalFeature feature,
+                            @Nullable HashParameters hashParameters) throws IOException {
+        String hash = ImageHashing.hashString(hashingMode, feature, hashParameters);
+        if (hash == null) {
+            return null;
+        }
+        String hashFieldName = ImageHashing.hashFieldName(feature.getFieldName());
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        builder.setDisableCoord(true);
+        int numTerms = 0;
+        try (TokenStream tokenStream = parseContext.mapperService().indexAnalyzer().tokenStream(hashFieldName, hash)) {
+            CharTermAttribute termAttribute = tokenStream.addAttribute(CharTermAttribute.class);
+            tokenStream.reset();
+            while (tokenStream.incrementToken()) {
+                builder.add(new TermQuery(new Term(hashFieldName, termAttribute.toString())), BooleanClause.Occur.SHOULD);
+                numTerms++;
+            }
+            tokenStream.end();
+        }
+        return numTerms == 0 ? null : builder.build();
     }
 }
@@ -0,0 +1,240 @@
+package org.elasticsearch.index.query.image;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.query.ParsedQuery;
+import org.elasticsearch.search.SearchParseElement;
+import org.elasticsearch.search.internal.SearchContext;
+import org.elasticsearch.search.rescore.RescoreSearchContext;
+import org.elasticsearch.search.rescore.Rescorer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Rescore the top {@code window_size} hits of each shard with the distance of an {@code image} query,
+ * only the docs of the window are read and compared, hash, graph and quantized candidates of the query are not used.
+ * Elasticsearch only parses {@code query} rescorers, so this one has its own search element {@value #NAME}:
+ * {@code "image_rescore": {"window_size": 100, "rescore_query": {"image": {...}}, "query_weight": 1, "rescore_query_weight": 1, "score_mode": "total"}}
+ */
+public final class ImageRescorer implements Rescorer {
+    public static final String NAME = "image_rescore";
+
+    public static final ImageRescorer INSTANCE = new ImageRescorer();
+
+    private static final Comparator<ScoreDoc> SCORE_ORDER = new Comparator<ScoreDoc>() {
+        @Override
+        public int compare(ScoreDoc a, ScoreDoc b) {
+            int cmp = Float.compare(b.score, a.score);
+            return cmp == 0 ? Integer.compare(a.doc, b.doc) : cmp;
+        }
+    };
+
+    private static final Comparator<ScoreDoc> DOC_ORDER = new Comparator<ScoreDoc>() {
+        @Override
+        public int compare(ScoreDoc a, ScoreDoc b) {
+            return Integer.compare(a.doc, b.doc);
+        }
+    };
+
+    private ImageRescorer() {}
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public TopDocs rescore(TopDocs topDocs, SearchContext context, RescoreSearchContext rescoreContext) throws IOException {
+        if (topDocs == null || topDocs.totalHits == 0 || topDocs.scoreDocs.length == 0) {
+            return topDocs;
+        }
+        ImageRescoreContext rescore = (ImageRescoreContext) rescoreContext;
+        int window = Math.min(rescore.window(), topDocs.scoreDocs.length);
+        ScoreDoc[] windowDocs = Arrays.copyOf(topDocs.scoreDocs, window);
+
+        // visit docs segment by segment, in doc order
+        Arrays.sort(windowDocs, DOC_ORDER);
+        List<LeafReaderContext> leaves = context.searcher().getIndexReader().leaves();
+        DocDistance docDistance = null;
+        int leafIndex = -1;
+        for (ScoreDoc scoreDoc : windowDocs) {
+            int docLeaf = ReaderUtil.subIndex(scoreDoc.doc, leaves);
+            if (docLeaf != leafIndex) {
+                leafIndex = docLeaf;
+                docDistance = rescore.query.docDistance(leaves.get(leafIndex).reader());
+            }
+            double distance = docDistance.distance(scoreDoc.doc - leaves.get(leafIndex).docBase);
+            scoreDoc.score = rescore.combine(scoreDoc.score, distance);
+        }
+
+        for (int i = window; i < topDocs.scoreDocs.length; i++) {
+            topDocs.scoreDocs[i].score *= rescore.queryWeight;
+        }
+        // window docs are the same objects as the top docs, only their order changed
+        Arrays.sort(topDocs.scoreDocs, SCORE_ORDER);
+        return new TopDocs(topDocs.totalHits, topDocs.scoreDocs, topDocs.scoreDocs[0].score);
+    }
+
+    @Override
+    public Explanation explain(int topLevelDocId, SearchContext context, RescoreSearchContext rescoreContext, Explanation sourceExplanation) throws IOException {
+        if (sourceExplanation == null) {
+            return Explanation.noMatch("nothing matched");
+        }
+        ImageRescoreContext rescore = (ImageRescoreContext) rescoreContext;
+        List<LeafReaderContext> leaves = context.searcher().getIndexReader().leaves();
+        LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(topLevelDocId, leaves));
+        double distance = rescore.query.docDistance(leaf.reader()).distance(topLevelDocId - leaf.docBase);
+        Explanation primary = Explanation.match(sourceExplanation.getValue() * rescore.queryWeight, "product of:",
+                sourceExplanation, Explanation.match(rescore.queryWeight, "primaryWeight"));
+        if (distance < 0) {
+            return primary;
+        }
+        float imageScore = ImageQuery.distanceToScore(distance) * rescore.query.getBoost();
+        Explanation secondary = Explanation.match(imageScore * rescore.rescoreQueryWeight, "product of:",
+                Explanation.match(imageScore, "image score, distance [" + distance + "]"),
+                Explanation.match(rescore.rescoreQueryWeight, "secondaryWeight"));
+        return Explanation.match(rescore.scoreMode.combine(primary.getValue(), secondary.getValue()),
+                rescore.scoreMode.name().toLowerCase(Locale.ROOT) + " of:", primary, secondary);
+    }
+
+    @Override
+    public RescoreSearchContext parse(XContentParser parser, SearchContext context) throws IOException {
+        ImageRescoreContext rescoreContext = new ImageRescoreContext();
+        String fieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                fieldName = parser.currentName();
+                if ("rescore_query".equals(fieldName)) {
+                    ParsedQuery parsedQuery = context.queryParserService().parse(parser);
+                    Query query = parsedQuery.query();
+                    if (!(query instanceof ImageQuery)) {
+                        throw new IllegalArgumentException("[" + NAME + "] requires an [image] rescore_query");
+                    }
+                    rescoreContext.query = (ImageQuery) query;
+                }
+            } else if (token.isValue()) {
+                if ("window_size".equals(fieldName)) {
+                    rescoreContext.setWindowSize(parser.intValue());
+                } else if ("query_weight".equals(fieldName)) {
+                    rescoreContext.queryWeight = parser.floatValue();
+                } else if ("rescore_query_weight".equals(fieldName)) {
+                    rescoreContext.rescoreQueryWeight = parser.floatValue();
+                } else if ("score_mode".equals(fieldName)) {
+                    rescoreContext.scoreMode = ScoreMode.parse(parser.text());
+                } else {
+                    throw new IllegalArgumentException("[" + NAME + "] doesn't support [" + fieldName + "]");
+                }
+            }
+        }
+        if (rescoreContext.query == null) {
+            throw new IllegalArgumentException("[" + NAME + "] requires [rescore_query]");
+        }
+        return rescoreContext;
+    }
+
+    @Override
+    public void extractTerms(SearchContext context, RescoreSearchContext rescoreContext, Set<Term> termsSet) {
+        // image query has no terms
+    }
+
+    /**
+     * Search element of the rescorer, a single rescore or an array of them like {@code rescore}
+     */
+    public static class ParseElement implements SearchParseElement {
+        @Override
+        public void parse(XContentParser parser, SearchContext context) throws Exception {
+            if (parser.currentToken() == XContentParser.Token.START_ARRAY) {
+                while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                    context.addRescore(INSTANCE.parse(parser, context));
+                }
+            } else {
+                context.addRescore(INSTANCE.parse(parser, context));
+            }
+        }
+    }
+
+    enum ScoreMode {
+        TOTAL {
+            @Override
+            float combine(float primary, float secondary) {
+                return primary + secondary;
+            }
+        },
+        MULTIPLY {
+            @Override
+            float combine(float primary, float secondary) {
+                return primary * secondary;
+            }
+        },
+        AVG {
+            @Override
+            float combine(float primary, float secondary) {
+                return (primary + secondary) / 2;
+            }
+        },
+        MAX {
+            @Override
+            float combine(float primary, float secondary) {
+                return Math.max(primary, secondary);
+            }
+        },
+        MIN {
+            @Override
+            float combine(float primary, float secondary) {
+                return Math.min(primary, secondary);
+            }
+        };
+
+        abstract float combine(float primary, float secondary);
+
+        static ScoreMode parse(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("[" + NAME + "] illegal score_mode [" + name + "]");
+            }
+        }
+    }
+
+    static class ImageRescoreContext extends RescoreSearchContext {
+        private ImageQuery query;
+        private float queryWeight = 1.0f;
+        private float rescoreQueryWeight = 1.0f;
+        private ScoreMode scoreMode = ScoreMode.TOTAL;
+
+        ImageRescoreContext() {
+            super(NAME, 10, INSTANCE);
+        }
+
+        ImageRescoreContext(ImageQuery query, float queryWeight, float rescoreQueryWeight, ScoreMode scoreMode) {
+            this();
+            this.query = query;
+            this.queryWeight = queryWeight;
+            this.rescoreQueryWeight = rescoreQueryWeight;
+            this.scoreMode = scoreMode;
+        }
+
+        /**
+         * Docs without feature keep their weighted first pass score, like docs not matching a query rescore
+         */
+        float combine(float firstPassScore, double distance) {
+            if (distance < 0) {
+                return firstPassScore * queryWeight;
+            }
+            float imageScore = ImageQuery.distanceToScore(distance) * query.getBoost();
+            return scoreMode.combine(firstPassScore * queryWeight, imageScore * rescoreQueryWeight);
+        }
+    }
+}
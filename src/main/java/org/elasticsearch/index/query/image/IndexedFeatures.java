@@ -0,0 +1,41 @@
+package org.elasticsearch.index.query.image;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.ElasticsearchImageProcessException;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Features of one indexed document, read from doc values or stored fields like the image query reads them
+ */
+public final class IndexedFeatures {
+
+    private IndexedFeatures() {
+    }
+
+    /**
+     * @return serialized feature of each of the features, null where the document has none
+     */
+    public static byte[][] read(LeafReader reader, int docId, List<GlobalFeatureEnum> globalFeatureEnums) throws IOException {
+        String[] fieldNames = new String[globalFeatureEnums.size()];
+        for (int i = 0; i < fieldNames.length; i++) {
+            try {
+                fieldNames[i] = globalFeatureEnums.get(i).getGlobalFeatureClass().newInstance().getFieldName();
+            } catch (InstantiationException | IllegalAccessException e) {
+                throw new ElasticsearchImageProcessException("Failed to initial image feature class", e);
+            }
+        }
+        FeatureValues featureValues = new FeatureValues(reader, fieldNames);
+        byte[][] features = new byte[fieldNames.length][];
+        for (int i = 0; i < features.length; i++) {
+            BytesRef value = featureValues.get(docId, i);
+            if (value.length > 0) {
+                features[i] = BytesRef.deepCopyOf(value).bytes;
+            }
+        }
+        return features;
+    }
+}
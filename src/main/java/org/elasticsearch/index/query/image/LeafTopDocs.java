@@ -0,0 +1,182 @@
+package org.elasticsearch.index.query.image;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.PriorityQueue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Best documents of one segment found by a bounded search, sorted by doc id
+ */
+class LeafTopDocs {
+    final int[] docs;
+    final float[] scores;
+
+    LeafTopDocs(int[] docs, float[] scores) {
+        this.docs = docs;
+        this.scores = scores;
+    }
+
+    Scorer scorer(Weight weight, float boost) {
+        return new TopDocsScorer(weight, this, boost);
+    }
+
+    static class DistanceDoc {
+        int doc;
+        double distance;
+
+        DistanceDoc(int doc, double distance) {
+            this.doc = doc;
+            this.distance = distance;
+        }
+    }
+
+    /**
+     * Keep the {@code size} docs with smallest distance, top of the queue is the worst of them
+     */
+    static class DistanceQueue extends PriorityQueue<DistanceDoc> {
+        private final int size;
+
+        DistanceQueue(int size) {
+            super(size);
+            this.size = size;
+        }
+
+        @Override
+        protected boolean lessThan(DistanceDoc a, DistanceDoc b) {
+            return a.distance > b.distance;
+        }
+
+        boolean isFull() {
+            return size() >= size;
+        }
+
+        /**
+         * @param doc top level doc id
+         */
+        void offer(int doc, double distance) {
+            if (!isFull()) {
+                add(new DistanceDoc(doc, distance));
+            } else if (distance < top().distance) {
+                DistanceDoc top = top();
+                top.doc = doc;
+                top.distance = distance;
+                updateTop();
+            }
+        }
+
+        /**
+         * Drain queue and group docs by segment
+         */
+        LeafTopDocs[] toLeafTopDocs(List<LeafReaderContext> leaves) {
+            DistanceDoc[] distanceDocs = new DistanceDoc[size()];
+            for (int i = 0; i < distanceDocs.length; i++) {
+                distanceDocs[i] = pop();
+            }
+            Arrays.sort(distanceDocs, DOC_ORDER);
+
+            LeafTopDocs[] leafTopDocs = new LeafTopDocs[leaves.size()];
+            int start = 0;
+            while (start < distanceDocs.length) {
+                int leafIndex = ReaderUtil.subIndex(distanceDocs[start].doc, leaves);
+                LeafReaderContext leaf = leaves.get(leafIndex);
+                int end = start;
+                while (end < distanceDocs.length && distanceDocs[end].doc < leaf.docBase + leaf.reader().maxDoc()) {
+                    end++;
+                }
+                int[] docs = new int[end - start];
+                float[] scores = new float[end - start];
+                for (int i = start; i < end; i++) {
+                    docs[i - start] = distanceDocs[i].doc - leaf.docBase;
+                    scores[i - start] = ImageQuery.distanceToScore(distanceDocs[i].distance);
+                }
+                leafTopDocs[leafIndex] = new LeafTopDocs(docs, scores);
+                start = end;
+            }
+            return leafTopDocs;
+        }
+
+        /**
+         * Drain queue into the docs of each segment, null for segments without docs
+         */
+        FixedBitSet[] toCandidateDocs(List<LeafReaderContext> leaves) {
+            FixedBitSet[] candidateDocs = new FixedBitSet[leaves.size()];
+            while (size() > 0) {
+                int doc = pop().doc;
+                int leafIndex = ReaderUtil.subIndex(doc, leaves);
+                LeafReaderContext leaf = leaves.get(leafIndex);
+                if (candidateDocs[leafIndex] == null) {
+                    candidateDocs[leafIndex] = new FixedBitSet(leaf.reader().maxDoc());
+                }
+                candidateDocs[leafIndex].set(doc - leaf.docBase);
+            }
+            return candidateDocs;
+        }
+    }
+
+    private static final Comparator<DistanceDoc> DOC_ORDER = new Comparator<DistanceDoc>() {
+        @Override
+        public int compare(DistanceDoc a, DistanceDoc b) {
+            return Integer.compare(a.doc, b.doc);
+        }
+    };
+
+    private static class TopDocsScorer extends Scorer {
+        private final LeafTopDocs topDocs;
+        private final float boost;
+        private int index = -1;
+        private int doc = -1;
+
+        TopDocsScorer(Weight weight, LeafTopDocs topDocs, float boost) {
+            super(weight);
+            this.topDocs = topDocs;
+            this.boost = boost;
+        }
+
+        @Override
+        public float score() throws IOException {
+            return topDocs.scores[index] * boost;
+        }
+
+        @Override
+        public int freq() throws IOException {
+            return 1;
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            index++;
+            doc = index < topDocs.docs.length ? topDocs.docs[index] : NO_MORE_DOCS;
+            return doc;
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            if (index + 1 >= topDocs.docs.length) {
+                index = topDocs.docs.length;
+            } else {
+                int found = Arrays.binarySearch(topDocs.docs, index + 1, topDocs.docs.length, target);
+                index = found >= 0 ? found : -found - 1;
+            }
+            doc = index < topDocs.docs.length ? topDocs.docs[index] : NO_MORE_DOCS;
+            return doc;
+        }
+
+        @Override
+        public long cost() {
+            return topDocs.docs.length;
+        }
+    }
+}
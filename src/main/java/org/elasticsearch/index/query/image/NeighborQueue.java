@@ -0,0 +1,90 @@
+package org.elasticsearch.index.query.image;
+
+import org.apache.lucene.util.ArrayUtil;
+
+/**
+ * Binary heap of nodes and their distances, without boxing.
+ * A min queue pops the closest node first, a max queue pops the farthest node first.
+ */
+final class NeighborQueue {
+    private final boolean maxQueue;
+    private int[] nodes;
+    private double[] distances;
+    private int size;
+
+    NeighborQueue(int initialSize, boolean maxQueue) {
+        this.maxQueue = maxQueue;
+        this.nodes = new int[Math.max(1, initialSize)];
+        this.distances = new double[nodes.length];
+    }
+
+    int size() {
+        return size;
+    }
+
+    int topNode() {
+        return nodes[0];
+    }
+
+    double topDistance() {
+        return distances[0];
+    }
+
+    void add(int node, double distance) {
+        if (size == nodes.length) {
+            nodes = ArrayUtil.grow(nodes, size + 1);
+            distances = ArrayUtil.grow(distances, nodes.length);
+        }
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(distance, distances[parent])) {
+                break;
+            }
+            nodes[i] = nodes[parent];
+            distances[i] = distances[parent];
+            i = parent;
+        }
+        nodes[i] = node;
+        distances[i] = distance;
+    }
+
+    /**
+     * @return node removed from the top
+     */
+    int pop() {
+        int top = nodes[0];
+        size--;
+        if (size > 0) {
+            int node = nodes[size];
+            double distance = distances[size];
+            int i = 0;
+            while (true) {
+                int child = (i << 1) + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && before(distances[child + 1], distances[child])) {
+                    child++;
+                }
+                if (!before(distances[child], distance)) {
+                    break;
+                }
+                nodes[i] = nodes[child];
+                distances[i] = distances[child];
+                i = child;
+            }
+            nodes[i] = node;
+            distances[i] = distance;
+        }
+        return top;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    private boolean before(double a, double b) {
+        return maxQueue ? a > b : a < b;
+    }
+}
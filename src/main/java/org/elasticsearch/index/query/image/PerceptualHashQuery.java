@@ -0,0 +1,193 @@
+package org.elasticsearch.index.query.image;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queries.TermsQuery;
+import org.apache.lucene.search.ConstantScoreWeight;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TwoPhaseIterator;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.ToStringUtils;
+import org.elasticsearch.index.mapper.image.PerceptualHash;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Docs whose perceptual hash is within a Hamming distance of the query hash.
+ * Candidates are the docs sharing a chunk within {@code maxDistance / CHUNKS} bits of a query chunk,
+ * they are verified on the hash doc values. Larger distances verify every doc with a hash.
+ * The Hamming distance is scored like the distance of {@link ImageQuery}.
+ */
+public class PerceptualHashQuery extends Query {
+    /**
+     * Largest chunk distance looked up with chunk terms, 2788 terms
+     */
+    static final int MAX_CHUNK_DISTANCE = 3;
+
+    private final String fieldName;
+    private final PerceptualHash perceptualHash;
+    private final long hash;
+    private final int maxDistance;
+
+    public PerceptualHashQuery(String fieldName, PerceptualHash perceptualHash, long hash, int maxDistance, float boost) {
+        this.fieldName = fieldName;
+        this.perceptualHash = perceptualHash;
+        this.hash = hash;
+        this.maxDistance = maxDistance;
+        setBoost(boost);
+    }
+
+    /**
+     * @return null if every doc with a hash is a candidate
+     */
+    Query chunkQuery() {
+        int chunkDistance = maxDistance / PerceptualHash.CHUNKS;
+        if (chunkDistance > MAX_CHUNK_DISTANCE) {
+            return null;
+        }
+        String chunkFieldName = perceptualHash.chunkFieldName(fieldName);
+        List<Term> terms = new ArrayList<>();
+        for (int i = 0; i < PerceptualHash.CHUNKS; i++) {
+            addChunkTerms(terms, chunkFieldName, i, PerceptualHash.chunk(hash, i), 0, chunkDistance);
+        }
+        return new TermsQuery(terms);
+    }
+
+    /**
+     * Terms of all values differing from the chunk value in at most {@code flips} bits from {@code fromBit} on
+     */
+    private static void addChunkTerms(List<Term> terms, String chunkFieldName, int chunk, int value, int fromBit, int flips) {
+        terms.add(new Term(chunkFieldName, PerceptualHash.chunkTerm(chunk, value)));
+        if (flips == 0) {
+            return;
+        }
+        for (int bit = fromBit; bit < PerceptualHash.CHUNK_BITS; bit++) {
+            addChunkTerms(terms, chunkFieldName, chunk, value ^ (1 << bit), bit + 1, flips - 1);
+        }
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, boolean needsScores) throws IOException {
+        Query chunkQuery = chunkQuery();
+        final Weight chunkWeight = chunkQuery == null ? null : searcher.createNormalizedWeight(chunkQuery, false);
+        final String hashFieldName = perceptualHash.hashFieldName(fieldName);
+        return new ConstantScoreWeight(this) {
+            @Override
+            public String toString() {
+                return "weight(" + PerceptualHashQuery.this + ")";
+            }
+
+            @Override
+            public Scorer scorer(LeafReaderContext context) throws IOException {
+                NumericDocValues hashes = context.reader().getNumericDocValues(hashFieldName);
+                Bits docsWithHash = context.reader().getDocsWithField(hashFieldName);
+                if (hashes == null || docsWithHash == null) {
+                    return null;
+                }
+                DocIdSetIterator approximation;
+                if (chunkWeight == null) {
+                    approximation = DocIdSetIterator.all(context.reader().maxDoc());
+                } else {
+                    approximation = chunkWeight.scorer(context);
+                    if (approximation == null) {
+                        return null;
+                    }
+                }
+                // the searcher rewrites a boosted query into a BoostQuery, which hands the boost to this weight
+                return new HammingScorer(this, approximation, hashes, docsWithHash, boost());
+            }
+        };
+    }
+
+    @Override
+    public String toString(String field) {
+        return fieldName + "," + perceptualHash + ":" + Long.toHexString(hash) + ",hamming_distance:" + maxDistance
+                + ToStringUtils.boost(getBoost());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!super.equals(o)) return false;
+        PerceptualHashQuery that = (PerceptualHashQuery) o;
+        return fieldName.equals(that.fieldName) && perceptualHash == that.perceptualHash && hash == that.hash
+                && maxDistance == that.maxDistance;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), fieldName, perceptualHash, hash, maxDistance);
+    }
+
+    private class HammingScorer extends Scorer {
+        private final TwoPhaseIterator twoPhaseIterator;
+        private final DocIdSetIterator disi;
+        private final float boost;
+        private int distance;
+
+        HammingScorer(Weight weight, DocIdSetIterator approximation, final NumericDocValues hashes, final Bits docsWithHash, float boost) {
+            super(weight);
+            this.boost = boost;
+            this.twoPhaseIterator = new TwoPhaseIterator(approximation) {
+                @Override
+                public boolean matches() throws IOException {
+                    int doc = approximation.docID();
+                    if (!docsWithHash.get(doc)) {
+                        return false;
+                    }
+                    distance = Long.bitCount(hashes.get(doc) ^ hash);
+                    return distance <= maxDistance;
+                }
+
+                @Override
+                public float matchCost() {
+                    return 2;
+                }
+            };
+            this.disi = TwoPhaseIterator.asDocIdSetIterator(twoPhaseIterator);
+        }
+
+        @Override
+        public float score() throws IOException {
+            return ImageQuery.distanceToScore(distance) * boost;
+        }
+
+        @Override
+        public int freq() throws IOException {
+            return 1;
+        }
+
+        @Override
+        public TwoPhaseIterator asTwoPhaseIterator() {
+            return twoPhaseIterator;
+        }
+
+        @Override
+        public int docID() {
+            return disi.docID();
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            return disi.nextDoc();
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            return disi.advance(target);
+        }
+
+        @Override
+        public long cost() {
+            return disi.cost();
+        }
+    }
+}
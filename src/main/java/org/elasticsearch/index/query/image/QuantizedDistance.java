@@ -0,0 +1,122 @@
+package org.elasticsearch.index.query.image;
+
+import net.semanticmetadata.lire.imageanalysis.features.LireFeature;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.index.mapper.image.ScalarQuantizer;
+
+/**
+ * Approximate distance between the exact query vector and {@link ScalarQuantizer} codes of documents.
+ * Only used to pick candidates, the exact {@link FeatureDistance} ranks them afterwards, so features compared
+ * with the Tanimoto coefficient in LIRE use it here and all other features use L1.
+ */
+abstract class QuantizedDistance {
+    protected final double[] query;
+    protected final double[] values = new double[16];
+
+    QuantizedDistance(LireFeature queryFeature) {
+        this.query = queryFeature.getFeatureVector();
+    }
+
+    /**
+     * @param code code of a document, not empty
+     */
+    abstract double distance(BytesRef code);
+
+    static QuantizedDistance create(LireFeature queryFeature, GlobalFeatureEnum globalFeatureEnum) {
+        switch (globalFeatureEnum) {
+            case CEDD:
+            case FCTH:
+            case JCD:
+                return new Tanimoto(queryFeature);
+            default:
+                return new L1(queryFeature);
+        }
+    }
+
+    /**
+     * Values of the 16 levels of a code, query dims missing in the code count as 0
+     * @return number of dims of the code
+     */
+    final int decodeLevels(BytesRef code) {
+        float min = ScalarQuantizer.min(code.bytes, code.offset);
+        float step = ScalarQuantizer.step(code.bytes, code.offset);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = min + i * step;
+        }
+        return ScalarQuantizer.dims(code.bytes, code.offset);
+    }
+
+    final double queryValue(int dim) {
+        return dim < query.length ? query[dim] : 0;
+    }
+
+    static final class L1 extends QuantizedDistance {
+        L1(LireFeature queryFeature) {
+            super(queryFeature);
+        }
+
+        @Override
+        double distance(BytesRef code) {
+            int dims = decodeLevels(code);
+            final byte[] bytes = code.bytes;
+            int start = code.offset + ScalarQuantizer.HEADER_SIZE;
+            double sum = 0;
+            for (int i = 0; i < dims; i++) {
+                int b = bytes[start + (i >> 1)];
+                int level = (i & 1) == 0 ? (b >> 4) & 0xF : b & 0xF;
+                sum += Math.abs(queryValue(i) - values[level]);
+            }
+            for (int i = dims; i < query.length; i++) {
+                sum += Math.abs(query[i]);
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * Tanimoto coefficient of histograms normalized by their sums, as CEDD, FCTH and JCD do
+     */
+    static final class Tanimoto extends QuantizedDistance {
+        private final double querySum;
+        private final double querySquareSum;
+
+        Tanimoto(LireFeature queryFeature) {
+            super(queryFeature);
+            double sum = 0;
+            double squareSum = 0;
+            for (double value : query) {
+                sum += value;
+                squareSum += value * value;
+            }
+            this.querySum = sum;
+            this.querySquareSum = sum == 0 ? 0 : squareSum / (sum * sum);
+        }
+
+        @Override
+        double distance(BytesRef code) {
+            int dims = decodeLevels(code);
+            final byte[] bytes = code.bytes;
+            int start = code.offset + ScalarQuantizer.HEADER_SIZE;
+            double sum = 0;
+            double product = 0;
+            double squareSum = 0;
+            for (int i = 0; i < dims; i++) {
+                int b = bytes[start + (i >> 1)];
+                double value = values[(i & 1) == 0 ? (b >> 4) & 0xF : b & 0xF];
+                sum += value;
+                product += queryValue(i) * value;
+                squareSum += value * value;
+            }
+            if (sum == 0 && querySum == 0) {
+                return 0;
+            }
+            if (sum == 0 || querySum == 0) {
+                return 100;
+            }
+            product /= sum * querySum;
+            squareSum /= sum * sum;
+            return 100 - 100 * (product / (squareSum + querySquareSum - product));
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package org.elasticsearch.plugin.image;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentBuilderString;
+import org.elasticsearch.index.shard.ShardId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Duplicate joins running on the shards of this node, so their progress can be reported and they can be cancelled
+ */
+public class DuplicateJobs {
+
+    private final List<ShardJob> running = new CopyOnWriteArrayList<>();
+
+    public ShardJob start(String jobId, ShardId shardId) {
+        ShardJob job = new ShardJob(jobId, shardId);
+        running.add(job);
+        return job;
+    }
+
+    public void finish(ShardJob job) {
+        running.remove(job);
+    }
+
+    /**
+     * Ask the shard joins of the job to stop after their current block
+     * @return number of shard joins of the job running on this node
+     */
+    public int cancel(String jobId) {
+        int cancelled = 0;
+        for (ShardJob job : running) {
+            if (job.jobId.equals(jobId)) {
+                job.cancelled = true;
+                cancelled++;
+            }
+        }
+        return cancelled;
+    }
+
+    public List<ShardJobStats> stats() {
+        List<ShardJobStats> stats = new ArrayList<>(running.size());
+        for (ShardJob job : running) {
+            stats.add(job.stats());
+        }
+        return stats;
+    }
+
+    /**
+     * Progress of the join of one shard, counters are updated by the threads joining its blocks
+     */
+    public static class ShardJob {
+        private final String jobId;
+        private final ShardId shardId;
+        private final long startTime = System.nanoTime();
+        private final AtomicLong blocks = new AtomicLong();
+        private final AtomicLong skippedBlocks = new AtomicLong();
+        private final AtomicLong comparedPairs = new AtomicLong();
+        private volatile long totalBlocks = -1;
+        private volatile boolean cancelled;
+
+        ShardJob(String jobId, ShardId shardId) {
+            this.jobId = jobId;
+            this.shardId = shardId;
+        }
+
+        public boolean cancelled() {
+            return cancelled;
+        }
+
+        public void totalBlocks(long totalBlocks) {
+            this.totalBlocks = totalBlocks;
+        }
+
+        /**
+         * @param comparedPairs doc pairs of the block whose distance was computed
+         */
+        public void onBlock(long comparedPairs) {
+            blocks.incrementAndGet();
+            this.comparedPairs.addAndGet(comparedPairs);
+        }
+
+        /**
+         * Block larger than the max block size, its docs are not compared
+         */
+        public void onSkippedBlock() {
+            blocks.incrementAndGet();
+            skippedBlocks.incrementAndGet();
+        }
+
+        public ShardJobStats stats() {
+            return new ShardJobStats(jobId, shardId, blocks.get(), totalBlocks, skippedBlocks.get(), comparedPairs.get(), cancelled,
+                    System.nanoTime() - startTime);
+        }
+    }
+
+    public static class ShardJobStats implements Streamable, ToXContent {
+        private String jobId;
+        private ShardId shardId;
+        private long blocks;
+        private long totalBlocks;
+        private long skippedBlocks;
+        private long comparedPairs;
+        private boolean cancelled;
+        private long tookNanos;
+
+        ShardJobStats() {
+        }
+
+        ShardJobStats(String jobId, ShardId shardId, long blocks, long totalBlocks, long skippedBlocks, long comparedPairs,
+                      boolean cancelled, long tookNanos) {
+            this.jobId = jobId;
+            this.shardId = shardId;
+            this.blocks = blocks;
+            this.totalBlocks = totalBlocks;
+            this.skippedBlocks = skippedBlocks;
+            this.comparedPairs = comparedPairs;
+            this.cancelled = cancelled;
+            this.tookNanos = tookNanos;
+        }
+
+        public static ShardJobStats readShardJobStats(StreamInput in) throws IOException {
+            ShardJobStats stats = new ShardJobStats();
+            stats.readFrom(in);
+            return stats;
+        }
+
+        public String getJobId() {
+            return jobId;
+        }
+
+        public ShardId getShardId() {
+            return shardId;
+        }
+
+        public long getBlocks() {
+            return blocks;
+        }
+
+        /**
+         * @return -1 while the blocks of the shard are counted
+         */
+        public long getTotalBlocks() {
+            return totalBlocks;
+        }
+
+        public long getSkippedBlocks() {
+            return skippedBlocks;
+        }
+
+        public long getComparedPairs() {
+            return comparedPairs;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public TimeValue getTime() {
+            return new TimeValue(tookNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            jobId = in.readString();
+            shardId = ShardId.readShardId(in);
+            blocks = in.readVLong();
+            totalBlocks = in.readLong();
+            skippedBlocks = in.readVLong();
+            comparedPairs = in.readVLong();
+            cancelled = in.readBoolean();
+            tookNanos = in.readVLong();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeString(jobId);
+            shardId.writeTo(out);
+            out.writeVLong(blocks);
+            out.writeLong(totalBlocks);
+            out.writeVLong(skippedBlocks);
+            out.writeVLong(comparedPairs);
+            out.writeBoolean(cancelled);
+            out.writeVLong(tookNanos);
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject();
+            builder.field(Fields.JOB_ID, jobId);
+            builder.field(Fields.INDEX, shardId.getIndex());
+            builder.field(Fields.SHARD, shardId.id());
+            builder.field(Fields.BLOCKS, blocks);
+            builder.field(Fields.TOTAL_BLOCKS, totalBlocks);
+            builder.field(Fields.SKIPPED_BLOCKS, skippedBlocks);
+            builder.field(Fields.COMPARED_PAIRS, comparedPairs);
+            builder.field(Fields.CANCELLED, cancelled);
+            builder.timeValueField(Fields.TIME_IN_MILLIS, Fields.TIME, TimeUnit.NANOSECONDS.toMillis(tookNanos));
+            builder.endObject();
+            return builder;
+        }
+    }
+
+    static final class Fields {
+        static final XContentBuilderString JOB_ID = new XContentBuilderString("job_id");
+        static final XContentBuilderString INDEX = new XContentBuilderString("index");
+        static final XContentBuilderString SHARD = new XContentBuilderString("shard");
+        static final XContentBuilderString BLOCKS = new XContentBuilderString("blocks");
+        static final XContentBuilderString TOTAL_BLOCKS = new XContentBuilderString("total_blocks");
+        static final XContentBuilderString SKIPPED_BLOCKS = new XContentBuilderString("skipped_blocks");
+        static final XContentBuilderString COMPARED_PAIRS = new XContentBuilderString("compared_pairs");
+        static final XContentBuilderString CANCELLED = new XContentBuilderString("cancelled");
+        static final XContentBuilderString TIME = new XContentBuilderString("time");
+        static final XContentBuilderString TIME_IN_MILLIS = new XContentBuilderString("time_in_millis");
+    }
+}
@@ -0,0 +1,90 @@
+package org.elasticsearch.plugin.image;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.index.mapper.DocumentMapper;
+import org.elasticsearch.index.mapper.FieldMapper;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.index.mapper.image.HnswParameters;
+import org.elasticsearch.index.mapper.image.ImageMapper;
+import org.elasticsearch.index.query.image.HnswGraphCache;
+import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.indices.IndicesWarmer;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.util.AbstractMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Build HNSW graphs of new segments, after refresh or merge, before they are searched,
+ * graphs of large segments are scheduled so the refresh does not wait for them
+ */
+class HnswWarmer extends IndicesWarmer.Listener {
+    private final ESLogger logger;
+    private final HnswGraphCache graphCache;
+
+    HnswWarmer(ESLogger logger, HnswGraphCache graphCache) {
+        this.logger = logger;
+        this.graphCache = graphCache;
+    }
+
+    @Override
+    public IndicesWarmer.TerminationHandle warmNewReaders(final IndexShard indexShard, IndexMetaData indexMetaData,
+                                                          IndicesWarmer.WarmerContext context, ThreadPool threadPool) {
+        final Set<Map.Entry<GlobalFeatureEnum, HnswParameters>> graphs = new HashSet<>();
+        for (DocumentMapper docMapper : indexShard.mapperService().docMappers(false)) {
+            for (FieldMapper fieldMapper : docMapper.mappers()) {
+                if (fieldMapper.fieldType() instanceof ImageMapper.ImageFieldType) {
+                    for (Map.Entry<GlobalFeatureEnum, HnswParameters> entry : ((ImageMapper.ImageFieldType) fieldMapper.fieldType()).hnswParameters().entrySet()) {
+                        graphs.add(new AbstractMap.SimpleImmutableEntry<>(entry));
+                    }
+                }
+            }
+        }
+        if (graphs.isEmpty()) {
+            return IndicesWarmer.TerminationHandle.NO_WAIT;
+        }
+
+        List<LeafReaderContext> leaves = context.reader().leaves();
+        final CountDownLatch latch = new CountDownLatch(leaves.size());
+        for (final LeafReaderContext leaf : leaves) {
+            threadPool.executor(executor()).execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (Map.Entry<GlobalFeatureEnum, HnswParameters> graph : graphs) {
+                            long start = System.nanoTime();
+                            graphCache.warm(leaf.reader(), graph.getKey(), graph.getValue());
+                            if (indexShard.warmerService().logger().isTraceEnabled()) {
+                                indexShard.warmerService().logger().trace("warmed {} graph of [{}] docs, took [{}ms]", graph.getKey(),
+                                        leaf.reader().maxDoc(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                            }
+                        }
+                    } catch (Throwable t) {
+                        logger.warn("failed to build hnsw graph", t);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+        return new IndicesWarmer.TerminationHandle() {
+            @Override
+            public void awaitTermination() throws InterruptedException {
+                latch.await();
+            }
+        };
+    }
+
+    @Override
+    public IndicesWarmer.TerminationHandle warmTopReader(IndexShard indexShard, IndexMetaData indexMetaData,
+                                                         IndicesWarmer.WarmerContext context, ThreadPool threadPool) {
+        return IndicesWarmer.TerminationHandle.NO_WAIT;
+    }
+}
@@ -0,0 +1,171 @@
+package org.elasticsearch.plugin.image;
+
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.metrics.MeanMetric;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Node level counters of the image pipeline, per index and per feature.
+ * Recording only adds to striped counters, a {@link #stats()} snapshot is taken when stats are requested.
+ */
+public class ImageMetrics {
+
+    private final ConcurrentMap<String, IndexMetrics> indices = ConcurrentCollections.newConcurrentMap();
+
+    public IndexMetrics index(String index) {
+        IndexMetrics metrics = indices.get(index);
+        if (metrics == null) {
+            metrics = new IndexMetrics();
+            IndexMetrics existing = indices.putIfAbsent(index, metrics);
+            if (existing != null) {
+                metrics = existing;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Forget the counters of a deleted index
+     */
+    public void remove(String index) {
+        indices.remove(index);
+    }
+
+    public ImageStats stats() {
+        Map<String, ImageStats.IndexStats> stats = new TreeMap<>();
+        for (Map.Entry<String, IndexMetrics> entry : indices.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().stats());
+        }
+        return new ImageStats(stats);
+    }
+
+    public static class IndexMetrics {
+        private final Timer decode = new Timer();
+        private final CounterMetric decodedBytes = new CounterMetric();
+        private final CounterMetric thumbnails = new CounterMetric();
+        private final FeatureMetrics[] features = new FeatureMetrics[GlobalFeatureEnum.values().length];
+
+        IndexMetrics() {
+            for (int i = 0; i < features.length; i++) {
+                features[i] = new FeatureMetrics();
+            }
+        }
+
+        /**
+         * @param bytes size of the encoded image
+         */
+        public void onDecode(long bytes, long tookNanos) {
+            decodedBytes.inc(bytes);
+            decode.record(tookNanos);
+        }
+
+        /**
+         * Image decoded from its embedded thumbnail
+         * @param bytes size of the encoded image
+         */
+        public void onThumbnailDecode(long bytes, long tookNanos) {
+            onDecode(bytes, tookNanos);
+            thumbnails.inc();
+        }
+
+        public FeatureMetrics feature(GlobalFeatureEnum globalFeatureEnum) {
+            return features[globalFeatureEnum.ordinal()];
+        }
+
+        ImageStats.IndexStats stats() {
+            Map<GlobalFeatureEnum, ImageStats.FeatureStats> featureStats = new EnumMap<>(GlobalFeatureEnum.class);
+            for (GlobalFeatureEnum globalFeatureEnum : GlobalFeatureEnum.values()) {
+                FeatureMetrics metrics = features[globalFeatureEnum.ordinal()];
+                if (metrics.used()) {
+                    featureStats.put(globalFeatureEnum, metrics.stats());
+                }
+            }
+            return new ImageStats.IndexStats(decode.stats(), decodedBytes.count(), thumbnails.count(), featureStats);
+        }
+    }
+
+    public static class FeatureMetrics {
+        private final Timer extract = new Timer();
+        private final CounterMetric precomputed = new CounterMetric();
+        private final CounterMetric queries = new CounterMetric();
+        private final CounterMetric candidates = new CounterMetric();
+        private final CounterMetric scoredDocs = new CounterMetric();
+        private final CounterMetric storedFieldLoads = new CounterMetric();
+
+        public void onExtract(long tookNanos) {
+            extract.record(tookNanos);
+        }
+
+        /**
+         * Feature sent precomputed instead of extracted
+         */
+        public void onPrecomputed() {
+            precomputed.inc();
+        }
+
+        /**
+         * @param candidates docs selected by hash, graph, quantized or cascade candidates, -1 when all docs are candidates
+         */
+        public void onQuery(long candidates) {
+            queries.inc();
+            if (candidates >= 0) {
+                this.candidates.inc(candidates);
+            }
+        }
+
+        /**
+         * @param scoredDocs docs whose distance to the query was computed
+         * @param storedFieldLoads docs whose feature was loaded from stored fields instead of doc values
+         */
+        public void onScored(long scoredDocs, long storedFieldLoads) {
+            this.scoredDocs.inc(scoredDocs);
+            this.storedFieldLoads.inc(storedFieldLoads);
+        }
+
+        private boolean used() {
+            return extract.count() > 0 || precomputed.count() > 0 || queries.count() > 0;
+        }
+
+        ImageStats.FeatureStats stats() {
+            return new ImageStats.FeatureStats(extract.stats(), precomputed.count(), queries.count(), candidates.count(),
+                    scoredDocs.count(), storedFieldLoads.count());
+        }
+    }
+
+    /**
+     * Count, total time and a histogram of durations, buckets are bounded by {@link ImageStats.TimerStats#BUCKET_MILLIS}
+     */
+    static class Timer {
+        private final MeanMetric took = new MeanMetric();
+        private final AtomicLongArray buckets = new AtomicLongArray(ImageStats.TimerStats.BUCKET_MILLIS.length + 1);
+
+        void record(long tookNanos) {
+            took.inc(tookNanos);
+            long millis = tookNanos / 1000000;
+            int bucket = 0;
+            while (bucket < ImageStats.TimerStats.BUCKET_MILLIS.length && millis >= ImageStats.TimerStats.BUCKET_MILLIS[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+        }
+
+        long count() {
+            return took.count();
+        }
+
+        ImageStats.TimerStats stats() {
+            long[] counts = new long[buckets.length()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets.get(i);
+            }
+            return new ImageStats.TimerStats(took.count(), took.sum(), counts);
+        }
+    }
+}
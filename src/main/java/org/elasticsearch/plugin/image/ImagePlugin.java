@@ -1,12 +1,48 @@
 package org.elasticsearch.plugin.image;
 
+import org.elasticsearch.action.ActionModule;
+import org.elasticsearch.action.image.ImageBatchSearchAction;
+import org.elasticsearch.action.image.ImageDuplicatesAction;
+import org.elasticsearch.action.image.ImageDuplicatesCancelAction;
+import org.elasticsearch.action.image.ImageFeatureLookupAction;
+import org.elasticsearch.action.image.ImageHashTrainAction;
+import org.elasticsearch.action.image.ImageStatsAction;
+import org.elasticsearch.action.image.TransportImageBatchSearchAction;
+import org.elasticsearch.action.image.TransportImageDuplicatesAction;
+import org.elasticsearch.action.image.TransportImageDuplicatesCancelAction;
+import org.elasticsearch.action.image.TransportImageFeatureLookupAction;
+import org.elasticsearch.action.image.TransportImageHashTrainAction;
+import org.elasticsearch.action.image.TransportImageStatsAction;
+import org.elasticsearch.common.inject.AbstractModule;
+import org.elasticsearch.common.inject.Module;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
 import org.elasticsearch.index.mapper.image.ImageMapper;
 import org.elasticsearch.index.query.image.ImageQueryParser;
 import org.elasticsearch.indices.IndicesModule;
 import org.elasticsearch.plugins.Plugin;
+import org.elasticsearch.rest.RestModule;
+import org.elasticsearch.rest.action.image.RestImageBatchSearchAction;
+import org.elasticsearch.rest.action.image.RestImageBulkAction;
+import org.elasticsearch.rest.action.image.RestImageDuplicatesAction;
+import org.elasticsearch.rest.action.image.RestImageDuplicatesCancelAction;
+import org.elasticsearch.rest.action.image.RestImageHashTrainAction;
+import org.elasticsearch.rest.action.image.RestImageStatsAction;
+import org.elasticsearch.search.SearchModule;
+
+import java.util.Collection;
+import java.util.Collections;
 
 public class ImagePlugin extends Plugin {
 
+    private final Settings settings;
+    private final ImageService imageService;
+
+    public ImagePlugin(Settings settings) {
+        this.settings = settings;
+        this.imageService = new ImageService(settings);
+    }
+
     @Override
     public String name() {
         return "image";
@@ -17,8 +53,58 @@ public class ImagePlugin extends Plugin {
         return "Elasticsearch Image Plugin";
     }
 
+    /**
+     * Default settings of the image thread pools, can be overridden in node settings,
+     * e.g. {@code threadpool.image_search.size}
+     */
+    @Override
+    public Settings additionalSettings() {
+        String searchPool = "threadpool." + ImageQueryParser.SEARCH_THREAD_POOL;
+        String extractPool = "threadpool." + ImageService.EXTRACT_THREAD_POOL;
+        return Settings.builder()
+                .put(searchPool + ".type", "fixed")
+                .put(searchPool + ".size", EsExecutors.boundedNumberOfProcessors(settings))
+                .put(searchPool + ".queue_size", 1000)
+                .put(extractPool + ".type", "fixed")
+                .put(extractPool + ".size", EsExecutors.boundedNumberOfProcessors(settings))
+                .put(extractPool + ".queue_size", 1000)
+                .build();
+    }
+
+    @Override
+    public Collection<Module> nodeModules() {
+        return Collections.<Module>singletonList(new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(ImageService.class).toInstance(imageService);
+            }
+        });
+    }
+
     public void onModule(IndicesModule indicesModule) {
-        indicesModule.registerMapper("image", new ImageMapper.TypeParser());
+        indicesModule.registerMapper("image", new ImageMapper.TypeParser(imageService));
         indicesModule.registerQueryParser(ImageQueryParser.class);
     }
+
+    public void onModule(SearchModule searchModule) {
+        searchModule.registerFetchSubPhase(ImageRescoreSubPhase.class);
+    }
+
+    public void onModule(ActionModule actionModule) {
+        actionModule.registerAction(ImageBatchSearchAction.INSTANCE, TransportImageBatchSearchAction.class);
+        actionModule.registerAction(ImageStatsAction.INSTANCE, TransportImageStatsAction.class);
+        actionModule.registerAction(ImageHashTrainAction.INSTANCE, TransportImageHashTrainAction.class);
+        actionModule.registerAction(ImageDuplicatesAction.INSTANCE, TransportImageDuplicatesAction.class);
+        actionModule.registerAction(ImageDuplicatesCancelAction.INSTANCE, TransportImageDuplicatesCancelAction.class);
+        actionModule.registerAction(ImageFeatureLookupAction.INSTANCE, TransportImageFeatureLookupAction.class);
+    }
+
+    public void onModule(RestModule restModule) {
+        restModule.addRestAction(RestImageBatchSearchAction.class);
+        restModule.addRestAction(RestImageBulkAction.class);
+        restModule.addRestAction(RestImageStatsAction.class);
+        restModule.addRestAction(RestImageHashTrainAction.class);
+        restModule.addRestAction(RestImageDuplicatesAction.class);
+        restModule.addRestAction(RestImageDuplicatesCancelAction.class);
+    }
 }
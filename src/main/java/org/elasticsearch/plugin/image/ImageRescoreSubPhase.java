@@ -0,0 +1,40 @@
+package org.elasticsearch.plugin.image;
+
+import com.google.common.collect.ImmutableMap;
+import org.elasticsearch.index.query.image.ImageRescorer;
+import org.elasticsearch.search.SearchParseElement;
+import org.elasticsearch.search.fetch.FetchSubPhase;
+import org.elasticsearch.search.internal.InternalSearchHit;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.util.Map;
+
+/**
+ * Registers the {@link ImageRescorer#NAME} search element, fetch sub phases are the only way for plugins
+ * to add elements to the search request body. Does nothing while fetching.
+ */
+public class ImageRescoreSubPhase implements FetchSubPhase {
+
+    @Override
+    public Map<String, ? extends SearchParseElement> parseElements() {
+        return ImmutableMap.of(ImageRescorer.NAME, new ImageRescorer.ParseElement());
+    }
+
+    @Override
+    public boolean hitExecutionNeeded(SearchContext context) {
+        return false;
+    }
+
+    @Override
+    public void hitExecute(SearchContext context, HitContext hitContext) {
+    }
+
+    @Override
+    public boolean hitsExecutionNeeded(SearchContext context) {
+        return false;
+    }
+
+    @Override
+    public void hitsExecute(SearchContext context, InternalSearchHit[] hits) {
+    }
+}
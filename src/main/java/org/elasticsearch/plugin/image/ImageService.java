@@ -0,0 +1,92 @@
+package org.elasticsearch.plugin.image;
+
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.query.image.HnswGraphCache;
+import org.elasticsearch.index.query.image.ImageFeatureCache;
+import org.elasticsearch.indices.IndicesLifecycle;
+import org.elasticsearch.indices.IndicesWarmer;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Node level services shared by image mappers and image queries.
+ * Created by {@link ImagePlugin} so mapper parsers can use it, node services are injected when the node starts.
+ */
+public class ImageService extends AbstractComponent {
+
+    /**
+     * Thread pool used to extract features of one image in parallel
+     */
+    public static final String EXTRACT_THREAD_POOL = "image_extract";
+
+    private final ImageFeatureCache queryFeatureCache;
+
+    private final HnswGraphCache hnswGraphCache;
+
+    private final ImageMetrics metrics = new ImageMetrics();
+
+    private final DuplicateJobs duplicateJobs = new DuplicateJobs();
+
+    private volatile ThreadPool threadPool;
+
+    public ImageService(Settings settings) {
+        super(settings);
+        this.queryFeatureCache = new ImageFeatureCache(settings);
+        this.hnswGraphCache = new HnswGraphCache(settings);
+    }
+
+    @Inject
+    public void setThreadPool(ThreadPool threadPool) {
+        this.threadPool = threadPool;
+        hnswGraphCache.setExecutor(threadPool.executor(ThreadPool.Names.WARMER));
+    }
+
+    @Inject
+    public void setIndicesWarmer(IndicesWarmer indicesWarmer) {
+        indicesWarmer.addListener(new HnswWarmer(logger, hnswGraphCache));
+    }
+
+    @Inject
+    public void setIndicesLifecycle(IndicesLifecycle indicesLifecycle) {
+        indicesLifecycle.addListener(new IndicesLifecycle.Listener() {
+            @Override
+            public void afterIndexDeleted(Index index, Settings indexSettings) {
+                metrics.remove(index.name());
+            }
+        });
+    }
+
+    /**
+     * @return null if node is not started yet
+     */
+    public Executor extractExecutor() {
+        ThreadPool threadPool = this.threadPool;
+        return threadPool == null ? null : threadPool.executor(EXTRACT_THREAD_POOL);
+    }
+
+    public ImageFeatureCache queryFeatureCache() {
+        return queryFeatureCache;
+    }
+
+    public HnswGraphCache hnswGraphCache() {
+        return hnswGraphCache;
+    }
+
+    /**
+     * Counters of image decoding, feature extraction and image queries on this node
+     */
+    public ImageMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Duplicate joins running on the shards of this node
+     */
+    public DuplicateJobs duplicateJobs() {
+        return duplicateJobs;
+    }
+}
@@ -0,0 +1,323 @@
+package org.elasticsearch.plugin.image;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentBuilderString;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot of the {@link ImageMetrics} of one node
+ */
+public class ImageStats implements Streamable, ToXContent {
+
+    private Map<String, IndexStats> indices;
+
+    ImageStats() {
+    }
+
+    public ImageStats(Map<String, IndexStats> indices) {
+        this.indices = indices;
+    }
+
+    public static ImageStats readImageStats(StreamInput in) throws IOException {
+        ImageStats stats = new ImageStats();
+        stats.readFrom(in);
+        return stats;
+    }
+
+    public Map<String, IndexStats> getIndices() {
+        return Collections.unmodifiableMap(indices);
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        int size = in.readVInt();
+        indices = new TreeMap<>();
+        for (int i = 0; i < size; i++) {
+            String index = in.readString();
+            IndexStats stats = new IndexStats();
+            stats.readFrom(in);
+            indices.put(index, stats);
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeVInt(indices.size());
+        for (Map.Entry<String, IndexStats> entry : indices.entrySet()) {
+            out.writeString(entry.getKey());
+            entry.getValue().writeTo(out);
+        }
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(Fields.INDICES);
+        for (Map.Entry<String, IndexStats> entry : indices.entrySet()) {
+            builder.startObject(entry.getKey());
+            entry.getValue().toXContent(builder, params);
+            builder.endObject();
+        }
+        builder.endObject();
+        return builder;
+    }
+
+    /**
+     * Decoding of the images of an index and the features of its mappings and queries
+     */
+    public static class IndexStats implements Streamable, ToXContent {
+        private TimerStats decode;
+        private long decodedBytes;
+        private long thumbnails;
+        private Map<GlobalFeatureEnum, FeatureStats> features;
+
+        IndexStats() {
+        }
+
+        IndexStats(TimerStats decode, long decodedBytes, long thumbnails, Map<GlobalFeatureEnum, FeatureStats> features) {
+            this.decode = decode;
+            this.decodedBytes = decodedBytes;
+            this.thumbnails = thumbnails;
+            this.features = features;
+        }
+
+        public TimerStats getDecode() {
+            return decode;
+        }
+
+        public long getDecodedBytes() {
+            return decodedBytes;
+        }
+
+        /**
+         * @return decoded images whose embedded thumbnail was decoded instead
+         */
+        public long getThumbnails() {
+            return thumbnails;
+        }
+
+        public Map<GlobalFeatureEnum, FeatureStats> getFeatures() {
+            return Collections.unmodifiableMap(features);
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            decode = new TimerStats();
+            decode.readFrom(in);
+            decodedBytes = in.readVLong();
+            thumbnails = in.readVLong();
+            int size = in.readVInt();
+            features = new EnumMap<>(GlobalFeatureEnum.class);
+            for (int i = 0; i < size; i++) {
+                GlobalFeatureEnum globalFeatureEnum = GlobalFeatureEnum.valueOf(in.readString());
+                FeatureStats stats = new FeatureStats();
+                stats.readFrom(in);
+                features.put(globalFeatureEnum, stats);
+            }
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            decode.writeTo(out);
+            out.writeVLong(decodedBytes);
+            out.writeVLong(thumbnails);
+            out.writeVInt(features.size());
+            for (Map.Entry<GlobalFeatureEnum, FeatureStats> entry : features.entrySet()) {
+                out.writeString(entry.getKey().name());
+                entry.getValue().writeTo(out);
+            }
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject(Fields.DECODE);
+            decode.toXContent(builder, params);
+            builder.byteSizeField(Fields.DECODED_IN_BYTES, Fields.DECODED, decodedBytes);
+            builder.field(Fields.THUMBNAILS, thumbnails);
+            builder.endObject();
+            builder.startObject(Fields.FEATURES);
+            for (Map.Entry<GlobalFeatureEnum, FeatureStats> entry : features.entrySet()) {
+                builder.startObject(entry.getKey().name());
+                entry.getValue().toXContent(builder, params);
+                builder.endObject();
+            }
+            builder.endObject();
+            return builder;
+        }
+    }
+
+    /**
+     * Extraction of one feature at index time, and the docs its queries selected and scored
+     */
+    public static class FeatureStats implements Streamable, ToXContent {
+        private TimerStats extract;
+        private long precomputed;
+        private long queries;
+        private long candidates;
+        private long scoredDocs;
+        private long storedFieldLoads;
+
+        FeatureStats() {
+        }
+
+        FeatureStats(TimerStats extract, long precomputed, long queries, long candidates, long scoredDocs, long storedFieldLoads) {
+            this.extract = extract;
+            this.precomputed = precomputed;
+            this.queries = queries;
+            this.candidates = candidates;
+            this.scoredDocs = scoredDocs;
+            this.storedFieldLoads = storedFieldLoads;
+        }
+
+        public TimerStats getExtract() {
+            return extract;
+        }
+
+        public long getPrecomputed() {
+            return precomputed;
+        }
+
+        public long getQueries() {
+            return queries;
+        }
+
+        public long getCandidates() {
+            return candidates;
+        }
+
+        public long getScoredDocs() {
+            return scoredDocs;
+        }
+
+        public long getStoredFieldLoads() {
+            return storedFieldLoads;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            extract = new TimerStats();
+            extract.readFrom(in);
+            precomputed = in.readVLong();
+            queries = in.readVLong();
+            candidates = in.readVLong();
+            scoredDocs = in.readVLong();
+            storedFieldLoads = in.readVLong();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            extract.writeTo(out);
+            out.writeVLong(precomputed);
+            out.writeVLong(queries);
+            out.writeVLong(candidates);
+            out.writeVLong(scoredDocs);
+            out.writeVLong(storedFieldLoads);
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject(Fields.EXTRACT);
+            extract.toXContent(builder, params);
+            builder.field(Fields.PRECOMPUTED, precomputed);
+            builder.endObject();
+            builder.startObject(Fields.QUERY);
+            builder.field(Fields.TOTAL, queries);
+            builder.field(Fields.CANDIDATES, candidates);
+            builder.field(Fields.SCORED_DOCS, scoredDocs);
+            builder.field(Fields.STORED_FIELD_LOADS, storedFieldLoads);
+            builder.endObject();
+            return builder;
+        }
+    }
+
+    /**
+     * Count and total time of an operation, with the number of operations that took less than each bucket bound
+     */
+    public static class TimerStats implements Streamable, ToXContent {
+        /**
+         * Upper bounds of the histogram buckets, the last bucket counts the slower operations
+         */
+        static final long[] BUCKET_MILLIS = {1, 10, 100, 1000};
+
+        private long count;
+        private long tookNanos;
+        private long[] buckets;
+
+        TimerStats() {
+        }
+
+        TimerStats(long count, long tookNanos, long[] buckets) {
+            this.count = count;
+            this.tookNanos = tookNanos;
+            this.buckets = buckets;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public TimeValue getTime() {
+            return new TimeValue(tookNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            count = in.readVLong();
+            tookNanos = in.readVLong();
+            buckets = in.readVLongArray();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeVLong(count);
+            out.writeVLong(tookNanos);
+            out.writeVLongArray(buckets);
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.field(Fields.TOTAL, count);
+            builder.timeValueField(Fields.TIME_IN_MILLIS, Fields.TIME, TimeUnit.NANOSECONDS.toMillis(tookNanos));
+            builder.startObject(Fields.HISTOGRAM);
+            for (int i = 0; i < buckets.length; i++) {
+                if (i < BUCKET_MILLIS.length) {
+                    builder.field("lt_" + TimeValue.timeValueMillis(BUCKET_MILLIS[i]), buckets[i]);
+                } else {
+                    builder.field("gte_" + TimeValue.timeValueMillis(BUCKET_MILLIS[BUCKET_MILLIS.length - 1]), buckets[i]);
+                }
+            }
+            builder.endObject();
+            return builder;
+        }
+    }
+
+    static final class Fields {
+        static final XContentBuilderString INDICES = new XContentBuilderString("indices");
+        static final XContentBuilderString DECODE = new XContentBuilderString("decode");
+        static final XContentBuilderString DECODED = new XContentBuilderString("decoded");
+        static final XContentBuilderString DECODED_IN_BYTES = new XContentBuilderString("decoded_in_bytes");
+        static final XContentBuilderString THUMBNAILS = new XContentBuilderString("thumbnails");
+        static final XContentBuilderString FEATURES = new XContentBuilderString("features");
+        static final XContentBuilderString EXTRACT = new XContentBuilderString("extract");
+        static final XContentBuilderString PRECOMPUTED = new XContentBuilderString("precomputed");
+        static final XContentBuilderString QUERY = new XContentBuilderString("query");
+        static final XContentBuilderString TOTAL = new XContentBuilderString("total");
+        static final XContentBuilderString CANDIDATES = new XContentBuilderString("candidates");
+        static final XContentBuilderString SCORED_DOCS = new XContentBuilderString("scored_docs");
+        static final XContentBuilderString STORED_FIELD_LOADS = new XContentBuilderString("stored_field_loads");
+        static final XContentBuilderString TIME = new XContentBuilderString("time");
+        static final XContentBuilderString TIME_IN_MILLIS = new XContentBuilderString("time_in_millis");
+        static final XContentBuilderString HISTOGRAM = new XContentBuilderString("histogram");
+    }
+}
@@ -0,0 +1,82 @@
+package org.elasticsearch.rest.action.image;
+
+import org.elasticsearch.action.image.ImageBatchSearchAction;
+import org.elasticsearch.action.image.ImageBatchSearchRequest;
+import org.elasticsearch.action.image.ImageBatchSearchResponse;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.support.RestActions;
+import org.elasticsearch.rest.action.support.RestToXContentListener;
+
+import java.io.IOException;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+/**
+ * {@code POST /{index}/_image/batch_search {"feature": "CEDD", "size": 10, "max_distance": 5, "images": ["base64", ...]}},
+ * {@code "features": ["base64", ...]} instead of {@code "images"} for precomputed query features
+ */
+public class RestImageBatchSearchAction extends BaseRestHandler {
+
+    @Inject
+    public RestImageBatchSearchAction(Settings settings, RestController controller, Client client) {
+        super(settings, controller, client);
+        controller.registerHandler(GET, "/_image/batch_search", this);
+        controller.registerHandler(POST, "/_image/batch_search", this);
+        controller.registerHandler(GET, "/{index}/_image/batch_search", this);
+        controller.registerHandler(POST, "/{index}/_image/batch_search", this);
+    }
+
+    @Override
+    protected void handleRequest(RestRequest request, RestChannel channel, Client client) throws Exception {
+        ImageBatchSearchRequest batchSearchRequest = new ImageBatchSearchRequest(Strings.splitStringByCommaToArray(request.param("index")));
+        batchSearchRequest.indicesOptions(IndicesOptions.fromRequest(request, batchSearchRequest.indicesOptions()));
+        if (RestActions.hasBodyContent(request)) {
+            try (XContentParser parser = XContentFactory.xContent(RestActions.guessBodyContentType(request))
+                    .createParser(RestActions.getRestContent(request))) {
+                parse(parser, batchSearchRequest);
+            }
+        }
+        client.execute(ImageBatchSearchAction.INSTANCE, batchSearchRequest, new RestToXContentListener<ImageBatchSearchResponse>(channel));
+    }
+
+    private static void parse(XContentParser parser, ImageBatchSearchRequest request) throws IOException {
+        if (parser.nextToken() != XContentParser.Token.START_OBJECT) {
+            throw new IllegalArgumentException("[image] batch search body must be an object");
+        }
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token == XContentParser.Token.START_ARRAY && "images".equals(currentFieldName)) {
+                while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                    request.addImage(parser.binaryValue());
+                }
+            } else if (token == XContentParser.Token.START_ARRAY && "features".equals(currentFieldName)) {
+                while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                    request.addFeature(parser.binaryValue());
+                }
+            } else if ("feature".equals(currentFieldName)) {
+                request.feature(GlobalFeatureEnum.getByName(parser.text()));
+            } else if ("size".equals(currentFieldName)) {
+                request.size(parser.intValue());
+            } else if ("max_distance".equals(currentFieldName)) {
+                request.maxDistance(parser.doubleValue());
+            } else {
+                throw new IllegalArgumentException("[image] batch search does not support [" + currentFieldName + "]");
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.elasticsearch.rest.action.image;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.WriteConsistencyLevel;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.bulk.BulkShardRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestResponse;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.rest.action.support.RestBuilderListener;
+
+import java.io.IOException;
+
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+import static org.elasticsearch.rest.RestRequest.Method.PUT;
+
+/**
+ * Bulk index images sent as raw bytes instead of base64 in json,
+ * {@code POST /{index}/{type}/_image/bulk?field=my_img} with a body of records
+ * {@code [metadata length][metadata json][image length][image bytes]}, lengths are 4 byte big endian ints.
+ * Metadata holds {@code _index}, {@code _type}, {@code _id}, {@code _routing} and {@code _parent} of the doc, other fields are its source.
+ * Docs are indexed with a smile source that embeds the image bytes, so the image is neither encoded nor decoded as base64.
+ */
+public class RestImageBulkAction extends BaseRestHandler {
+
+    @Inject
+    public RestImageBulkAction(Settings settings, RestController controller, Client client) {
+        super(settings, controller, client);
+        controller.registerHandler(POST, "/_image/bulk", this);
+        controller.registerHandler(PUT, "/_image/bulk", this);
+        controller.registerHandler(POST, "/{index}/_image/bulk", this);
+        controller.registerHandler(PUT, "/{index}/_image/bulk", this);
+        controller.registerHandler(POST, "/{index}/{type}/_image/bulk", this);
+        controller.registerHandler(PUT, "/{index}/{type}/_image/bulk", this);
+    }
+
+    @Override
+    protected void handleRequest(final RestRequest request, RestChannel channel, Client client) throws Exception {
+        String field = request.param("field");
+        if (field == null) {
+            throw new IllegalArgumentException("[image] bulk requires the image [field] parameter");
+        }
+        BulkRequest bulkRequest = new BulkRequest();
+        String consistencyLevel = request.param("consistency");
+        if (consistencyLevel != null) {
+            bulkRequest.consistencyLevel(WriteConsistencyLevel.fromString(consistencyLevel));
+        }
+        bulkRequest.timeout(request.paramAsTime("timeout", BulkShardRequest.DEFAULT_TIMEOUT));
+        bulkRequest.refresh(request.paramAsBoolean("refresh", bulkRequest.refresh()));
+
+        BytesReference content = request.content();
+        int offset = 0;
+        while (offset < content.length()) {
+            int metadataLength = readLength(content, offset);
+            offset += 4;
+            BytesReference metadata = slice(content, offset, metadataLength);
+            offset += metadataLength;
+            int imageLength = readLength(content, offset);
+            offset += 4;
+            BytesReference image = slice(content, offset, imageLength);
+            offset += imageLength;
+            bulkRequest.add(indexRequest(request, field, metadata, image));
+        }
+
+        client.bulk(bulkRequest, new RestBuilderListener<BulkResponse>(channel) {
+            @Override
+            public RestResponse buildResponse(BulkResponse response, XContentBuilder builder) throws Exception {
+                builder.startObject();
+                builder.field("took", response.getTookInMillis());
+                builder.field("errors", response.hasFailures());
+                builder.startArray("items");
+                for (BulkItemResponse itemResponse : response) {
+                    builder.startObject();
+                    builder.startObject(itemResponse.getOpType());
+                    builder.field("_index", itemResponse.getIndex());
+                    builder.field("_type", itemResponse.getType());
+                    builder.field("_id", itemResponse.getId());
+                    if (itemResponse.isFailed()) {
+                        builder.field("status", itemResponse.getFailure().getStatus().getStatus());
+                        builder.startObject("error");
+                        ElasticsearchException.toXContent(builder, request, itemResponse.getFailure().getCause());
+                        builder.endObject();
+                    } else {
+                        IndexResponse indexResponse = itemResponse.getResponse();
+                        builder.field("_version", indexResponse.getVersion());
+                        builder.field("status", indexResponse.isCreated() ? RestStatus.CREATED.getStatus() : RestStatus.OK.getStatus());
+                    }
+                    builder.endObject();
+                    builder.endObject();
+                }
+                builder.endArray();
+                builder.endObject();
+                return new BytesRestResponse(RestStatus.OK, builder);
+            }
+        });
+    }
+
+    private static IndexRequest indexRequest(RestRequest request, String field, BytesReference metadata, BytesReference image) throws IOException {
+        IndexRequest indexRequest = new IndexRequest(request.param("index"), request.param("type"));
+        indexRequest.routing(request.param("routing"));
+        XContentBuilder source = XContentFactory.smileBuilder();
+        source.startObject();
+        try (XContentParser parser = XContentHelper.createParser(metadata)) {
+            if (parser.nextToken() != XContentParser.Token.START_OBJECT) {
+                throw new IllegalArgumentException("[image] bulk metadata must be an object");
+            }
+            XContentParser.Token token;
+            while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                String name = parser.currentName();
+                token = parser.nextToken();
+                if ("_index".equals(name)) {
+                    indexRequest.index(parser.text());
+                } else if ("_type".equals(name)) {
+                    indexRequest.type(parser.text());
+                } else if ("_id".equals(name)) {
+                    indexRequest.id(parser.text());
+                } else if ("_routing".equals(name)) {
+                    indexRequest.routing(parser.text());
+                } else if ("_parent".equals(name)) {
+                    indexRequest.parent(parser.text());
+                } else if (field.equals(name)) {
+                    throw new IllegalArgumentException("[image] bulk metadata must not contain the image field [" + field + "]");
+                } else {
+                    source.field(name);
+                    source.copyCurrentStructure(parser);
+                }
+            }
+        }
+        source.field(field, image);
+        source.endObject();
+        return indexRequest.source(source);
+    }
+
+    private static int readLength(BytesReference content, int offset) {
+        if (offset + 4 > content.length()) {
+            throw new IllegalArgumentException("[image] bulk body is truncated at [" + offset + "]");
+        }
+        return ((content.get(offset) & 0xFF) << 24) | ((content.get(offset + 1) & 0xFF) << 16)
+                | ((content.get(offset + 2) & 0xFF) << 8) | (content.get(offset + 3) & 0xFF);
+    }
+
+    private static BytesReference slice(BytesReference content, int offset, int length) {
+        if (length < 0 || length > content.length() - offset) {
+            throw new IllegalArgumentException("[image] bulk body is truncated at [" + offset + "]");
+        }
+        return content.slice(offset, length);
+    }
+}
@@ -0,0 +1,81 @@
+package org.elasticsearch.rest.action.image;
+
+import org.elasticsearch.action.image.ImageDuplicatesAction;
+import org.elasticsearch.action.image.ImageDuplicatesRequest;
+import org.elasticsearch.action.image.ImageDuplicatesResponse;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.support.RestActions;
+import org.elasticsearch.rest.action.support.RestToXContentListener;
+
+import java.io.IOException;
+
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+/**
+ * {@code POST /{index}/_image/duplicates {"job_id": "nightly", "feature": "CEDD", "max_distance": 2, "max_block_size": 1000, "size": 100}}
+ * or {@code {"field": "my_img", "hamming_distance": 3}} to join on the perceptual hash of the field,
+ * {@code "write_index": "dedup"} also writes all clusters to an index
+ */
+public class RestImageDuplicatesAction extends BaseRestHandler {
+
+    @Inject
+    public RestImageDuplicatesAction(Settings settings, RestController controller, Client client) {
+        super(settings, controller, client);
+        controller.registerHandler(POST, "/{index}/_image/duplicates", this);
+    }
+
+    @Override
+    protected void handleRequest(RestRequest request, RestChannel channel, Client client) throws Exception {
+        ImageDuplicatesRequest duplicatesRequest = new ImageDuplicatesRequest(Strings.splitStringByCommaToArray(request.param("index")));
+        duplicatesRequest.indicesOptions(IndicesOptions.fromRequest(request, duplicatesRequest.indicesOptions()));
+        if (RestActions.hasBodyContent(request)) {
+            try (XContentParser parser = XContentFactory.xContent(RestActions.guessBodyContentType(request))
+                    .createParser(RestActions.getRestContent(request))) {
+                parse(parser, duplicatesRequest);
+            }
+        }
+        client.execute(ImageDuplicatesAction.INSTANCE, duplicatesRequest, new RestToXContentListener<ImageDuplicatesResponse>(channel));
+    }
+
+    private static void parse(XContentParser parser, ImageDuplicatesRequest request) throws IOException {
+        if (parser.nextToken() != XContentParser.Token.START_OBJECT) {
+            throw new IllegalArgumentException("[image] duplicates body must be an object");
+        }
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if ("job_id".equals(currentFieldName)) {
+                request.jobId(parser.text());
+            } else if ("field".equals(currentFieldName)) {
+                request.field(parser.text());
+            } else if ("feature".equals(currentFieldName)) {
+                request.feature(GlobalFeatureEnum.getByName(parser.text()));
+            } else if ("max_distance".equals(currentFieldName)) {
+                request.maxDistance(parser.doubleValue());
+            } else if ("hamming_distance".equals(currentFieldName)) {
+                request.hammingDistance(parser.intValue());
+            } else if ("max_block_size".equals(currentFieldName)) {
+                request.maxBlockSize(parser.intValue());
+            } else if ("size".equals(currentFieldName)) {
+                request.size(parser.intValue());
+            } else if ("write_index".equals(currentFieldName)) {
+                request.writeIndex(parser.text());
+            } else {
+                throw new IllegalArgumentException("[image] duplicates does not support [" + currentFieldName + "]");
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package org.elasticsearch.rest.action.image;
+
+import org.elasticsearch.action.image.ImageDuplicatesCancelAction;
+import org.elasticsearch.action.image.ImageDuplicatesCancelRequest;
+import org.elasticsearch.action.image.ImageDuplicatesCancelResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.support.RestToXContentListener;
+
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+/**
+ * {@code POST /_image/duplicates/{job_id}/_cancel}
+ */
+public class RestImageDuplicatesCancelAction extends BaseRestHandler {
+
+    @Inject
+    public RestImageDuplicatesCancelAction(Settings settings, RestController controller, Client client) {
+        super(settings, controller, client);
+        controller.registerHandler(POST, "/_image/duplicates/{job_id}/_cancel", this);
+    }
+
+    @Override
+    protected void handleRequest(RestRequest request, RestChannel channel, Client client) throws Exception {
+        ImageDuplicatesCancelRequest cancelRequest = new ImageDuplicatesCancelRequest(request.param("job_id"));
+        cancelRequest.timeout(request.param("timeout"));
+        client.execute(ImageDuplicatesCancelAction.INSTANCE, cancelRequest, new RestToXContentListener<ImageDuplicatesCancelResponse>(channel));
+    }
+}
@@ -0,0 +1,86 @@
+package org.elasticsearch.rest.action.image;
+
+import org.elasticsearch.action.image.ImageHashTrainAction;
+import org.elasticsearch.action.image.ImageHashTrainRequest;
+import org.elasticsearch.action.image.ImageHashTrainResponse;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.index.mapper.image.ImageHashing;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.support.RestActions;
+import org.elasticsearch.rest.action.support.RestToXContentListener;
+
+import java.io.IOException;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+/**
+ * {@code POST /{index}/_image/hash/train {"feature": "CEDD", "hash": "LSH", "sample_size": 10000, "tables": 50, "buckets": 16}}
+ */
+public class RestImageHashTrainAction extends BaseRestHandler {
+
+    @Inject
+    public RestImageHashTrainAction(Settings settings, RestController controller, Client client) {
+        super(settings, controller, client);
+        controller.registerHandler(GET, "/{index}/_image/hash/train", this);
+        controller.registerHandler(POST, "/{index}/_image/hash/train", this);
+    }
+
+    @Override
+    protected void handleRequest(RestRequest request, RestChannel channel, Client client) throws Exception {
+        ImageHashTrainRequest trainRequest = new ImageHashTrainRequest(Strings.splitStringByCommaToArray(request.param("index")));
+        trainRequest.indicesOptions(IndicesOptions.fromRequest(request, trainRequest.indicesOptions()));
+        if (RestActions.hasBodyContent(request)) {
+            try (XContentParser parser = XContentFactory.xContent(RestActions.guessBodyContentType(request))
+                    .createParser(RestActions.getRestContent(request))) {
+                parse(parser, trainRequest);
+            }
+        }
+        client.execute(ImageHashTrainAction.INSTANCE, trainRequest, new RestToXContentListener<ImageHashTrainResponse>(channel));
+    }
+
+    private static void parse(XContentParser parser, ImageHashTrainRequest request) throws IOException {
+        if (parser.nextToken() != XContentParser.Token.START_OBJECT) {
+            throw new IllegalArgumentException("[image] hash train body must be an object");
+        }
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if ("feature".equals(currentFieldName)) {
+                request.feature(GlobalFeatureEnum.getByName(parser.text()));
+            } else if ("hash".equals(currentFieldName)) {
+                request.hashingMode(ImageHashing.parseHashingMode(parser.text()));
+            } else if ("sample_size".equals(currentFieldName)) {
+                request.sampleSize(parser.intValue());
+            } else if ("seed".equals(currentFieldName)) {
+                request.seed(parser.longValue());
+            } else if ("tables".equals(currentFieldName)) {
+                request.tables(parser.intValue());
+            } else if ("bits".equals(currentFieldName)) {
+                request.bits(parser.intValue());
+            } else if ("buckets".equals(currentFieldName)) {
+                request.buckets(parser.intValue());
+            } else if ("projections".equals(currentFieldName)) {
+                request.projections(parser.intValue());
+            } else if ("reference_points".equals(currentFieldName)) {
+                request.referencePoints(parser.intValue());
+            } else if ("posting_length".equals(currentFieldName)) {
+                request.postingLength(parser.intValue());
+            } else {
+                throw new IllegalArgumentException("[image] hash train does not support [" + currentFieldName + "]");
+            }
+        }
+    }
+}
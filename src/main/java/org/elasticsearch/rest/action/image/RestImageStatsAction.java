@@ -0,0 +1,37 @@
+package org.elasticsearch.rest.action.image;
+
+import org.elasticsearch.action.image.ImageStatsAction;
+import org.elasticsearch.action.image.ImageStatsRequest;
+import org.elasticsearch.action.image.ImageStatsResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.support.RestToXContentListener;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+/**
+ * {@code GET /_image/stats} or {@code GET /_nodes/{nodeId}/_image/stats}
+ */
+public class RestImageStatsAction extends BaseRestHandler {
+
+    @Inject
+    public RestImageStatsAction(Settings settings, RestController controller, Client client) {
+        super(settings, controller, client);
+        controller.registerHandler(GET, "/_image/stats", this);
+        controller.registerHandler(GET, "/_nodes/_image/stats", this);
+        controller.registerHandler(GET, "/_nodes/{nodeId}/_image/stats", this);
+    }
+
+    @Override
+    protected void handleRequest(RestRequest request, RestChannel channel, Client client) throws Exception {
+        ImageStatsRequest statsRequest = new ImageStatsRequest(Strings.splitStringByCommaToArray(request.param("nodeId")));
+        statsRequest.timeout(request.param("timeout"));
+        client.execute(ImageStatsAction.INSTANCE, statsRequest, new RestToXContentListener<ImageStatsResponse>(channel));
+    }
+}
@@ -0,0 +1,236 @@
+package org.elasticsearch.action.image;
+
+import net.semanticmetadata.lire.builders.GlobalDocumentBuilder.HashingMode;
+import org.elasticsearch.Version;
+import org.elasticsearch.action.ShardOperationFailedException;
+import org.elasticsearch.action.support.DefaultShardOperationFailedException;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.transport.DummyTransportAddress;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.plugin.image.DuplicateJobs;
+import org.elasticsearch.plugin.image.ImageService;
+import org.elasticsearch.test.ESTestCase;
+import org.elasticsearch.transport.TransportRequest;
+import org.junit.Test;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Requests and responses of the image actions read back what they write. Requests are instantiated by reflection
+ * like the transport layer does, responses through their no-arg constructor like the actions do.
+ */
+public class ImageActionSerializationTests extends ESTestCase {
+
+    private static final DiscoveryNode NODE = new DiscoveryNode("node_1", DummyTransportAddress.INSTANCE, Version.CURRENT);
+
+    @Test
+    public void test_batch_search() throws Exception {
+        ImageBatchSearchRequest request = new ImageBatchSearchRequest("test", "other").feature(GlobalFeatureEnum.CEDD).size(randomIntBetween(1, 100))
+                .maxDistance(randomDouble()).addImage(randomBytes()).addImage(randomBytes());
+        ImageBatchSearchRequest requestCopy = assertRoundTrip(request, ImageBatchSearchRequest.class);
+        assertThat(requestCopy.indices(), equalTo(request.indices()));
+        assertThat(requestCopy.feature(), equalTo(GlobalFeatureEnum.CEDD));
+        assertThat(requestCopy.images().get(1), equalTo(request.images().get(1)));
+        ImageBatchSearchRequest featureRequest = new ImageBatchSearchRequest("test").feature(GlobalFeatureEnum.CEDD).addFeature(randomBytes());
+        assertThat(assertRoundTrip(featureRequest, ImageBatchSearchRequest.class).features().get(0), equalTo(featureRequest.features().get(0)));
+
+        ShardImageBatchSearchRequest shardRequest = new ShardImageBatchSearchRequest(new ShardId("test", 1), request);
+        ShardImageBatchSearchRequest shardRequestCopy = assertRoundTrip(shardRequest, ShardImageBatchSearchRequest.class);
+        assertThat(shardRequestCopy.shardId(), equalTo(shardRequest.shardId()));
+        assertThat(shardRequestCopy.size(), equalTo(request.size()));
+        ShardImageBatchSearchRequest shardFeatureRequest = new ShardImageBatchSearchRequest(new ShardId("test", 1), featureRequest);
+        assertThat(assertRoundTrip(shardFeatureRequest, ShardImageBatchSearchRequest.class).features().get(0),
+                equalTo(featureRequest.features().get(0)));
+
+        ImageBatchSearchResponse.Hit[][] hits = new ImageBatchSearchResponse.Hit[][]{
+                {new ImageBatchSearchResponse.Hit("test", "type", "1", 2f), new ImageBatchSearchResponse.Hit("test", "type", "2", 0.5f)}, {}};
+        assertRoundTrip(new ShardImageBatchSearchResponse(new ShardId("test", 1), hits), ShardImageBatchSearchResponse.class);
+        ImageBatchSearchResponse response = new ImageBatchSearchResponse(hits, 3, 2, 1, shardFailures());
+        ImageBatchSearchResponse responseCopy = assertRoundTrip(response, ImageBatchSearchResponse.class);
+        assertThat(responseCopy.getImageCount(), equalTo(2));
+        assertThat(responseCopy.getHits(0)[1].getId(), equalTo("2"));
+        assertXContent(responseCopy, response);
+        assertThat(ImageBatchSearchAction.INSTANCE.newResponse().getClass(), equalTo((Object) ImageBatchSearchResponse.class));
+    }
+
+    @Test
+    public void test_feature_lookup() throws Exception {
+        ImageFeatureLookupRequest request = new ImageFeatureLookupRequest("test", randomBoolean() ? null : "type", "1")
+                .routing(randomBoolean() ? null : "r").features(Arrays.asList(GlobalFeatureEnum.CEDD, GlobalFeatureEnum.JCD));
+        ImageFeatureLookupRequest requestCopy = assertRoundTrip(request, ImageFeatureLookupRequest.class);
+        assertThat(requestCopy.index(), equalTo("test"));
+        assertThat(requestCopy.type(), equalTo(request.type()));
+        assertThat(requestCopy.id(), equalTo("1"));
+        assertThat(requestCopy.routing(), equalTo(request.routing()));
+        assertThat(requestCopy.features(), equalTo(request.features()));
+
+        ImageFeatureLookupResponse response = new ImageFeatureLookupResponse(true, new byte[][]{randomBytes(), null});
+        ImageFeatureLookupResponse responseCopy = assertRoundTrip(response, ImageFeatureLookupResponse.class);
+        assertThat(responseCopy.isExists(), equalTo(true));
+        assertThat(responseCopy.getFeature(0), equalTo(response.getFeature(0)));
+        assertThat(responseCopy.getFeature(1), nullValue());
+        assertThat(ImageFeatureLookupAction.INSTANCE.newResponse().getClass(), equalTo((Object) ImageFeatureLookupResponse.class));
+    }
+
+    @Test
+    public void test_stats() throws Exception {
+        assertRoundTrip(new ImageStatsRequest("node_1"), ImageStatsRequest.class);
+        assertRoundTrip(new TransportImageStatsAction.NodeRequest("node_1", new ImageStatsRequest()), TransportImageStatsAction.NodeRequest.class);
+
+        ImageService imageService = new ImageService(Settings.EMPTY);
+        imageService.metrics().index("test").feature(GlobalFeatureEnum.CEDD).onExtract(randomIntBetween(1, 1000));
+        imageService.duplicateJobs().start("job", new ShardId("test", 0)).onBlock(randomIntBetween(1, 1000));
+        NodeImageStats nodeStats = new NodeImageStats(NODE, imageService);
+        NodeImageStats nodeStatsCopy = assertRoundTrip(nodeStats, NodeImageStats.class);
+        assertThat(nodeStatsCopy.getDuplicateJobs().size(), equalTo(1));
+
+        ImageStatsResponse response = new ImageStatsResponse(new ClusterName("cluster"), new NodeImageStats[]{nodeStats});
+        ImageStatsResponse responseCopy = assertRoundTrip(response, ImageStatsResponse.class);
+        assertXContent(responseCopy, response);
+        assertThat(ImageStatsAction.INSTANCE.newResponse().getClass(), equalTo((Object) ImageStatsResponse.class));
+    }
+
+    @Test
+    public void test_hash_train() throws Exception {
+        ImageHashTrainRequest request = new ImageHashTrainRequest("test").feature(GlobalFeatureEnum.JCD).hashingMode(HashingMode.LSH)
+                .sampleSize(randomIntBetween(1, 10000)).seed(randomLong()).tables(randomIntBetween(1, 10)).bits(randomIntBetween(1, 20))
+                .buckets(randomIntBetween(1, 20)).projections(randomIntBetween(1, 20));
+        ImageHashTrainRequest requestCopy = assertRoundTrip(request, ImageHashTrainRequest.class);
+        assertThat(requestCopy.hashingMode(), equalTo(HashingMode.LSH));
+        assertThat(requestCopy.seed(), equalTo(request.seed()));
+        assertThat(requestCopy.referencePoints(), equalTo(-1));
+
+        ShardImageHashTrainRequest shardRequest = new ShardImageHashTrainRequest(new ShardId("test", 2), request, randomIntBetween(1, 100));
+        ShardImageHashTrainRequest shardRequestCopy = assertRoundTrip(shardRequest, ShardImageHashTrainRequest.class);
+        assertThat(shardRequestCopy.sampleSize(), equalTo(shardRequest.sampleSize()));
+
+        assertRoundTrip(new ShardImageHashTrainResponse(new ShardId("test", 2), Collections.singletonList(randomBytes())),
+                ShardImageHashTrainResponse.class);
+        // a single entry, the hash map read back may iterate several entries in another order
+        Map<String, Object> hashParameters = new HashMap<>();
+        hashParameters.put("offsets", new ArrayList<>(Collections.singletonList(0.5)));
+        ImageHashTrainResponse response = new ImageHashTrainResponse(randomIntBetween(0, 10000), hashParameters, 1, 1, 0, null);
+        ImageHashTrainResponse responseCopy = assertRoundTrip(response, ImageHashTrainResponse.class);
+        assertThat(responseCopy.getHashParameters(), equalTo(hashParameters));
+        assertXContent(responseCopy, response);
+        assertRoundTrip(new ImageHashTrainResponse(0, null, 1, 0, 1, shardFailures()), ImageHashTrainResponse.class);
+        assertThat(ImageHashTrainAction.INSTANCE.newResponse().getClass(), equalTo((Object) ImageHashTrainResponse.class));
+    }
+
+    @Test
+    public void test_duplicates() throws Exception {
+        ImageDuplicatesRequest request = new ImageDuplicatesRequest("test").jobId("job").field("img").hammingDistance(randomIntBetween(0, 64))
+                .maxBlockSize(randomIntBetween(2, 10000)).size(randomIntBetween(0, 1000)).writeIndex(randomBoolean() ? "dedup" : null);
+        ImageDuplicatesRequest requestCopy = assertRoundTrip(request, ImageDuplicatesRequest.class);
+        assertThat(requestCopy.feature(), equalTo(null));
+        assertThat(requestCopy.writeIndex(), equalTo(request.writeIndex()));
+        assertRoundTrip(request.feature(GlobalFeatureEnum.PHOG).maxDistance(randomDouble()), ImageDuplicatesRequest.class);
+
+        ShardImageDuplicatesRequest shardRequest = new ShardImageDuplicatesRequest(new ShardId("test", 0), request);
+        ShardImageDuplicatesRequest shardRequestCopy = assertRoundTrip(shardRequest, ShardImageDuplicatesRequest.class);
+        assertThat(shardRequestCopy.jobId(), equalTo("job"));
+        assertThat(shardRequestCopy.feature(), equalTo(GlobalFeatureEnum.PHOG));
+
+        DuplicateJobs.ShardJobStats stats = new DuplicateJobs().start("job", new ShardId("test", 0)).stats();
+        List<DuplicateCluster> clusters = new ArrayList<>();
+        clusters.add(new DuplicateCluster("test", new String[]{"type", "type"}, new String[]{"1", "2"}));
+        clusters.add(new DuplicateCluster("test", new String[]{"type", "other", "type"}, new String[]{"3", "4", "5"}));
+        assertRoundTrip(new ShardImageDuplicatesResponse(new ShardId("test", 0), stats, 10, 10, clusters), ShardImageDuplicatesResponse.class);
+        ImageDuplicatesResponse response = new ImageDuplicatesResponse("job", randomBoolean(), 5, 1, 20, 10, 10, clusters, 2, 1, 1, shardFailures());
+        ImageDuplicatesResponse responseCopy = assertRoundTrip(response, ImageDuplicatesResponse.class);
+        assertThat(responseCopy.getClusters().get(1).getType(1), equalTo("other"));
+        assertXContent(responseCopy, response);
+        assertThat(ImageDuplicatesAction.INSTANCE.newResponse().getClass(), equalTo((Object) ImageDuplicatesResponse.class));
+    }
+
+    @Test
+    public void test_duplicates_cancel() throws Exception {
+        ImageDuplicatesCancelRequest request = new ImageDuplicatesCancelRequest("job", "node_1");
+        assertThat(assertRoundTrip(request, ImageDuplicatesCancelRequest.class).jobId(), equalTo("job"));
+        assertRoundTrip(new TransportImageDuplicatesCancelAction.NodeRequest("node_1", request), TransportImageDuplicatesCancelAction.NodeRequest.class);
+
+        NodeDuplicatesCancel nodeCancel = new NodeDuplicatesCancel(NODE, randomIntBetween(0, 10));
+        assertRoundTrip(nodeCancel, NodeDuplicatesCancel.class);
+        ImageDuplicatesCancelResponse response = new ImageDuplicatesCancelResponse(new ClusterName("cluster"), new NodeDuplicatesCancel[]{nodeCancel});
+        ImageDuplicatesCancelResponse responseCopy = assertRoundTrip(response, ImageDuplicatesCancelResponse.class);
+        assertThat(responseCopy.getCancelledShards(), equalTo(nodeCancel.getCancelledShards()));
+        assertXContent(responseCopy, response);
+        assertThat(ImageDuplicatesCancelAction.INSTANCE.newResponse().getClass(), equalTo((Object) ImageDuplicatesCancelResponse.class));
+    }
+
+    /**
+     * Read the serialized object into a new instance and check it serializes to the same bytes
+     */
+    private static <T extends Streamable> T assertRoundTrip(T original, Class<T> clazz) throws Exception {
+        BytesReference bytes = serialize(original);
+        T copy = newInstance(clazz);
+        StreamInput in = StreamInput.wrap(bytes);
+        copy.readFrom(in);
+        assertThat(clazz.getSimpleName() + " left unread bytes", in.available(), equalTo(0));
+        assertThat(clazz.getSimpleName(), serialize(copy), equalTo(bytes));
+        return copy;
+    }
+
+    /**
+     * The transport layer creates requests with the public no-arg constructor, actions create responses themselves
+     */
+    private static <T> T newInstance(Class<T> clazz) throws Exception {
+        if (TransportRequest.class.isAssignableFrom(clazz)) {
+            assertTrue(clazz.getName() + " must be public", Modifier.isPublic(clazz.getModifiers()));
+            return clazz.getConstructor().newInstance();
+        }
+        Constructor<T> constructor = clazz.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        return constructor.newInstance();
+    }
+
+    private static BytesReference serialize(Streamable streamable) throws Exception {
+        BytesStreamOutput out = new BytesStreamOutput();
+        streamable.writeTo(out);
+        return out.bytes();
+    }
+
+    private static void assertXContent(ToXContent copy, ToXContent original) throws Exception {
+        assertThat(toJson(copy), equalTo(toJson(original)));
+    }
+
+    private static String toJson(ToXContent toXContent) throws Exception {
+        XContentBuilder builder = jsonBuilder().startObject();
+        toXContent.toXContent(builder, ToXContent.EMPTY_PARAMS);
+        return builder.endObject().string();
+    }
+
+    private static List<ShardOperationFailedException> shardFailures() {
+        List<ShardOperationFailedException> failures = new ArrayList<>();
+        failures.add(new DefaultShardOperationFailedException("test", 1, new IllegalArgumentException("failure")));
+        return failures;
+    }
+
+    private static byte[] randomBytes() {
+        byte[] bytes = new byte[randomIntBetween(0, 100)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = randomByte();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,51 @@
+package org.elasticsearch.action.image;
+
+import net.semanticmetadata.lire.imageanalysis.features.global.CEDD;
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.test.ESTestCase;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+public class ImageBatchSearchRequestTests extends ESTestCase {
+
+    @Test
+    public void test_size_is_bounded() {
+        ImageBatchSearchRequest request = new ImageBatchSearchRequest("test").feature(GlobalFeatureEnum.CEDD).addImage(new byte[]{1});
+        assertThat(request.size(randomIntBetween(1, ImageBatchSearchRequest.MAX_SIZE)).validate(), nullValue());
+        String error = "size must be between 1 and " + ImageBatchSearchRequest.MAX_SIZE;
+        assertValidationError(request.size(0), error);
+        assertValidationError(request.size(randomIntBetween(ImageBatchSearchRequest.MAX_SIZE + 1, Integer.MAX_VALUE)), error);
+    }
+
+    @Test
+    public void test_precomputed_features() {
+        BufferedImage image = new BufferedImage(32, 32, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 32; y++) {
+            for (int x = 0; x < 32; x++) {
+                image.setRGB(x, y, x * 0x080000 + y * 0x000800);
+            }
+        }
+        CEDD cedd = new CEDD();
+        cedd.extract(image);
+        ImageBatchSearchRequest request = new ImageBatchSearchRequest("test").feature(GlobalFeatureEnum.CEDD);
+        assertValidationError(request, "no query images or features");
+        assertThat(request.addFeature(cedd.getByteArrayRepresentation()).validate(), nullValue());
+        assertThat(request.queryCount(), equalTo(1));
+        assertValidationError(request.addFeature(new byte[]{1, 2, 3}), "Invalid precomputed [CEDD] feature of [3] bytes");
+
+        ImageBatchSearchRequest mixed = new ImageBatchSearchRequest("test").feature(GlobalFeatureEnum.CEDD)
+                .addImage(new byte[]{1}).addFeature(cedd.getByteArrayRepresentation());
+        assertValidationError(mixed, "query images and features can't be mixed");
+    }
+
+    private static void assertValidationError(ImageBatchSearchRequest request, String error) {
+        ActionRequestValidationException e = request.validate();
+        assertThat(e.validationErrors(), contains(error));
+    }
+}
@@ -0,0 +1,38 @@
+package org.elasticsearch.action.image;
+
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.index.query.image.DuplicateJoin;
+import org.elasticsearch.test.ESTestCase;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.nullValue;
+
+public class ImageDuplicatesRequestTests extends ESTestCase {
+
+    @Test
+    public void test_hamming_distance_is_bounded_by_chunks() {
+        ImageDuplicatesRequest request = new ImageDuplicatesRequest("test").field("img");
+        assertThat(request.hammingDistance(randomIntBetween(0, DuplicateJoin.MAX_HAMMING_DISTANCE)).validate(), nullValue());
+        assertValidationError(request.hammingDistance(randomIntBetween(DuplicateJoin.MAX_HAMMING_DISTANCE + 1, 64)),
+                "hamming_distance must be at most " + DuplicateJoin.MAX_HAMMING_DISTANCE);
+        assertValidationError(request.hammingDistance(-1), "either feature or hamming_distance is required");
+        // hash terms of a feature are not chunks
+        assertThat(request.feature(GlobalFeatureEnum.CEDD).maxDistance(2).validate(), nullValue());
+    }
+
+    @Test
+    public void test_max_block_size_is_bounded() {
+        ImageDuplicatesRequest request = new ImageDuplicatesRequest("test").feature(GlobalFeatureEnum.CEDD).maxDistance(2);
+        assertThat(request.maxBlockSize(randomIntBetween(2, DuplicateJoin.MAX_BLOCK_SIZE)).validate(), nullValue());
+        String error = "max_block_size must be between 2 and " + DuplicateJoin.MAX_BLOCK_SIZE;
+        assertValidationError(request.maxBlockSize(1), error);
+        assertValidationError(request.maxBlockSize(randomIntBetween(DuplicateJoin.MAX_BLOCK_SIZE + 1, Integer.MAX_VALUE)), error);
+    }
+
+    private static void assertValidationError(ImageDuplicatesRequest request, String error) {
+        ActionRequestValidationException e = request.validate();
+        assertThat(e.validationErrors(), contains(error));
+    }
+}
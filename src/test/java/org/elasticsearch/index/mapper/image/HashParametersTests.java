@@ -0,0 +1,229 @@
+package org.elasticsearch.index.mapper.image;
+
+import net.semanticmetadata.lire.builders.GlobalDocumentBuilder.HashingMode;
+import net.semanticmetadata.lire.imageanalysis.features.GlobalFeature;
+import net.semanticmetadata.lire.imageanalysis.features.global.CEDD;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.index.mapper.MapperParsingException;
+import org.elasticsearch.test.ESTestCase;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
+
+public class HashParametersTests extends ESTestCase {
+
+    @Test
+    public void test_bit_sampling_thresholds_are_medians() throws Exception {
+        // an odd sample of distinct features, so exactly half of the others are above the median of a projection
+        List<GlobalFeature> sample = sample(2 * randomIntBetween(10, 30) + 1);
+        int tables = randomIntBetween(1, 5);
+        int bits = randomIntBetween(1, 12);
+        HashParameters parameters = HashParameters.train(HashingMode.BitSampling, sample, randomLong(), tables, bits, -1);
+        int[][] onCounts = new int[tables][bits];
+        for (GlobalFeature feature : sample) {
+            long[] terms = terms(parameters.hashString(feature));
+            assertThat(terms.length, equalTo(tables));
+            for (int table = 0; table < tables; table++) {
+                assertThat(table(terms[table]), equalTo(table));
+                for (int bit = 0; bit < bits; bit++) {
+                    if ((code(terms[table]) & (1 << bit)) != 0) {
+                        onCounts[table][bit]++;
+                    }
+                }
+            }
+        }
+        // CEDD histograms are non negative, yet no bit is constant
+        for (int table = 0; table < tables; table++) {
+            for (int bit = 0; bit < bits; bit++) {
+                assertThat(onCounts[table][bit], equalTo(sample.size() / 2));
+            }
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test_lsh_bucket_widths_fit_sample() throws Exception {
+        List<GlobalFeature> sample = sample(randomIntBetween(40, 100));
+        int tables = randomIntBetween(1, 5);
+        int buckets = randomIntBetween(2, 16);
+        // one projection per table, so the term is the bucket
+        HashParameters parameters = HashParameters.train(HashingMode.LSH, sample, randomLong(), tables, buckets, 1);
+        int[] inRange = new int[tables];
+        List<Set<Integer>> distinct = new ArrayList<>();
+        for (int table = 0; table < tables; table++) {
+            distinct.add(new HashSet<Integer>());
+        }
+        for (GlobalFeature feature : sample) {
+            long[] terms = terms(parameters.hashString(feature));
+            for (int table = 0; table < tables; table++) {
+                int bucket = code(terms[table]);
+                distinct.get(table).add(bucket);
+                if (bucket >= 0 && bucket <= buckets) {
+                    inRange[table]++;
+                }
+            }
+        }
+        // the 5th to 95th percentile spans the buckets, the first bucket is shifted by less than a width
+        int percentiles = (int) (sample.size() * 0.95) - (int) (sample.size() * 0.05) + 1;
+        for (int table = 0; table < tables; table++) {
+            assertThat(inRange[table], greaterThanOrEqualTo(percentiles));
+            assertThat(distinct.get(table).contains(0), equalTo(true));
+            assertThat(distinct.get(table).size(), greaterThan(1));
+        }
+
+        List<Object> widths = (List<Object>) options(parameters).get(HashParameters.WIDTHS);
+        assertThat(widths.size(), equalTo(tables));
+        for (Object width : widths) {
+            assertThat(((Number) width).doubleValue(), greaterThan(0d));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test_lsh_constant_sample() throws Exception {
+        List<GlobalFeature> sample = Collections.nCopies(randomIntBetween(1, 10), sample(1).get(0));
+        HashParameters parameters = HashParameters.train(HashingMode.LSH, sample, randomLong(), 2, -1, -1);
+        // the sample has no spread, widths fall back to 1 instead of dividing by 0
+        for (Object width : (List<Object>) options(parameters).get(HashParameters.WIDTHS)) {
+            assertThat(((Number) width).doubleValue(), equalTo(1d));
+        }
+        terms(parameters.hashString(sample.get(0)));
+    }
+
+    @Test
+    public void test_round_trip_through_mapping() throws Exception {
+        List<GlobalFeature> sample = sample(randomIntBetween(20, 40));
+        HashingMode hashingMode = randomFrom(HashingMode.BitSampling, HashingMode.LSH, HashingMode.MetricSpaces);
+        HashParameters parameters = HashParameters.train(hashingMode, sample, randomLong(), randomIntBetween(1, 10),
+                randomIntBetween(2, 10), randomIntBetween(1, 3));
+        HashParameters parsed = parse(options(parameters));
+        assertThat(parsed, equalTo(parameters));
+        assertThat(parsed.hashingMode(), equalTo(hashingMode));
+        // projections are drawn again from the seed, so docs and queries hash the same on every node
+        for (GlobalFeature feature : sample) {
+            assertThat(parsed.hashString(feature), equalTo(parameters.hashString(feature)));
+        }
+    }
+
+    @Test
+    public void test_seed_draws_projections() throws Exception {
+        List<GlobalFeature> sample = sample(randomIntBetween(20, 40));
+        HashingMode hashingMode = randomFrom(HashingMode.BitSampling, HashingMode.LSH);
+        long seed = randomLong();
+        HashParameters parameters = HashParameters.train(hashingMode, sample, seed, 10, -1, -1);
+        assertThat(HashParameters.train(hashingMode, sample, seed, 10, -1, -1), equalTo(parameters));
+
+        Map<String, Object> options = options(parameters);
+        options.put(HashParameters.SEED, seed + 1);
+        HashParameters otherSeed = parse(options);
+        assertThat(otherSeed, not(equalTo(parameters)));
+        boolean differs = false;
+        for (GlobalFeature feature : sample) {
+            differs |= !otherSeed.hashString(feature).equals(parameters.hashString(feature));
+        }
+        assertTrue("another seed should draw other projections", differs);
+    }
+
+    @Test
+    public void test_reject_malformed_parameters() throws Exception {
+        Map<String, Object> options = options(HashParameters.train(HashingMode.BitSampling, sample(5), randomLong(), 2, 4, -1));
+        options.put(HashParameters.BITS, 5);
+        assertMalformed(options, "Malformed [hash_parameters] of feature [CEDD]");
+        options.remove(HashParameters.BITS);
+        assertMalformed(options, "Malformed [hash_parameters] of feature [CEDD]");
+        options.remove(HashParameters.MODE);
+        assertMalformed(options, "[hash_parameters] of feature [CEDD] requires [mode]");
+        assertMalformed(Collections.<String, Object>singletonMap(HashParameters.MODE, HashingMode.None.name()),
+                "Hash [None] of feature [CEDD] can not be trained");
+        assertThat(HashParameters.parse(GlobalFeatureEnum.CEDD, Collections.<String, Object>emptyMap()), equalTo(null));
+    }
+
+    @Test
+    public void test_reject_empty_sample() {
+        try {
+            HashParameters.train(HashingMode.LSH, Collections.<GlobalFeature>emptyList(), randomLong(), -1, -1, -1);
+            fail("training without features should be rejected");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), equalTo("Hash functions can not be trained without features"));
+        }
+    }
+
+    private static void assertMalformed(Map<String, Object> options, String message) {
+        try {
+            parse(options);
+            fail("expected malformed hash parameters");
+        } catch (MapperParsingException e) {
+            assertThat(e.getMessage(), equalTo(message));
+        }
+    }
+
+    private static HashParameters parse(Map<String, Object> options) {
+        return HashParameters.parse(GlobalFeatureEnum.CEDD, Collections.<String, Object>singletonMap(HashParameters.HASH_PARAMETERS, options));
+    }
+
+    /**
+     * Options as they are read back from the mapping
+     */
+    private static Map<String, Object> options(HashParameters parameters) throws Exception {
+        XContentBuilder builder = jsonBuilder().startObject();
+        parameters.toXContent(builder);
+        return new HashMap<>(XContentHelper.convertToMap(builder.endObject().bytes(), true).v2());
+    }
+
+    private static long[] terms(String hashString) {
+        String[] strings = hashString.split(" ");
+        long[] terms = new long[strings.length];
+        for (int i = 0; i < strings.length; i++) {
+            terms[i] = Long.parseLong(strings[i]);
+        }
+        return terms;
+    }
+
+    private static int table(long term) {
+        return (int) (term >>> 32);
+    }
+
+    private static int code(long term) {
+        return (int) term;
+    }
+
+    /**
+     * Features of distinct gradients
+     */
+    private static List<GlobalFeature> sample(int size) {
+        List<GlobalFeature> sample = new ArrayList<>(size);
+        Set<String> seen = new HashSet<>();
+        while (sample.size() < size) {
+            BufferedImage image = new BufferedImage(randomIntBetween(16, 64), randomIntBetween(16, 64), BufferedImage.TYPE_INT_RGB);
+            int base = randomInt(0xffffff);
+            int dx = randomInt(7);
+            int dy = randomInt(7);
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    image.setRGB(x, y, base + (x * dx + y * dy + randomInt(3)) * 0x010305);
+                }
+            }
+            CEDD feature = new CEDD();
+            feature.extract(image);
+            if (seen.add(Arrays.toString(feature.getFeatureVector()))) {
+                sample.add(feature);
+            }
+        }
+        return sample;
+    }
+}
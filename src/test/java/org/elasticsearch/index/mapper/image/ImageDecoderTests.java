@@ -0,0 +1,133 @@
+package org.elasticsearch.index.mapper.image;
+
+import net.semanticmetadata.lire.builders.DocumentBuilder;
+import org.elasticsearch.test.ESTestCase;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+public class ImageDecoderTests extends ESTestCase {
+
+    @Test
+    public void test_decode_thumbnail() throws Exception {
+        byte[] content = jpegWithThumbnail(image(640, 480), encode(image(160, 120)));
+        assertSize(ImageDecoder.decodeAsIndexed(content, randomIntBetween(1, 160), DocumentBuilder.MAX_IMAGE_DIMENSION), 160, 120);
+        assertSize(ImageDecoder.decodeThumbnail(ImageDecoder.readMetadata(content), 160, DocumentBuilder.MAX_IMAGE_DIMENSION), 160, 120);
+        // the thumbnail is scaled down like a decoded image
+        assertSize(ImageDecoder.decodeAsIndexed(content, 100, 100), 100, 75);
+    }
+
+    @Test
+    public void test_small_thumbnail_falls_back_to_image() throws Exception {
+        byte[] content = jpegWithThumbnail(image(640, 480), encode(image(160, 120)));
+        assertThat(ImageDecoder.decodeThumbnail(ImageDecoder.readMetadata(content), 161, DocumentBuilder.MAX_IMAGE_DIMENSION), nullValue());
+        assertSize(ImageDecoder.decodeAsIndexed(content, randomIntBetween(161, 640), DocumentBuilder.MAX_IMAGE_DIMENSION), 640, 480);
+    }
+
+    @Test
+    public void test_thumbnail_aspect_ratio() throws Exception {
+        // letterboxed thumbnails are not used
+        byte[] letterboxed = jpegWithThumbnail(image(640, 480), encode(image(160, 160)));
+        assertSize(ImageDecoder.decodeAsIndexed(letterboxed, 160, DocumentBuilder.MAX_IMAGE_DIMENSION), 640, 480);
+        byte[] rotated = jpegWithThumbnail(image(640, 480), encode(image(120, 160)));
+        assertSize(ImageDecoder.decodeAsIndexed(rotated, 160, DocumentBuilder.MAX_IMAGE_DIMENSION), 640, 480);
+        // a rounded side is within the tolerance
+        byte[] rounded = jpegWithThumbnail(image(643, 480), encode(image(160, 120)));
+        assertSize(ImageDecoder.decodeAsIndexed(rounded, 160, DocumentBuilder.MAX_IMAGE_DIMENSION), 160, 120);
+    }
+
+    @Test
+    public void test_disabled_thumbnail_decodes_image() throws Exception {
+        byte[] content = jpegWithThumbnail(image(640, 480), encode(image(160, 120)));
+        assertSize(ImageDecoder.decodeAsIndexed(content, 0, DocumentBuilder.MAX_IMAGE_DIMENSION), 640, 480);
+    }
+
+    @Test
+    public void test_missing_or_corrupt_thumbnail_decodes_image() throws Exception {
+        byte[] plain = encode(image(640, 480));
+        assertSize(ImageDecoder.decodeAsIndexed(plain, 160, DocumentBuilder.MAX_IMAGE_DIMENSION), 640, 480);
+        // bytes no image reader recognizes, a truncated JPEG would still decode partially
+        byte[] garbage = new byte[randomIntBetween(16, 256)];
+        Arrays.fill(garbage, (byte) randomIntBetween(1, 100));
+        byte[] corrupt = jpegWithThumbnail(image(640, 480), garbage);
+        assertSize(ImageDecoder.decodeAsIndexed(corrupt, 160, DocumentBuilder.MAX_IMAGE_DIMENSION), 640, 480);
+    }
+
+    @Test
+    public void test_decode_subsamples_large_images() throws Exception {
+        BufferedImage decoded = ImageDecoder.decode(encode(image(1000, 500)), 300);
+        assertSize(decoded, 300, 150);
+        assertThat(ImageDecoder.decode(new byte[]{1, 2, 3, 4}, 300), nullValue());
+    }
+
+    private static void assertSize(BufferedImage image, int width, int height) {
+        assertThat(image.getWidth() + "x" + image.getHeight(), equalTo(width + "x" + height));
+    }
+
+    private static BufferedImage image(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int base = randomInt(0xffffff);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, base + (x + y) * 0x010305);
+            }
+        }
+        return image;
+    }
+
+    private static byte[] encode(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", out);
+        return out.toByteArray();
+    }
+
+    /**
+     * JPEG of the image with an EXIF APP1 segment whose IFD1 holds the thumbnail, the layout of camera JPEGs
+     */
+    private static byte[] jpegWithThumbnail(BufferedImage image, byte[] thumbnail) throws IOException {
+        ByteArrayOutputStream tiffBytes = new ByteArrayOutputStream();
+        DataOutputStream tiff = new DataOutputStream(tiffBytes);
+        // big endian header, IFD0 at offset 8
+        tiff.writeShort(0x4D4D);
+        tiff.writeShort(42);
+        tiff.writeInt(8);
+        // IFD0 with the orientation, IFD1 right after it
+        tiff.writeShort(1);
+        writeEntry(tiff, 0x0112, 3, 1 << 16);
+        tiff.writeInt(8 + 18);
+        // IFD1 with a JPEG compressed thumbnail stored right after it
+        tiff.writeShort(3);
+        writeEntry(tiff, 0x0103, 3, 6 << 16);
+        writeEntry(tiff, 0x0201, 4, 8 + 18 + 42);
+        writeEntry(tiff, 0x0202, 4, thumbnail.length);
+        tiff.writeInt(0);
+        tiff.write(thumbnail);
+
+        byte[] jpeg = encode(image);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeShort(0xFFD8);
+        data.writeShort(0xFFE1);
+        data.writeShort(2 + 6 + tiffBytes.size());
+        data.write(new byte[]{'E', 'x', 'i', 'f', 0, 0});
+        tiffBytes.writeTo(data);
+        // the image without its start of image marker
+        data.write(jpeg, 2, jpeg.length - 2);
+        return out.toByteArray();
+    }
+
+    private static void writeEntry(DataOutputStream tiff, int tag, int type, int value) throws IOException {
+        tiff.writeShort(tag);
+        tiff.writeShort(type);
+        tiff.writeInt(1);
+        tiff.writeInt(value);
+    }
+}
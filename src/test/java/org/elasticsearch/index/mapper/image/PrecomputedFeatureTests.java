@@ -0,0 +1,55 @@
+package org.elasticsearch.index.mapper.image;
+
+import net.semanticmetadata.lire.imageanalysis.features.GlobalFeature;
+import org.elasticsearch.test.ESTestCase;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.equalTo;
+
+public class PrecomputedFeatureTests extends ESTestCase {
+
+    @Test
+    public void test_parse_extracted_features() throws Exception {
+        for (GlobalFeatureEnum globalFeatureEnum : new GlobalFeatureEnum[]{GlobalFeatureEnum.CEDD, GlobalFeatureEnum.COLOR_LAYOUT,
+                GlobalFeatureEnum.EDGE_HISTOGRAM, GlobalFeatureEnum.PHOG}) {
+            byte[] bytes = extract(globalFeatureEnum);
+            GlobalFeature feature = PrecomputedFeature.parse(globalFeatureEnum, bytes);
+            assertThat(globalFeatureEnum.name(), Arrays.equals(feature.getByteArrayRepresentation(), bytes), equalTo(true));
+        }
+    }
+
+    @Test
+    public void test_reject_wrong_length() throws Exception {
+        byte[] bytes = extract(GlobalFeatureEnum.EDGE_HISTOGRAM);
+        assertInvalid(GlobalFeatureEnum.EDGE_HISTOGRAM, Arrays.copyOf(bytes, bytes.length - 1 - randomInt(bytes.length - 2)));
+    }
+
+    @Test
+    public void test_reject_edge_histogram_bins_out_of_range() throws Exception {
+        byte[] bytes = extract(GlobalFeatureEnum.EDGE_HISTOGRAM);
+        int i = randomInt(bytes.length - 1);
+        // one nibble above the 3 bits LIRE quantizes bins to
+        int nibbles = bytes[i] + 128;
+        nibbles = randomBoolean() ? (nibbles & 0x0F) | randomIntBetween(PrecomputedFeature.EDGE_HISTOGRAM_MAX_BIN + 1, 15) << 4
+                : (nibbles & 0xF0) | randomIntBetween(PrecomputedFeature.EDGE_HISTOGRAM_MAX_BIN + 1, 15);
+        bytes[i] = (byte) (nibbles - 128);
+        assertInvalid(GlobalFeatureEnum.EDGE_HISTOGRAM, bytes);
+    }
+
+    private static void assertInvalid(GlobalFeatureEnum globalFeatureEnum, byte[] bytes) {
+        try {
+            PrecomputedFeature.parse(globalFeatureEnum, bytes);
+            fail("expected invalid [" + globalFeatureEnum.name() + "] feature");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), equalTo("Invalid precomputed [" + globalFeatureEnum.name() + "] feature of [" + bytes.length + "] bytes"));
+        }
+    }
+
+    private static byte[] extract(GlobalFeatureEnum globalFeatureEnum) throws Exception {
+        GlobalFeature feature = (GlobalFeature) globalFeatureEnum.getGlobalFeatureClass().newInstance();
+        feature.extract(PrecomputedFeature.referenceImage());
+        return feature.getByteArrayRepresentation();
+    }
+}
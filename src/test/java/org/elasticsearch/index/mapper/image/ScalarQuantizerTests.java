@@ -0,0 +1,100 @@
+package org.elasticsearch.index.mapper.image;
+
+import org.elasticsearch.index.mapper.MapperParsingException;
+import org.elasticsearch.test.ESTestCase;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class ScalarQuantizerTests extends ESTestCase {
+
+    @Test
+    public void test_round_trip() {
+        for (int iteration = 0; iteration < 100; iteration++) {
+            double[] vector = randomVector(randomIntBetween(1, 300));
+            byte[] code = ScalarQuantizer.encode(vector);
+            assertThat(code.length, equalTo(ScalarQuantizer.HEADER_SIZE + (vector.length + 1) / 2));
+            assertThat(ScalarQuantizer.dims(code, 0), equalTo(vector.length));
+            float min = ScalarQuantizer.min(code, 0);
+            float step = ScalarQuantizer.step(code, 0);
+            for (int i = 0; i < vector.length; i++) {
+                double decoded = min + level(code, 0, i) * step;
+                assertThat(Math.abs(vector[i] - decoded), lessThanOrEqualTo(step / 2.0 + 1e-6 * Math.abs(vector[i])));
+            }
+        }
+    }
+
+    @Test
+    public void test_code_layout() {
+        byte[] code = ScalarQuantizer.encode(new double[]{1, 16, 4, 7, 16});
+        assertThat(ScalarQuantizer.dims(code, 0), equalTo(5));
+        assertThat(ScalarQuantizer.min(code, 0), equalTo(1f));
+        assertThat(ScalarQuantizer.step(code, 0), equalTo(1f));
+        // levels 0, 15, 3, 6, 15, even dims in the high nibble, the last low nibble is padding
+        assertThat(code.length, equalTo(ScalarQuantizer.HEADER_SIZE + 3));
+        assertThat(code[ScalarQuantizer.HEADER_SIZE] & 0xFF, equalTo(0x0F));
+        assertThat(code[ScalarQuantizer.HEADER_SIZE + 1] & 0xFF, equalTo(0x36));
+        assertThat(code[ScalarQuantizer.HEADER_SIZE + 2] & 0xFF, equalTo(0xF0));
+    }
+
+    @Test
+    public void test_read_at_offset() {
+        double[] vector = randomVector(randomIntBetween(1, 300));
+        byte[] code = ScalarQuantizer.encode(vector);
+        int offset = randomIntBetween(1, 16);
+        byte[] padded = new byte[offset + code.length];
+        System.arraycopy(code, 0, padded, offset, code.length);
+        assertThat(ScalarQuantizer.dims(padded, offset), equalTo(vector.length));
+        assertThat(ScalarQuantizer.min(padded, offset), equalTo(ScalarQuantizer.min(code, 0)));
+        assertThat(ScalarQuantizer.step(padded, offset), equalTo(ScalarQuantizer.step(code, 0)));
+    }
+
+    @Test
+    public void test_constant_and_empty_vectors() {
+        byte[] code = ScalarQuantizer.encode(new double[]{3, 3, 3});
+        assertThat(ScalarQuantizer.min(code, 0), equalTo(3f));
+        assertThat(ScalarQuantizer.step(code, 0), equalTo(0f));
+        assertThat(level(code, 0, 0) + level(code, 0, 1) + level(code, 0, 2), equalTo(0));
+
+        code = ScalarQuantizer.encode(new double[0]);
+        assertThat(code.length, equalTo(ScalarQuantizer.HEADER_SIZE));
+        assertThat(ScalarQuantizer.dims(code, 0), equalTo(0));
+        assertThat(ScalarQuantizer.min(code, 0), equalTo(0f));
+        assertThat(ScalarQuantizer.step(code, 0), equalTo(0f));
+    }
+
+    @Test
+    public void test_parse() {
+        assertThat(ScalarQuantizer.parse("CEDD", Collections.<String, Object>emptyMap()), equalTo(false));
+        Map<String, Object> node = new HashMap<>();
+        node.put(ScalarQuantizer.QUANTIZE, ScalarQuantizer.SCALAR4);
+        assertThat(ScalarQuantizer.parse("CEDD", node), equalTo(true));
+        node.put(ScalarQuantizer.QUANTIZE, "pq");
+        try {
+            ScalarQuantizer.parse("CEDD", node);
+            fail("unknown quantization must be rejected");
+        } catch (MapperParsingException e) {
+            assertThat(e.getMessage(), equalTo("Unknown quantization [pq] for feature [CEDD]"));
+        }
+    }
+
+    static int level(byte[] code, int offset, int dim) {
+        int b = code[offset + ScalarQuantizer.HEADER_SIZE + (dim >> 1)];
+        return (dim & 1) == 0 ? (b >> 4) & 0xF : b & 0xF;
+    }
+
+    private static double[] randomVector(int dims) {
+        double min = randomDouble() * 100 - 50;
+        double range = randomBoolean() ? randomDouble() * 100 : randomDouble();
+        double[] vector = new double[dims];
+        for (int i = 0; i < dims; i++) {
+            vector[i] = min + randomDouble() * range;
+        }
+        return vector;
+    }
+}
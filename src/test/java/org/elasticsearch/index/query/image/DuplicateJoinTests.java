@@ -0,0 +1,299 @@
+package org.elasticsearch.index.query.image;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.index.mapper.image.PerceptualHash;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.plugin.image.DuplicateJobs;
+import org.elasticsearch.test.ESTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class DuplicateJoinTests extends ESTestCase {
+
+    private static final String FIELD_NAME = "img";
+    private static final PerceptualHash PERCEPTUAL_HASH = PerceptualHash.DHASH;
+    private static final int HAMMING_DISTANCE = 3;
+
+    private Long[] hashes;
+    private Directory directory;
+    private DirectoryReader reader;
+    private ExecutorService executor;
+
+    @Before
+    public void indexHashes() throws Exception {
+        long[] bases = new long[randomIntBetween(5, 50)];
+        for (int i = 0; i < bases.length; i++) {
+            bases[i] = randomLong();
+        }
+        hashes = new Long[randomIntBetween(200, 1000)];
+        directory = newDirectory();
+        // keep doc ids in insertion order, deleted docs included
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new KeywordAnalyzer()).setMergePolicy(NoMergePolicy.INSTANCE));
+        for (int doc = 0; doc < hashes.length; doc++) {
+            Document document = new Document();
+            document.add(new StringField("id", Integer.toString(doc), Field.Store.NO));
+            if (!rarely()) {
+                hashes[doc] = flipBits(bases[randomInt(bases.length - 1)], randomInt(5));
+                document.add(new NumericDocValuesField(PERCEPTUAL_HASH.hashFieldName(FIELD_NAME), hashes[doc]));
+                for (int i = 0; i < PerceptualHash.CHUNKS; i++) {
+                    document.add(new StringField(PERCEPTUAL_HASH.chunkFieldName(FIELD_NAME),
+                            PerceptualHash.chunkTerm(i, PerceptualHash.chunk(hashes[doc], i)), Field.Store.NO));
+                }
+            }
+            writer.addDocument(document);
+            if (rarely()) {
+                writer.commit();
+            }
+        }
+        for (int doc = 0; doc < hashes.length; doc++) {
+            if (rarely()) {
+                writer.deleteDocuments(new Term("id", Integer.toString(doc)));
+                hashes[doc] = null;
+            }
+        }
+        writer.close();
+        reader = DirectoryReader.open(directory);
+        executor = Executors.newFixedThreadPool(randomIntBetween(1, 4));
+    }
+
+    @After
+    public void closeReader() throws Exception {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        reader.close();
+        directory.close();
+    }
+
+    @Test
+    public void test_union_find() {
+        int size = randomIntBetween(1, 500);
+        DuplicateJoin.UnionFind unionFind = new DuplicateJoin.UnionFind(size);
+        int[] labels = new int[size];
+        for (int i = 0; i < size; i++) {
+            labels[i] = i;
+        }
+        int unions = randomInt(size);
+        for (int i = 0; i < unions; i++) {
+            int a = randomInt(size - 1);
+            int b = randomInt(size - 1);
+            unionFind.union(a, b);
+            relabel(labels, labels[a], labels[b]);
+        }
+        for (int a = 0; a < size; a++) {
+            int b = randomInt(size - 1);
+            assertThat(unionFind.find(a) == unionFind.find(b), equalTo(labels[a] == labels[b]));
+            // the root is the smallest doc of the cluster
+            assertThat(unionFind.find(a), lessThanOrEqualTo(a));
+        }
+        assertThat(normalize(unionFind.clusters()), equalTo(expectedClusters(labels)));
+    }
+
+    @Test
+    public void test_concurrent_unions() throws Exception {
+        final int size = randomIntBetween(100, 5000);
+        final int[][] pairs = new int[randomIntBetween(1, size)][];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = new int[]{randomInt(size - 1), randomInt(size - 1)};
+        }
+        DuplicateJoin.UnionFind sequential = new DuplicateJoin.UnionFind(size);
+        for (int[] pair : pairs) {
+            sequential.union(pair[0], pair[1]);
+        }
+        final DuplicateJoin.UnionFind concurrent = new DuplicateJoin.UnionFind(size);
+        int threads = randomIntBetween(2, 8);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            final int threadCount = threads;
+            Thread worker = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    for (int i = thread; i < pairs.length; i += threadCount) {
+                        concurrent.union(pairs[i][0], pairs[i][1]);
+                        concurrent.find(pairs[(i * 31) % pairs.length][0]);
+                    }
+                }
+            };
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertThat(normalize(concurrent.clusters()), equalTo(normalize(sequential.clusters())));
+    }
+
+    @Test
+    public void test_join_finds_connected_components() throws Exception {
+        Set<List<Integer>> expected = bruteForceClusters();
+        DuplicateJobs.ShardJob job = newJob();
+        List<int[]> clusters = join().join(null, 1, hashes.length, job);
+        assertThat(normalize(clusters), equalTo(expected));
+        for (int i = 1; i < clusters.size(); i++) {
+            assertThat(clusters.get(i - 1).length, greaterThanOrEqualTo(clusters.get(i).length));
+        }
+        DuplicateJobs.ShardJobStats stats = job.stats();
+        assertThat(stats.getBlocks(), equalTo(stats.getTotalBlocks()));
+        assertThat(stats.getSkippedBlocks(), equalTo(0L));
+    }
+
+    @Test
+    public void test_stripes_find_same_clusters() throws Exception {
+        Set<List<Integer>> expected = bruteForceClusters();
+        int stripes = randomIntBetween(2, 8);
+        DuplicateJobs.ShardJob job = newJob();
+        assertThat(normalize(join().join(executor, stripes, hashes.length, job)), equalTo(expected));
+        DuplicateJobs.ShardJobStats stats = job.stats();
+        // each block is joined by exactly one stripe
+        assertThat(stats.getBlocks(), equalTo(stats.getTotalBlocks()));
+        assertThat(stats.getComparedPairs(), greaterThan(0L));
+    }
+
+    @Test
+    public void test_rejected_stripes_run_on_caller() throws Exception {
+        Set<List<Integer>> expected = bruteForceClusters();
+        Executor rejecting = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new EsRejectedExecutionException("rejected");
+            }
+        };
+        DuplicateJobs.ShardJob job = newJob();
+        assertThat(normalize(join().join(rejecting, randomIntBetween(2, 8), hashes.length, job)), equalTo(expected));
+        assertThat(job.stats().getBlocks(), equalTo(job.stats().getTotalBlocks()));
+    }
+
+    @Test
+    public void test_large_blocks_are_skipped() throws Exception {
+        DuplicateJobs.ShardJob job = newJob();
+        assertThat(join().join(executor, randomIntBetween(1, 4), 1, job).size(), equalTo(0));
+        DuplicateJobs.ShardJobStats stats = job.stats();
+        assertThat(stats.getBlocks(), equalTo(stats.getTotalBlocks()));
+        assertThat(stats.getComparedPairs(), equalTo(0L));
+        assertThat(stats.getSkippedBlocks(), greaterThan(0L));
+    }
+
+    @Test
+    public void test_cancelled_join_stops() throws Exception {
+        DuplicateJobs jobs = new DuplicateJobs();
+        DuplicateJobs.ShardJob job = jobs.start("job", new ShardId("test", 0));
+        assertThat(jobs.cancel("other"), equalTo(0));
+        assertThat(jobs.cancel("job"), equalTo(1));
+        assertThat(join().join(executor, randomIntBetween(1, 4), hashes.length, job).size(), equalTo(0));
+        DuplicateJobs.ShardJobStats stats = job.stats();
+        assertThat(stats.isCancelled(), equalTo(true));
+        assertThat(stats.getBlocks(), equalTo(0L));
+        assertThat(stats.getComparedPairs(), equalTo(0L));
+    }
+
+    private DuplicateJoin join() {
+        return DuplicateJoin.perceptualHash(reader, FIELD_NAME, PERCEPTUAL_HASH, HAMMING_DISTANCE);
+    }
+
+    private static DuplicateJobs.ShardJob newJob() {
+        return new DuplicateJobs().start("job", new ShardId("test", 0));
+    }
+
+    /**
+     * Connected components of the docs within the Hamming distance, such pairs always share a chunk
+     */
+    private Set<List<Integer>> bruteForceClusters() {
+        int[] labels = new int[hashes.length];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = i;
+        }
+        for (int i = 0; i < hashes.length; i++) {
+            for (int j = i + 1; j < hashes.length; j++) {
+                if (hashes[i] != null && hashes[j] != null && Long.bitCount(hashes[i] ^ hashes[j]) <= HAMMING_DISTANCE) {
+                    relabel(labels, labels[i], labels[j]);
+                }
+            }
+        }
+        return expectedClusters(labels);
+    }
+
+    private static void relabel(int[] labels, int from, int to) {
+        if (from == to) {
+            return;
+        }
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i] == from) {
+                labels[i] = to;
+            }
+        }
+    }
+
+    private static Set<List<Integer>> expectedClusters(int[] labels) {
+        List<List<Integer>> byLabel = new ArrayList<>();
+        for (int i = 0; i < labels.length; i++) {
+            byLabel.add(new ArrayList<Integer>());
+        }
+        for (int doc = 0; doc < labels.length; doc++) {
+            byLabel.get(labels[doc]).add(doc);
+        }
+        Set<List<Integer>> clusters = new HashSet<>();
+        for (List<Integer> cluster : byLabel) {
+            if (cluster.size() > 1) {
+                clusters.add(cluster);
+            }
+        }
+        return clusters;
+    }
+
+    private static Set<List<Integer>> normalize(List<int[]> clusters) {
+        Set<List<Integer>> normalized = new HashSet<>();
+        for (int[] cluster : clusters) {
+            int[] sorted = cluster.clone();
+            Arrays.sort(sorted);
+            List<Integer> docs = new ArrayList<>(sorted.length);
+            for (int doc : sorted) {
+                docs.add(doc);
+            }
+            assertTrue(normalized.add(docs));
+        }
+        return normalized;
+    }
+
+    private static long flipBits(long hash, int flips) {
+        for (int i = 0; i < flips; i++) {
+            hash ^= 1L << randomInt(63);
+        }
+        return hash;
+    }
+}
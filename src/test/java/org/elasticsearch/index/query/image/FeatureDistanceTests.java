@@ -0,0 +1,123 @@
+package org.elasticsearch.index.query.image;
+
+import net.semanticmetadata.lire.imageanalysis.features.GlobalFeature;
+import net.semanticmetadata.lire.imageanalysis.features.LireFeature;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.test.ESTestCase;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+
+public class FeatureDistanceTests extends ESTestCase {
+
+    private static final GlobalFeatureEnum[] KERNEL_FEATURES = {GlobalFeatureEnum.CEDD, GlobalFeatureEnum.FCTH, GlobalFeatureEnum.JCD,
+            GlobalFeatureEnum.COLOR_LAYOUT, GlobalFeatureEnum.EDGE_HISTOGRAM, GlobalFeatureEnum.PHOG};
+
+    @Test
+    public void test_kernels_match_lire() throws Exception {
+        for (GlobalFeatureEnum globalFeatureEnum : KERNEL_FEATURES) {
+            // query and docs are compared as deserialized, like features read from the index
+            LireFeature queryFeature = deserialize(globalFeatureEnum, extract(globalFeatureEnum, randomImage()));
+            FeatureDistance distance = FeatureDistance.create(queryFeature, globalFeatureEnum);
+            for (int i = 0; i < 100; i++) {
+                byte[] bytes = extract(globalFeatureEnum, randomImage());
+                BytesRef featureBytes = atRandomOffset(bytes);
+                double expected = queryFeature.getDistance(deserialize(globalFeatureEnum, bytes));
+                assertThat(globalFeatureEnum.name(), distance.distance(featureBytes), equalTo(expected));
+                assertThat(globalFeatureEnum.name(), distance.distance(featureBytes, Double.POSITIVE_INFINITY), equalTo(expected));
+            }
+        }
+    }
+
+    @Test
+    public void test_bounded_distance() throws Exception {
+        for (GlobalFeatureEnum globalFeatureEnum : KERNEL_FEATURES) {
+            LireFeature queryFeature = deserialize(globalFeatureEnum, extract(globalFeatureEnum, randomImage()));
+            FeatureDistance distance = FeatureDistance.create(queryFeature, globalFeatureEnum);
+            for (int i = 0; i < 100; i++) {
+                BytesRef featureBytes = atRandomOffset(extract(globalFeatureEnum, randomImage()));
+                double exact = distance.distance(featureBytes);
+                double bound = exact * 2 * randomDouble();
+                double bounded = distance.distance(featureBytes, bound);
+                if (exact <= bound) {
+                    assertThat(globalFeatureEnum.name(), bounded, equalTo(exact));
+                } else {
+                    assertThat(globalFeatureEnum.name(), bounded, greaterThan(bound));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_blank_images() throws Exception {
+        BufferedImage blank = new BufferedImage(32, 32, BufferedImage.TYPE_INT_RGB);
+        for (GlobalFeatureEnum globalFeatureEnum : KERNEL_FEATURES) {
+            byte[] blankBytes = extract(globalFeatureEnum, blank);
+            LireFeature blankFeature = deserialize(globalFeatureEnum, blankBytes);
+            LireFeature queryFeature = deserialize(globalFeatureEnum, extract(globalFeatureEnum, randomImage()));
+            assertThat(globalFeatureEnum.name(), FeatureDistance.create(queryFeature, globalFeatureEnum).distance(atRandomOffset(blankBytes)),
+                    equalTo(queryFeature.getDistance(blankFeature)));
+            assertThat(globalFeatureEnum.name(), FeatureDistance.create(blankFeature, globalFeatureEnum).distance(atRandomOffset(blankBytes)),
+                    equalTo(blankFeature.getDistance(blankFeature)));
+        }
+    }
+
+    @Test
+    public void test_edge_histogram_bins_out_of_range() throws Exception {
+        GlobalFeatureEnum globalFeatureEnum = GlobalFeatureEnum.EDGE_HISTOGRAM;
+        LireFeature queryFeature = deserialize(globalFeatureEnum, extract(globalFeatureEnum, randomImage()));
+        byte[] bytes = extract(globalFeatureEnum, randomImage());
+        // high nibbles of 8 to 15, LIRE only writes bins of 0 to 7
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ((bytes[i] + 128 | 0x80) - 128);
+        }
+        double distance = FeatureDistance.create(queryFeature, globalFeatureEnum).distance(atRandomOffset(bytes));
+        assertThat(distance, greaterThanOrEqualTo(0.0));
+        assertThat(Double.isInfinite(distance), equalTo(false));
+    }
+
+    /**
+     * Copy into a larger array so kernels must honour the offset
+     */
+    private BytesRef atRandomOffset(byte[] bytes) {
+        int offset = randomIntBetween(1, 16);
+        byte[] padded = new byte[offset + bytes.length + randomIntBetween(0, 16)];
+        for (int i = 0; i < padded.length; i++) {
+            padded[i] = randomByte();
+        }
+        System.arraycopy(bytes, 0, padded, offset, bytes.length);
+        return new BytesRef(padded, offset, bytes.length);
+    }
+
+    static BufferedImage randomImage() {
+        int width = randomIntBetween(16, 96);
+        int height = randomIntBetween(16, 96);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int base = randomInt(0xffffff);
+        int dx = randomInt(7);
+        int dy = randomInt(7);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, base + (x * dx + y * dy + randomInt(3)) * 0x010305);
+            }
+        }
+        return image;
+    }
+
+    static byte[] extract(GlobalFeatureEnum globalFeatureEnum, BufferedImage image) throws Exception {
+        GlobalFeature feature = (GlobalFeature) globalFeatureEnum.getGlobalFeatureClass().newInstance();
+        feature.extract(image);
+        return feature.getByteArrayRepresentation();
+    }
+
+    static LireFeature deserialize(GlobalFeatureEnum globalFeatureEnum, byte[] bytes) throws Exception {
+        LireFeature feature = globalFeatureEnum.getGlobalFeatureClass().newInstance();
+        feature.setByteArrayRepresentation(bytes);
+        return feature;
+    }
+}
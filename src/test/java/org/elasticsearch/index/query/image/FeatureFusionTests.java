@@ -0,0 +1,186 @@
+package org.elasticsearch.index.query.image;
+
+import net.semanticmetadata.lire.imageanalysis.features.LireFeature;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.DefaultSimilarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.test.ESTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+
+public class FeatureFusionTests extends ESTestCase {
+
+    private static final GlobalFeatureEnum[] FEATURES = {GlobalFeatureEnum.CEDD, GlobalFeatureEnum.FCTH};
+
+    private Directory directory;
+    private DirectoryReader reader;
+
+    @Before
+    public void indexFeatures() throws Exception {
+        directory = newDirectory();
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new WhitespaceAnalyzer()));
+        for (int doc = randomIntBetween(20, 50); doc > 0; doc--) {
+            Document document = new Document();
+            BufferedImage image = FeatureDistanceTests.randomImage();
+            for (GlobalFeatureEnum globalFeatureEnum : FEATURES) {
+                // some docs miss the second feature
+                if (globalFeatureEnum == FEATURES[1] && rarely()) {
+                    continue;
+                }
+                LireFeature feature = FeatureDistanceTests.deserialize(globalFeatureEnum, FeatureDistanceTests.extract(globalFeatureEnum, image));
+                document.add(new BinaryDocValuesField(feature.getFieldName(), new BytesRef(feature.getByteArrayRepresentation())));
+            }
+            writer.addDocument(document);
+            if (rarely()) {
+                writer.commit();
+            }
+        }
+        writer.close();
+        reader = DirectoryReader.open(directory);
+    }
+
+    @After
+    public void closeReader() throws Exception {
+        reader.close();
+        directory.close();
+    }
+
+    @Test
+    public void test_score_normalization() throws Exception {
+        LireFeature[] queryFeatures = queryFeatures();
+        float[] weights = {1 + randomInt(3), 0.5f + randomInt(3)};
+        FeatureFusion fusion = fusion(queryFeatures, weights, FeatureFusion.Normalization.SCORE);
+        for (LeafReaderContext context : reader.leaves()) {
+            DocDistance fused = fusion.docDistance(context.reader());
+            DocDistance[] single = singleDistances(context, queryFeatures);
+            for (int doc = 0; doc < context.reader().maxDoc(); doc++) {
+                // a missing feature scores 0 but keeps its weight
+                double expectedScore = 0;
+                for (int i = 0; i < single.length; i++) {
+                    double distance = single[i].distance(doc);
+                    if (distance >= 0) {
+                        expectedScore += weights[i] * ImageQuery.distanceToScore(distance);
+                    }
+                }
+                expectedScore /= weights[0] + weights[1];
+                assertThat((double) ImageQuery.distanceToScore(fused.distance(doc)), closeTo(expectedScore, 1e-5));
+            }
+        }
+    }
+
+    @Test
+    public void test_distance_normalization() throws Exception {
+        LireFeature[] queryFeatures = queryFeatures();
+        float[] weights = {1 + randomInt(3), 0.5f + randomInt(3)};
+        FeatureFusion fusion = fusion(queryFeatures, weights, FeatureFusion.Normalization.DISTANCE);
+        for (LeafReaderContext context : reader.leaves()) {
+            DocDistance fused = fusion.docDistance(context.reader());
+            DocDistance[] single = singleDistances(context, queryFeatures);
+            for (int doc = 0; doc < context.reader().maxDoc(); doc++) {
+                double first = single[0].distance(doc);
+                double second = single[1].distance(doc);
+                if (second < 0) {
+                    // docs must have all features
+                    assertThat(fused.distance(doc), equalTo(-1d));
+                } else {
+                    assertThat(fused.distance(doc), closeTo((weights[0] * first + weights[1] * second) / (weights[0] + weights[1]), 1e-9));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_fused_query_scores() throws Exception {
+        LireFeature[] queryFeatures = queryFeatures();
+        FeatureFusion.Normalization normalization = randomFrom(FeatureFusion.Normalization.values());
+        FeatureFusion fusion = fusion(queryFeatures, new float[]{1, 1}, normalization);
+        IndexSearcher searcher = new IndexSearcher(reader);
+        searcher.setSimilarity(new DefaultSimilarity() {
+            @Override
+            public float queryNorm(float sumOfSquaredWeights) {
+                return 1f;
+            }
+        });
+        TopDocs topDocs = searcher.search(new ImageQuery.Builder(queryFeatures[0], FEATURES[0]).fusion(fusion).build(), reader.maxDoc());
+        int matching = 0;
+        for (LeafReaderContext context : reader.leaves()) {
+            DocDistance fused = fusion.docDistance(context.reader());
+            for (int doc = 0; doc < context.reader().maxDoc(); doc++) {
+                if (fused.distance(doc) >= 0) {
+                    matching++;
+                }
+            }
+        }
+        // in distance mode docs missing a feature do not match
+        assertThat(topDocs.totalHits, equalTo(normalization == FeatureFusion.Normalization.DISTANCE ? matching : reader.maxDoc()));
+        for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+            LeafReaderContext context = reader.leaves().get(ReaderUtil.subIndex(scoreDoc.doc, reader.leaves()));
+            double distance = fusion.docDistance(context.reader()).distance(scoreDoc.doc - context.docBase);
+            assertThat(scoreDoc.score, equalTo(ImageQuery.distanceToScore(distance)));
+        }
+    }
+
+    @Test
+    public void test_score_to_distance_inverts_distance_to_score() {
+        for (double distance : new double[]{0, 0.25, 1, 1.5, 20, 1000}) {
+            assertThat(FeatureFusion.scoreToDistance(ImageQuery.distanceToScore(distance)), closeTo(distance, 1e-4 * Math.max(1, distance)));
+        }
+        assertThat(FeatureFusion.scoreToDistance(0), equalTo(Double.MAX_VALUE));
+    }
+
+    @Test
+    public void test_parse_normalization() {
+        assertThat(FeatureFusion.Normalization.parse("score"), equalTo(FeatureFusion.Normalization.SCORE));
+        assertThat(FeatureFusion.Normalization.parse("Distance"), equalTo(FeatureFusion.Normalization.DISTANCE));
+        try {
+            FeatureFusion.Normalization.parse("rank");
+            fail("unknown normalization should be rejected");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), equalTo("Unknown normalization [rank], expected [score] or [distance]"));
+        }
+    }
+
+    private LireFeature[] queryFeatures() throws Exception {
+        BufferedImage image = FeatureDistanceTests.randomImage();
+        LireFeature[] queryFeatures = new LireFeature[FEATURES.length];
+        for (int i = 0; i < FEATURES.length; i++) {
+            queryFeatures[i] = FeatureDistanceTests.deserialize(FEATURES[i], FeatureDistanceTests.extract(FEATURES[i], image));
+        }
+        return queryFeatures;
+    }
+
+    private static FeatureFusion fusion(LireFeature[] queryFeatures, float[] weights, FeatureFusion.Normalization normalization) {
+        FeatureFusion.WeightedFeature[] weightedFeatures = new FeatureFusion.WeightedFeature[queryFeatures.length];
+        for (int i = 0; i < queryFeatures.length; i++) {
+            weightedFeatures[i] = new FeatureFusion.WeightedFeature(queryFeatures[i], FEATURES[i], weights[i]);
+        }
+        return new FeatureFusion(Arrays.asList(weightedFeatures), normalization);
+    }
+
+    private static DocDistance[] singleDistances(LeafReaderContext context, LireFeature[] queryFeatures) throws Exception {
+        DocDistance[] distances = new DocDistance[queryFeatures.length];
+        for (int i = 0; i < queryFeatures.length; i++) {
+            distances[i] = DocDistance.create(context.reader(), queryFeatures[i], FEATURES[i]);
+        }
+        return distances;
+    }
+}
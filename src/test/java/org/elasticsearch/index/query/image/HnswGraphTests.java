@@ -0,0 +1,214 @@
+package org.elasticsearch.index.query.image;
+
+import net.semanticmetadata.lire.imageanalysis.features.LireFeature;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.index.mapper.image.HnswParameters;
+import org.elasticsearch.test.ESTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class HnswGraphTests extends ESTestCase {
+
+    private static final String FIELD_NAME = "img.cedd";
+    private static final GlobalFeatureEnum FEATURE = GlobalFeatureEnum.CEDD;
+    private static final HnswParameters PARAMETERS = new HnswParameters(16, 100);
+
+    private Directory directory;
+    private DirectoryReader reader;
+    private byte[][] features;
+
+    @Before
+    public void indexFeatures() throws Exception {
+        int numDocs = HnswGraphCache.MIN_SEGMENT_SIZE + randomIntBetween(0, 500);
+        features = new byte[numDocs][];
+        directory = newDirectory();
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new KeywordAnalyzer()));
+        for (int doc = 0; doc < numDocs; doc++) {
+            Document document = new Document();
+            document.add(new StringField("id", Integer.toString(doc), StringField.Store.NO));
+            // some docs have no image
+            if (!rarely()) {
+                features[doc] = FeatureDistanceTests.extract(FEATURE, FeatureDistanceTests.randomImage());
+                document.add(new BinaryDocValuesField(FIELD_NAME, new BytesRef(features[doc])));
+            }
+            writer.addDocument(document);
+        }
+        writer.forceMerge(1);
+        writer.close();
+        reader = DirectoryReader.open(directory);
+    }
+
+    @After
+    public void closeReader() throws Exception {
+        reader.close();
+        directory.close();
+    }
+
+    @Test
+    public void test_recall() throws Exception {
+        LeafReader leaf = reader.leaves().get(0).reader();
+        HnswGraph graph = HnswGraph.build(leaf, FIELD_NAME, FEATURE, PARAMETERS);
+        int k = 10;
+        int ef = 2 * k;
+        int queries = 20;
+        int found = 0;
+        for (int i = 0; i < queries; i++) {
+            FeatureDistance distance = queryDistance();
+            double kthDistance = exactDistances(distance)[k - 1];
+            NeighborQueue nearest = graph.search(distance, new FeatureValues(leaf, FIELD_NAME), ef, null);
+            assertThat(nearest.size(), equalTo(ef));
+            List<Double> distances = new ArrayList<>();
+            while (nearest.size() > 0) {
+                distances.add(nearest.topDistance());
+                int doc = nearest.pop();
+                assertThat(features[doc], notNullValue());
+            }
+            // best k of the results, ties with the k-th exact neighbor count as found
+            for (int j = distances.size() - 1; j >= distances.size() - k; j--) {
+                if (distances.get(j) <= kthDistance) {
+                    found++;
+                }
+            }
+        }
+        assertThat((double) found / (k * queries), greaterThanOrEqualTo(0.9));
+    }
+
+    @Test
+    public void test_search_only_returns_accepted_docs() throws Exception {
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new KeywordAnalyzer()));
+        for (int doc = 0; doc < features.length; doc += 2) {
+            writer.deleteDocuments(new Term("id", Integer.toString(doc)));
+        }
+        writer.close();
+        DirectoryReader newReader = DirectoryReader.openIfChanged(reader);
+        reader.close();
+        reader = newReader;
+
+        LeafReader leaf = reader.leaves().get(0).reader();
+        HnswGraph graph = HnswGraph.build(leaf, FIELD_NAME, FEATURE, PARAMETERS);
+        NeighborQueue nearest = graph.search(queryDistance(), new FeatureValues(leaf, FIELD_NAME), 50, leaf.getLiveDocs());
+        assertThat(nearest.size(), equalTo(50));
+        while (nearest.size() > 0) {
+            assertThat(nearest.pop() % 2, equalTo(1));
+        }
+    }
+
+    @Test
+    public void test_cache_builds_on_query_thread_without_executor() throws Exception {
+        HnswGraphCache cache = new HnswGraphCache(Settings.EMPTY);
+        LeafReader leaf = reader.leaves().get(0).reader();
+        HnswGraph graph = cache.graph(leaf, FIELD_NAME, FEATURE, PARAMETERS);
+        assertThat(graph, notNullValue());
+        assertThat(cache.graph(leaf, FIELD_NAME, FEATURE, PARAMETERS), sameInstance(graph));
+        assertThat(cache.count(), equalTo(1L));
+    }
+
+    @Test
+    public void test_cache_schedules_build_on_executor() throws Exception {
+        HnswGraphCache cache = new HnswGraphCache(Settings.EMPTY);
+        final List<Runnable> builds = new ArrayList<>();
+        cache.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                builds.add(command);
+            }
+        });
+        LeafReader leaf = reader.leaves().get(0).reader();
+        assertThat(cache.graph(leaf, FIELD_NAME, FEATURE, PARAMETERS), nullValue());
+        // one build for concurrent misses
+        assertThat(cache.graph(leaf, FIELD_NAME, FEATURE, PARAMETERS), nullValue());
+        assertThat(builds.size(), equalTo(1));
+        // the build holds the segment open
+        assertThat(leaf.getRefCount(), equalTo(2));
+        builds.get(0).run();
+        assertThat(leaf.getRefCount(), equalTo(1));
+        assertThat(cache.graph(leaf, FIELD_NAME, FEATURE, PARAMETERS), notNullValue());
+        assertThat(builds.size(), equalTo(1));
+    }
+
+    @Test
+    public void test_warm_schedules_large_segments() throws Exception {
+        LeafReader leaf = reader.leaves().get(0).reader();
+        HnswGraphCache cache = new HnswGraphCache(Settings.builder().put(HnswGraphCache.WARM_MAX_DOCS_SETTING, leaf.maxDoc() - 1).build());
+        final List<Runnable> builds = new ArrayList<>();
+        cache.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                builds.add(command);
+            }
+        });
+        cache.warm(leaf, FEATURE, PARAMETERS);
+        assertThat(cache.count(), equalTo(0L));
+        assertThat(builds.size(), equalTo(1));
+        builds.get(0).run();
+        assertThat(cache.count(), equalTo(1L));
+
+        // smaller segments are built by the warmer itself
+        cache = new HnswGraphCache(Settings.builder().put(HnswGraphCache.WARM_MAX_DOCS_SETTING, leaf.maxDoc()).build());
+        cache.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                builds.add(command);
+            }
+        });
+        cache.warm(leaf, FEATURE, PARAMETERS);
+        assertThat(cache.count(), equalTo(1L));
+        assertThat(builds.size(), equalTo(1));
+    }
+
+    @Test
+    public void test_cache_drops_graphs_of_closed_segments() throws Exception {
+        HnswGraphCache cache = new HnswGraphCache(Settings.EMPTY);
+        LeafReader leaf = reader.leaves().get(0).reader();
+        cache.warm(leaf, FEATURE, PARAMETERS);
+        cache.warm(leaf, FEATURE, new HnswParameters(8, 50));
+        assertThat(cache.count(), equalTo(2L));
+        reader.close();
+        assertThat(cache.count(), equalTo(0L));
+        reader = DirectoryReader.open(directory);
+    }
+
+    private FeatureDistance queryDistance() throws Exception {
+        LireFeature queryFeature = FeatureDistanceTests.deserialize(FEATURE, FeatureDistanceTests.extract(FEATURE, FeatureDistanceTests.randomImage()));
+        return FeatureDistance.create(queryFeature, FEATURE);
+    }
+
+    private double[] exactDistances(FeatureDistance distance) {
+        List<Double> distances = new ArrayList<>();
+        for (byte[] feature : features) {
+            if (feature != null) {
+                distances.add(distance.distance(new BytesRef(feature)));
+            }
+        }
+        double[] sorted = new double[distances.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = distances.get(i);
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+}
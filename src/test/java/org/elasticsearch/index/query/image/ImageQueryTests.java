@@ -0,0 +1,362 @@
+package org.elasticsearch.index.query.image;
+
+import net.semanticmetadata.lire.builders.GlobalDocumentBuilder.HashingMode;
+import net.semanticmetadata.lire.imageanalysis.features.GlobalFeature;
+import net.semanticmetadata.lire.imageanalysis.features.LireFeature;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.LogDocMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.DefaultSimilarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.index.mapper.image.HnswParameters;
+import org.elasticsearch.index.mapper.image.ImageHashing;
+import org.elasticsearch.plugin.image.ImageMetrics;
+import org.elasticsearch.plugin.image.ImageStats;
+import org.elasticsearch.test.ESTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+
+public class ImageQueryTests extends ESTestCase {
+
+    private static final GlobalFeatureEnum FEATURE = GlobalFeatureEnum.CEDD;
+    // distances of these features rarely tie, so the docs a stage keeps are well defined
+    private static final GlobalFeatureEnum[] CASCADE_FEATURES = {GlobalFeatureEnum.FCTH, GlobalFeatureEnum.JCD};
+
+    private Directory directory;
+    private DirectoryReader reader;
+    private IndexSearcher searcher;
+    private byte[][] features;
+
+    @Before
+    public void indexFeatures() throws Exception {
+        ImageHashing.loadHashFunctions(HashingMode.BitSampling);
+        features = new byte[randomIntBetween(200, 400)][];
+        directory = newDirectory();
+        // keep doc ids in insertion order across segments
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new WhitespaceAnalyzer()).setMergePolicy(new LogDocMergePolicy()));
+        for (int doc = 0; doc < features.length; doc++) {
+            Document document = new Document();
+            document.add(new StringField("group", Integer.toString(doc % 2), Field.Store.NO));
+            BufferedImage image = FeatureDistanceTests.randomImage();
+            features[doc] = FeatureDistanceTests.extract(FEATURE, image);
+            LireFeature feature = FeatureDistanceTests.deserialize(FEATURE, features[doc]);
+            document.add(new BinaryDocValuesField(feature.getFieldName(), new BytesRef(features[doc])));
+            document.add(new TextField(ImageHashing.hashFieldName(feature.getFieldName()),
+                    ImageHashing.hashString(HashingMode.BitSampling, (GlobalFeature) feature), Field.Store.NO));
+            for (GlobalFeatureEnum cascadeFeature : CASCADE_FEATURES) {
+                LireFeature stageFeature = FeatureDistanceTests.deserialize(cascadeFeature, FeatureDistanceTests.extract(cascadeFeature, image));
+                document.add(new BinaryDocValuesField(stageFeature.getFieldName(), new BytesRef(stageFeature.getByteArrayRepresentation())));
+            }
+            writer.addDocument(document);
+            if (rarely()) {
+                writer.commit();
+            }
+        }
+        writer.close();
+        reader = DirectoryReader.open(directory);
+        searcher = new IndexSearcher(reader);
+    }
+
+    @After
+    public void closeReader() throws Exception {
+        reader.close();
+        directory.close();
+    }
+
+    @Test
+    public void test_boost() throws Exception {
+        // no query norm, scores are the distance score times the boost
+        searcher.setSimilarity(new DefaultSimilarity() {
+            @Override
+            public float queryNorm(float sumOfSquaredWeights) {
+                return 1f;
+            }
+        });
+        LireFeature queryFeature = queryFeature(FEATURE);
+        double[] distances = distances(queryFeature, FEATURE);
+        float boost = 0.5f + randomInt(4);
+        for (ImageQuery query : new ImageQuery[]{new ImageQuery.Builder(queryFeature, FEATURE).boost(boost).build(),
+                new ImageQuery.Builder(queryFeature, FEATURE).boost(boost).limit(10).build()}) {
+            TopDocs topDocs = searcher.search(query, 10);
+            assertThat(topDocs.scoreDocs.length, equalTo(10));
+            for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                assertThat(query.toString(), (double) scoreDoc.score,
+                        closeTo(ImageQuery.distanceToScore(distances[scoreDoc.doc]) * boost, 1e-5));
+            }
+        }
+    }
+
+    @Test
+    public void test_hash_candidates_match_full_scan() throws Exception {
+        LireFeature queryFeature = queryFeature(FEATURE);
+        Query hashQuery = hashQuery(queryFeature);
+        int limit = 10;
+        int candidates = randomIntBetween(limit, features.length);
+        TopDocs fullScan = searcher.search(new ImageQuery(queryFeature, FEATURE, 1.0f), limit);
+        TopDocs reranked = searcher.search(new ImageQuery.Builder(queryFeature, FEATURE).hashSearch(hashQuery, candidates).limit(limit).build(), limit);
+
+        // exact scores of the best hash candidates
+        Set<Integer> hashCandidates = new HashSet<>();
+        for (ScoreDoc scoreDoc : searcher.search(hashQuery, candidates).scoreDocs) {
+            hashCandidates.add(scoreDoc.doc);
+        }
+        double[] distances = distances(queryFeature, FEATURE);
+        List<Double> expectedScores = new ArrayList<>();
+        for (int doc : hashCandidates) {
+            expectedScores.add((double) ImageQuery.distanceToScore(distances[doc]));
+        }
+        Collections.sort(expectedScores, Collections.reverseOrder());
+        assertThat(reranked.scoreDocs.length, equalTo(limit));
+        for (int i = 0; i < limit; i++) {
+            assertThat(hashCandidates.contains(reranked.scoreDocs[i].doc), equalTo(true));
+            assertThat((double) reranked.scoreDocs[i].score, closeTo(expectedScores.get(i), 1e-5));
+        }
+
+        // all docs are candidates, re-ranking finds the hits of a full scan
+        reranked = searcher.search(new ImageQuery.Builder(queryFeature, FEATURE).hashSearch(hashQuery, features.length).limit(limit).build(), limit);
+        for (int i = 0; i < limit; i++) {
+            assertThat(reranked.scoreDocs[i].doc, equalTo(fullScan.scoreDocs[i].doc));
+            assertThat(reranked.scoreDocs[i].score, equalTo(fullScan.scoreDocs[i].score));
+        }
+    }
+
+    @Test
+    public void test_equals_and_hash_code() throws Exception {
+        LireFeature queryFeature = queryFeature(FEATURE);
+        LireFeature sameFeature = FeatureDistanceTests.deserialize(FEATURE, queryFeature.getByteArrayRepresentation());
+        double maxDistance = randomBoolean() ? -1 : randomDouble() * 10;
+        ImageQuery query = new ImageQuery.Builder(queryFeature, FEATURE).maxDistance(maxDistance).build();
+        ImageQuery same = new ImageQuery.Builder(sameFeature, FEATURE).maxDistance(maxDistance).build();
+        assertThat(query, equalTo(same));
+        assertThat(query.hashCode(), equalTo(same.hashCode()));
+        assertThat(query.equals(new ImageQuery.Builder(sameFeature, FEATURE).maxDistance(maxDistance + 1).build()), equalTo(false));
+        assertThat(query.equals(new ImageQuery.Builder(sameFeature, FEATURE).maxDistance(maxDistance).boost(2f).build()), equalTo(false));
+        assertThat(query.equals(new ImageQuery.Builder(queryFeature(FEATURE), FEATURE).maxDistance(maxDistance).build()), equalTo(false));
+
+        // candidates picked over the whole shard or depending on live docs and graphs, only equal to themselves
+        HnswGraphCache graphCache = new HnswGraphCache(Settings.EMPTY);
+        Query hashQuery = new TermQuery(new Term(ImageHashing.hashFieldName(queryFeature.getFieldName()), "1"));
+        ImageQuery.Builder[] builders = new ImageQuery.Builder[]{
+                new ImageQuery.Builder(queryFeature, FEATURE).hashSearch(hashQuery, 100),
+                new ImageQuery.Builder(queryFeature, FEATURE).graphSearch(graphCache, new HnswParameters(16, 100), 100),
+                new ImageQuery.Builder(queryFeature, FEATURE).quantizedSearch(100),
+                new ImageQuery.Builder(queryFeature, FEATURE).cascade(Collections.singletonList(
+                        new ImageQuery.CascadeStage(queryFeature(CASCADE_FEATURES[0]), CASCADE_FEATURES[0], 100))),
+                new ImageQuery.Builder(queryFeature, FEATURE).limit(10)};
+        for (ImageQuery.Builder builder : builders) {
+            ImageQuery shardQuery = builder.maxDistance(maxDistance).build();
+            assertThat(shardQuery, equalTo(shardQuery));
+            assertThat(shardQuery.toString(), shardQuery.equals(builder.build()), equalTo(false));
+            assertThat(shardQuery.toString(), shardQuery.equals(query), equalTo(false));
+            assertThat(shardQuery.toString(), query.equals(shardQuery), equalTo(false));
+        }
+    }
+
+    @Test
+    public void test_max_distance() throws Exception {
+        LireFeature queryFeature = queryFeature(FEATURE);
+        double[] distances = distances(queryFeature, FEATURE);
+        double[] sorted = distances.clone();
+        Arrays.sort(sorted);
+        double maxDistance = sorted[randomInt(sorted.length - 1)];
+        Set<Integer> expected = new HashSet<>();
+        Set<Integer> expectedInGroup = new HashSet<>();
+        for (int doc = 0; doc < distances.length; doc++) {
+            if (distances[doc] <= maxDistance) {
+                expected.add(doc);
+                if (doc % 2 == 0) {
+                    expectedInGroup.add(doc);
+                }
+            }
+        }
+        ImageQuery query = new ImageQuery.Builder(queryFeature, FEATURE).maxDistance(maxDistance).build();
+        assertThat(hits(query), equalTo(expected));
+
+        // the other clause leads, the distance is only checked in the second phase
+        BooleanQuery.Builder conjunction = new BooleanQuery.Builder();
+        conjunction.add(new TermQuery(new Term("group", "0")), BooleanClause.Occur.MUST);
+        conjunction.add(query, BooleanClause.Occur.FILTER);
+        assertThat(hits(conjunction.build()), equalTo(expectedInGroup));
+    }
+
+    @Test
+    public void test_metrics() throws Exception {
+        ImageMetrics metrics = new ImageMetrics();
+        LireFeature queryFeature = queryFeature(FEATURE);
+        // a full scan has no candidates and scores every doc once, all features are in doc values
+        searcher.search(new ImageQuery.Builder(queryFeature, FEATURE).metrics(metrics.index("test")).build(), 10);
+        ImageStats.FeatureStats stats = metrics.stats().getIndices().get("test").getFeatures().get(FEATURE);
+        assertThat(stats.getQueries(), equalTo(1L));
+        assertThat(stats.getCandidates(), equalTo(0L));
+        assertThat(stats.getScoredDocs(), equalTo((long) features.length));
+        assertThat(stats.getStoredFieldLoads(), equalTo(0L));
+
+        // only hash candidates are ranked
+        Query hashQuery = hashQuery(queryFeature);
+        int candidates = randomIntBetween(10, 50);
+        searcher.search(new ImageQuery.Builder(queryFeature, FEATURE).hashSearch(hashQuery, candidates).limit(10)
+                .metrics(metrics.index("test")).build(), 10);
+        long expectedCandidates = Math.min(candidates, searcher.count(hashQuery));
+        stats = metrics.stats().getIndices().get("test").getFeatures().get(FEATURE);
+        assertThat(stats.getQueries(), equalTo(2L));
+        assertThat(stats.getCandidates(), equalTo(expectedCandidates));
+        assertThat(stats.getScoredDocs(), equalTo(features.length + expectedCandidates));
+        assertThat(stats.getExtract().getCount(), equalTo(0L));
+    }
+
+    @Test
+    public void test_batch_search_of_precomputed_features() throws Exception {
+        List<byte[]> featureBytes = new ArrayList<>();
+        for (int i = randomIntBetween(1, 5); i > 0; i--) {
+            featureBytes.add(queryFeature(FEATURE).getByteArrayRepresentation());
+        }
+        LireFeature[] queryFeatures = ImageBatchSearch.precomputedFeatures(featureBytes, FEATURE);
+        // more than the docs, the queues are capped at the docs of the reader
+        int size = randomBoolean() ? 10 : Integer.MAX_VALUE;
+        TopDocs[] topDocs = new ImageBatchSearch(queryFeatures, FEATURE, size, -1).search(reader);
+        assertThat(topDocs.length, equalTo(featureBytes.size()));
+        for (int i = 0; i < topDocs.length; i++) {
+            double[] distances = distances(queryFeatures[i], FEATURE);
+            TopDocs expected = searcher.search(new ImageQuery(queryFeatures[i], FEATURE, 1f), Math.min(size, reader.maxDoc()));
+            assertThat(topDocs[i].scoreDocs.length, equalTo(expected.scoreDocs.length));
+            for (int j = 0; j < topDocs[i].scoreDocs.length; j++) {
+                ScoreDoc scoreDoc = topDocs[i].scoreDocs[j];
+                assertThat((double) scoreDoc.score, closeTo(ImageQuery.distanceToScore(distances[scoreDoc.doc]), 1e-5));
+                assertThat(scoreDoc.score, equalTo(expected.scoreDocs[j].score));
+            }
+        }
+    }
+
+    /**
+     * Feature of a new image, or of an indexed one so that some doc is at distance 0
+     */
+    private LireFeature queryFeature(GlobalFeatureEnum globalFeatureEnum) throws Exception {
+        if (globalFeatureEnum == FEATURE && randomBoolean()) {
+            return FeatureDistanceTests.deserialize(FEATURE, features[randomInt(features.length - 1)]);
+        }
+        return FeatureDistanceTests.deserialize(globalFeatureEnum, FeatureDistanceTests.extract(globalFeatureEnum, FeatureDistanceTests.randomImage()));
+    }
+
+    @Test
+    public void test_cascade_narrows_previous_stage() throws Exception {
+        LireFeature queryFeature = queryFeature(FEATURE);
+        int[] keeps = {randomIntBetween(50, 150), randomIntBetween(10, 49)};
+        List<ImageQuery.CascadeStage> stages = new ArrayList<>();
+        double[][] stageDistances = new double[CASCADE_FEATURES.length][];
+        for (int i = 0; i < CASCADE_FEATURES.length; i++) {
+            LireFeature stageFeature = queryFeature(CASCADE_FEATURES[i]);
+            stages.add(new ImageQuery.CascadeStage(stageFeature, CASCADE_FEATURES[i], keeps[i]));
+            stageDistances[i] = distances(stageFeature, CASCADE_FEATURES[i]);
+        }
+        double[] distances = distances(queryFeature, FEATURE);
+
+        // without other candidates the first stage ranks all docs
+        Set<Integer> allDocs = new HashSet<>();
+        for (int doc = 0; doc < features.length; doc++) {
+            allDocs.add(doc);
+        }
+        assertCascade(new ImageQuery.Builder(queryFeature, FEATURE).cascade(stages).build(), allDocs, keeps, stageDistances, distances);
+
+        // the first stage only ranks the hash candidates of the query feature
+        Query hashQuery = hashQuery(queryFeature);
+        int candidates = randomIntBetween(keeps[0], features.length);
+        Set<Integer> hashCandidates = new HashSet<>();
+        for (ScoreDoc scoreDoc : searcher.search(hashQuery, candidates).scoreDocs) {
+            hashCandidates.add(scoreDoc.doc);
+        }
+        assertCascade(new ImageQuery.Builder(queryFeature, FEATURE).hashSearch(hashQuery, candidates).cascade(stages).build(),
+                hashCandidates, keeps, stageDistances, distances);
+    }
+
+    /**
+     * Each stage keeps the closest docs among the docs kept by the previous stage, the query feature scores the docs of the last stage
+     */
+    private void assertCascade(ImageQuery query, Set<Integer> candidates, int[] keeps, double[][] stageDistances, double[] distances)
+            throws Exception {
+        Set<Integer> docs = candidates;
+        for (int i = 0; i < keeps.length; i++) {
+            docs = closest(docs, keeps[i], stageDistances[i]);
+        }
+        TopDocs topDocs = searcher.search(query, reader.maxDoc());
+        Set<Integer> hits = new HashSet<>();
+        for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+            hits.add(scoreDoc.doc);
+            assertThat((double) scoreDoc.score, closeTo(ImageQuery.distanceToScore(distances[scoreDoc.doc]), 1e-5));
+        }
+        assertThat(hits, equalTo(docs));
+    }
+
+    private static Set<Integer> closest(Set<Integer> docs, int keep, final double[] distances) {
+        List<Integer> ranked = new ArrayList<>(docs);
+        Collections.sort(ranked, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(distances[a], distances[b]);
+            }
+        });
+        return new HashSet<>(ranked.subList(0, Math.min(keep, ranked.size())));
+    }
+
+    private static Query hashQuery(LireFeature queryFeature) {
+        BooleanQuery.Builder hashQuery = new BooleanQuery.Builder();
+        hashQuery.setDisableCoord(true);
+        for (String hash : ImageHashing.hashString(HashingMode.BitSampling, (GlobalFeature) queryFeature).split(" ")) {
+            hashQuery.add(new TermQuery(new Term(ImageHashing.hashFieldName(queryFeature.getFieldName()), hash)), BooleanClause.Occur.SHOULD);
+        }
+        return hashQuery.build();
+    }
+
+    private Set<Integer> hits(Query query) throws Exception {
+        Set<Integer> hits = new HashSet<>();
+        for (ScoreDoc scoreDoc : searcher.search(query, reader.maxDoc()).scoreDocs) {
+            hits.add(scoreDoc.doc);
+        }
+        return hits;
+    }
+
+    /**
+     * Distances of all docs to the query, computed like the query does
+     */
+    private double[] distances(LireFeature queryFeature, GlobalFeatureEnum globalFeatureEnum) throws Exception {
+        double[] distances = new double[reader.maxDoc()];
+        for (LeafReaderContext context : reader.leaves()) {
+            DocDistance docDistance = DocDistance.create(context.reader(), queryFeature, globalFeatureEnum);
+            for (int doc = 0; doc < context.reader().maxDoc(); doc++) {
+                distances[context.docBase + doc] = docDistance.distance(doc);
+            }
+        }
+        return distances;
+    }
+}
@@ -0,0 +1,60 @@
+package org.elasticsearch.index.query.image;
+
+import net.semanticmetadata.lire.imageanalysis.features.LireFeature;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.test.ESTestCase;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+
+public class ImageRescorerTests extends ESTestCase {
+
+    @Test
+    public void test_score_modes() {
+        assertThat(ImageRescorer.ScoreMode.TOTAL.combine(2, 3), equalTo(5f));
+        assertThat(ImageRescorer.ScoreMode.MULTIPLY.combine(2, 3), equalTo(6f));
+        assertThat(ImageRescorer.ScoreMode.AVG.combine(2, 3), equalTo(2.5f));
+        assertThat(ImageRescorer.ScoreMode.MAX.combine(2, 3), equalTo(3f));
+        assertThat(ImageRescorer.ScoreMode.MIN.combine(2, 3), equalTo(2f));
+        assertThat(ImageRescorer.ScoreMode.parse("Multiply"), equalTo(ImageRescorer.ScoreMode.MULTIPLY));
+        try {
+            ImageRescorer.ScoreMode.parse("sum");
+            fail("unknown score mode should be rejected");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), equalTo("[image_rescore] illegal score_mode [sum]"));
+        }
+    }
+
+    @Test
+    public void test_combine_weights_both_scores() throws Exception {
+        float boost = 0.5f + randomInt(3);
+        float queryWeight = 0.5f + randomInt(3);
+        float rescoreQueryWeight = 0.5f + randomInt(3);
+        ImageRescorer.ScoreMode scoreMode = randomFrom(ImageRescorer.ScoreMode.values());
+        ImageRescorer.ImageRescoreContext context = context(boost, queryWeight, rescoreQueryWeight, scoreMode);
+        float firstPassScore = randomFloat() * 10;
+        double distance = randomDouble() * 20;
+        float expected = scoreMode.combine(firstPassScore * queryWeight, ImageQuery.distanceToScore(distance) * boost * rescoreQueryWeight);
+        assertThat(context.combine(firstPassScore, distance), equalTo(expected));
+    }
+
+    @Test
+    public void test_combine_keeps_first_pass_score_of_docs_without_feature() throws Exception {
+        float queryWeight = 0.5f + randomInt(3);
+        ImageRescorer.ImageRescoreContext context = context(1f, queryWeight, 0.5f + randomInt(3), randomFrom(ImageRescorer.ScoreMode.values()));
+        float firstPassScore = randomFloat() * 10;
+        assertThat(context.combine(firstPassScore, -1), equalTo(firstPassScore * queryWeight));
+    }
+
+    @Test
+    public void test_default_window() {
+        assertThat(new ImageRescorer.ImageRescoreContext().window(), equalTo(10));
+    }
+
+    private static ImageRescorer.ImageRescoreContext context(float boost, float queryWeight, float rescoreQueryWeight,
+                                                             ImageRescorer.ScoreMode scoreMode) throws Exception {
+        LireFeature feature = FeatureDistanceTests.deserialize(GlobalFeatureEnum.CEDD,
+                FeatureDistanceTests.extract(GlobalFeatureEnum.CEDD, FeatureDistanceTests.randomImage()));
+        return new ImageRescorer.ImageRescoreContext(new ImageQuery(feature, GlobalFeatureEnum.CEDD, boost), queryWeight, rescoreQueryWeight, scoreMode);
+    }
+}
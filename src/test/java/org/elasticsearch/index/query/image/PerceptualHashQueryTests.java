@@ -0,0 +1,111 @@
+package org.elasticsearch.index.query.image;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LogDocMergePolicy;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.elasticsearch.index.mapper.image.PerceptualHash;
+import org.elasticsearch.test.ESTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+public class PerceptualHashQueryTests extends ESTestCase {
+
+    private static final String FIELD_NAME = "img";
+    private static final PerceptualHash PERCEPTUAL_HASH = PerceptualHash.DHASH;
+
+    private long[] bases;
+    private Long[] hashes;
+    private Directory directory;
+    private DirectoryReader reader;
+
+    @Before
+    public void indexHashes() throws Exception {
+        bases = new long[randomIntBetween(1, 10)];
+        for (int i = 0; i < bases.length; i++) {
+            bases[i] = randomLong();
+        }
+        hashes = new Long[randomIntBetween(1000, 2000)];
+        directory = newDirectory();
+        // keep doc ids in insertion order across segments
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new KeywordAnalyzer()).setMergePolicy(new LogDocMergePolicy()));
+        for (int doc = 0; doc < hashes.length; doc++) {
+            Document document = new Document();
+            // some docs have no image, the others are near one of a few images
+            if (!rarely()) {
+                hashes[doc] = flipBits(bases[randomInt(bases.length - 1)], randomInt(24));
+                document.add(new NumericDocValuesField(PERCEPTUAL_HASH.hashFieldName(FIELD_NAME), hashes[doc]));
+                for (int i = 0; i < PerceptualHash.CHUNKS; i++) {
+                    document.add(new StringField(PERCEPTUAL_HASH.chunkFieldName(FIELD_NAME),
+                            PerceptualHash.chunkTerm(i, PerceptualHash.chunk(hashes[doc], i)), Field.Store.NO));
+                }
+            }
+            writer.addDocument(document);
+            if (rarely()) {
+                writer.commit();
+            }
+        }
+        writer.close();
+        reader = DirectoryReader.open(directory);
+    }
+
+    @After
+    public void closeReader() throws Exception {
+        reader.close();
+        directory.close();
+    }
+
+    @Test
+    public void test_matches_full_scan() throws Exception {
+        IndexSearcher searcher = newSearcher(reader);
+        for (int maxDistance = 0; maxDistance <= 20; maxDistance++) {
+            long hash = flipBits(bases[randomInt(bases.length - 1)], randomInt(8));
+            Map<Integer, Integer> expected = new HashMap<>();
+            for (int doc = 0; doc < hashes.length; doc++) {
+                if (hashes[doc] != null && Long.bitCount(hashes[doc] ^ hash) <= maxDistance) {
+                    expected.put(doc, Long.bitCount(hashes[doc] ^ hash));
+                }
+            }
+            TopDocs topDocs = searcher.search(new PerceptualHashQuery(FIELD_NAME, PERCEPTUAL_HASH, hash, maxDistance, 2f), hashes.length);
+            assertThat("hamming_distance " + maxDistance, topDocs.totalHits, equalTo(expected.size()));
+            for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                Integer distance = expected.get(scoreDoc.doc);
+                assertThat("hamming_distance " + maxDistance, distance, notNullValue());
+                assertThat(scoreDoc.score, equalTo(ImageQuery.distanceToScore(distance) * 2f));
+            }
+        }
+    }
+
+    @Test
+    public void test_chunk_lookup_cut_over() {
+        int maxChunkLookup = (PerceptualHashQuery.MAX_CHUNK_DISTANCE + 1) * PerceptualHash.CHUNKS - 1;
+        assertThat(new PerceptualHashQuery(FIELD_NAME, PERCEPTUAL_HASH, randomLong(), 0, 1f).chunkQuery(), notNullValue());
+        assertThat(new PerceptualHashQuery(FIELD_NAME, PERCEPTUAL_HASH, randomLong(), maxChunkLookup, 1f).chunkQuery(), notNullValue());
+        assertThat(new PerceptualHashQuery(FIELD_NAME, PERCEPTUAL_HASH, randomLong(), maxChunkLookup + 1, 1f).chunkQuery(), nullValue());
+        assertThat(new PerceptualHashQuery(FIELD_NAME, PERCEPTUAL_HASH, randomLong(), 64, 1f).chunkQuery(), nullValue());
+    }
+
+    private static long flipBits(long hash, int flips) {
+        for (int i = 0; i < flips; i++) {
+            hash ^= 1L << randomInt(63);
+        }
+        return hash;
+    }
+}
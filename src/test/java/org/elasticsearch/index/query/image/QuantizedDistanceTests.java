@@ -0,0 +1,128 @@
+package org.elasticsearch.index.query.image;
+
+import net.semanticmetadata.lire.imageanalysis.features.LireFeature;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.index.mapper.image.ScalarQuantizer;
+import org.elasticsearch.test.ESTestCase;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class QuantizedDistanceTests extends ESTestCase {
+
+    @Test
+    public void test_kernel_per_feature() throws Exception {
+        for (GlobalFeatureEnum globalFeatureEnum : new GlobalFeatureEnum[]{GlobalFeatureEnum.CEDD, GlobalFeatureEnum.FCTH, GlobalFeatureEnum.JCD}) {
+            assertThat(QuantizedDistance.create(feature(globalFeatureEnum), globalFeatureEnum), instanceOf(QuantizedDistance.Tanimoto.class));
+        }
+        for (GlobalFeatureEnum globalFeatureEnum : new GlobalFeatureEnum[]{GlobalFeatureEnum.AUTO_COLOR_CORRELOGRAM, GlobalFeatureEnum.PHOG}) {
+            assertThat(QuantizedDistance.create(feature(globalFeatureEnum), globalFeatureEnum), instanceOf(QuantizedDistance.L1.class));
+        }
+    }
+
+    @Test
+    public void test_l1_error_is_bounded_by_step() throws Exception {
+        GlobalFeatureEnum globalFeatureEnum = GlobalFeatureEnum.AUTO_COLOR_CORRELOGRAM;
+        LireFeature queryFeature = feature(globalFeatureEnum);
+        QuantizedDistance distance = QuantizedDistance.create(queryFeature, globalFeatureEnum);
+        double[] query = queryFeature.getFeatureVector();
+        for (int i = 0; i < 50; i++) {
+            double[] vector = feature(globalFeatureEnum).getFeatureVector();
+            byte[] code = ScalarQuantizer.encode(vector);
+            double exact = 0;
+            for (int dim = 0; dim < vector.length; dim++) {
+                exact += Math.abs(query[dim] - vector[dim]);
+            }
+            double maxError = vector.length * (ScalarQuantizer.step(code, 0) / 2.0) + 1e-6 * exact;
+            assertThat(distance.distance(atRandomOffset(code)), closeTo(exact, maxError));
+        }
+    }
+
+    @Test
+    public void test_own_code_is_closest() throws Exception {
+        for (GlobalFeatureEnum globalFeatureEnum : new GlobalFeatureEnum[]{GlobalFeatureEnum.CEDD, GlobalFeatureEnum.AUTO_COLOR_CORRELOGRAM}) {
+            LireFeature queryFeature = feature(globalFeatureEnum);
+            QuantizedDistance distance = QuantizedDistance.create(queryFeature, globalFeatureEnum);
+            double own = distance.distance(atRandomOffset(ScalarQuantizer.encode(queryFeature.getFeatureVector())));
+            for (int i = 0; i < 50; i++) {
+                double other = distance.distance(atRandomOffset(ScalarQuantizer.encode(feature(globalFeatureEnum).getFeatureVector())));
+                assertThat(globalFeatureEnum.name(), own, lessThanOrEqualTo(other));
+            }
+        }
+    }
+
+    @Test
+    public void test_empty_histograms() throws Exception {
+        LireFeature queryFeature = feature(GlobalFeatureEnum.CEDD);
+        BytesRef empty = atRandomOffset(ScalarQuantizer.encode(new double[144]));
+        assertThat(QuantizedDistance.create(queryFeature, GlobalFeatureEnum.CEDD).distance(empty), equalTo(100.0));
+    }
+
+    @Test
+    public void test_candidates_contain_nearest_neighbors() throws Exception {
+        for (GlobalFeatureEnum globalFeatureEnum : new GlobalFeatureEnum[]{GlobalFeatureEnum.CEDD, GlobalFeatureEnum.AUTO_COLOR_CORRELOGRAM}) {
+            int numDocs = 300;
+            LireFeature[] docs = new LireFeature[numDocs];
+            byte[][] codes = new byte[numDocs][];
+            for (int doc = 0; doc < numDocs; doc++) {
+                docs[doc] = feature(globalFeatureEnum);
+                codes[doc] = ScalarQuantizer.encode(docs[doc].getFeatureVector());
+            }
+            int k = 10;
+            int candidates = 3 * k;
+            int queries = 10;
+            int found = 0;
+            for (int i = 0; i < queries; i++) {
+                LireFeature queryFeature = feature(globalFeatureEnum);
+                QuantizedDistance quantizedDistance = QuantizedDistance.create(queryFeature, globalFeatureEnum);
+                double[] exact = new double[numDocs];
+                double[] quantized = new double[numDocs];
+                for (int doc = 0; doc < numDocs; doc++) {
+                    exact[doc] = queryFeature.getDistance(docs[doc]);
+                    quantized[doc] = quantizedDistance.distance(new BytesRef(codes[doc]));
+                }
+                Integer[] byQuantized = rank(quantized);
+                double lastCandidate = quantized[byQuantized[candidates - 1]];
+                for (int doc : Arrays.copyOf(rank(exact), k)) {
+                    if (quantized[doc] <= lastCandidate) {
+                        found++;
+                    }
+                }
+            }
+            assertThat(globalFeatureEnum.name(), (double) found / (k * queries), greaterThanOrEqualTo(0.9));
+        }
+    }
+
+    private static Integer[] rank(final double[] distances) {
+        Integer[] docs = new Integer[distances.length];
+        for (int i = 0; i < docs.length; i++) {
+            docs[i] = i;
+        }
+        Arrays.sort(docs, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(distances[a], distances[b]);
+            }
+        });
+        return docs;
+    }
+
+    private static LireFeature feature(GlobalFeatureEnum globalFeatureEnum) throws Exception {
+        return FeatureDistanceTests.deserialize(globalFeatureEnum, FeatureDistanceTests.extract(globalFeatureEnum, FeatureDistanceTests.randomImage()));
+    }
+
+    private static BytesRef atRandomOffset(byte[] bytes) {
+        int offset = randomIntBetween(1, 16);
+        byte[] padded = new byte[offset + bytes.length + randomIntBetween(0, 16)];
+        System.arraycopy(bytes, 0, padded, offset, bytes.length);
+        return new BytesRef(padded, offset, bytes.length);
+    }
+}
@@ -0,0 +1,79 @@
+package org.elasticsearch.plugin.image;
+
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.test.ESTestCase;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+public class ImageMetricsTests extends ESTestCase {
+
+    @Test
+    public void test_decode_counters() {
+        ImageMetrics metrics = new ImageMetrics();
+        metrics.index("test").onDecode(100, TimeUnit.MILLISECONDS.toNanos(5));
+        metrics.index("test").onThumbnailDecode(300, TimeUnit.MILLISECONDS.toNanos(1));
+        ImageStats.IndexStats stats = metrics.stats().getIndices().get("test");
+        // a thumbnail decode is also a decode of the encoded image
+        assertThat(stats.getDecode().getCount(), equalTo(2L));
+        assertThat(stats.getDecode().getTime().millis(), equalTo(6L));
+        assertThat(stats.getDecodedBytes(), equalTo(400L));
+        assertThat(stats.getThumbnails(), equalTo(1L));
+        // no feature was used
+        assertTrue(stats.getFeatures().isEmpty());
+    }
+
+    @Test
+    public void test_feature_counters() {
+        ImageMetrics.FeatureMetrics cedd = new ImageMetrics().index("test").feature(GlobalFeatureEnum.CEDD);
+        cedd.onExtract(TimeUnit.MILLISECONDS.toNanos(2));
+        cedd.onPrecomputed();
+        cedd.onQuery(-1);
+        cedd.onQuery(40);
+        cedd.onScored(40, 3);
+        cedd.onScored(1, 0);
+        ImageStats.FeatureStats stats = cedd.stats();
+        assertThat(stats.getExtract().getCount(), equalTo(1L));
+        assertThat(stats.getPrecomputed(), equalTo(1L));
+        assertThat(stats.getQueries(), equalTo(2L));
+        // a query scoring all docs has no candidates
+        assertThat(stats.getCandidates(), equalTo(40L));
+        assertThat(stats.getScoredDocs(), equalTo(41L));
+        assertThat(stats.getStoredFieldLoads(), equalTo(3L));
+    }
+
+    @Test
+    public void test_only_used_features_and_live_indices_are_reported() {
+        ImageMetrics metrics = new ImageMetrics();
+        metrics.index("test").feature(GlobalFeatureEnum.FCTH).onQuery(-1);
+        metrics.index("test").feature(GlobalFeatureEnum.JCD).onScored(0, 0);
+        metrics.index("other").onDecode(1, 1);
+        assertThat(metrics.stats().getIndices().get("test").getFeatures().keySet(), equalTo(Collections.singleton(GlobalFeatureEnum.FCTH)));
+        metrics.remove("other");
+        assertThat(metrics.stats().getIndices().get("other"), nullValue());
+        assertThat(metrics.stats().getIndices().size(), equalTo(1));
+    }
+
+    @Test
+    public void test_timer_histogram() throws Exception {
+        ImageMetrics.Timer timer = new ImageMetrics.Timer();
+        timer.record(TimeUnit.MICROSECONDS.toNanos(500));
+        timer.record(TimeUnit.MILLISECONDS.toNanos(1));
+        timer.record(TimeUnit.MILLISECONDS.toNanos(50));
+        timer.record(TimeUnit.SECONDS.toNanos(2));
+        assertThat(timer.count(), equalTo(4L));
+        XContentBuilder builder = jsonBuilder().startObject();
+        timer.stats().toXContent(builder, ToXContent.EMPTY_PARAMS);
+        // bucket bounds are exclusive
+        assertThat(builder.endObject().string(),
+                containsString("\"histogram\":{\"lt_1ms\":1,\"lt_10ms\":1,\"lt_100ms\":1,\"lt_1s\":0,\"gte_1s\":1}"));
+    }
+}
@@ -1,16 +1,32 @@
 package org.elasticsearch.plugin.image.test;
 
 import net.semanticmetadata.lire.builders.GlobalDocumentBuilder;
+import net.semanticmetadata.lire.imageanalysis.features.global.CEDD;
 import org.apache.sanselan.ImageFormat;
 import org.apache.sanselan.ImageWriteException;
 import org.apache.sanselan.Sanselan;
+import org.elasticsearch.action.image.ImageHashTrainAction;
+import org.elasticsearch.action.image.ImageHashTrainRequest;
+import org.elasticsearch.action.image.ImageHashTrainResponse;
+import org.elasticsearch.action.image.ImageStatsAction;
+import org.elasticsearch.action.image.ImageStatsRequest;
+import org.elasticsearch.action.image.ImageStatsResponse;
+import org.elasticsearch.action.image.NodeImageStats;
 import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchPhaseExecutionException;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
 import com.google.common.collect.Maps;
+import org.elasticsearch.client.Client;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.mapper.MapperParsingException;
 import org.elasticsearch.index.mapper.image.GlobalFeatureEnum;
+import org.elasticsearch.index.mapper.image.HashParameters;
 import org.elasticsearch.index.query.image.ImageQueryBuilder;
 import org.elasticsearch.plugin.image.ImagePlugin;
+import org.elasticsearch.plugin.image.ImageStats;
 import org.elasticsearch.plugins.Plugin;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHitField;
@@ -29,6 +45,8 @@ import java.util.Map;
 import static org.elasticsearch.client.Requests.putMappingRequest;
 import static org.elasticsearch.common.io.Streams.copyToString;
 import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.elasticsearch.index.query.QueryBuilders.matchAllQuery;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
 import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertNoFailures;
 import static org.hamcrest.Matchers.*;
 
@@ -103,6 +121,247 @@ public class ImageIntegrationTests extends ESIntegTestCase {
         SearchHits hits = searchResponse.getHits();
     }
 
+    @Test
+    public void test_lookup_image_reads_doc_values() throws Exception {
+        // the image is neither in _source nor in stored fields, only the doc values of its feature are left
+        client().admin().indices().putMapping(putMappingRequest(INDEX_NAME).type(DOC_TYPE_NAME).source(jsonBuilder().startObject()
+                .startObject(DOC_TYPE_NAME)
+                    .startObject("_source").array("excludes", "img").endObject()
+                    .startObject("properties")
+                        .startObject("img").field("type", "image").array("feature", "CEDD").field("store_feature", false).endObject()
+                        .startObject("name").field("type", "string").field("index", "not_analyzed").endObject()
+                    .endObject()
+                .endObject().endObject())).actionGet();
+
+        int totalImages = randomIntBetween(5, 20);
+        byte[][] images = new byte[totalImages][];
+        for (int i = 0; i < totalImages; i++) {
+            images[i] = getRandomImage();
+            index(INDEX_NAME, DOC_TYPE_NAME, Integer.toString(i), jsonBuilder().startObject().field("img", images[i]).field("name", "image" + i).endObject());
+        }
+        index(INDEX_NAME, DOC_TYPE_NAME, "no_image", jsonBuilder().startObject().field("name", "no_image").endObject());
+        refresh();
+
+        int lookup = randomInt(totalImages - 1);
+        SearchResponse lookupResponse = client().prepareSearch(INDEX_NAME).setTypes(DOC_TYPE_NAME).setSize(totalImages)
+                .setQuery(new ImageQueryBuilder("img").feature(GlobalFeatureEnum.CEDD.name()).hash("None")
+                        .lookupIndex(INDEX_NAME).lookupType(DOC_TYPE_NAME).lookupId(Integer.toString(lookup)))
+                .get();
+        assertNoFailures(lookupResponse);
+        SearchResponse imageResponse = client().prepareSearch(INDEX_NAME).setTypes(DOC_TYPE_NAME).setSize(totalImages)
+                .setQuery(new ImageQueryBuilder("img").feature(GlobalFeatureEnum.CEDD.name()).hash("None").image(images[lookup]))
+                .get();
+        assertNoFailures(imageResponse);
+        // noise images can have the same features, the looked up image is among the best hits
+        assertThat(scores(lookupResponse.getHits()).get(Integer.toString(lookup)), equalTo(lookupResponse.getHits().getMaxScore()));
+        assertThat(scores(lookupResponse.getHits()), equalTo(scores(imageResponse.getHits())));
+
+        // the type can be left out
+        SearchResponse anyTypeResponse = client().prepareSearch(INDEX_NAME).setTypes(DOC_TYPE_NAME).setSize(totalImages)
+                .setQuery(new ImageQueryBuilder("img").feature(GlobalFeatureEnum.CEDD.name()).hash("None").lookupId(Integer.toString(lookup)))
+                .get();
+        assertNoFailures(anyTypeResponse);
+        assertThat(scores(anyTypeResponse.getHits()), equalTo(scores(imageResponse.getHits())));
+
+        for (String id : new String[]{"missing", "no_image"}) {
+            try {
+                client().prepareSearch(INDEX_NAME).setTypes(DOC_TYPE_NAME)
+                        .setQuery(new ImageQueryBuilder("img").feature(GlobalFeatureEnum.CEDD.name()).hash("None").lookupId(id)).get();
+                fail("lookup of [" + id + "] should fail");
+            } catch (SearchPhaseExecutionException e) {
+                assertThat(e.shardFailures()[0].reason(), containsString(id.equals("missing") ? "does not exist" : "has no indexed [CEDD] feature"));
+            }
+        }
+    }
+
+    @Test
+    public void test_reject_several_images_with_doc_values() throws Exception {
+        client().admin().indices().putMapping(putMappingRequest(INDEX_NAME).type(DOC_TYPE_NAME).source(jsonBuilder().startObject()
+                .startObject(DOC_TYPE_NAME).startObject("properties")
+                    .startObject("img").field("type", "image").array("feature", "CEDD").endObject()
+                .endObject().endObject().endObject())).actionGet();
+
+        index(INDEX_NAME, DOC_TYPE_NAME, "1", jsonBuilder().startObject().field("img", getRandomImage()).endObject());
+        try {
+            index(INDEX_NAME, DOC_TYPE_NAME, "2",
+                    jsonBuilder().startObject().startArray("img").value(getRandomImage()).value(getRandomImage()).endArray().endObject());
+            fail("several images of a feature should be rejected");
+        } catch (MapperParsingException e) {
+            assertThat(e.getDetailedMessage(), containsString("Can not index several images with feature"));
+        }
+    }
+
+    @Test
+    public void test_image_rescore() throws Exception {
+        client().admin().indices().putMapping(putMappingRequest(INDEX_NAME).type(DOC_TYPE_NAME).source(jsonBuilder().startObject()
+                .startObject(DOC_TYPE_NAME).startObject("properties")
+                    .startObject("img").field("type", "image").array("feature", "CEDD").endObject()
+                .endObject().endObject().endObject())).actionGet();
+
+        int totalImages = randomIntBetween(5, 20);
+        byte[][] images = new byte[totalImages][];
+        for (int i = 0; i < totalImages; i++) {
+            images[i] = getRandomImage();
+            index(INDEX_NAME, DOC_TYPE_NAME, Integer.toString(i), jsonBuilder().startObject().field("img", images[i]).endObject());
+        }
+        refresh();
+
+        ImageQueryBuilder imageQuery = new ImageQueryBuilder("img").feature(GlobalFeatureEnum.CEDD.name()).hash("None").image(images[randomInt(totalImages - 1)]);
+        SearchResponse imageResponse = client().prepareSearch(INDEX_NAME).setSize(totalImages).setQuery(imageQuery).get();
+        assertNoFailures(imageResponse);
+        Map<String, Float> imageScores = scores(imageResponse.getHits());
+
+        // every doc of a shard is in the window, a match_all doc scores 1 in the first pass
+        float queryWeight = 0.5f + randomInt(3);
+        float rescoreQueryWeight = 0.5f + randomInt(3);
+        XContentBuilder rescore = jsonBuilder().startObject().startArray("image_rescore").startObject()
+                .field("window_size", totalImages);
+        rescore.field("rescore_query");
+        imageQuery.toXContent(rescore, ToXContent.EMPTY_PARAMS);
+        rescore.field("query_weight", queryWeight).field("rescore_query_weight", rescoreQueryWeight).field("score_mode", "total")
+                .endObject().endArray().endObject();
+        SearchResponse rescoreResponse = client().prepareSearch(INDEX_NAME).setSize(totalImages).setQuery(matchAllQuery())
+                .setExtraSource(rescore).get();
+        assertNoFailures(rescoreResponse);
+        assertThat(rescoreResponse.getHits().getHits().length, equalTo(totalImages));
+        float previous = Float.MAX_VALUE;
+        for (SearchHit hit : rescoreResponse.getHits()) {
+            assertThat(hit.getScore(), equalTo(queryWeight + imageScores.get(hit.getId()) * rescoreQueryWeight));
+            assertThat(hit.getScore(), lessThanOrEqualTo(previous));
+            previous = hit.getScore();
+        }
+
+        try {
+            client().prepareSearch(INDEX_NAME).setQuery(matchAllQuery())
+                    .setExtraSource(jsonBuilder().startObject().startObject("image_rescore")
+                            .startObject("rescore_query").startObject("match_all").endObject().endObject()
+                            .endObject().endObject()).get();
+            fail("a rescore query that is not an image query should be rejected");
+        } catch (SearchPhaseExecutionException e) {
+            assertThat(e.toString(), containsString("requires an [image] rescore_query"));
+        }
+    }
+
+    @Test
+    public void test_metrics() throws Exception {
+        client().admin().indices().putMapping(putMappingRequest(INDEX_NAME).type(DOC_TYPE_NAME).source(jsonBuilder().startObject()
+                .startObject(DOC_TYPE_NAME).startObject("properties")
+                    .startObject("img").field("type", "image").array("feature", "CEDD").endObject()
+                .endObject().endObject().endObject())).actionGet();
+
+        int totalImages = randomIntBetween(2, 10);
+        long decodedBytes = 0;
+        for (int i = 0; i < totalImages; i++) {
+            byte[] image = getRandomImage();
+            decodedBytes += image.length;
+            index(INDEX_NAME, DOC_TYPE_NAME, Integer.toString(i), jsonBuilder().startObject().field("img", image).endObject());
+        }
+        CEDD cedd = new CEDD();
+        cedd.extract(new BufferedImage(32, 32, BufferedImage.TYPE_INT_RGB));
+        index(INDEX_NAME, DOC_TYPE_NAME, "precomputed", jsonBuilder().startObject()
+                .startObject("img").field("CEDD", cedd.getByteArrayRepresentation()).endObject().endObject());
+        refresh();
+
+        // the dfs phase creates a weight too, which would count each shard twice
+        SearchResponse searchResponse = client().prepareSearch(INDEX_NAME).setSearchType(SearchType.QUERY_THEN_FETCH)
+                .setQuery(new ImageQueryBuilder("img").feature(GlobalFeatureEnum.CEDD.name()).hash("None").image(getRandomImage())).get();
+        assertNoFailures(searchResponse);
+
+        ImageStatsResponse statsResponse = nodeClient().execute(ImageStatsAction.INSTANCE, new ImageStatsRequest()).actionGet();
+        long decodes = 0;
+        long bytes = 0;
+        long extracts = 0;
+        long precomputed = 0;
+        long queries = 0;
+        long scoredDocs = 0;
+        for (NodeImageStats node : statsResponse.getNodes()) {
+            ImageStats.IndexStats indexStats = node.getStats().getIndices().get(INDEX_NAME);
+            if (indexStats == null) {
+                continue;
+            }
+            decodes += indexStats.getDecode().getCount();
+            bytes += indexStats.getDecodedBytes();
+            ImageStats.FeatureStats featureStats = indexStats.getFeatures().get(GlobalFeatureEnum.CEDD);
+            extracts += featureStats.getExtract().getCount();
+            precomputed += featureStats.getPrecomputed();
+            queries += featureStats.getQueries();
+            scoredDocs += featureStats.getScoredDocs();
+        }
+        // precomputed features are neither decoded nor extracted, the query image is extracted outside of the index metrics
+        assertThat(decodes, equalTo((long) totalImages));
+        assertThat(bytes, equalTo(decodedBytes));
+        assertThat(extracts, equalTo((long) totalImages));
+        assertThat(precomputed, equalTo(1L));
+        // one query per searched shard, each doc is scored once
+        assertThat(queries, equalTo((long) searchResponse.getSuccessfulShards()));
+        assertThat(scoredDocs, equalTo(totalImages + 1L));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test_trained_hash_parameters() throws Exception {
+        client().admin().indices().putMapping(putMappingRequest(INDEX_NAME).type(DOC_TYPE_NAME).source(jsonBuilder().startObject()
+                .startObject(DOC_TYPE_NAME).startObject("properties")
+                    .startObject("img").field("type", "image").array("feature", "CEDD").field("hash", "LSH").endObject()
+                .endObject().endObject().endObject())).actionGet();
+        int totalImages = randomIntBetween(10, 30);
+        byte[][] images = new byte[totalImages][];
+        for (int i = 0; i < totalImages; i++) {
+            images[i] = getRandomImage();
+            index(INDEX_NAME, DOC_TYPE_NAME, Integer.toString(i), jsonBuilder().startObject().field("img", images[i]).endObject());
+        }
+        refresh();
+
+        ImageHashTrainResponse trainResponse = nodeClient().execute(ImageHashTrainAction.INSTANCE, new ImageHashTrainRequest(INDEX_NAME)
+                .feature(GlobalFeatureEnum.CEDD).hashingMode(GlobalDocumentBuilder.HashingMode.LSH).seed(randomLong())).actionGet();
+        assertThat(trainResponse.getSampled(), equalTo(totalImages));
+        Map<String, Object> hashParameters = trainResponse.getHashParameters();
+
+        // a new index hashes its docs with the trained functions
+        String trainedIndex = INDEX_NAME + "_trained";
+        assertAcked(prepareCreate(trainedIndex).addMapping(DOC_TYPE_NAME, jsonBuilder().startObject()
+                .startObject(DOC_TYPE_NAME).startObject("properties")
+                    .startObject("img").field("type", "image").field("hash", "LSH").startObject("feature")
+                        .startObject("CEDD").field(HashParameters.HASH_PARAMETERS, hashParameters).endObject()
+                    .endObject().endObject()
+                .endObject().endObject().endObject()));
+        ensureGreen(trainedIndex);
+
+        // the mapping keeps the seed and what was learned, not the projections
+        Map<String, Object> mapping = client().admin().indices().prepareGetMappings(trainedIndex).get().mappings()
+                .get(trainedIndex).get(DOC_TYPE_NAME).sourceAsMap();
+        Map<String, Object> img = (Map<String, Object>) ((Map<String, Object>) mapping.get("properties")).get("img");
+        Map<String, Object> cedd = (Map<String, Object>) ((Map<String, Object>) img.get("feature")).get("CEDD");
+        assertThat(cedd.get(HashParameters.HASH_PARAMETERS), equalTo((Object) hashParameters));
+
+        for (int i = 0; i < totalImages; i++) {
+            index(trainedIndex, DOC_TYPE_NAME, Integer.toString(i), jsonBuilder().startObject().field("img", images[i]).endObject());
+        }
+        refresh();
+        int query = randomInt(totalImages - 1);
+        SearchResponse searchResponse = client().prepareSearch(trainedIndex).setTypes(DOC_TYPE_NAME).setSize(totalImages)
+                .setQuery(new ImageQueryBuilder("img").feature(GlobalFeatureEnum.CEDD.name()).hash("LSH").image(images[query])).get();
+        assertNoFailures(searchResponse);
+        // query and doc hash to the same terms, so the doc is a candidate
+        Map<String, Float> scores = scores(searchResponse.getHits());
+        assertThat(scores.get(Integer.toString(query)), equalTo(searchResponse.getHits().getMaxScore()));
+    }
+
+    /**
+     * The plugin actions are only registered on nodes, not on transport clients
+     */
+    private static Client nodeClient() {
+        return internalCluster().getInstance(Client.class);
+    }
+
+    private static Map<String, Float> scores(SearchHits hits) {
+        Map<String, Float> scores = Maps.newHashMap();
+        for (SearchHit hit : hits) {
+            scores.put(hit.getId(), hit.getScore());
+        }
+        return scores;
+    }
+
     private void assertImageScore(SearchHits hits, String name, float score) {
         for (SearchHit hit : hits) {
             if ((hit.getSource() != null && hit.getSource().get("name").equals(name))